@@ -0,0 +1,55 @@
+package com.compomics.mztabparser.benchmark;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * File helpers for the benchmarks.
+ *
+ * @author niels
+ */
+final class BenchmarkFiles {
+
+    /**
+     * Private constructor, only static methods.
+     */
+    private BenchmarkFiles() {
+    }
+
+    /**
+     * Create a fresh output directory for a benchmark trial.
+     *
+     * @return the output directory
+     * @throws IOException in case of a directory creation problem
+     */
+    static Path createOutputDirectory() throws IOException {
+        return Files.createTempDirectory("mzparser-benchmark-output");
+    }
+
+    /**
+     * Delete the given directory and its contents.
+     *
+     * @param directory the directory
+     * @throws IOException in case of a delete problem
+     */
+    static void delete(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
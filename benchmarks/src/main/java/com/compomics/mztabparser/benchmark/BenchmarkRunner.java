@@ -0,0 +1,35 @@
+package com.compomics.mztabparser.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler (allocation rate and GC counts) and
+ * writes a JSON report. All standard JMH command line options are accepted,
+ * e.g. "MgfExtraction -p spectra=10000" to run a single suite and size.
+ *
+ * @author niels
+ */
+public class BenchmarkRunner {
+
+    /**
+     * Main executable.
+     *
+     * @param args the JMH command line arguments
+     * @throws Exception in case of a benchmark problem
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("mzparser-benchmarks.json")
+                .build();
+        new Runner(options).run();
+    }
+
+}
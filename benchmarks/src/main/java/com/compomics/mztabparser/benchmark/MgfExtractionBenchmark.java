@@ -0,0 +1,69 @@
+package com.compomics.mztabparser.benchmark;
+
+import com.compomics.mztabparser.MgfParser;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MGF to .moff2start extraction.
+ *
+ * @author niels
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MgfExtractionBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int spectra;
+
+    /**
+     * native: header scanner, parallel: chunked header scanner on all cores,
+     * jmzreader: the jmzreader MgfFile.
+     */
+    @Param({"native", "parallel", "jmzreader"})
+    public String parser;
+
+    private MgfParser mgfParser;
+    private Path mgfFile;
+    private Path outputDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mgfFile = SyntheticData.mgf(spectra);
+        outputDirectory = BenchmarkFiles.createOutputDirectory();
+        mgfParser = new MgfParser();
+        mgfParser.setUseJmzReader(parser.equals("jmzreader"));
+        if (parser.equals("parallel")) {
+            mgfParser.setMgfThreads(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.delete(outputDirectory);
+    }
+
+    @Benchmark
+    public void extract(RecordCounters counters) throws Exception {
+        mgfParser.parseMgfFile(mgfFile, mgfParser.getOutputFile(mgfFile, outputDirectory));
+        counters.records += spectra;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.compomics.mztabparser.benchmark;
+
+import com.compomics.mztabparser.MzTabMerger;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merging of the moff results into the mzTab file.
+ *
+ * @author niels
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class MoffMergeBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int psms;
+
+    @Param({"MODEL", "STREAMING"})
+    public MzTabMerger.MergeMode mergeMode;
+
+    private MzTabMerger mzTabMerger;
+    private Path mzTabFile;
+    private Path moffResultFile;
+    private Path outputDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mzTabFile = SyntheticData.mzTab(psms);
+        moffResultFile = SyntheticData.moffResults(psms);
+        outputDirectory = BenchmarkFiles.createOutputDirectory();
+        mzTabMerger = new MzTabMerger();
+        mzTabMerger.setMergeMode(mergeMode);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.delete(outputDirectory);
+    }
+
+    @Benchmark
+    public void merge(RecordCounters counters) throws Exception {
+        mzTabMerger.merge(mzTabFile, moffResultFile, mzTabMerger.getOutputFile(moffResultFile, outputDirectory));
+        counters.records += psms;
+    }
+
+}
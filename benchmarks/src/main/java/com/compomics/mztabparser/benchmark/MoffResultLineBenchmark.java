@@ -0,0 +1,72 @@
+package com.compomics.mztabparser.benchmark;
+
+import com.compomics.mztabparser.io.MoffResultReader;
+import com.compomics.mztabparser.model.MoffResultLine;
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per line parsing cost of the moff result lines, in memory so the disk
+ * doesn't take part. The score is the time per line.
+ *
+ * @author niels
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MoffResultLineBenchmark {
+
+    private static final int LINES = 10000;
+
+    private String[] lines;
+    private byte[] fileBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path moffResultFile = SyntheticData.moffResults(LINES);
+        List<String> allLines = Files.readAllLines(moffResultFile);
+        lines = allLines.subList(1, allLines.size()).toArray(new String[0]);
+        fileBytes = Files.readAllBytes(moffResultFile);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES * 9 / 10)
+    public void moffResultLine(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(new MoffResultLine(line));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES * 9 / 10)
+    public void moffResultReader(Blackhole blackhole) throws Exception {
+        try (MoffResultReader reader = new MoffResultReader(Channels.newChannel(new ByteArrayInputStream(fileBytes)))) {
+            while (reader.next()) {
+                blackhole.consume(reader.getSpectrumIndex());
+                blackhole.consume(reader.getIntensity());
+                blackhole.consume(reader.getLogInt());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.compomics.mztabparser.benchmark;
+
+import com.compomics.mztabparser.MzTabParser;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * mzTab PSM export.
+ *
+ * @author niels
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class MzTabExportBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int psms;
+
+    private MzTabParser mzTabParser;
+    private Path mzTabFile;
+    private Path outputDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mzTabFile = SyntheticData.mzTab(psms);
+        outputDirectory = BenchmarkFiles.createOutputDirectory();
+        mzTabParser = new MzTabParser();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.delete(outputDirectory);
+    }
+
+    @Benchmark
+    public void export(RecordCounters counters) throws Exception {
+        mzTabParser.parseMzTabFile(mzTabFile, mzTabParser.getOutputFile(mzTabFile, outputDirectory));
+        counters.records += psms;
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.compomics.mztabparser.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the processed records (spectra, PSMs or moff result lines) next to
+ * the benchmark operations. The counter is an operations counter, so JMH
+ * normalizes it like the primary result: in throughput mode it's reported as
+ * records per time unit, in average time mode as the time per record.
+ *
+ * @author niels
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class RecordCounters {
+
+    public long records;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        records = 0;
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.compomics.mztabparser.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Deterministic generators for synthetic MGF, mzTab 1.0 and moff result files.
+ * The same size always gives the same file, so the generated files are cached
+ * in a directory under java.io.tmpdir (override with the
+ * mzparser.benchmark.data system property) and shared by all benchmark forks.
+ *
+ * The three file types describe the same run: spectrum i in the MGF file is
+ * referenced by PSM i in the mzTab file as ms_run[1]:index=i, and 9 out of 10
+ * spectra have a moff result line.
+ *
+ * @author niels
+ */
+public final class SyntheticData {
+
+    /**
+     * The base name of the generated files, the file names follow the
+     * conventions of the parsers.
+     */
+    public static final String BASE_NAME = "synthetic";
+    private static final long SEED = 42L;
+    private static final int PEAKS_PER_SPECTRUM = 10;
+    private static final String[] AMINO_ACIDS = {"A", "C", "D", "E", "F", "G", "H", "I", "K", "L", "M", "N", "P", "Q", "R", "S", "T", "V", "W", "Y"};
+    private static final int NUMBER_OF_PROTEINS = 5000;
+
+    /**
+     * Private constructor, only static methods.
+     */
+    private SyntheticData() {
+    }
+
+    /**
+     * Get the cache directory for the given size, with a submitted child
+     * directory for the MGF and mzTab files like the parsers expect.
+     *
+     * @param size the number of spectra
+     * @return the input directory
+     * @throws IOException in case of a directory creation problem
+     */
+    public static Path getInputDirectory(int size) throws IOException {
+        String dataDirectory = System.getProperty("mzparser.benchmark.data", Paths.get(System.getProperty("java.io.tmpdir"), "mzparser-benchmark-data").toString());
+        Path inputDirectory = Paths.get(dataDirectory, Integer.toString(size));
+        Files.createDirectories(inputDirectory.resolve("submitted"));
+        return inputDirectory;
+    }
+
+    /**
+     * Get the synthetic MGF file with the given number of spectra.
+     *
+     * @param size the number of spectra
+     * @return the MGF file
+     * @throws IOException in case of a write problem
+     */
+    public static Path mgf(int size) throws IOException {
+        Path mgfFile = getInputDirectory(size).resolve("submitted").resolve(BASE_NAME + ".mgf");
+        if (!Files.exists(mgfFile)) {
+            Random random = new Random(SEED);
+            writeAtomically(mgfFile, writer -> {
+                for (int i = 0; i < size; i++) {
+                    writer.write("BEGIN IONS");
+                    writer.newLine();
+                    writer.write("TITLE=synthetic spectrum " + i);
+                    writer.newLine();
+                    writer.write("PEPMASS=" + format(precursorMz(i)) + " " + format(random.nextDouble() * 1e6));
+                    writer.newLine();
+                    writer.write("CHARGE=" + charge(i) + "+");
+                    writer.newLine();
+                    writer.write("RTINSECONDS=" + format(retentionTime(i, size)));
+                    writer.newLine();
+                    writer.write("SCANS=" + (i + 1));
+                    writer.newLine();
+                    for (int j = 0; j < PEAKS_PER_SPECTRUM; j++) {
+                        writer.write(format(100 + random.nextDouble() * 1900) + " " + format(random.nextDouble() * 1e5));
+                        writer.newLine();
+                    }
+                    writer.write("END IONS");
+                    writer.newLine();
+                }
+            });
+        }
+        return mgfFile;
+    }
+
+    /**
+     * Get the synthetic mzTab 1.0 file (MTD and PSM sections) with the given
+     * number of PSMs.
+     *
+     * @param size the number of PSMs
+     * @return the mzTab file
+     * @throws IOException in case of a write problem
+     */
+    public static Path mzTab(int size) throws IOException {
+        Path mzTabFile = getInputDirectory(size).resolve("submitted").resolve(BASE_NAME + ".pride.mztab");
+        if (!Files.exists(mzTabFile)) {
+            Random random = new Random(SEED);
+            writeAtomically(mzTabFile, writer -> {
+                writer.write("MTD\tmzTab-version\t1.0.0\n");
+                writer.write("MTD\tmzTab-mode\tSummary\n");
+                writer.write("MTD\tmzTab-type\tIdentification\n");
+                writer.write("MTD\tdescription\tsynthetic benchmark data\n");
+                writer.write("MTD\tms_run[1]-location\tfile:///synthetic/" + BASE_NAME + ".mgf\n");
+                writer.write("MTD\tpsm_search_engine_score[1]\t[MS, MS:1001171, Mascot:score, ]\n");
+                writer.write("MTD\tfixed_mod[1]\t[MS, MS:1002453, No fixed modifications searched, ]\n");
+                writer.write("MTD\tvariable_mod[1]\t[UNIMOD, UNIMOD:35, Oxidation, ]\n");
+                writer.write("\n");
+                writer.write("PSH\tsequence\tPSM_ID\taccession\tunique\tdatabase\tdatabase_version\tsearch_engine\tsearch_engine_score[1]\tmodifications\tretention_time\tcharge\texp_mass_to_charge\tcalc_mass_to_charge\tspectra_ref\tpre\tpost\tstart\tend\n");
+                StringBuilder sequence = new StringBuilder();
+                for (int i = 0; i < size; i++) {
+                    sequence.setLength(0);
+                    int length = 7 + random.nextInt(14);
+                    for (int j = 0; j < length; j++) {
+                        sequence.append(AMINO_ACIDS[random.nextInt(AMINO_ACIDS.length)]);
+                    }
+                    String modifications = random.nextInt(4) == 0 ? (1 + random.nextInt(length)) + "-UNIMOD:35" : "null";
+                    double mz = precursorMz(i);
+                    writer.write("PSM\t" + sequence + "\t" + i + "\tP" + (10000 + random.nextInt(NUMBER_OF_PROTEINS))
+                            + "\tnull\tnull\tnull\t[MS, MS:1001207, Mascot, ]\t" + format(random.nextDouble() * 100)
+                            + "\t" + modifications + "\t" + format(retentionTime(i, size)) + "\t" + charge(i)
+                            + "\t" + format(mz) + "\t" + format(mz - 0.001) + "\tms_run[1]:index=" + i
+                            + "\tnull\tnull\tnull\tnull\n");
+                }
+            });
+        }
+        return mzTabFile;
+    }
+
+    /**
+     * Get the synthetic moff result file with moff result lines for 9 out of
+     * 10 of the given number of spectra. It's written to the given input
+     * directory itself, where the merger looks for it when that directory is
+     * used as output directory.
+     *
+     * @param size the number of spectra
+     * @return the moff result file
+     * @throws IOException in case of a write problem
+     */
+    public static Path moffResults(int size) throws IOException {
+        Path moffResultFile = getInputDirectory(size).resolve(BASE_NAME + "_moff_result.txt");
+        if (!Files.exists(moffResultFile)) {
+            Random random = new Random(SEED);
+            writeAtomically(moffResultFile, writer -> {
+                writer.write("charge\tspectrum_index\trt\tmz\tintensity\trt_peak\tlwhm\trwhm\t5p_noise\t10p_noise\tSNR\tlog_L_R\tlog_int\n");
+                for (int i = 0; i < size; i++) {
+                    if (i % 10 == 9) {
+                        continue;
+                    }
+                    double intensity = random.nextDouble() * 1e8;
+                    writer.write(charge(i) + "\t" + i + "\t" + format(retentionTime(i, size) / 60) + "\t" + format(precursorMz(i))
+                            + "\t" + intensity + "\t" + random.nextDouble() * 120 + "\t" + random.nextDouble() / 10
+                            + "\t" + random.nextDouble() / 10 + "\t" + random.nextDouble() * 1000 + "\t" + random.nextDouble() * 1000
+                            + "\t" + random.nextDouble() * 100 + "\t" + random.nextGaussian() + "\t" + Math.log10(intensity) + "\n");
+                }
+            });
+        }
+        return moffResultFile;
+    }
+
+    private static double precursorMz(int index) {
+        return 350 + (index * 7919L % 150000) / 100.0;
+    }
+
+    private static int charge(int index) {
+        return 2 + index % 3;
+    }
+
+    private static double retentionTime(int index, int size) {
+        return 7200.0 * index / size;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.4f", value);
+    }
+
+    /**
+     * The generator of a file's contents.
+     */
+    @FunctionalInterface
+    private interface Generator {
+
+        void write(BufferedWriter writer) throws IOException;
+    }
+
+    /**
+     * Generate into a temporary file and move it in place, so concurrent or
+     * interrupted benchmark runs never see a partial file.
+     */
+    private static void writeAtomically(Path file, Generator generator) throws IOException {
+        Path temporaryFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile)) {
+            generator.write(writer);
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
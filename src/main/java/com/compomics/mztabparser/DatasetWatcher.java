@@ -0,0 +1,281 @@
+package com.compomics.mztabparser;
+
+import com.compomics.mztabparser.batch.BatchRunner;
+import com.compomics.mztabparser.batch.DatasetCatalog;
+import com.compomics.mztabparser.batch.FileJob;
+import com.compomics.mztabparser.io.MzTabPsmReader;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Long-running watch mode. The submitted child directory of the input
+ * directory and the output directory are watched; a .moff2start file is
+ * written as soon as a new MGF file is complete, and an mzTab file is merged
+ * like in a batch merge as soon as it and the moff result files of all its
+ * ms_runs, or its moff result file with the same base name, are complete.
+ * A file counts as complete when its size hasn't changed for the stable
+ * period, which also covers files that are moved in place after being
+ * written elsewhere.
+ *
+ * @author niels
+ */
+public class DatasetWatcher {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(DatasetWatcher.class);
+
+    /**
+     * The child directory of the input directory that contains the MGF and
+     * mzTab files.
+     */
+    private static final String CHILD_DIRECTORY = "submitted";
+    /**
+     * The default stable period in milliseconds.
+     */
+    public static final long DEFAULT_STABLE_MILLIS = 5000;
+    private static final long POLL_MILLIS = 500;
+
+    /**
+     * A file that is still being written.
+     */
+    private static class PendingFile {
+
+        private long size;
+        private long lastChange;
+
+        PendingFile(long size, long lastChange) {
+            this.size = size;
+            this.lastChange = lastChange;
+        }
+    }
+
+    private final Path childDirectory;
+    private final Path outputDirectory;
+    private final MgfParser mgfParser;
+    private final MzTabMerger mzTabMerger;
+    private final PathMatcher mgfFileMatcher = FileSystems.getDefault().getPathMatcher("glob:" + MgfParser.MGF_FILE_GLOB);
+    private final PathMatcher mzTabFileMatcher = FileSystems.getDefault().getPathMatcher("glob:" + MzTabParser.MZTAB_FILE_GLOB);
+    private final PathMatcher moffResultFileMatcher = FileSystems.getDefault().getPathMatcher("glob:" + MzTabMerger.MOFF_RESULT_FILE_GLOB);
+    /**
+     * The files that aren't complete yet.
+     */
+    private final Map<Path, PendingFile> pendingFiles = new HashMap<>();
+    /**
+     * The complete mzTab and moff result files by base name.
+     */
+    private final Map<String, Path> mzTabFiles = new HashMap<>();
+    private final Map<String, Path> moffResultFiles = new HashMap<>();
+    private long stableMillis = DEFAULT_STABLE_MILLIS;
+    private volatile boolean running;
+
+    /**
+     * Constructor.
+     *
+     * @param inputDirectory the input directory
+     * @param outputDirectory the output directory
+     * @param mgfParser the configured MGF parser
+     * @param mzTabMerger the configured mzTab merger
+     */
+    public DatasetWatcher(Path inputDirectory, Path outputDirectory, MgfParser mgfParser, MzTabMerger mzTabMerger) {
+        this.childDirectory = inputDirectory.resolve(CHILD_DIRECTORY);
+        this.outputDirectory = outputDirectory;
+        this.mgfParser = mgfParser;
+        this.mzTabMerger = mzTabMerger;
+    }
+
+    public long getStableMillis() {
+        return stableMillis;
+    }
+
+    public void setStableMillis(long stableMillis) {
+        this.stableMillis = stableMillis;
+    }
+
+    /**
+     * Watch the directories until {@link #stop()} is called or the thread is
+     * interrupted. The files that are already present are processed as well.
+     *
+     * @param threads the number of files processed at the same time
+     * @throws IOException in case of a directory watch problem
+     * @throws IllegalArgumentException in case of invalid input or output
+     * locations
+     */
+    public void watch(int threads) throws IOException {
+        if (!Files.isDirectory(childDirectory)) {
+            throw new IllegalArgumentException("The child directory " + childDirectory + " doesn't exist.");
+        }
+        if (!Files.isDirectory(outputDirectory)) {
+            throw new IllegalArgumentException("The output directory " + outputDirectory + " doesn't exist.");
+        }
+        LOGGER.info("started watching " + childDirectory + " and " + outputDirectory);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            childDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            outputDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            //the files present at start-up
+            addExistingFiles(childDirectory);
+            addExistingFiles(outputDirectory);
+
+            running = true;
+            while (running) {
+                WatchKey watchKey = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (watchKey != null) {
+                    Path directory = (Path) watchKey.watchable();
+                    for (WatchEvent<?> event : watchKey.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            LOGGER.warn("missed file events, rescanning " + directory);
+                            addExistingFiles(directory);
+                        } else {
+                            addPendingFile(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    watchKey.reset();
+                }
+                dispatchStableFiles(executorService);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executorService.shutdown();
+        }
+
+        LOGGER.info("stopped watching " + childDirectory + " and " + outputDirectory);
+    }
+
+    /**
+     * Stop watching, the files that are being processed are finished.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    private void addExistingFiles(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                addPendingFile(file);
+            }
+        }
+    }
+
+    /**
+     * Start tracking the given file if it's an MGF, mzTab or moff result file;
+     * a file that is tracked already gets a new stable period.
+     *
+     * @param file the file
+     */
+    private void addPendingFile(Path file) {
+        Path fileName = file.getFileName();
+        boolean isInput = file.getParent().equals(childDirectory) && (mgfFileMatcher.matches(fileName) || mzTabFileMatcher.matches(fileName));
+        boolean isMoffResult = file.getParent().equals(outputDirectory) && moffResultFileMatcher.matches(fileName);
+        if (isInput || isMoffResult) {
+            pendingFiles.put(file, new PendingFile(-1, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Process the files whose size has been stable for the stable period.
+     *
+     * @param executorService the executor for the file jobs
+     */
+    private void dispatchStableFiles(ExecutorService executorService) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, PendingFile>> iterator = pendingFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, PendingFile> entry = iterator.next();
+            Path file = entry.getKey();
+            PendingFile pendingFile = entry.getValue();
+            long size;
+            try {
+                size = Files.size(file);
+            } catch (IOException ex) {
+                //the file was deleted or renamed
+                iterator.remove();
+                continue;
+            }
+            if (size != pendingFile.size) {
+                pendingFile.size = size;
+                pendingFile.lastChange = now;
+            } else if (now - pendingFile.lastChange >= stableMillis) {
+                iterator.remove();
+                dispatch(file, executorService);
+            }
+        }
+    }
+
+    /**
+     * Process a complete file.
+     *
+     * @param file the file
+     * @param executorService the executor for the file jobs
+     */
+    private void dispatch(Path file, ExecutorService executorService) {
+        Path fileName = file.getFileName();
+        String baseName = DatasetCatalog.getBaseName(file);
+        if (file.getParent().equals(childDirectory) && mgfFileMatcher.matches(fileName)) {
+            submit(executorService, mgfParser.getBatchRunner(), mgfParser.createJob(file, outputDirectory));
+        } else if (mzTabFileMatcher.matches(fileName)) {
+            mzTabFiles.put(baseName, file);
+            dispatchMerge(file, null, executorService);
+        } else {
+            moffResultFiles.put(baseName, file);
+            for (Path mzTabFile : mzTabFiles.values()) {
+                dispatchMerge(mzTabFile, file, executorService);
+            }
+        }
+    }
+
+    /**
+     * Merge a complete mzTab file the way a batch merge does, with the moff
+     * result files of its ms_runs and the one with its base name. The merge
+     * waits until every ms_run has its moff result file, unless the moff
+     * result file with the base name of the mzTab file is there.
+     *
+     * @param mzTabFile the mzTab file
+     * @param moffResultFile the moff result file that just became complete,
+     * the mzTab file is only merged if it uses it; null if the mzTab file
+     * became complete
+     * @param executorService the executor for the file jobs
+     */
+    private void dispatchMerge(Path mzTabFile, Path moffResultFile, ExecutorService executorService) {
+        try {
+            SortedMap<Integer, Path> msRunMoffResultFiles = mzTabMerger.findMoffResultFiles(mzTabFile, outputDirectory);
+            Path baseNameMoffResultFile = moffResultFiles.get(DatasetCatalog.getBaseName(mzTabFile));
+            if (moffResultFile != null && !moffResultFile.equals(baseNameMoffResultFile) && !msRunMoffResultFiles.containsValue(moffResultFile)) {
+                return;
+            }
+            //the moff result files of the ms_runs are only used once complete
+            int missingMsRuns = MzTabPsmReader.readMsRunLocations(mzTabFile).size() - msRunMoffResultFiles.size();
+            boolean incomplete = msRunMoffResultFiles.values().stream().anyMatch(file -> !moffResultFiles.containsValue(file));
+            if (incomplete || (baseNameMoffResultFile == null && (missingMsRuns > 0 || msRunMoffResultFiles.isEmpty()))) {
+                LOGGER.info("waiting for the moff result files of " + mzTabFile);
+                return;
+            }
+            submit(executorService, mzTabMerger.getBatchRunner(), mzTabMerger.createMergeJob(mzTabFile, baseNameMoffResultFile, outputDirectory, null));
+        } catch (IOException ex) {
+            LOGGER.error("can't read the ms_runs of " + mzTabFile + ": " + ex.getMessage());
+        }
+    }
+
+    private void submit(ExecutorService executorService, BatchRunner batchRunner, FileJob job) {
+        LOGGER.info("queued " + job.getStage() + " of " + job.getName());
+        executorService.submit(() -> batchRunner.run(Collections.singletonList(job)));
+    }
+
+}
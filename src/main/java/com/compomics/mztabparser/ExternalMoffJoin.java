@@ -0,0 +1,309 @@
+package com.compomics.mztabparser;
+
+import com.compomics.mztabparser.io.ExternalSorter;
+import com.compomics.mztabparser.io.MoffResultReader;
+import com.compomics.mztabparser.io.SpectraReferenceParser;
+import com.compomics.mztabparser.model.MoffResultStore;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sort-merge join of the PSMs of an mzTab file with moff results that don't
+ * fit in the heap. The moff results, the scan numbers of the .moff2start
+ * files and the spectra references of the PSMs are sorted on their
+ * {@link MoffResultStore} key with {@link ExternalSorter}s, which spill to
+ * temporary files when their part of the memory budget is full. The sorted
+ * streams are joined, and the matches are sorted back in PSM order so the
+ * mzTab file can be rewritten in one more pass.
+ *
+ * A PSM gets the same moff result as with the in-memory store: the first
+ * spectra reference that matches wins, a reference is tried for its own
+ * ms_run before {@link MoffResultStore#ANY_MS_RUN}, and of duplicate keys the
+ * last moff result wins.
+ *
+ * @author niels
+ */
+class ExternalMoffJoin implements Closeable {
+
+    /**
+     * The number of moff values of a moff result.
+     */
+    private static final int MOFF_VALUES = 7;
+    /**
+     * The number of sorters that hold records at the same time, they share
+     * the memory budget.
+     */
+    private static final int CONCURRENT_SORTERS = 4;
+    /**
+     * The first moff value field of the moff result and match records.
+     */
+    private static final int FIRST_VALUE_FIELD = 2;
+
+    /**
+     * Handles a record of the sorted keys that has a moff result.
+     */
+    private interface MatchHandler {
+
+        void match(ExternalSorter.RecordCursor keys, long[] moffValues) throws IOException;
+    }
+
+    /**
+     * The moff results by index key: key, sequence number, moff values.
+     */
+    private final ExternalSorter moffResultSorter;
+    /**
+     * The scan numbers by index key: index key, sequence number, scan key.
+     */
+    private final ExternalSorter scanSorter;
+    /**
+     * The moff results by scan key: scan key, sequence number, moff values.
+     */
+    private final ExternalSorter scanMoffResultSorter;
+    /**
+     * The PSM spectra references: key, PSM number, priority.
+     */
+    private final ExternalSorter referenceSorter;
+    /**
+     * The matched moff results by PSM: PSM number, priority, moff values.
+     */
+    private final ExternalSorter matchSorter;
+    private final long[] moffRecord = new long[FIRST_VALUE_FIELD + MOFF_VALUES];
+    private final long[] scanRecord = new long[3];
+    private final long[] referenceRecord = new long[3];
+    private final long[] moffValues = new long[MOFF_VALUES];
+    private long sequenceNumber;
+    private ExternalSorter.RecordCursor matches;
+    private boolean hasMatch;
+    private long psmNumber = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param memoryBudget the heap budget in bytes
+     * @param temporaryDirectory the directory for the temporary files
+     */
+    ExternalMoffJoin(long memoryBudget, Path temporaryDirectory) {
+        long sorterBudget = memoryBudget / CONCURRENT_SORTERS;
+        moffResultSorter = new ExternalSorter(moffRecord.length, sorterBudget, temporaryDirectory);
+        scanSorter = new ExternalSorter(scanRecord.length, sorterBudget, temporaryDirectory);
+        scanMoffResultSorter = new ExternalSorter(moffRecord.length, sorterBudget, temporaryDirectory);
+        referenceSorter = new ExternalSorter(referenceRecord.length, sorterBudget, temporaryDirectory);
+        matchSorter = new ExternalSorter(moffRecord.length, sorterBudget, temporaryDirectory);
+    }
+
+    /**
+     * Add the moff results of an ms_run.
+     *
+     * @param msRun the ms_run number
+     * @param moffResultFile the moff result file
+     * @throws IOException in case of a read or write problem
+     */
+    void addMoffResults(int msRun, Path moffResultFile) throws IOException {
+        try (MoffResultReader reader = new MoffResultReader(moffResultFile)) {
+            while (reader.next()) {
+                long key = MoffResultStore.getKey(msRun, MoffResultStore.INDEX_REFERENCE, reader.getSpectrumIndex());
+                if (key == MoffResultStore.NO_KEY) {
+                    throw new IOException("Spectrum index " + reader.getSpectrumIndex() + " out of range in " + moffResultFile);
+                }
+                moffRecord[0] = key;
+                moffRecord[1] = sequenceNumber++;
+                moffRecord[2] = Double.doubleToRawLongBits(reader.getIntensity());
+                moffRecord[3] = Double.doubleToRawLongBits(reader.getRtPeak());
+                moffRecord[4] = Double.doubleToRawLongBits(reader.getLwhm());
+                moffRecord[5] = Double.doubleToRawLongBits(reader.getRwhm());
+                moffRecord[6] = Double.doubleToRawLongBits(reader.getSnr());
+                moffRecord[7] = Double.doubleToRawLongBits(reader.getLogLR());
+                moffRecord[8] = Double.doubleToRawLongBits(reader.getLogInt());
+                moffResultSorter.add(moffRecord);
+            }
+        }
+    }
+
+    /**
+     * Make the moff result of a spectrum available by scan number.
+     *
+     * @param msRun the ms_run number
+     * @param spectrumIndex the spectrum index
+     * @param scan the scan number
+     * @throws IOException in case of a write problem
+     */
+    void addScan(int msRun, long spectrumIndex, long scan) throws IOException {
+        long indexKey = MoffResultStore.getKey(msRun, MoffResultStore.INDEX_REFERENCE, spectrumIndex);
+        long scanKey = MoffResultStore.getKey(msRun, MoffResultStore.SCAN_REFERENCE, scan);
+        if (indexKey != MoffResultStore.NO_KEY && scanKey != MoffResultStore.NO_KEY) {
+            scanRecord[0] = indexKey;
+            scanRecord[1] = sequenceNumber++;
+            scanRecord[2] = scanKey;
+            scanSorter.add(scanRecord);
+        }
+    }
+
+    /**
+     * Add the spectra references of the next PSM; this has to be called for
+     * every PSM in file order, also for PSMs without spectra references.
+     *
+     * @param spectraRef the characters that hold the spectra_ref value
+     * @param from the start of the value (inclusive)
+     * @param to the end of the value (exclusive), the PSM has no spectra
+     * references if it's before the start
+     * @throws IOException in case of a write problem
+     */
+    void addPsm(CharSequence spectraRef, int from, int to) throws IOException {
+        psmNumber++;
+        referenceRecord[1] = psmNumber;
+        int priority = 0;
+        int referenceStart = from;
+        while (referenceStart <= to) {
+            int referenceEnd = SpectraReferenceParser.getReferenceEnd(spectraRef, referenceStart, to);
+            long key = SpectraReferenceParser.parseKey(spectraRef, referenceStart, referenceEnd);
+            if (key != MoffResultStore.NO_KEY) {
+                referenceRecord[0] = key;
+                referenceRecord[2] = priority;
+                referenceSorter.add(referenceRecord);
+                if (MoffResultStore.getMsRun(key) != MoffResultStore.ANY_MS_RUN) {
+                    referenceRecord[0] = MoffResultStore.toAnyMsRun(key);
+                    referenceRecord[2] = priority + 1;
+                    referenceSorter.add(referenceRecord);
+                }
+            }
+            priority += 2;
+            referenceStart = referenceEnd + 1;
+        }
+    }
+
+    /**
+     * Join the moff results with the PSM spectra references; after this the
+     * matches can be read in PSM order with {@link #nextPsm(double[])}.
+     *
+     * @throws IOException in case of a read or write problem
+     */
+    void join() throws IOException {
+        moffResultSorter.finish();
+        List<ExternalSorter.RecordCursor> moffResults = new ArrayList<>();
+        if (scanSorter.size() > 0) {
+            //add the moff results by scan number
+            scanSorter.finish();
+            try (ExternalSorter.RecordCursor indexMoffResults = moffResultSorter.newCursor();
+                    ExternalSorter.RecordCursor scans = scanSorter.newCursor()) {
+                join(indexMoffResults, scans, (scan, values) -> {
+                    moffRecord[0] = scan.get(2);
+                    moffRecord[1] = scan.get(1);
+                    System.arraycopy(values, 0, moffRecord, FIRST_VALUE_FIELD, MOFF_VALUES);
+                    scanMoffResultSorter.add(moffRecord);
+                });
+            }
+            scanSorter.close();
+            scanMoffResultSorter.finish();
+            moffResults.add(scanMoffResultSorter.newCursor());
+        }
+        moffResults.add(0, moffResultSorter.newCursor());
+
+        referenceSorter.finish();
+        try (ExternalSorter.RecordCursor allMoffResults = ExternalSorter.merge(moffResults);
+                ExternalSorter.RecordCursor references = referenceSorter.newCursor()) {
+            join(allMoffResults, references, (reference, values) -> {
+                moffRecord[0] = reference.get(1);
+                moffRecord[1] = reference.get(2);
+                System.arraycopy(values, 0, moffRecord, FIRST_VALUE_FIELD, MOFF_VALUES);
+                matchSorter.add(moffRecord);
+            });
+        }
+        referenceSorter.close();
+        moffResultSorter.close();
+        scanMoffResultSorter.close();
+
+        matchSorter.finish();
+        matches = matchSorter.newCursor();
+        hasMatch = matches.next();
+        psmNumber = -1;
+    }
+
+    /**
+     * Get the number of temporary files written.
+     *
+     * @return the number of temporary files
+     */
+    int getSpilledRunCount() {
+        return moffResultSorter.getRunCount() + scanSorter.getRunCount() + scanMoffResultSorter.getRunCount() + referenceSorter.getRunCount() + matchSorter.getRunCount();
+    }
+
+    /**
+     * Get the moff values of the next PSM, in file order.
+     *
+     * @param values the array to put the moff values in
+     * @return whether the PSM has a moff result
+     * @throws IOException in case of a read problem
+     */
+    boolean nextPsm(double[] values) throws IOException {
+        psmNumber++;
+        //skip the lower priority matches of the previous PSMs
+        while (hasMatch && matches.get(0) < psmNumber) {
+            hasMatch = matches.next();
+        }
+        if (hasMatch && matches.get(0) == psmNumber) {
+            for (int i = 0; i < MOFF_VALUES; i++) {
+                values[i] = Double.longBitsToDouble(matches.get(FIRST_VALUE_FIELD + i));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Join sorted moff results with sorted keys: the handler gets every key
+     * record that has a moff result with the same key. Of duplicate moff
+     * results the last one is used.
+     *
+     * @param moffResults the moff results sorted on key
+     * @param keys the key records sorted on key
+     * @param handler the match handler
+     * @throws IOException in case of a read or write problem
+     */
+    private void join(ExternalSorter.RecordCursor moffResults, ExternalSorter.RecordCursor keys, MatchHandler handler) throws IOException {
+        boolean hasMoffResult = moffResults.next();
+        long matchedKey = MoffResultStore.NO_KEY;
+        while (keys.next()) {
+            long key = keys.get(0);
+            if (key != matchedKey) {
+                matchedKey = MoffResultStore.NO_KEY;
+                while (hasMoffResult && moffResults.get(0) < key) {
+                    hasMoffResult = moffResults.next();
+                }
+                while (hasMoffResult && moffResults.get(0) == key) {
+                    for (int i = 0; i < MOFF_VALUES; i++) {
+                        moffValues[i] = moffResults.get(FIRST_VALUE_FIELD + i);
+                    }
+                    matchedKey = key;
+                    hasMoffResult = moffResults.next();
+                }
+            }
+            if (key == matchedKey) {
+                handler.match(keys, moffValues);
+            }
+        }
+    }
+
+    /**
+     * Delete the temporary files.
+     *
+     * @throws IOException in case of a delete problem
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (matches != null) {
+                matches.close();
+            }
+        } finally {
+            moffResultSorter.close();
+            scanSorter.close();
+            scanMoffResultSorter.close();
+            referenceSorter.close();
+            matchSorter.close();
+        }
+    }
+
+}
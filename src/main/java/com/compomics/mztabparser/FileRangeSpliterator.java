@@ -0,0 +1,183 @@
+package com.compomics.mztabparser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splittable source of the records in a byte range of a line based file. A
+ * split cuts the range in two at a line start; the subclass reads the
+ * records of its range once traversal starts.
+ *
+ * @param <T> the record type
+ *
+ * @author niels
+ */
+abstract class FileRangeSpliterator<T> implements Spliterator<T> {
+
+    /**
+     * Ranges smaller than this are not split.
+     */
+    private static final long MINIMUM_SPLIT_SIZE = 1L << 20;
+    private static final int SEARCH_BUFFER_SIZE = 1 << 16;
+
+    protected final FileChannel channel;
+    private long start;
+    private final long end;
+    private boolean started;
+
+    /**
+     * Constructor.
+     *
+     * @param channel the file channel, closed by the caller
+     * @param start the range start, a line start (inclusive)
+     * @param end the range end (exclusive)
+     */
+    protected FileRangeSpliterator(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Create the spliterator for a part of the range.
+     *
+     * @param start the start, a line start (inclusive)
+     * @param end the end (exclusive)
+     * @return the spliterator
+     */
+    protected abstract FileRangeSpliterator<T> createSpliterator(long start, long end);
+
+    /**
+     * Start reading the records of the range.
+     *
+     * @param rangeChannel the channel that reads the bytes of the range
+     * @throws IOException in case of a read problem
+     */
+    protected abstract void open(ReadableByteChannel rangeChannel) throws IOException;
+
+    /**
+     * Pass the next record of the range to the action.
+     *
+     * @param action the action
+     * @return false if there are no more records
+     * @throws IOException in case of a read or format problem
+     */
+    protected abstract boolean advance(Consumer<? super T> action) throws IOException;
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        try {
+            if (!started) {
+                started = true;
+                open(new RangeChannel(channel, start, end));
+            }
+            return advance(action);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        if (started || end - start < MINIMUM_SPLIT_SIZE) {
+            return null;
+        }
+        try {
+            long middle = findLineStart(start + (end - start) / 2);
+            if (middle >= end) {
+                return null;
+            }
+            Spliterator<T> prefix = createSpliterator(start, middle);
+            start = middle;
+            return prefix;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public long estimateSize() {
+        //the number of remaining bytes is proportional to the number of records
+        return end - start;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    /**
+     * Find the first line start after the given offset.
+     *
+     * @param from the offset
+     * @return the line start, or the range end if there is none
+     * @throws IOException in case of a read problem
+     */
+    private long findLineStart(long from) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SEARCH_BUFFER_SIZE);
+        long position = from;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return end;
+    }
+
+    /**
+     * Channel that reads a byte range of a file channel with positional reads,
+     * so the ranges of a file can be read concurrently.
+     */
+    private static class RangeChannel implements ReadableByteChannel {
+
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RangeChannel(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            ByteBuffer slice = destination.duplicate();
+            slice.limit(slice.position() + (int) Math.min(slice.remaining(), end - position));
+            int read = channel.read(slice, position);
+            if (read > 0) {
+                position += read;
+                destination.position(destination.position() + read);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            //the file channel is shared by all ranges
+        }
+    }
+
+}
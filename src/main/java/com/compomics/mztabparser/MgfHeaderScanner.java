@@ -0,0 +1,393 @@
+package com.compomics.mztabparser;
+
+import com.compomics.mztabparser.model.MgfHeaderRecord;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Native MGF scanner that only looks at the spectrum headers. The file is
+ * memory-mapped window by window, the BEGIN IONS/END IONS blocks are located
+ * and only the SCANS, PEPMASS, RTINSECONDS and CHARGE header lines are parsed;
+ * the peak lines are skipped without being decoded.
+ *
+ * The spectrum indices are 0-based and count the BEGIN IONS blocks in the
+ * file, the same numbering the jmzreader Ms2Query ids use. The records carry
+ * the byte offset and length of their spectrum block; for a stream these are
+ * offsets in the (decompressed) stream.
+ *
+ * Compressed or otherwise unmappable input is scanned from a stream through
+ * a heap buffer, with the same line handling.
+ *
+ * An instance keeps the scanning state and is not thread safe.
+ *
+ * @author niels
+ */
+public class MgfHeaderScanner {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(MgfHeaderScanner.class);
+
+    /**
+     * The maximum number of bytes mapped at once.
+     */
+    private static final long MAPPING_WINDOW = 1L << 30;
+    /**
+     * The initial buffer size for stream scanning, it grows for longer lines.
+     */
+    private static final int STREAM_BUFFER_SIZE = 1 << 22;
+    private static final byte[] BEGIN_IONS = "BEGIN IONS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END_IONS = "END IONS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SCANS = "SCANS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PEPMASS = "PEPMASS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RTINSECONDS = "RTINSECONDS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHARGE = "CHARGE".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The position of the scanner relative to the spectrum blocks.
+     */
+    private enum State {
+        OUTSIDE, HEADER, PEAKS
+    }
+
+    /**
+     * Callback for the scanned spectrum headers.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+
+        /**
+         * Handle the header record of one spectrum.
+         *
+         * @param record the header record
+         * @throws IOException in case of a handling problem
+         */
+        void handle(MgfHeaderRecord record) throws IOException;
+    }
+
+    private byte[] valueBuffer = new byte[256];
+    private RecordHandler handler;
+    private State state;
+    private long nextIndex;
+    private String scans;
+    private Double peptideMass;
+    private String retentionTime;
+    private String chargeState;
+    /**
+     * The offset of the first byte of the buffer being scanned.
+     */
+    private long bufferOffset;
+    private long blockOffset;
+
+    /**
+     * No-arg constructor
+     */
+    public MgfHeaderScanner() {
+    }
+
+    /**
+     * Scan the whole MGF file.
+     *
+     * @param mgfFile the MGF file
+     * @param handler the handler for the spectrum headers
+     * @return the number of spectra found
+     * @throws IOException in case of a read or format problem
+     */
+    public long scan(Path mgfFile, RecordHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(mgfFile, StandardOpenOption.READ)) {
+            return scan(channel, 0, channel.size(), 0, handler);
+        }
+    }
+
+    /**
+     * Scan the given byte range of an MGF file. The range boundaries should be
+     * line boundaries that don't fall within a spectrum block.
+     *
+     * @param channel the MGF file channel
+     * @param start the start offset (inclusive)
+     * @param end the end offset (exclusive)
+     * @param firstIndex the index of the first spectrum in the range
+     * @param handler the handler for the spectrum headers
+     * @return the number of spectra found in the range
+     * @throws IOException in case of a read or format problem
+     */
+    public long scan(FileChannel channel, long start, long end, long firstIndex, RecordHandler handler) throws IOException {
+        this.handler = handler;
+        state = State.OUTSIDE;
+        nextIndex = firstIndex;
+
+        long position = start;
+        while (position < end) {
+            long windowSize = Math.min(end - position, MAPPING_WINDOW);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            boolean lastWindow = position + windowSize >= end;
+            bufferOffset = position;
+            int consumed = scanWindow(window, (int) windowSize, lastWindow);
+            if (consumed == 0) {
+                throw new IOException("Line at offset " + position + " exceeds the mapping window of " + MAPPING_WINDOW + " bytes.");
+            }
+            position += consumed;
+        }
+        if (state != State.OUTSIDE) {
+            LOGGER.warn("ignoring unterminated spectrum block with index " + nextIndex);
+        }
+
+        this.handler = null;
+        return nextIndex - firstIndex;
+    }
+
+    /**
+     * Count the spectra in the given byte range of an MGF file without
+     * parsing the header values. The range boundaries should be line
+     * boundaries that don't fall within a spectrum block.
+     *
+     * @param channel the MGF file channel
+     * @param start the start offset (inclusive)
+     * @param end the end offset (exclusive)
+     * @return the number of spectra found in the range
+     * @throws IOException in case of a read problem
+     */
+    public long count(FileChannel channel, long start, long end) throws IOException {
+        //without a handler only the block boundaries are tracked
+        return scan(channel, start, end, 0, null);
+    }
+
+    /**
+     * Scan the whole MGF input stream.
+     *
+     * @param inputStream the MGF input stream, it's not closed
+     * @param handler the handler for the spectrum headers
+     * @return the number of spectra found
+     * @throws IOException in case of a read or format problem
+     */
+    public long scan(InputStream inputStream, RecordHandler handler) throws IOException {
+        this.handler = handler;
+        state = State.OUTSIDE;
+        nextIndex = 0;
+
+        byte[] bytes = new byte[STREAM_BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int limit = 0;
+        long streamOffset = 0;
+        boolean last = false;
+        while (!last) {
+            int read = inputStream.read(bytes, limit, bytes.length - limit);
+            if (read == -1) {
+                last = true;
+            } else {
+                limit += read;
+                if (limit < bytes.length) {
+                    continue;
+                }
+            }
+            bufferOffset = streamOffset;
+            int consumed = scanWindow(buffer, limit, last);
+            streamOffset += consumed;
+            if (consumed == 0 && !last) {
+                //a single line fills the whole buffer
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                buffer = ByteBuffer.wrap(bytes);
+            } else {
+                //move the start of the unfinished line to the front
+                System.arraycopy(bytes, consumed, bytes, 0, limit - consumed);
+                limit -= consumed;
+            }
+        }
+        if (state != State.OUTSIDE) {
+            LOGGER.warn("ignoring unterminated spectrum block with index " + nextIndex);
+        }
+
+        this.handler = null;
+        return nextIndex;
+    }
+
+    /**
+     * Scan the complete lines in the given buffer.
+     *
+     * @param buffer the buffer
+     * @param limit the number of valid bytes in the buffer
+     * @param last whether no more bytes follow the buffer; if so the trailing
+     * bytes are treated as the last line
+     * @return the number of bytes consumed, the remaining bytes belong to a line
+     * that continues after the buffer
+     * @throws IOException in case of a format problem or handler problem
+     */
+    private int scanWindow(ByteBuffer buffer, int limit, boolean last) throws IOException {
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = indexOf(buffer, (byte) '\n', lineStart, limit);
+            if (lineEnd < 0) {
+                if (!last) {
+                    break;
+                }
+                lineEnd = limit;
+            }
+            scanLine(buffer, lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+        }
+        return Math.min(lineStart, limit);
+    }
+
+    /**
+     * Process a single line.
+     *
+     * @param buffer the buffer containing the line
+     * @param from the line start (inclusive)
+     * @param to the line end (exclusive)
+     * @throws IOException in case of a format problem or handler problem
+     */
+    private void scanLine(ByteBuffer buffer, int from, int to) throws IOException {
+        long lineOffset = bufferOffset + from;
+        //trim the line
+        while (from < to && (buffer.get(from) & 0xFF) <= ' ') {
+            from++;
+        }
+        while (to > from && (buffer.get(to - 1) & 0xFF) <= ' ') {
+            to--;
+        }
+        if (from == to) {
+            return;
+        }
+
+        switch (state) {
+            case OUTSIDE:
+                if (startsWith(buffer, from, to, BEGIN_IONS)) {
+                    state = State.HEADER;
+                    blockOffset = lineOffset;
+                    scans = null;
+                    peptideMass = null;
+                    retentionTime = null;
+                    chargeState = null;
+                }
+                break;
+            case PEAKS:
+                //only the end of the block matters, the peaks are not decoded
+                if (buffer.get(from) == 'E' && startsWith(buffer, from, to, END_IONS)) {
+                    endBlock(bufferOffset + to);
+                }
+                break;
+            case HEADER:
+                byte first = buffer.get(from);
+                if (first >= '0' && first <= '9') {
+                    state = State.PEAKS;
+                } else if (startsWith(buffer, from, to, END_IONS)) {
+                    endBlock(bufferOffset + to);
+                } else if (handler != null) {
+                    int separator = indexOf(buffer, (byte) '=', from, to);
+                    if (separator > 0) {
+                        scanHeader(buffer, from, separator, to);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Process a KEY=value header line; keys that are not written to the
+     * .moff2start file are ignored.
+     *
+     * @param buffer the buffer containing the line
+     * @param from the line start
+     * @param separator the position of the '=' character
+     * @param to the line end
+     * @throws IOException in case of an invalid PEPMASS value
+     */
+    private void scanHeader(ByteBuffer buffer, int from, int separator, int to) throws IOException {
+        if (isKey(buffer, from, separator, SCANS)) {
+            scans = value(buffer, separator + 1, to);
+        } else if (isKey(buffer, from, separator, PEPMASS)) {
+            //only the m/z value is kept, the optional intensity is dropped
+            String pepMass = value(buffer, separator + 1, to);
+            int whitespace = 0;
+            while (whitespace < pepMass.length() && !Character.isWhitespace(pepMass.charAt(whitespace))) {
+                whitespace++;
+            }
+            try {
+                peptideMass = Double.valueOf(pepMass.substring(0, whitespace));
+            } catch (NumberFormatException ex) {
+                throw new IOException("Invalid PEPMASS value \"" + pepMass + "\" in spectrum with index " + nextIndex);
+            }
+        } else if (isKey(buffer, from, separator, RTINSECONDS)) {
+            retentionTime = value(buffer, separator + 1, to);
+        } else if (isKey(buffer, from, separator, CHARGE)) {
+            chargeState = value(buffer, separator + 1, to);
+        }
+    }
+
+    /**
+     * Pass the record of the current block to the handler.
+     *
+     * @param blockEnd the offset just after END IONS
+     * @throws IOException in case of a handler problem
+     */
+    private void endBlock(long blockEnd) throws IOException {
+        if (handler != null) {
+            handler.handle(new MgfHeaderRecord(nextIndex, scans, peptideMass, retentionTime, chargeState, blockOffset, blockEnd - blockOffset));
+        }
+        nextIndex++;
+        state = State.OUTSIDE;
+    }
+
+    /**
+     * Decode the trimmed header value in the given range.
+     *
+     * @param buffer the buffer
+     * @param from the start of the value (inclusive)
+     * @param to the end of the value (exclusive)
+     * @return the value
+     */
+    private String value(ByteBuffer buffer, int from, int to) {
+        while (from < to && (buffer.get(from) & 0xFF) <= ' ') {
+            from++;
+        }
+        int length = to - from;
+        if (length > valueBuffer.length) {
+            valueBuffer = new byte[length];
+        }
+        for (int i = 0; i < length; i++) {
+            valueBuffer[i] = buffer.get(from + i);
+        }
+        return new String(valueBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check whether the (trimmed) key in the given range equals the given key.
+     */
+    private static boolean isKey(ByteBuffer buffer, int from, int separator, byte[] key) {
+        int to = separator;
+        while (to > from && (buffer.get(to - 1) & 0xFF) <= ' ') {
+            to--;
+        }
+        return to - from == key.length && startsWith(buffer, from, to, key);
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(from + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -1,11 +1,29 @@
 package com.compomics.mztabparser;
 
-
-import java.io.BufferedWriter;
+import com.compomics.mztabparser.batch.BatchRunner;
+import com.compomics.mztabparser.batch.BatchSummary;
+import com.compomics.mztabparser.batch.FileJob;
+import com.compomics.mztabparser.batch.JobMetrics;
+import com.compomics.mztabparser.batch.Stage;
+import com.compomics.mztabparser.io.GzipFiles;
+import com.compomics.mztabparser.io.MgfIndex;
+import com.compomics.mztabparser.io.MgfIndexWriter;
+import com.compomics.mztabparser.io.RecordPipeline;
+import com.compomics.mztabparser.io.TsvWriter;
+import com.compomics.mztabparser.io.Moff2StartBinaryWriter;
+import com.compomics.mztabparser.io.Moff2StartConverter;
+import com.compomics.mztabparser.model.MgfHeaderRecord;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.LogManager;
 import uk.ac.ebi.pride.tools.jmzreader.JMzReaderException;
@@ -23,28 +41,147 @@ public class MgfParser {
      * The child directory of the input directory that contains the MGF files.
      */
     private static final String CHILD_DIRECTORY = "submitted";
+    /**
+     * The glob pattern of the MGF file names.
+     */
+    public static final String MGF_FILE_GLOB = "*.{MGF,mgf,MGF.gz,mgf.gz}";
     private static final String SEPARATOR = "\t";
     private static final String HEADER = "INDEX" + SEPARATOR + "SCANS" + SEPARATOR + "PEPMASS" + SEPARATOR + "RTINSECONDS" + SEPARATOR + "CHARGE";
 
     private static final String OUTPUT_EXTENSION = ".moff2start";
 
+    /**
+     * Whether to parse the MGF files with jmzreader instead of the native
+     * header scanner.
+     */
+    private boolean useJmzReader = false;
+    /**
+     * The number of threads used to scan the chunks of a single MGF file.
+     */
+    private int mgfThreads = 1;
+    /**
+     * The approximate size in bytes of the chunks a single MGF file is split
+     * into for parallel scanning.
+     */
+    private long chunkSize = ParallelMgfScanner.DEFAULT_CHUNK_SIZE;
+    /**
+     * The pool for the chunk scanning, shared by the files that are parsed at
+     * the same time; it's shut down when the last of them is done.
+     */
+    private ForkJoinPool chunkPool;
+    /**
+     * The number of users of the chunk scanning pool.
+     */
+    private int chunkPoolUsers = 0;
+    /**
+     * The runner for the per file jobs.
+     */
+    private BatchRunner batchRunner = new BatchRunner();
+    /**
+     * Whether to gzip compress the output files.
+     */
+    private boolean compressOutput = false;
+    /**
+     * Whether to write a binary columnar .moff2start.bin file next to each
+     * .moff2start file.
+     */
+    private boolean binaryOutput = false;
+    /**
+     * Whether to keep a spectrum offset index next to the output files and
+     * regenerate the output from it while the MGF file doesn't change.
+     */
+    private boolean useIndex = false;
+    /**
+     * The pipeline that scans an MGF file on its own thread while the output
+     * is written.
+     */
+    private RecordPipeline pipeline = new RecordPipeline(RecordPipeline.DEFAULT_BATCH_SIZE, RecordPipeline.DEFAULT_QUEUE_DEPTH);
+
     /**
      * No-arg constructor
      */
     public MgfParser() {
     }
 
+    public boolean isUseJmzReader() {
+        return useJmzReader;
+    }
+
+    public void setUseJmzReader(boolean useJmzReader) {
+        this.useJmzReader = useJmzReader;
+    }
+
+    public int getMgfThreads() {
+        return mgfThreads;
+    }
+
+    public void setMgfThreads(int mgfThreads) {
+        if (mgfThreads < 1) {
+            throw new IllegalArgumentException("The number of MGF threads should be at least 1.");
+        }
+        this.mgfThreads = mgfThreads;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public BatchRunner getBatchRunner() {
+        return batchRunner;
+    }
+
+    public void setBatchRunner(BatchRunner batchRunner) {
+        this.batchRunner = batchRunner;
+    }
+
+    public boolean isCompressOutput() {
+        return compressOutput;
+    }
+
+    public void setCompressOutput(boolean compressOutput) {
+        this.compressOutput = compressOutput;
+    }
+
+    public boolean isBinaryOutput() {
+        return binaryOutput;
+    }
+
+    public void setBinaryOutput(boolean binaryOutput) {
+        this.binaryOutput = binaryOutput;
+    }
+
+    public boolean isUseIndex() {
+        return useIndex;
+    }
+
+    public void setUseIndex(boolean useIndex) {
+        this.useIndex = useIndex;
+    }
+
+    public RecordPipeline getPipeline() {
+        return pipeline;
+    }
+
+    public void setPipeline(RecordPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
     /**
      * Parse the MGF files in the input directory and write them to the output
      * directory.
      *
      * @param inputDirectory the input directory
      * @param outputDirectory the output directory
+     * @return the summary of the processed files
      * @throws IOException in case of directory read problem
      * @throws IllegalArgumentException in case of invalid input or output
      * locations
      */
-    public void parse(Path inputDirectory, Path outputDirectory) throws IOException {
+    public BatchSummary parse(Path inputDirectory, Path outputDirectory) throws IOException {
         LOGGER.info("started parsing MGF files in " + inputDirectory);
 
         //check whether the provided directories exist
@@ -61,40 +198,240 @@ public class MgfParser {
         }
 
         //look for mgf files and parse them
-        DirectoryStream<Path> mgfFiles = Files.newDirectoryStream(childDirectory, "*.{MGF,mgf}");
-        for (Path mgfFile : mgfFiles) {
-            parseMgfFile(mgfFile, outputDirectory);
+        List<FileJob> jobs = new ArrayList<>();
+        try (DirectoryStream<Path> mgfFiles = Files.newDirectoryStream(childDirectory, MGF_FILE_GLOB)) {
+            for (Path mgfFile : mgfFiles) {
+                jobs.add(createJob(mgfFile, outputDirectory));
+            }
+        }
+        //share the chunk scanning pool between the files of the batch
+        BatchSummary batchSummary;
+        acquireChunkPool();
+        try {
+            batchSummary = batchRunner.run(jobs, Stage.MGF_EXTRACT, outputDirectory);
+        } finally {
+            releaseChunkPool();
         }
 
         LOGGER.info("finished parsing MGF files in " + inputDirectory + ", output written to " + outputDirectory);
+
+        return batchSummary;
     }
 
     /**
-     * Parse the give MGF file and write the output file to the output
-     * directory.
+     * Create the job that parses the given MGF file; the .moff2start.bin file
+     * and the MGF index are side outputs of the job if they're enabled, so an
+     * incremental run writes them even if the .moff2start file is up to date.
      *
      * @param mgfPath the MGF file
      * @param outputDirectory the output directory
+     * @return the job
      */
-    private void parseMgfFile(Path mgfPath, Path outputDirectory) {
-        try {
-            LOGGER.info("started parsing MGF file " + mgfPath);
-            //make a new MgfFile instance
-            MgfFile mgfFile = new MgfFile(mgfPath.toFile());
-            MgfFile.Ms2QueryIterator ms2QueryIterator = mgfFile.getMs2QueryIterator();
-            Path outputFile = outputDirectory.resolve(FilenameUtils.removeExtension(mgfPath.getFileName().toString()) + OUTPUT_EXTENSION);
-            try (BufferedWriter writer = Files.newBufferedWriter(outputFile)) {
-                writer.write(HEADER);
-                while (ms2QueryIterator.hasNext()) {
-                    Ms2Query ms2Query = ms2QueryIterator.next();
-                    writer.newLine();
-                    writer.write(ms2Query.getId() + SEPARATOR + ms2Query.getScan() + SEPARATOR + ms2Query.getPeptideMass() + SEPARATOR + ms2Query.getRetentionTime() + SEPARATOR + ms2Query.getChargeState());
+    public FileJob createJob(Path mgfPath, Path outputDirectory) {
+        Path outputFile = getOutputFile(mgfPath, outputDirectory);
+        List<Path> sideOutputFiles = new ArrayList<>();
+        if (binaryOutput) {
+            sideOutputFiles.add(getBinaryOutputFile(outputFile));
+        }
+        if (useIndex && !GzipFiles.isGzip(mgfPath)) {
+            sideOutputFiles.add(MgfIndex.getIndexFile(mgfPath, outputFile.toAbsolutePath().getParent()));
+        }
+        return new FileJob(Stage.MGF_EXTRACT, Collections.singletonList(mgfPath), outputFile, sideOutputFiles, metrics -> parseMgfFile(mgfPath, outputFile, metrics));
+    }
+
+    /**
+     * Get the .moff2start output file for the given (possibly gzip
+     * compressed) MGF file, with a .gz extension if the output is compressed.
+     *
+     * @param mgfPath the MGF file
+     * @param outputDirectory the output directory
+     * @return the output file
+     */
+    public Path getOutputFile(Path mgfPath, Path outputDirectory) {
+        String mgfFileName = GzipFiles.removeGzipExtension(mgfPath.getFileName().toString());
+        return outputDirectory.resolve(FilenameUtils.removeExtension(mgfFileName) + OUTPUT_EXTENSION + (compressOutput ? GzipFiles.GZIP_EXTENSION : ""));
+    }
+
+    /**
+     * Parse the give MGF file and write the .moff2start output file.
+     *
+     * @param mgfPath the MGF file
+     * @param outputFile the output file
+     * @throws IOException in case of a read or write problem
+     * @throws JMzReaderException in case of a jmzreader parsing problem
+     */
+    public void parseMgfFile(Path mgfPath, Path outputFile) throws IOException, JMzReaderException {
+        parseMgfFile(mgfPath, outputFile, new JobMetrics());
+    }
+
+    /**
+     * Get the binary .moff2start.bin file written next to the given
+     * .moff2start output file.
+     *
+     * @param outputFile the .moff2start output file
+     * @return the binary output file
+     */
+    public Path getBinaryOutputFile(Path outputFile) {
+        return outputFile.resolveSibling(GzipFiles.removeGzipExtension(outputFile.getFileName().toString()) + Moff2StartConverter.BINARY_EXTENSION);
+    }
+
+    /**
+     * Parse the give MGF file and write the .moff2start output file, and the
+     * .moff2start.bin file if binary output is enabled.
+     *
+     * @param mgfPath the MGF file
+     * @param outputFile the output file
+     * @param metrics the metrics to count the spectra in
+     * @throws IOException in case of a read or write problem
+     * @throws JMzReaderException in case of a jmzreader parsing problem
+     */
+    public void parseMgfFile(Path mgfPath, Path outputFile, JobMetrics metrics) throws IOException, JMzReaderException {
+        LOGGER.info("started parsing MGF file " + mgfPath);
+        //a compressed file can't be read at random, so it isn't indexed
+        Path indexFile = MgfIndex.getIndexFile(mgfPath, outputFile.toAbsolutePath().getParent());
+        boolean indexed = useIndex && !GzipFiles.isGzip(mgfPath);
+        MgfIndex upToDateIndex = indexed ? MgfIndex.open(indexFile, mgfPath) : null;
+        try (MgfIndex mgfIndex = upToDateIndex;
+                TsvWriter writer = new TsvWriter(outputFile);
+                Moff2StartBinaryWriter binaryWriter = binaryOutput ? new Moff2StartBinaryWriter(getBinaryOutputFile(outputFile)) : null) {
+            writer.write(HEADER);
+            if (mgfIndex != null) {
+                //the index is up to date, the MGF file doesn't have to be read
+                LOGGER.info("using the MGF index " + indexFile);
+                for (int i = 0; i < mgfIndex.size(); i++) {
+                    writeLine(writer, binaryWriter, i, mgfIndex.getScans(i), mgfIndex.getPeptideMass(i), mgfIndex.getRetentionTime(i), mgfIndex.getChargeState(i));
+                }
+                metrics.addRecords(mgfIndex.size());
+            } else if (useJmzReader) {
+                //jmzreader only reads uncompressed files
+                Path uncompressedMgfPath = GzipFiles.isGzip(mgfPath) ? GzipFiles.decompressToTemporaryFile(mgfPath) : mgfPath;
+                try {
+                    //make a new MgfFile instance
+                    MgfFile mgfFile = new MgfFile(uncompressedMgfPath.toFile());
+                    MgfFile.Ms2QueryIterator ms2QueryIterator = mgfFile.getMs2QueryIterator();
+                    while (ms2QueryIterator.hasNext()) {
+                        Ms2Query ms2Query = ms2QueryIterator.next();
+                        writeLine(writer, binaryWriter, ms2Query.getId(), ms2Query.getScan(), ms2Query.getPeptideMass(), ms2Query.getRetentionTime(), ms2Query.getChargeState());
+                        metrics.incrementRecords();
+                    }
+                } finally {
+                    if (!uncompressedMgfPath.equals(mgfPath)) {
+                        Files.delete(uncompressedMgfPath);
+                    }
+                }
+            } else if (GzipFiles.isGzip(mgfPath)) {
+                //a compressed file can't be split in chunks, scan it as a stream
+                long numberOfSpectra = pipeline.run(sink -> {
+                    try (InputStream inputStream = GzipFiles.newInputStream(mgfPath)) {
+                        return new MgfHeaderScanner().scan(inputStream, sink::accept);
+                    }
+                }, (MgfHeaderRecord record) -> {
+                    writeLine(writer, binaryWriter, record.getIndex(), record.getScans(), record.getPeptideMass(), record.getRetentionTime(), record.getChargeState());
+                });
+                metrics.addRecords(numberOfSpectra);
+            } else {
+                //build the index while scanning
+                try (MgfIndexWriter indexWriter = indexed ? new MgfIndexWriter(mgfPath, indexFile) : null) {
+                    MgfHeaderScanner.RecordHandler handler = record -> {
+                        writeLine(writer, binaryWriter, record.getIndex(), record.getScans(), record.getPeptideMass(), record.getRetentionTime(), record.getChargeState());
+                        if (indexWriter != null) {
+                            indexWriter.add(record);
+                        }
+                    };
+                    //scan on the pipeline thread, write on this thread
+                    long numberOfSpectra;
+                    if (mgfThreads > 1 && Files.size(mgfPath) > chunkSize) {
+                        ParallelMgfScanner parallelMgfScanner = new ParallelMgfScanner(acquireChunkPool(), chunkSize);
+                        try {
+                            numberOfSpectra = pipeline.run(sink -> parallelMgfScanner.scan(mgfPath, sink::accept), handler::handle);
+                        } finally {
+                            releaseChunkPool();
+                        }
+                    } else {
+                        numberOfSpectra = pipeline.run(sink -> {
+                            try (Stream<MgfHeaderRecord> records = RecordStreams.mgfRecords(mgfPath, chunkSize)) {
+                                return forEachRecord(records, sink::accept);
+                            }
+                        }, handler::handle);
+                    }
+                    metrics.addRecords(numberOfSpectra);
+                    if (indexWriter != null) {
+                        indexWriter.finish();
+                    }
                 }
-            } catch (IOException ex) {
-                LOGGER.error(ex.getMessage());
             }
-        } catch (JMzReaderException ex) {
-            LOGGER.error(ex.getMessage());
+        }
+    }
+
+    /**
+     * Get the chunk scanning pool, create it if necessary. Every call has to
+     * be followed by a call to {@link #releaseChunkPool()}.
+     *
+     * @return the fork-join pool
+     */
+    private synchronized ForkJoinPool acquireChunkPool() {
+        if (chunkPool == null) {
+            chunkPool = new ForkJoinPool(mgfThreads);
+        }
+        chunkPoolUsers++;
+        return chunkPool;
+    }
+
+    /**
+     * Release the chunk scanning pool, shut it down if it isn't used anymore.
+     */
+    private synchronized void releaseChunkPool() {
+        chunkPoolUsers--;
+        if (chunkPoolUsers == 0) {
+            chunkPool.shutdown();
+            chunkPool = null;
+        }
+    }
+
+    /**
+     * Pass the records of the given stream to the handler in encounter order.
+     *
+     * @param records the record stream
+     * @param handler the handler
+     * @return the number of records
+     * @throws IOException in case of a read or handler problem
+     */
+    private static long forEachRecord(Stream<MgfHeaderRecord> records, MgfHeaderScanner.RecordHandler handler) throws IOException {
+        long[] numberOfRecords = {0};
+        try {
+            records.forEachOrdered(record -> {
+                try {
+                    handler.handle(record);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                numberOfRecords[0]++;
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return numberOfRecords[0];
+    }
+
+    /**
+     * Write a .moff2start line; both MGF parsing paths go through here so
+     * they render the values identically.
+     *
+     * @param writer the output writer
+     * @param binaryWriter the binary output writer, null if binary output is
+     * disabled
+     * @param index the spectrum index
+     * @param scans the scans value
+     * @param peptideMass the peptide mass
+     * @param retentionTime the retention time
+     * @param chargeState the charge state
+     * @throws IOException in case of a write problem
+     */
+    private void writeLine(TsvWriter writer, Moff2StartBinaryWriter binaryWriter, Object index, String scans, Double peptideMass, String retentionTime, String chargeState) throws IOException {
+        writer.newLine();
+        writer.write(index).tab().write(scans).tab().write(peptideMass).tab().write(retentionTime).tab().write(chargeState);
+        if (binaryWriter != null) {
+            binaryWriter.add(Long.parseLong(index.toString()), scans, peptideMass, retentionTime, chargeState);
         }
     }
 
@@ -0,0 +1,129 @@
+package com.compomics.mztabparser;
+
+import com.compomics.mztabparser.model.MgfHeaderRecord;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Splittable source of the spectrum header records of an uncompressed MGF
+ * file. The file is cut in chunks that start at a BEGIN IONS line, like
+ * {@link ParallelMgfScanner} does, and a split hands over a range of whole
+ * chunks. The chunks are scanned one at a time when they're traversed.
+ *
+ * The records carry the same global spectrum indices the serial
+ * {@link MgfHeaderScanner} gives. The index of the first spectrum of a chunk
+ * needs the number of spectra in the preceding chunks; those counts are
+ * shared by all spliterators of the file, a chunk that wasn't scanned yet is
+ * counted without parsing its header values.
+ *
+ * @author niels
+ */
+class MgfRecordSpliterator implements Spliterator<MgfHeaderRecord> {
+
+    private final FileChannel channel;
+    private final long[] boundaries;
+    /**
+     * The number of spectra per chunk, -1 if not known yet.
+     */
+    private final AtomicLongArray chunkCounts;
+    private int nextChunk;
+    private final int endChunk;
+    /**
+     * The records of the chunk being traversed.
+     */
+    private List<MgfHeaderRecord> records = new ArrayList<>();
+    private int nextRecord;
+
+    /**
+     * Constructor for the whole file.
+     *
+     * @param channel the MGF file channel, closed by the caller
+     * @param chunkSize the approximate chunk size in bytes
+     * @throws IOException in case of a read problem
+     */
+    MgfRecordSpliterator(FileChannel channel, long chunkSize) throws IOException {
+        this.channel = channel;
+        this.boundaries = ParallelMgfScanner.findChunkBoundaries(channel, chunkSize);
+        this.chunkCounts = new AtomicLongArray(boundaries.length - 1);
+        for (int i = 0; i < chunkCounts.length(); i++) {
+            chunkCounts.set(i, -1);
+        }
+        this.nextChunk = 0;
+        this.endChunk = boundaries.length - 1;
+    }
+
+    private MgfRecordSpliterator(MgfRecordSpliterator parent, int nextChunk, int endChunk) {
+        this.channel = parent.channel;
+        this.boundaries = parent.boundaries;
+        this.chunkCounts = parent.chunkCounts;
+        this.nextChunk = nextChunk;
+        this.endChunk = endChunk;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super MgfHeaderRecord> action) {
+        while (nextRecord == records.size()) {
+            if (nextChunk == endChunk) {
+                return false;
+            }
+            scanChunk(nextChunk++);
+        }
+        action.accept(records.get(nextRecord++));
+        return true;
+    }
+
+    @Override
+    public Spliterator<MgfHeaderRecord> trySplit() {
+        //only whole chunks are handed over, the prefix has to come first
+        if (nextRecord < records.size() || endChunk - nextChunk < 2) {
+            return null;
+        }
+        int middle = nextChunk + (endChunk - nextChunk) / 2;
+        MgfRecordSpliterator prefix = new MgfRecordSpliterator(this, nextChunk, middle);
+        nextChunk = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        //the number of remaining bytes is proportional to the number of records
+        return boundaries[endChunk] - boundaries[nextChunk];
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    /**
+     * Scan the given chunk in the record list.
+     *
+     * @param chunk the chunk
+     */
+    private void scanChunk(int chunk) {
+        try {
+            long firstIndex = 0;
+            for (int i = 0; i < chunk; i++) {
+                long count = chunkCounts.get(i);
+                if (count < 0) {
+                    count = new MgfHeaderScanner().count(channel, boundaries[i], boundaries[i + 1]);
+                    chunkCounts.set(i, count);
+                }
+                firstIndex += count;
+            }
+            records = new ArrayList<>();
+            nextRecord = 0;
+            long count = new MgfHeaderScanner().scan(channel, boundaries[chunk], boundaries[chunk + 1], firstIndex, records::add);
+            chunkCounts.set(chunk, count);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+}
@@ -1,6 +1,21 @@
 package com.compomics.mztabparser;
 
-import com.compomics.mztabparser.model.MoffResultLine;
+import com.compomics.mztabparser.batch.BatchRunner;
+import com.compomics.mztabparser.batch.BatchSummary;
+import com.compomics.mztabparser.batch.DatasetCatalog;
+import com.compomics.mztabparser.batch.FileJob;
+import com.compomics.mztabparser.batch.FileJobResult;
+import com.compomics.mztabparser.batch.JobMetrics;
+import com.compomics.mztabparser.batch.ShardManifest;
+import com.compomics.mztabparser.batch.Stage;
+import com.compomics.mztabparser.io.GzipFiles;
+import com.compomics.mztabparser.io.MoffResultReader;
+import com.compomics.mztabparser.io.MzTabPsmReader;
+import com.compomics.mztabparser.io.RecordPipeline;
+import com.compomics.mztabparser.io.SpectraReferenceParser;
+import com.compomics.mztabparser.io.TsvWriter;
+import com.compomics.mztabparser.model.MoffResultStore;
+import com.compomics.mztabparser.model.PrecursorIndex;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -8,16 +23,21 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.LogManager;
 import uk.ac.ebi.pride.jmztab.model.PSM;
+import uk.ac.ebi.pride.jmztab.model.SpectraRef;
 import uk.ac.ebi.pride.jmztab.utils.MZTabFileParser;
 
 /**
@@ -31,12 +51,16 @@ public class MzTabMerger {
      * The child directory of the input directory that contains the MGF files.
      */
     private static final String CHILD_DIRECTORY = "submitted";
+    /**
+     * The glob pattern of the moff result file names.
+     */
+    public static final String MOFF_RESULT_FILE_GLOB = "*{_moff_result.txt,_moff_result.txt.gz}";
+    private static final String MOFF_RESULT_SUFFIX = "_moff_result.txt";
+    private static final String MOFF2START_EXTENSION = ".moff2start";
     private static final String SEPARATOR = "\t";
-    private static final String SPECTRUM_REFERENCE_PREFIX = "index=";
     private static final String HEADER = "prot" + SEPARATOR + "expMZ" + SEPARATOR + "calcMZ" + SEPARATOR + "modification" + SEPARATOR + "peptide" + SEPARATOR + "charge" + SEPARATOR + "spectraRef";
-    private static final String PRIDE_MZTAB_EXTENSION = ".pride.mztab";
     private static final String MZTAB_EXTENSION = ".mztab";
-    private static final String MOFF_RESULT_EXTENSION = "_moff_result.txt";
+    private static final String DATASET_ROLLUP_FILE_NAME = "dataset" + QuantRollup.ROLLUP_EXTENSION;
     private static final String INTENSITY = "intensity";
     private static final String RT_PEAK = "rt_peak";
     private static final String LWHM = "lwhm";
@@ -44,6 +68,175 @@ public class MzTabMerger {
     private static final String SNR = "SNR";
     private static final String LOG_L_R = "log_L_R";
     private static final String LOG_INT = "log_int";
+    private static final String[] MOFF_COLUMNS = {INTENSITY, RT_PEAK, LWHM, RWHM, SNR, LOG_L_R, LOG_INT};
+    private static final String PSH_PREFIX = "PSH" + SEPARATOR;
+    private static final String PSM_PREFIX = "PSM" + SEPARATOR;
+    private static final String SPECTRA_REF_COLUMN = "spectra_ref";
+    private static final String EXP_MASS_TO_CHARGE_COLUMN = "exp_mass_to_charge";
+    private static final String CHARGE_COLUMN = "charge";
+    private static final String RETENTION_TIME_COLUMN = "retention_time";
+    private static final String MOFF2START_INDEX_COLUMN = "INDEX";
+    private static final String MOFF2START_PEPMASS_COLUMN = "PEPMASS";
+    private static final String MOFF2START_RT_COLUMN = "RTINSECONDS";
+    private static final String MOFF2START_CHARGE_COLUMN = "CHARGE";
+    private static final String OPTIONAL_COLUMN_PREFIX = "opt_global_";
+    private static final String NULL = "null";
+    private static final String NAN = "NaN";
+    private static final String INFINITY = "INF";
+    private static final String NEGATIVE_INFINITY = "-INF";
+    /**
+     * The approximate length in bytes of a moff result line.
+     */
+    private static final int MOFF_RESULT_LINE_LENGTH = 100;
+    /**
+     * The approximate heap size in bytes of a moff result in the in-memory
+     * store: 8 primitive columns and the hash map slots.
+     */
+    private static final int MOFF_RESULT_SIZE = 96;
+    /**
+     * The heap size in bytes of a spectrum in the precursor index.
+     */
+    private static final int PRECURSOR_SIZE = 28;
+
+    /**
+     * Finds the moff result values of the PSM lines; it's called for every PSM
+     * line, in file order.
+     */
+    private interface PsmMatcher {
+
+        /**
+         * Find the moff result of a PSM line.
+         *
+         * @param line the PSM line
+         * @param spectraRefStart the start of the spectra_ref field, -1 if
+         * the line has no spectra_ref field
+         * @param spectraRefEnd the end of the spectra_ref field
+         * @param values the array to put the moff values in
+         * @return whether the PSM has a moff result
+         * @throws IOException in case of a read problem
+         */
+        boolean match(String line, int spectraRefStart, int spectraRefEnd, double[] values) throws IOException;
+    }
+
+    /**
+     * Finds the moff result values of the PSMs of the jmztab model; it's
+     * called for every PSM, in file order.
+     */
+    private interface ModelPsmMatcher {
+
+        /**
+         * Find the moff result of a PSM.
+         *
+         * @param psm the PSM
+         * @param values the array to put the moff values in
+         * @return whether the PSM has a moff result
+         * @throws IOException in case of a read problem
+         */
+        boolean match(PSM psm, double[] values) throws IOException;
+    }
+
+    /**
+     * Handles the scan number of a spectrum in a .moff2start file.
+     */
+    private interface ScanHandler {
+
+        void scan(long spectrumIndex, long scan) throws IOException;
+    }
+
+    /**
+     * Matches the PSMs whose spectra references have no moff result on their
+     * precursor m/z, charge and retention time against the MGF spectra of the
+     * moff results.
+     */
+    private class PrecursorFallback {
+
+        private final MoffResultStore moffResults;
+        private final PrecursorIndex precursors;
+        private long matches;
+
+        PrecursorFallback(MoffResultStore moffResults, PrecursorIndex precursors) {
+            this.moffResults = moffResults;
+            this.precursors = precursors;
+        }
+
+        /**
+         * Find the moff result of a PSM by precursor.
+         *
+         * @param msRun the ms_run number of the PSM,
+         * {@link MoffResultStore#ANY_MS_RUN} if unknown
+         * @param mz the experimental m/z of the PSM, NaN if unknown
+         * @param charge the charge of the PSM,
+         * {@link PrecursorIndex#UNKNOWN_CHARGE} if unknown
+         * @param rt the retention time of the PSM in seconds, NaN if unknown
+         * @param values the array to put the moff values in
+         * @return whether the PSM has a moff result
+         */
+        boolean match(int msRun, double mz, int charge, double rt, double[] values) {
+            long key = precursors.find(msRun, mz, charge, rt, ppmTolerance, rtTolerance);
+            if (key == MoffResultStore.NO_KEY) {
+                return false;
+            }
+            getValues(moffResults, moffResults.find(key), values);
+            matches++;
+            return true;
+        }
+    }
+
+    /**
+     * The ways of merging the moff results into the mzTab file.
+     */
+    public enum MergeMode {
+        /**
+         * Load the whole mzTab file in the jmztab model.
+         */
+        MODEL,
+        /**
+         * Rewrite the mzTab file line by line, the heap use doesn't depend on
+         * the mzTab file size.
+         */
+        STREAMING
+    }
+
+    /**
+     * The runner for the per file jobs.
+     */
+    private BatchRunner batchRunner = new BatchRunner();
+    /**
+     * The merge mode.
+     */
+    private MergeMode mergeMode = MergeMode.MODEL;
+    /**
+     * Whether to gzip compress the output files.
+     */
+    private boolean compressOutput = false;
+    /**
+     * The heap budget in bytes for the moff results of a single merge; if
+     * the moff results are estimated to need more, the merge spills to disk.
+     */
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    /**
+     * The pipeline that reads the mzTab lines on their own thread while the
+     * merged lines are written.
+     */
+    private RecordPipeline pipeline = new RecordPipeline(RecordPipeline.DEFAULT_BATCH_SIZE, RecordPipeline.DEFAULT_QUEUE_DEPTH);
+    /**
+     * Whether to write the peptide and protein level rollup of the moff
+     * intensities next to each merged file and for the whole dataset.
+     */
+    private boolean rollup = false;
+    /**
+     * Whether to match the PSMs whose spectra references have no moff result
+     * on their precursor m/z, charge and retention time.
+     */
+    private boolean precursorMatching = false;
+    /**
+     * The precursor m/z tolerance in ppm.
+     */
+    private double ppmTolerance = 10;
+    /**
+     * The retention time tolerance in seconds.
+     */
+    private double rtTolerance = 60;
 
     /**
      * No-arg constructor
@@ -52,18 +245,93 @@ public class MzTabMerger {
 
     }
 
+    public MergeMode getMergeMode() {
+        return mergeMode;
+    }
+
+    public void setMergeMode(MergeMode mergeMode) {
+        this.mergeMode = mergeMode;
+    }
+
+    public BatchRunner getBatchRunner() {
+        return batchRunner;
+    }
+
+    public void setBatchRunner(BatchRunner batchRunner) {
+        this.batchRunner = batchRunner;
+    }
+
+    public boolean isCompressOutput() {
+        return compressOutput;
+    }
+
+    public void setCompressOutput(boolean compressOutput) {
+        this.compressOutput = compressOutput;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public RecordPipeline getPipeline() {
+        return pipeline;
+    }
+
+    public void setPipeline(RecordPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public boolean isRollup() {
+        return rollup;
+    }
+
+    public void setRollup(boolean rollup) {
+        this.rollup = rollup;
+    }
+
+    public boolean isPrecursorMatching() {
+        return precursorMatching;
+    }
+
+    public void setPrecursorMatching(boolean precursorMatching) {
+        this.precursorMatching = precursorMatching;
+    }
+
+    public double getPpmTolerance() {
+        return ppmTolerance;
+    }
+
+    public void setPpmTolerance(double ppmTolerance) {
+        this.ppmTolerance = ppmTolerance;
+    }
+
+    public double getRtTolerance() {
+        return rtTolerance;
+    }
+
+    public void setRtTolerance(double rtTolerance) {
+        this.rtTolerance = rtTolerance;
+    }
+
     /**
      * Parse the mzTab files in the input directory, merge them with the moff
      * result files in the output directory and write the resulting mzTab file
-     * to the output directory.
+     * to the output directory. With the rollup on, the rollups of the merged
+     * files are combined in a dataset rollup table in the output directory;
+     * the merged files that were up to date are read back for it.
      *
      * @param inputDirectory the input directory
      * @param outputDirectory the output directory
+     * @return the summary of the processed files
      * @throws IOException in case of directory read problem
      * @throws IllegalArgumentException in case of invalid input or output
      * locations
      */
-    public void parseAndMerge(Path inputDirectory, Path outputDirectory) throws IOException {
+    public BatchSummary parseAndMerge(Path inputDirectory, Path outputDirectory) throws IOException {
         LOGGER.info("started parsing mzTab files in " + inputDirectory + " and merging the moff result files in " + outputDirectory);
 
         //check whether the provided directories exist
@@ -80,33 +348,227 @@ public class MzTabMerger {
         }
 
         //look for mzTab files
-        PathMatcher mzTabFileMatcher = FileSystems.getDefault().getPathMatcher("glob:*.{mztab,mzTab,MZTAB}");
-        List<Path> mzTabFiles = Files.list(childDirectory).filter(file -> mzTabFileMatcher.matches(file.getFileName())).collect(Collectors.toList());
+        PathMatcher mzTabFileMatcher = FileSystems.getDefault().getPathMatcher("glob:" + MzTabParser.MZTAB_FILE_GLOB);
+        List<Path> mzTabFiles;
+        try (Stream<Path> childDirectoryFiles = Files.list(childDirectory)) {
+            mzTabFiles = childDirectoryFiles.filter(file -> mzTabFileMatcher.matches(file.getFileName())).collect(Collectors.toList());
+        }
 
         //look for moff result files        
-        PathMatcher moffResultFileMatcher = FileSystems.getDefault().getPathMatcher("glob:*{_moff_result.txt}");
-        List<Path> moffResultFiles = Files.list(outputDirectory).filter(file -> moffResultFileMatcher.matches(file.getFileName())).collect(Collectors.toList());
+        PathMatcher moffResultFileMatcher = FileSystems.getDefault().getPathMatcher("glob:" + MOFF_RESULT_FILE_GLOB);
+        List<Path> moffResultFiles;
+        try (Stream<Path> outputDirectoryFiles = Files.list(outputDirectory)) {
+            moffResultFiles = outputDirectoryFiles.filter(file -> moffResultFileMatcher.matches(file.getFileName())).collect(Collectors.toList());
+        }
 
-        //for each mzTab file, find the matching moff result file in the output directory
+        //for each mzTab file, find the moff result files of its ms_runs and the
+        //one with the same base name in the output directory
+        Map<String, Path> moffResultFilesByBaseName = DatasetCatalog.indexByBaseName(moffResultFiles);
+        List<FileJob> jobs = new ArrayList<>();
+        Map<Path, QuantRollup> rollups = new ConcurrentHashMap<>();
         for (Path mzTabFile : mzTabFiles) {
-            Optional<Path> foundMoffResult = moffResultFiles.stream()
-                    .filter((moffResultFile) -> {
-                        return isMatchingMoffResultFile(mzTabFile, moffResultFile);
-                    }).findAny();
-            if (foundMoffResult.isPresent()) {
-                //parse both files and merge into the output file
-                LOGGER.info("started parsing mzTab file " + mzTabFile);
-
-                Path moffResultFile = foundMoffResult.get();
-                Path outputMzTabFile = outputDirectory.resolve(FilenameUtils.removeExtension(moffResultFile.getFileName().toString()) + MZTAB_EXTENSION);
-
-                merge(mzTabFile, foundMoffResult.get(), outputMzTabFile);
+            FileJob job = createMergeJob(mzTabFile, moffResultFilesByBaseName.get(DatasetCatalog.getBaseName(mzTabFile)), outputDirectory, rollups);
+            if (job != null) {
+                jobs.add(job);
             } else {
                 LOGGER.warn("No matching moff result file found for " + mzTabFile.toString());
             }
         }
+        BatchSummary batchSummary = batchRunner.run(jobs, Stage.MERGE, outputDirectory);
+
+        if (rollup && batchRunner.getShard() != null) {
+            //a shard only has the rollups of its own files
+            LOGGER.info("the dataset rollup is written when the shards are finalized");
+        } else if (rollup) {
+            writeDatasetRollup(jobs, batchSummary, rollups, outputDirectory.resolve(DATASET_ROLLUP_FILE_NAME + (compressOutput ? GzipFiles.GZIP_EXTENSION : "")));
+        }
 
         LOGGER.info("finished merging, output written to " + outputDirectory);
+
+        return batchSummary;
+    }
+
+    /**
+     * Create the job that merges the given mzTab file with the moff result
+     * files of its ms_runs in the output directory, and with the moff result
+     * file with the base name of the mzTab file for the spectra references of
+     * any ms_run.
+     *
+     * @param mzTabFile the mzTab file
+     * @param moffResultFile the moff result file with the base name of the
+     * mzTab file, null if there is none
+     * @param outputDirectory the output directory with the moff result files
+     * @param rollups the map the rollup of the merged file is put in by output
+     * file, null if the rollup isn't collected
+     * @return the job, null if there are no moff result files for the mzTab
+     * file
+     * @throws IOException in case of an mzTab metadata read problem
+     */
+    public FileJob createMergeJob(Path mzTabFile, Path moffResultFile, Path outputDirectory, Map<Path, QuantRollup> rollups) throws IOException {
+        SortedMap<Integer, Path> moffResultFilesByMsRun = findMoffResultFiles(mzTabFile, outputDirectory);
+        if (moffResultFile != null) {
+            addAnyMsRunFile(moffResultFilesByMsRun, moffResultFile);
+        } else {
+            //name the output after the mzTab file
+            moffResultFile = outputDirectory.resolve(DatasetCatalog.getBaseName(mzTabFile) + MOFF_RESULT_SUFFIX);
+        }
+        if (moffResultFilesByMsRun.isEmpty()) {
+            return null;
+        }
+        //parse the files and merge into the output file
+        Path outputMzTabFile = getOutputFile(moffResultFile, outputDirectory);
+        List<Path> inputFiles = new ArrayList<>();
+        inputFiles.add(mzTabFile);
+        inputFiles.addAll(moffResultFilesByMsRun.values());
+
+        return new FileJob(Stage.MERGE, inputFiles, outputMzTabFile, estimateHeap(mzTabFile, moffResultFilesByMsRun.values()), metrics -> {
+            QuantRollup fileRollup = mergeAndRollUp(mzTabFile, moffResultFilesByMsRun, outputMzTabFile, metrics);
+            if (fileRollup != null && rollups != null) {
+                rollups.put(outputMzTabFile, fileRollup);
+            }
+        });
+    }
+
+    /**
+     * Combine the rollups of the merged files in the dataset rollup table.
+     * The rollups of the skipped jobs are read back from their up to date
+     * merged files, and their missing rollup tables written; the failed jobs
+     * are left out.
+     *
+     * @param jobs the merge jobs
+     * @param batchSummary the summary of the merge jobs
+     * @param rollups the rollups of the merged files by output file
+     * @param datasetRollupFile the dataset rollup table file
+     * @throws IOException in case of a read or write problem
+     */
+    private void writeDatasetRollup(List<FileJob> jobs, BatchSummary batchSummary, Map<Path, QuantRollup> rollups, Path datasetRollupFile) throws IOException {
+        Set<String> skippedJobs = batchSummary.getResults(FileJobResult.Status.SKIPPED).stream().map(FileJobResult::getName).collect(Collectors.toSet());
+        SortedMap<Path, QuantRollup> sortedRollups = new TreeMap<>(rollups);
+        for (FileJob job : jobs) {
+            if (skippedJobs.contains(job.getName()) && !sortedRollups.containsKey(job.getOutputFile())) {
+                QuantRollup fileRollup = QuantRollup.read(job.getOutputFile());
+                Path rollupFile = getRollupFile(job.getOutputFile());
+                if (!Files.exists(rollupFile)) {
+                    fileRollup.write(rollupFile);
+                }
+                sortedRollups.put(job.getOutputFile(), fileRollup);
+            }
+        }
+        QuantRollup datasetRollup = new QuantRollup();
+        for (QuantRollup fileRollup : sortedRollups.values()) {
+            datasetRollup.addAll(fileRollup);
+        }
+        datasetRollup.write(datasetRollupFile);
+        LOGGER.info("wrote the rollup of " + datasetRollup.getNumberOfPeptides() + " peptides and " + datasetRollup.getNumberOfProteins() + " proteins of "
+                + sortedRollups.size() + " merged files to " + datasetRollupFile);
+    }
+
+    /**
+     * Combine the merged files of all shards of a sharded merge in the
+     * dataset rollup table, once the shards are finished. The merged files
+     * are taken from the shard manifests in the output directory.
+     *
+     * @param outputDirectory the output directory
+     * @throws IOException in case of a read or write problem
+     */
+    public void writeShardedDatasetRollup(Path outputDirectory) throws IOException {
+        List<Path> mergedFiles = ShardManifest.getOutputFiles(outputDirectory, Stage.MERGE);
+        QuantRollup datasetRollup = new QuantRollup();
+        for (Path mergedFile : mergedFiles) {
+            datasetRollup.addAll(QuantRollup.read(mergedFile));
+        }
+        Path datasetRollupFile = outputDirectory.resolve(DATASET_ROLLUP_FILE_NAME + (compressOutput ? GzipFiles.GZIP_EXTENSION : ""));
+        datasetRollup.write(datasetRollupFile);
+        LOGGER.info("wrote the rollup of " + datasetRollup.getNumberOfPeptides() + " peptides and " + datasetRollup.getNumberOfProteins() + " proteins of "
+                + mergedFiles.size() + " merged files to " + datasetRollupFile);
+    }
+
+    /**
+     * Estimate the heap use of a merge, for the admission of the merge job
+     * against the heap budget of the batch runner: the moff results (and
+     * their precursors) if they fit in the memory budget, or the memory
+     * budget of the external join, plus the jmztab model of the mzTab file in
+     * model mode.
+     *
+     * @param mzTabFile the mzTab file
+     * @param moffResultFiles the moff result files
+     * @return the estimated heap use in bytes
+     */
+    public long estimateHeap(Path mzTabFile, Collection<Path> moffResultFiles) {
+        long expectedSize = estimateMoffResults(moffResultFiles);
+        long mzTabEstimate = Stage.MERGE.estimateHeap(mergeMode == MergeMode.MODEL ? getUncompressedSize(mzTabFile) : 0);
+        if (expectedSize * MOFF_RESULT_SIZE > memoryBudget) {
+            return memoryBudget + mzTabEstimate;
+        }
+        return expectedSize * (precursorMatching ? MOFF_RESULT_SIZE + PRECURSOR_SIZE : MOFF_RESULT_SIZE) + mzTabEstimate;
+    }
+
+    /**
+     * Estimate the number of moff results in the given moff result files.
+     *
+     * @param moffResultFiles the moff result files
+     * @return the estimated number of moff results
+     */
+    private static long estimateMoffResults(Collection<Path> moffResultFiles) {
+        long uncompressedSize = 0;
+        for (Path moffResultFile : moffResultFiles) {
+            uncompressedSize += getUncompressedSize(moffResultFile);
+        }
+        return uncompressedSize / MOFF_RESULT_LINE_LENGTH;
+    }
+
+    /**
+     * Estimate the uncompressed size of a file.
+     *
+     * @param file the file
+     * @return the estimated size in bytes, 0 if the size can't be read
+     */
+    private static long getUncompressedSize(Path file) {
+        try {
+            return GzipFiles.estimateUncompressedSize(file);
+        } catch (IOException ex) {
+            LOGGER.warn("failed to get the size of " + file + ": " + ex.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Get the rollup table file of a merged mzTab file, with a .gz extension
+     * if the output is compressed.
+     *
+     * @param outputMzTabFile the merged mzTab file
+     * @return the rollup table file
+     */
+    public Path getRollupFile(Path outputMzTabFile) {
+        String outputFileName = GzipFiles.removeGzipExtension(outputMzTabFile.getFileName().toString());
+        return outputMzTabFile.resolveSibling(FilenameUtils.removeExtension(outputFileName) + QuantRollup.ROLLUP_EXTENSION + (compressOutput ? GzipFiles.GZIP_EXTENSION : ""));
+    }
+
+    /**
+     * Get the merged mzTab output file for the given (possibly gzip
+     * compressed) moff result file, with a .gz extension if the output is
+     * compressed.
+     *
+     * @param moffResultFile the moff result file
+     * @param outputDirectory the output directory
+     * @return the output file
+     */
+    public Path getOutputFile(Path moffResultFile, Path outputDirectory) {
+        String moffResultFileName = GzipFiles.removeGzipExtension(moffResultFile.getFileName().toString());
+        return outputDirectory.resolve(FilenameUtils.removeExtension(moffResultFileName) + MZTAB_EXTENSION + (compressOutput ? GzipFiles.GZIP_EXTENSION : ""));
+    }
+
+    /**
+     * Merge the mzTab file with the moff result file and write it to a new
+     * mzTab file.
+     *
+     * @param mzTabFile the mzTab file
+     * @param moffResultFile the moff result file
+     * @param outputMzTabFile the output mzTab file
+     * @throws IOException in case of a read or write problem
+     */
+    public void merge(Path mzTabFile, Path moffResultFile, Path outputMzTabFile) throws IOException {
+        merge(mzTabFile, moffResultFile, outputMzTabFile, new JobMetrics());
     }
 
     /**
@@ -116,81 +578,654 @@ public class MzTabMerger {
      * @param mzTabFile the mzTab file
      * @param moffResultFile the moff result file
      * @param outputMzTabFile the output mzTab file
+     * @param metrics the metrics to count the PSMs and unmatched PSMs in
+     * @throws IOException in case of a read or write problem
+     */
+    public void merge(Path mzTabFile, Path moffResultFile, Path outputMzTabFile, JobMetrics metrics) throws IOException {
+        SortedMap<Integer, Path> moffResultFiles = findMoffResultFiles(mzTabFile, moffResultFile.toAbsolutePath().getParent());
+        addAnyMsRunFile(moffResultFiles, moffResultFile);
+        merge(mzTabFile, moffResultFiles, outputMzTabFile, metrics);
+    }
+
+    /**
+     * Merge the mzTab file with the moff result files of its ms_runs and
+     * write it to a new mzTab file. The spectra references of a PSM are
+     * matched against the moff results of their ms_run, and then against the
+     * moff results of {@link MoffResultStore#ANY_MS_RUN}.
+     *
+     * With precursor matching on, the PSMs without match are matched on their
+     * experimental m/z, charge and retention time against the spectra in the
+     * .moff2start files next to the moff result files, within the ppm and
+     * retention time tolerance.
+     *
+     * If the moff results don't fit in the memory budget, the merge is done
+     * with an external sort-merge join. Precursor matching isn't available
+     * then, so such a merge fails with precursor matching on.
+     *
+     * @param mzTabFile the mzTab file
+     * @param moffResultFiles the moff result files by ms_run number
+     * @param outputMzTabFile the output mzTab file
+     * @param metrics the metrics to count the PSMs and unmatched PSMs in
+     * @throws IOException in case of a read or write problem
      */
-    private void merge(Path mzTabFile, Path moffResultFile, Path outputMzTabFile) {
-        //read the moff result file and populate the map
-        Map<Long, MoffResultLine> moffResultLines = new HashMap<>();
-        try (BufferedReader br = Files.newBufferedReader(moffResultFile)) {
+    public void merge(Path mzTabFile, SortedMap<Integer, Path> moffResultFiles, Path outputMzTabFile, JobMetrics metrics) throws IOException {
+        mergeAndRollUp(mzTabFile, moffResultFiles, outputMzTabFile, metrics);
+    }
+
+    /**
+     * Merge the mzTab file with the moff result files of its ms_runs, see
+     * {@link #merge(Path, SortedMap, Path, JobMetrics)}. With the rollup on,
+     * the moff intensities of the matched PSMs are rolled up in the same
+     * pass and the rollup table is written next to the output file.
+     *
+     * @param mzTabFile the mzTab file
+     * @param moffResultFiles the moff result files by ms_run number
+     * @param outputMzTabFile the output mzTab file
+     * @param metrics the metrics to count the PSMs and unmatched PSMs in
+     * @return the rollup, null if the rollup is off
+     * @throws IOException in case of a read or write problem
+     */
+    private QuantRollup mergeAndRollUp(Path mzTabFile, SortedMap<Integer, Path> moffResultFiles, Path outputMzTabFile, JobMetrics metrics) throws IOException {
+        QuantRollup fileRollup = rollup ? new QuantRollup() : null;
+        LOGGER.info("started parsing mzTab file " + mzTabFile);
+        //presize the store, the moff result lines are around 100 bytes long
+        long expectedSize = estimateMoffResults(moffResultFiles.values());
+
+        if (expectedSize * MOFF_RESULT_SIZE > memoryBudget) {
+            //the precursor index has to be in memory, don't silently merge without it
+            if (precursorMatching) {
+                throw new IOException("The moff results for " + mzTabFile + " don't fit in the memory budget of " + memoryBudget + " bytes; precursor matching isn't available with the external sort-merge join, raise the memory budget or turn precursor matching off.");
+            }
+            LOGGER.info("the moff results for " + mzTabFile + " don't fit in the memory budget of " + memoryBudget + " bytes, using an external sort-merge join");
+            mergeExternal(mzTabFile, moffResultFiles, outputMzTabFile, metrics, fileRollup);
+        } else {
+            MoffResultStore moffResults = readMoffResults(moffResultFiles, (int) Math.min(expectedSize, Integer.MAX_VALUE / 2));
+            PrecursorFallback precursorFallback = precursorMatching ? new PrecursorFallback(moffResults, readPrecursors(moffResultFiles, moffResults)) : null;
+            if (mergeMode == MergeMode.STREAMING) {
+                mergeStreaming(mzTabFile, (line, spectraRefStart, spectraRefEnd, values) -> {
+                    //resolve the spectra references in place
+                    int row = spectraRefStart < 0 ? MoffResultStore.NO_ROW : SpectraReferenceParser.findRow(moffResults, line, spectraRefStart, spectraRefEnd);
+                    if (row == MoffResultStore.NO_ROW) {
+                        return false;
+                    }
+                    getValues(moffResults, row, values);
+                    return true;
+                }, precursorFallback, outputMzTabFile, metrics, fileRollup);
+            } else {
+                mergeModel(mzTabFile, (psm, values) -> {
+                    int row = findRow(moffResults, psm);
+                    if (row == MoffResultStore.NO_ROW) {
+                        return false;
+                    }
+                    getValues(moffResults, row, values);
+                    return true;
+                }, precursorFallback, outputMzTabFile, metrics, fileRollup);
+            }
+            if (precursorFallback != null) {
+                LOGGER.info(precursorFallback.matches + " PSMs in " + mzTabFile + " matched on their precursor");
+            }
+        }
+        if (metrics.getUnmatchedRecords() > 0) {
+            LOGGER.warn(metrics.getUnmatchedRecords() + " of the " + metrics.getRecords() + " PSMs in " + mzTabFile + " have no match in the moff result files");
+        }
+        if (fileRollup != null) {
+            fileRollup.write(getRollupFile(outputMzTabFile));
+        }
+        return fileRollup;
+    }
+
+    /**
+     * Find the moff result files of the ms_runs of the given mzTab file. The
+     * ms_run locations are read from the mzTab metadata section; the moff
+     * result file of an ms_run has the base name of its location.
+     *
+     * @param mzTabFile the mzTab file
+     * @param moffResultDirectory the directory with the moff result files
+     * @return the moff result files by ms_run number, the ms_runs without moff
+     * result file are left out
+     * @throws IOException in case of a read problem
+     */
+    public SortedMap<Integer, Path> findMoffResultFiles(Path mzTabFile, Path moffResultDirectory) throws IOException {
+        SortedMap<Integer, Path> moffResultFiles = new TreeMap<>();
+        for (Map.Entry<Integer, String> msRunLocation : MzTabPsmReader.readMsRunLocations(mzTabFile).entrySet()) {
+            String location = msRunLocation.getValue();
+            String baseName = DatasetCatalog.getBaseName(location.substring(Math.max(location.lastIndexOf('/'), location.lastIndexOf('\\')) + 1));
+            for (String suffix : new String[]{MOFF_RESULT_SUFFIX, MOFF_RESULT_SUFFIX + GzipFiles.GZIP_EXTENSION}) {
+                Path moffResultFile = moffResultDirectory.resolve(baseName + suffix);
+                if (Files.exists(moffResultFile)) {
+                    moffResultFiles.put(msRunLocation.getKey(), moffResultFile);
+                    break;
+                }
+            }
+        }
+        return moffResultFiles;
+    }
+
+    /**
+     * Add the given moff result file for {@link MoffResultStore#ANY_MS_RUN},
+     * unless it's the moff result file of one of the ms_runs already.
+     *
+     * @param moffResultFiles the moff result files by ms_run number
+     * @param moffResultFile the moff result file
+     */
+    private static void addAnyMsRunFile(SortedMap<Integer, Path> moffResultFiles, Path moffResultFile) {
+        if (moffResultFiles.values().stream().noneMatch(file -> file.getFileName().equals(moffResultFile.getFileName()))) {
+            moffResultFiles.put(MoffResultStore.ANY_MS_RUN, moffResultFile);
+        }
+    }
+
+    /**
+     * Read the moff result files in one columnar store, keyed by ms_run and
+     * spectrum index. If there is a .moff2start file next to a moff result
+     * file, its rows can be found by scan number as well.
+     *
+     * @param moffResultFiles the moff result files by ms_run number
+     * @param expectedSize the expected number of moff results
+     * @return the moff results
+     * @throws IOException in case of a read problem
+     */
+    private MoffResultStore readMoffResults(SortedMap<Integer, Path> moffResultFiles, int expectedSize) throws IOException {
+        MoffResultStore moffResults = new MoffResultStore(expectedSize);
+        for (Map.Entry<Integer, Path> moffResultFile : moffResultFiles.entrySet()) {
+            int msRun = moffResultFile.getKey();
+            MoffResultReader.read(moffResultFile.getValue(), moffResults, msRun);
+            readScans(moffResultFile.getValue(), (spectrumIndex, scan) -> {
+                long scanKey = MoffResultStore.getKey(msRun, MoffResultStore.SCAN_REFERENCE, scan);
+                int row = moffResults.find(MoffResultStore.getKey(msRun, MoffResultStore.INDEX_REFERENCE, spectrumIndex));
+                if (scanKey != MoffResultStore.NO_KEY && row != MoffResultStore.NO_ROW) {
+                    moffResults.addAlias(scanKey, row);
+                }
+            });
+        }
+        return moffResults;
+    }
+
+    /**
+     * Read the scan numbers of the spectra from the INDEX and SCANS columns of
+     * the .moff2start file next to a moff result file, if there is one.
+     * Spectra with a SCANS value that isn't a single number are left out.
+     *
+     * @param moffResultFile the moff result file
+     * @param scanHandler the handler of the scan numbers
+     * @throws IOException in case of a read problem
+     */
+    private static void readScans(Path moffResultFile, ScanHandler scanHandler) throws IOException {
+        Path moff2StartFile = findMoff2StartFile(moffResultFile);
+        if (moff2StartFile == null) {
+            return;
+        }
+        try (BufferedReader reader = GzipFiles.newBufferedReader(moff2StartFile)) {
             //skip the header
-            String line = br.readLine();
-            while ((line = br.readLine()) != null) {
-                MoffResultLine moffResultLine = new MoffResultLine(line);
-                moffResultLines.put(moffResultLine.getSpectrumIndex(), moffResultLine);
-            }
-
-            //make a new mzTab file parser
-            MZTabFileParser mzTabFileParser = new MZTabFileParser(mzTabFile.toFile(), System.out);
-            Collection<PSM> psms = mzTabFileParser.getMZTabFile().getPSMs();
-
-            //add PSM moff column headers
-            mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(INTENSITY, Double.class);
-            mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(RT_PEAK, Double.class);
-            mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(LWHM, Double.class);
-            mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(RWHM, Double.class);
-            mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(SNR, Double.class);
-            mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(LOG_L_R, Double.class);
-            mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(LOG_INT, Double.class);
-
-            for (PSM psm : psms) {
-                String spectraReference = psm.getSpectraRef().get(0).getReference();
-                //strip the prefix
-                spectraReference = spectraReference.substring(spectraReference.indexOf(SPECTRUM_REFERENCE_PREFIX) + SPECTRUM_REFERENCE_PREFIX.length(), spectraReference.length());
-                Long spectrumReference = Long.valueOf(spectraReference);
-                //find the mathing moff result line           
-                if (moffResultLines.containsKey(spectrumReference)) {
-                    MoffResultLine moffResultLine = moffResultLines.get(spectrumReference);
-
-                    psm.setOptionColumnValue(INTENSITY, moffResultLine.getIntensity());
-                    psm.setOptionColumnValue(RT_PEAK, moffResultLine.getRtPeak());
-                    psm.setOptionColumnValue(LWHM, moffResultLine.getLwhm());
-                    psm.setOptionColumnValue(RWHM, moffResultLine.getRwhm());
-                    psm.setOptionColumnValue(SNR, moffResultLine.getSnr());
-                    psm.setOptionColumnValue(LOG_L_R, moffResultLine.getLogLR());
-                    psm.setOptionColumnValue(LOG_INT, moffResultLine.getLogInt());
-                } else {
-                    LOGGER.warn("No match in moff result file found for PSM with spectra reference " + psm.getSpectraRef().get(0).getReference());
-                }
-            }
-
-            //write the output mzTab file
-            OutputStream mzTabOutputStream = Files.newOutputStream(outputMzTabFile);
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                int indexEnd = line.indexOf(SEPARATOR);
+                if (indexEnd < 0) {
+                    continue;
+                }
+                int scansEnd = line.indexOf(SEPARATOR, indexEnd + 1);
+                long index = SpectraReferenceParser.parseNumber(line, 0, indexEnd);
+                long scan = SpectraReferenceParser.parseNumber(line, indexEnd + 1, scansEnd < 0 ? line.length() : scansEnd);
+                if (index >= 0 && scan >= 0) {
+                    scanHandler.scan(index, scan);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the .moff2start file (gzip compressed or not) next to a moff result
+     * file.
+     *
+     * @param moffResultFile the moff result file
+     * @return the .moff2start file, null if there is none
+     */
+    private static Path findMoff2StartFile(Path moffResultFile) {
+        Path directory = moffResultFile.toAbsolutePath().getParent();
+        String baseName = DatasetCatalog.getBaseName(moffResultFile);
+        for (String extension : new String[]{MOFF2START_EXTENSION, MOFF2START_EXTENSION + GzipFiles.GZIP_EXTENSION}) {
+            Path moff2StartFile = directory.resolve(baseName + extension);
+            if (Files.exists(moff2StartFile)) {
+                return moff2StartFile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the precursors of the spectra with a moff result from the
+     * .moff2start files next to the moff result files, sorted for matching.
+     *
+     * @param moffResultFiles the moff result files by ms_run number
+     * @param moffResults the moff results
+     * @return the precursor index
+     * @throws IOException in case of a read problem
+     */
+    private static PrecursorIndex readPrecursors(SortedMap<Integer, Path> moffResultFiles, MoffResultStore moffResults) throws IOException {
+        PrecursorIndex precursors = new PrecursorIndex(moffResults.size());
+        for (Map.Entry<Integer, Path> moffResultFile : moffResultFiles.entrySet()) {
+            Path moff2StartFile = findMoff2StartFile(moffResultFile.getValue());
+            if (moff2StartFile == null) {
+                LOGGER.warn("No .moff2start file found next to " + moffResultFile.getValue() + ", its spectra can't be matched on their precursor");
+                continue;
+            }
+            try (BufferedReader reader = GzipFiles.newBufferedReader(moff2StartFile)) {
+                String line = reader.readLine();
+                if (line == null) {
+                    continue;
+                }
+                List<String> columns = Arrays.asList(line.split(SEPARATOR, -1));
+                int indexColumn = columns.indexOf(MOFF2START_INDEX_COLUMN);
+                int pepMassColumn = columns.indexOf(MOFF2START_PEPMASS_COLUMN);
+                int rtColumn = columns.indexOf(MOFF2START_RT_COLUMN);
+                int chargeColumn = columns.indexOf(MOFF2START_CHARGE_COLUMN);
+                if (indexColumn < 0 || pepMassColumn < 0) {
+                    throw new IOException("No " + MOFF2START_INDEX_COLUMN + " or " + MOFF2START_PEPMASS_COLUMN + " column found in " + moff2StartFile);
+                }
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(SEPARATOR, -1);
+                    String index = getField(fields, indexColumn);
+                    long key = MoffResultStore.getKey(moffResultFile.getKey(), MoffResultStore.INDEX_REFERENCE, SpectraReferenceParser.parseNumber(index, 0, index.length()));
+                    double mz = parsePrecursorValue(getField(fields, pepMassColumn));
+                    //only the spectra with a moff result are of use
+                    if (key != MoffResultStore.NO_KEY && !Double.isNaN(mz) && moffResults.find(key) != MoffResultStore.NO_ROW) {
+                        precursors.add(key, mz, parsePrecursorValue(getField(fields, rtColumn)), parseCharge(getField(fields, chargeColumn)));
+                    }
+                }
+            }
+        }
+        precursors.sort();
+        return precursors;
+    }
+
+    private static String getField(String[] fields, int column) {
+        return column >= 0 && column < fields.length ? fields[column] : "";
+    }
+
+    /**
+     * Parse a precursor m/z or retention time value; of a '|' separated list
+     * of values the first one is taken.
+     *
+     * @param value the value, can be null
+     * @return the parsed value, NaN if there is no valid value
+     */
+    private static double parsePrecursorValue(String value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+        int end = value.indexOf('|');
+        try {
+            return Double.parseDouble(end < 0 ? value : value.substring(0, end));
+        } catch (NumberFormatException ex) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Parse a charge value like 2, 2+ or +2; of multiple charges the first
+     * one is taken.
+     *
+     * @param value the value, can be null
+     * @return the charge, {@link PrecursorIndex#UNKNOWN_CHARGE} if there is
+     * no valid charge
+     */
+    private static int parseCharge(String value) {
+        if (value == null) {
+            return PrecursorIndex.UNKNOWN_CHARGE;
+        }
+        int start = 0;
+        while (start < value.length() && (value.charAt(start) == '+' || value.charAt(start) == ' ')) {
+            start++;
+        }
+        int end = start;
+        while (end < value.length() && value.charAt(end) >= '0' && value.charAt(end) <= '9') {
+            end++;
+        }
+        long charge = SpectraReferenceParser.parseNumber(value, start, end);
+        return charge > 0 && charge <= Integer.MAX_VALUE ? (int) charge : PrecursorIndex.UNKNOWN_CHARGE;
+    }
+
+    /**
+     * Get the moff values of a row in the order of the moff columns.
+     *
+     * @param moffResults the moff results
+     * @param row the row
+     * @param values the array to put the moff values in
+     */
+    private static void getValues(MoffResultStore moffResults, int row, double[] values) {
+        values[0] = moffResults.getIntensity(row);
+        values[1] = moffResults.getRtPeak(row);
+        values[2] = moffResults.getLwhm(row);
+        values[3] = moffResults.getRwhm(row);
+        values[4] = moffResults.getSnr(row);
+        values[5] = moffResults.getLogLR(row);
+        values[6] = moffResults.getLogInt(row);
+    }
+
+    /**
+     * Find the moff result row of the first spectra reference of a PSM that
+     * has one.
+     *
+     * @param moffResults the moff results
+     * @param psm the PSM
+     * @return the row, {@link MoffResultStore#NO_ROW} if none matches
+     */
+    private static int findRow(MoffResultStore moffResults, PSM psm) {
+        if (psm.getSpectraRef() != null) {
+            for (SpectraRef spectraRef : psm.getSpectraRef()) {
+                String reference = spectraRef.getReference();
+                if (reference != null) {
+                    int row = SpectraReferenceParser.findRow(moffResults, SpectraReferenceParser.parseKey(getMsRun(spectraRef), reference, 0, reference.length()));
+                    if (row != MoffResultStore.NO_ROW) {
+                        return row;
+                    }
+                }
+            }
+        }
+        return MoffResultStore.NO_ROW;
+    }
+
+    /**
+     * Get the ms_run a PSM is matched on by precursor: that of its last
+     * spectra reference.
+     *
+     * @param psm the PSM
+     * @return the ms_run number, {@link MoffResultStore#ANY_MS_RUN} if unknown
+     */
+    private static int getPrecursorMsRun(PSM psm) {
+        int msRun = MoffResultStore.ANY_MS_RUN;
+        if (psm.getSpectraRef() != null) {
+            for (SpectraRef spectraRef : psm.getSpectraRef()) {
+                if (spectraRef.getReference() != null) {
+                    msRun = getMsRun(spectraRef);
+                }
+            }
+        }
+        return msRun;
+    }
+
+    private static int getMsRun(SpectraRef spectraRef) {
+        return spectraRef.getMsRun() != null && spectraRef.getMsRun().getId() != null ? spectraRef.getMsRun().getId() : MoffResultStore.ANY_MS_RUN;
+    }
+
+    /**
+     * Merge by loading the whole mzTab file in the jmztab model.
+     *
+     * @param mzTabFile the mzTab file
+     * @param psmMatcher the matcher of the PSMs with the moff results
+     * @param precursorFallback the matcher of the PSMs without spectra
+     * reference match, null for none
+     * @param outputMzTabFile the output mzTab file
+     * @param metrics the metrics to count the PSMs and unmatched PSMs in
+     * @param fileRollup the rollup of the matched PSMs, can be null
+     * @throws IOException in case of a read or write problem
+     */
+    private void mergeModel(Path mzTabFile, ModelPsmMatcher psmMatcher, PrecursorFallback precursorFallback, Path outputMzTabFile, JobMetrics metrics, QuantRollup fileRollup) throws IOException {
+        //jmztab only reads uncompressed files
+        Path uncompressedMzTabFile = GzipFiles.isGzip(mzTabFile) ? GzipFiles.decompressToTemporaryFile(mzTabFile) : mzTabFile;
+        //make a new mzTab file parser
+        MZTabFileParser mzTabFileParser;
+        try {
+            mzTabFileParser = new MZTabFileParser(uncompressedMzTabFile.toFile(), System.out);
+        } finally {
+            if (!uncompressedMzTabFile.equals(mzTabFile)) {
+                Files.delete(uncompressedMzTabFile);
+            }
+        }
+        Collection<PSM> psms = mzTabFileParser.getMZTabFile().getPSMs();
+
+        //add PSM moff column headers
+        mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(INTENSITY, Double.class);
+        mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(RT_PEAK, Double.class);
+        mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(LWHM, Double.class);
+        mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(RWHM, Double.class);
+        mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(SNR, Double.class);
+        mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(LOG_L_R, Double.class);
+        mzTabFileParser.getMZTabFile().getPsmColumnFactory().addOptionalColumn(LOG_INT, Double.class);
+        if (fileRollup != null) {
+            //the rollup keys are taken from the PSM lines as they're printed,
+            //like the streaming merge and QuantRollup.read do
+            fileRollup.setPsmHeader(mzTabFileParser.getMZTabFile().getPsmColumnFactory().toString());
+        }
+
+        double[] values = new double[MOFF_COLUMNS.length];
+        //the PSMs come in file order
+        for (PSM psm : psms) {
+            boolean matched = psmMatcher.match(psm, values);
+            if (!matched && precursorFallback != null) {
+                int msRun = getPrecursorMsRun(psm);
+                double rt = psm.getRetentionTime() != null && !psm.getRetentionTime().isEmpty() && psm.getRetentionTime().get(0) != null ? psm.getRetentionTime().get(0) : Double.NaN;
+                matched = precursorFallback.match(msRun, psm.getExpMassToCharge() != null ? psm.getExpMassToCharge() : Double.NaN,
+                        psm.getCharge() != null && psm.getCharge() > 0 ? psm.getCharge() : PrecursorIndex.UNKNOWN_CHARGE, rt, values);
+            }
+            if (matched) {
+                for (int i = 0; i < MOFF_COLUMNS.length; i++) {
+                    psm.setOptionColumnValue(MOFF_COLUMNS[i], values[i]);
+                }
+                if (fileRollup != null) {
+                    fileRollup.addPsmLine(psm.toString(), values[0], values[6]);
+                }
+            } else {
+                LOGGER.debug("No match in the moff result files found for PSM with spectra reference " + psm.getSpectraRef());
+                metrics.incrementUnmatchedRecords();
+            }
+            metrics.incrementRecords();
+        }
+
+        //write the output mzTab file
+        try (OutputStream mzTabOutputStream = GzipFiles.newOutputStream(outputMzTabFile)) {
             mzTabFileParser.getMZTabFile().printMZTab(mzTabOutputStream);
-        } catch (IOException ex) {
-            LOGGER.error(ex.getMessage());
         }
     }
 
     /**
-     * Check if the given mzTab file matches the moff result file.
+     * Merge by copying the mzTab file line by line. All lines except the PSH
+     * and PSM lines are copied as they are, the moff columns are appended to
+     * the PSH and PSM lines as optional global columns. The optional columns
+     * go after all other columns, as the mzTab column ordering requires.
      *
      * @param mzTabFile the mzTab file
-     * @param moffResultFile the moff result file
-     * @return whether the files match or not
+     * @param psmMatcher the matcher of the PSM lines with the moff results
+     * @param precursorFallback the matcher of the PSM lines without match,
+     * null for none
+     * @param outputMzTabFile the output mzTab file
+     * @param metrics the metrics to count the PSMs and unmatched PSMs in
+     * @param fileRollup the rollup of the matched PSMs, can be null
+     * @throws IOException in case of a read, write or format problem
      */
-    private boolean isMatchingMoffResultFile(Path mzTabFile, Path moffResultFile) {
-        //strip the file names from extensions
-        String mzTabFileName = mzTabFile.getFileName().toString();
-        if (mzTabFileName.endsWith(PRIDE_MZTAB_EXTENSION)) {
-            mzTabFileName = mzTabFileName.substring(0, mzTabFileName.indexOf(PRIDE_MZTAB_EXTENSION));
-        } else {
-            mzTabFileName = mzTabFileName.substring(0, mzTabFileName.indexOf(MZTAB_EXTENSION));
+    private void mergeStreaming(Path mzTabFile, PsmMatcher psmMatcher, PrecursorFallback precursorFallback, Path outputMzTabFile, JobMetrics metrics, QuantRollup fileRollup) throws IOException {
+        try (TsvWriter writer = new TsvWriter(outputMzTabFile)) {
+            //read the lines on the pipeline thread, merge and write them on this thread
+            pipeline.run(sink -> {
+                long lines = 0;
+                try (BufferedReader reader = GzipFiles.newBufferedReader(mzTabFile)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        sink.accept(line);
+                        lines++;
+                    }
+                }
+                return lines;
+            }, new RecordPipeline.RecordSink<String>() {
+                private final double[] values = new double[MOFF_COLUMNS.length];
+                private int spectraRefColumn = -1;
+                private int expMassToChargeColumn = -1;
+                private int chargeColumn = -1;
+                private int retentionTimeColumn = -1;
+
+                @Override
+                public void accept(String line) throws IOException {
+                    if (line.startsWith(PSH_PREFIX)) {
+                        List<String> columns = Arrays.asList(line.split(SEPARATOR, -1));
+                        spectraRefColumn = columns.indexOf(SPECTRA_REF_COLUMN);
+                        expMassToChargeColumn = columns.indexOf(EXP_MASS_TO_CHARGE_COLUMN);
+                        chargeColumn = columns.indexOf(CHARGE_COLUMN);
+                        retentionTimeColumn = columns.indexOf(RETENTION_TIME_COLUMN);
+                        if (spectraRefColumn < 0) {
+                            throw new IOException("No " + SPECTRA_REF_COLUMN + " column found in the PSM header of " + mzTabFile);
+                        }
+                        for (String moffColumn : MOFF_COLUMNS) {
+                            if (columns.contains(OPTIONAL_COLUMN_PREFIX + moffColumn)) {
+                                throw new IOException("The PSM section of " + mzTabFile + " already contains the moff column " + OPTIONAL_COLUMN_PREFIX + moffColumn);
+                            }
+                        }
+                        if (fileRollup != null) {
+                            fileRollup.setPsmHeader(line);
+                        }
+                        writer.write(line);
+                        for (String moffColumn : MOFF_COLUMNS) {
+                            writer.tab().write(OPTIONAL_COLUMN_PREFIX).write(moffColumn);
+                        }
+                    } else if (line.startsWith(PSM_PREFIX)) {
+                        if (spectraRefColumn < 0) {
+                            throw new IOException("PSM line found before the PSM header in " + mzTabFile);
+                        }
+                        int spectraRefStart = getFieldStart(line, spectraRefColumn);
+                        int spectraRefEnd = spectraRefStart < 0 ? -1 : getFieldEnd(line, spectraRefStart);
+
+                        writer.write(line);
+                        if (psmMatcher.match(line, spectraRefStart, spectraRefEnd, values) || (precursorFallback != null && matchPrecursor(line, spectraRefStart, spectraRefEnd))) {
+                            for (double value : values) {
+                                writeDouble(writer.tab(), value);
+                            }
+                            if (fileRollup != null) {
+                                fileRollup.addPsmLine(line, values[0], values[6]);
+                            }
+                        } else {
+                            if (LOGGER.isDebugEnabled()) {
+                                LOGGER.debug("No match in the moff result files found for PSM with spectra reference " + (spectraRefStart < 0 ? "" : line.substring(spectraRefStart, spectraRefEnd)));
+                            }
+                            metrics.incrementUnmatchedRecords();
+                            for (int i = 0; i < MOFF_COLUMNS.length; i++) {
+                                writer.tab().write(NULL);
+                            }
+                        }
+                        metrics.incrementRecords();
+                    } else {
+                        writer.write(line);
+                    }
+                    writer.newLine();
+                }
+
+                private boolean matchPrecursor(String line, int spectraRefStart, int spectraRefEnd) {
+                    int msRun = spectraRefStart < 0 ? MoffResultStore.ANY_MS_RUN : SpectraReferenceParser.parseMsRun(line, spectraRefStart, spectraRefEnd);
+                    return precursorFallback.match(msRun, parsePrecursorValue(getField(line, expMassToChargeColumn)), parseCharge(getField(line, chargeColumn)),
+                            parsePrecursorValue(getField(line, retentionTimeColumn)), values);
+                }
+            });
         }
-        String moffResultFileName = moffResultFile.getFileName().toString();
-        moffResultFileName = moffResultFileName.substring(0, moffResultFileName.indexOf(MOFF_RESULT_EXTENSION));
-        if (mzTabFileName.equals(moffResultFileName)) {
-            return true;
+    }
+
+    /**
+     * Merge with an external sort-merge join, for moff results that don't fit
+     * in the memory budget. The temporary files are written next to the
+     * output file. The mzTab file is read twice: once for the spectra
+     * references and once to write the output in the requested merge mode;
+     * the model mode gets the matches in PSM order from the join, so its
+     * output is the same as with the in-memory store.
+     *
+     * @param mzTabFile the mzTab file
+     * @param moffResultFiles the moff result files by ms_run number
+     * @param outputMzTabFile the output mzTab file
+     * @param metrics the metrics to count the PSMs and unmatched PSMs in
+     * @param fileRollup the rollup of the matched PSMs, can be null
+     * @throws IOException in case of a read, write or format problem
+     */
+    private void mergeExternal(Path mzTabFile, SortedMap<Integer, Path> moffResultFiles, Path outputMzTabFile, JobMetrics metrics, QuantRollup fileRollup) throws IOException {
+        try (ExternalMoffJoin join = new ExternalMoffJoin(memoryBudget, outputMzTabFile.toAbsolutePath().getParent())) {
+            for (Map.Entry<Integer, Path> moffResultFile : moffResultFiles.entrySet()) {
+                int msRun = moffResultFile.getKey();
+                join.addMoffResults(msRun, moffResultFile.getValue());
+                readScans(moffResultFile.getValue(), (spectrumIndex, scan) -> join.addScan(msRun, spectrumIndex, scan));
+            }
+            //collect the spectra references of the PSMs
+            try (BufferedReader reader = GzipFiles.newBufferedReader(mzTabFile)) {
+                int spectraRefColumn = -1;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith(PSH_PREFIX)) {
+                        spectraRefColumn = Arrays.asList(line.split(SEPARATOR, -1)).indexOf(SPECTRA_REF_COLUMN);
+                    } else if (line.startsWith(PSM_PREFIX)) {
+                        int spectraRefStart = spectraRefColumn < 0 ? -1 : getFieldStart(line, spectraRefColumn);
+                        if (spectraRefStart < 0) {
+                            join.addPsm(line, 0, -1);
+                        } else {
+                            join.addPsm(line, spectraRefStart, getFieldEnd(line, spectraRefStart));
+                        }
+                    }
+                }
+            }
+            join.join();
+            LOGGER.info("joined the moff results for " + mzTabFile + " using " + join.getSpilledRunCount() + " temporary files");
+
+            if (mergeMode == MergeMode.STREAMING) {
+                mergeStreaming(mzTabFile, (line, spectraRefStart, spectraRefEnd, values) -> join.nextPsm(values), null, outputMzTabFile, metrics, fileRollup);
+            } else {
+                mergeModel(mzTabFile, (psm, values) -> join.nextPsm(values), null, outputMzTabFile, metrics, fileRollup);
+            }
+        }
+    }
+
+    /**
+     * Get the field with the given index in a tab separated line.
+     *
+     * @param line the line
+     * @param fieldIndex the field index, -1 for none
+     * @return the field, null if the line has fewer fields
+     */
+    private static String getField(String line, int fieldIndex) {
+        int start = fieldIndex < 0 ? -1 : getFieldStart(line, fieldIndex);
+        return start < 0 ? null : line.substring(start, getFieldEnd(line, start));
+    }
+
+    /**
+     * Get the start of the field with the given index in a tab separated
+     * line.
+     *
+     * @param line the line
+     * @param fieldIndex the field index
+     * @return the start of the field, -1 if the line has fewer fields
+     */
+    private static int getFieldStart(String line, int fieldIndex) {
+        int start = 0;
+        for (int i = 0; i < fieldIndex; i++) {
+            start = line.indexOf(SEPARATOR, start);
+            if (start < 0) {
+                return -1;
+            }
+            start += SEPARATOR.length();
+        }
+        return start;
+    }
+
+    /**
+     * Get the end of the field that starts at the given position in a tab
+     * separated line.
+     *
+     * @param line the line
+     * @param fieldStart the start of the field
+     * @return the end of the field (exclusive)
+     */
+    private static int getFieldEnd(String line, int fieldStart) {
+        int end = line.indexOf(SEPARATOR, fieldStart);
+        return end < 0 ? line.length() : end;
+    }
+
+    /**
+     * Write a double value the way the jmztab model prints it.
+     *
+     * @param writer the output writer
+     * @param value the value
+     * @throws IOException in case of a write problem
+     */
+    private static void writeDouble(TsvWriter writer, double value) throws IOException {
+        if (Double.isNaN(value)) {
+            writer.write(NAN);
+        } else if (value == Double.POSITIVE_INFINITY) {
+            writer.write(INFINITY);
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            writer.write(NEGATIVE_INFINITY);
         } else {
-            return false;
+            writer.write(value);
         }
     }
 
@@ -1,11 +1,25 @@
 package com.compomics.mztabparser;
 
-import java.io.BufferedWriter;
+import com.compomics.mztabparser.batch.BatchRunner;
+import com.compomics.mztabparser.batch.BatchSummary;
+import com.compomics.mztabparser.batch.FileJob;
+import com.compomics.mztabparser.batch.JobMetrics;
+import com.compomics.mztabparser.batch.Stage;
+import com.compomics.mztabparser.io.DictionaryTableWriter;
+import com.compomics.mztabparser.io.GzipFiles;
+import com.compomics.mztabparser.io.MzTabPsmReader;
+import com.compomics.mztabparser.io.TsvWriter;
+import com.compomics.mztabparser.model.PsmRecord;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.LogManager;
 import uk.ac.ebi.pride.jmztab.model.PSM;
@@ -22,9 +36,71 @@ public class MzTabParser {
      * The child directory of the input directory that contains the mzTab files.
      */
     private static final String CHILD_DIRECTORY = "submitted";
+    /**
+     * The glob pattern of the mzTab file names.
+     */
+    public static final String MZTAB_FILE_GLOB = "*.{mztab,mzTab,MZTAB,mztab.gz,mzTab.gz,MZTAB.gz}";
     private static final String SEPARATOR = "\t";
     private static final String HEADER = "prot" + SEPARATOR + "expMZ" + SEPARATOR + "calcMZ" + SEPARATOR + "modification" + SEPARATOR + "peptide" + SEPARATOR + "charge" + SEPARATOR + "spectraRef";
     private static final String OUTPUT_EXTENSION = ".txt";
+    private static final String DICTIONARY_OUTPUT_EXTENSION = ".dict.txt";
+    /**
+     * The dictionary encoded columns, the ones that repeat across PSMs.
+     */
+    private static final List<String> DICTIONARY_COLUMNS = Arrays.asList("prot", "modification", "peptide");
+    /**
+     * The PSM columns of the export, in the order of the output columns.
+     */
+    private static final List<String> PSM_COLUMNS = Arrays.asList(PsmRecord.ACCESSION, PsmRecord.EXP_MASS_TO_CHARGE, PsmRecord.CALC_MASS_TO_CHARGE,
+            PsmRecord.MODIFICATIONS, PsmRecord.SEQUENCE, PsmRecord.CHARGE, PsmRecord.SPECTRA_REF);
+    private static final String NULL = "null";
+
+    /**
+     * The validation of the mzTab files.
+     */
+    public enum Validation {
+        /**
+         * Parse the whole mzTab file with jmztab, which validates all sections
+         * and reports the errors.
+         */
+        FULL,
+        /**
+         * Read only the exported PSM columns, without validation.
+         */
+        NONE
+    }
+
+    /**
+     * Writes the rows of the PSM export.
+     */
+    private interface PsmExportWriter extends Closeable {
+
+        /**
+         * Write a row; the values are rendered the way {@link TsvWriter}
+         * renders them.
+         *
+         * @param row the values, one per output column
+         * @throws IOException in case of a write problem
+         */
+        void writeRow(Object... row) throws IOException;
+    }
+
+    /**
+     * The runner for the per file jobs.
+     */
+    private BatchRunner batchRunner = new BatchRunner();
+    /**
+     * Whether to gzip compress the output files.
+     */
+    private boolean compressOutput = false;
+    /**
+     * Whether to write dictionary encoded output files.
+     */
+    private boolean dictionaryOutput = false;
+    /**
+     * The validation of the mzTab files.
+     */
+    private Validation validation = Validation.FULL;
 
     /**
      * No-arg constructor
@@ -32,17 +108,50 @@ public class MzTabParser {
     public MzTabParser() {
     }
 
+    public BatchRunner getBatchRunner() {
+        return batchRunner;
+    }
+
+    public void setBatchRunner(BatchRunner batchRunner) {
+        this.batchRunner = batchRunner;
+    }
+
+    public boolean isCompressOutput() {
+        return compressOutput;
+    }
+
+    public void setCompressOutput(boolean compressOutput) {
+        this.compressOutput = compressOutput;
+    }
+
+    public boolean isDictionaryOutput() {
+        return dictionaryOutput;
+    }
+
+    public void setDictionaryOutput(boolean dictionaryOutput) {
+        this.dictionaryOutput = dictionaryOutput;
+    }
+
+    public Validation getValidation() {
+        return validation;
+    }
+
+    public void setValidation(Validation validation) {
+        this.validation = validation;
+    }
+
     /**
      * Parse the mzTab files in the input directory and write them to the output
      * directory.
      *
      * @param inputDirectory the input directory
      * @param outputDirectory the output directory
+     * @return the summary of the processed files
      * @throws IOException in case of directory read problem
      * @throws IllegalArgumentException in case of invalid input or output
      * locations
      */
-    public void parse(Path inputDirectory, Path outputDirectory) throws IOException {
+    public BatchSummary parse(Path inputDirectory, Path outputDirectory) throws IOException {
         LOGGER.info("started parsing mzTab files in " + inputDirectory);
 
         //check whether the provided directories exist
@@ -59,36 +168,212 @@ public class MzTabParser {
         }
 
         //look for mzTab files and parse them
-        DirectoryStream<Path> mzTabFiles = Files.newDirectoryStream(childDirectory, "*.{mztab,mzTab,MZTAB}");
-        for (Path mzTab : mzTabFiles) {
-            parseMzTabFile(mzTab, outputDirectory);
+        List<FileJob> jobs = new ArrayList<>();
+        try (DirectoryStream<Path> mzTabFiles = Files.newDirectoryStream(childDirectory, MZTAB_FILE_GLOB)) {
+            for (Path mzTab : mzTabFiles) {
+                Path outputFile = getOutputFile(mzTab, outputDirectory);
+                jobs.add(new FileJob(Stage.MZTAB_EXPORT, Collections.singletonList(mzTab), outputFile, estimateHeap(mzTab), metrics -> parseMzTabFile(mzTab, outputFile, metrics)));
+            }
         }
+        BatchSummary batchSummary = batchRunner.run(jobs, Stage.MZTAB_EXPORT, outputDirectory);
 
         LOGGER.info("finished parsing mzTab files in " + inputDirectory + ", output written to " + outputDirectory);
+
+        return batchSummary;
     }
 
     /**
-     * Parse the give mzTab file and write the output file to the output
-     * directory.
+     * Estimate the heap use of the PSM export of an mzTab file, for the
+     * admission of the export job against the heap budget of the batch
+     * runner: the jmztab model with full validation, only the buffers
+     * otherwise.
+     *
+     * @param mzTabFile the mzTab file
+     * @return the estimated heap use in bytes
+     * @throws IOException in case of a file size problem
+     */
+    public long estimateHeap(Path mzTabFile) throws IOException {
+        return Stage.MZTAB_EXPORT.estimateHeap(validation == Validation.FULL ? GzipFiles.estimateUncompressedSize(mzTabFile) : 0);
+    }
+
+    /**
+     * Get the PSM export output file for the given (possibly gzip compressed)
+     * mzTab file, with a .gz extension if the output is compressed; a
+     * dictionary encoded output file ends with .dict.txt.
      *
      * @param mzTabFile the mzTab file
      * @param outputDirectory the output directory
+     * @return the output file
      */
-    private void parseMzTabFile(Path mzTabFile, Path outputDirectory) {
+    public Path getOutputFile(Path mzTabFile, Path outputDirectory) {
+        String mzTabFileName = GzipFiles.removeGzipExtension(mzTabFile.getFileName().toString());
+        return outputDirectory.resolve(FilenameUtils.removeExtension(mzTabFileName) + (dictionaryOutput ? DICTIONARY_OUTPUT_EXTENSION : OUTPUT_EXTENSION) + (compressOutput ? GzipFiles.GZIP_EXTENSION : ""));
+    }
+
+    /**
+     * Parse the give mzTab file and write the PSM export output file.
+     *
+     * @param mzTabFile the mzTab file
+     * @param outputFile the output file
+     * @throws IOException in case of a read or write problem
+     */
+    public void parseMzTabFile(Path mzTabFile, Path outputFile) throws IOException {
+        parseMzTabFile(mzTabFile, outputFile, new JobMetrics());
+    }
+
+    /**
+     * Parse the give mzTab file and write the PSM export output file. With
+     * full validation the file is parsed with jmztab, otherwise only the
+     * exported PSM columns are read; the output is the same for a valid
+     * mzTab file.
+     *
+     * @param mzTabFile the mzTab file
+     * @param outputFile the output file
+     * @param metrics the metrics to count the PSMs in
+     * @throws IOException in case of a read or write problem
+     */
+    public void parseMzTabFile(Path mzTabFile, Path outputFile, JobMetrics metrics) throws IOException {
         LOGGER.info("started parsing mzTab file " + mzTabFile);
-        Path outputFile = outputDirectory.resolve(FilenameUtils.removeExtension(mzTabFile.getFileName().toString()) + OUTPUT_EXTENSION);
-        try (BufferedWriter writer = Files.newBufferedWriter(outputFile)) {
+        if (validation == Validation.FULL) {
+            parseValidated(mzTabFile, outputFile, metrics);
+        } else {
+            parseUnvalidated(mzTabFile, outputFile, metrics);
+        }
+    }
+
+    /**
+     * Parse the whole mzTab file with jmztab and export the PSMs.
+     *
+     * @param mzTabFile the mzTab file
+     * @param outputFile the output file
+     * @param metrics the metrics to count the PSMs in
+     * @throws IOException in case of a read or write problem
+     */
+    private void parseValidated(Path mzTabFile, Path outputFile, JobMetrics metrics) throws IOException {
+        //jmztab only reads uncompressed files
+        Path uncompressedMzTabFile = GzipFiles.isGzip(mzTabFile) ? GzipFiles.decompressToTemporaryFile(mzTabFile) : mzTabFile;
+        try {
             //make a new mzTab file parser
-            MZTabFileParser mzTabFileParser = new MZTabFileParser(mzTabFile.toFile(), System.out);
+            MZTabFileParser mzTabFileParser = new MZTabFileParser(uncompressedMzTabFile.toFile(), System.out);
             Collection<PSM> psms = mzTabFileParser.getMZTabFile().getPSMs();
-            writer.write(HEADER);
-            for (PSM psm : psms) {
-                writer.newLine();
-                writer.write(psm.getAccession() + SEPARATOR + psm.getExpMassToCharge() + SEPARATOR + psm.getCalcMassToCharge() + SEPARATOR + psm.getModifications() + SEPARATOR + psm.getSequence() + SEPARATOR + psm.getCharge() + SEPARATOR + psm.getSpectraRef());
+            try (PsmExportWriter writer = createWriter(outputFile)) {
+                for (PSM psm : psms) {
+                    writer.writeRow(psm.getAccession(), psm.getExpMassToCharge(), psm.getCalcMassToCharge(), psm.getModifications(), psm.getSequence(), psm.getCharge(), psm.getSpectraRef());
+                    metrics.incrementRecords();
+                }
+            }
+        } finally {
+            if (!uncompressedMzTabFile.equals(mzTabFile)) {
+                Files.delete(uncompressedMzTabFile);
+            }
+        }
+    }
+
+    /**
+     * Export the PSMs reading only the exported PSM columns. The numbers are
+     * parsed and rendered the way jmztab does, the other values are copied
+     * as they are.
+     *
+     * @param mzTabFile the mzTab file
+     * @param outputFile the output file
+     * @param metrics the metrics to count the PSMs in
+     * @throws IOException in case of a read or write problem
+     */
+    private void parseUnvalidated(Path mzTabFile, Path outputFile, JobMetrics metrics) throws IOException {
+        try (MzTabPsmReader reader = new MzTabPsmReader(mzTabFile, PSM_COLUMNS);
+                PsmExportWriter writer = createWriter(outputFile)) {
+            String[] values = reader.getValues();
+            while (reader.next()) {
+                writer.writeRow(values[0], parseDouble(values[1]), parseDouble(values[2]), values[3], values[4], parseInteger(values[5]), values[6]);
+                metrics.incrementRecords();
             }
-        } catch (IOException ex) {
-            LOGGER.error(ex.getMessage());
         }
     }
 
+    /**
+     * Parse an mzTab double value the way jmztab does.
+     *
+     * @param value the value, can be null
+     * @return the parsed value, null for the mzTab null value or an invalid
+     * value
+     */
+    private static Double parseDouble(String value) {
+        if (value == null || value.equals(NULL)) {
+            return null;
+        }
+        switch (value) {
+            case "INF":
+                return Double.POSITIVE_INFINITY;
+            case "-INF":
+                return Double.NEGATIVE_INFINITY;
+            default:
+                try {
+                    return Double.valueOf(value);
+                } catch (NumberFormatException ex) {
+                    return null;
+                }
+        }
+    }
+
+    /**
+     * Parse an mzTab integer value the way jmztab does.
+     *
+     * @param value the value, can be null
+     * @return the parsed value, null for the mzTab null value or an invalid
+     * value
+     */
+    private static Integer parseInteger(String value) {
+        if (value == null || value.equals(NULL)) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Create the writer of the PSM export, dictionary encoded or not.
+     *
+     * @param outputFile the output file
+     * @return the writer
+     * @throws IOException in case of a file creation problem
+     */
+    private PsmExportWriter createWriter(Path outputFile) throws IOException {
+        if (dictionaryOutput) {
+            DictionaryTableWriter writer = new DictionaryTableWriter(outputFile, Arrays.asList(HEADER.split(SEPARATOR)), DICTIONARY_COLUMNS);
+            return new PsmExportWriter() {
+                @Override
+                public void writeRow(Object... row) throws IOException {
+                    writer.writeRow(row);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    writer.close();
+                }
+            };
+        }
+        TsvWriter writer = new TsvWriter(outputFile);
+        writer.write(HEADER);
+        return new PsmExportWriter() {
+            @Override
+            public void writeRow(Object... row) throws IOException {
+                writer.newLine();
+                for (int i = 0; i < row.length; i++) {
+                    if (i > 0) {
+                        writer.tab();
+                    }
+                    writer.write(row[i]);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+        };
+    }
+
 }
@@ -0,0 +1,208 @@
+package com.compomics.mztabparser;
+
+import com.compomics.mztabparser.model.MgfHeaderRecord;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Scans a single MGF file in parallel. The file is split into byte ranges that
+ * start at a BEGIN IONS line, the ranges are scanned on a fork-join pool and
+ * the header records are passed to the handler in file order, with the same
+ * global spectrum indices the serial {@link MgfHeaderScanner} produces.
+ *
+ * @author niels
+ */
+public class ParallelMgfScanner {
+
+    /**
+     * The default chunk size in bytes.
+     */
+    public static final long DEFAULT_CHUNK_SIZE = 64L << 20;
+    /**
+     * The number of bytes mapped at once while looking for a chunk boundary.
+     */
+    private static final int BOUNDARY_SEARCH_WINDOW = 1 << 20;
+    private static final byte[] BEGIN_IONS = "BEGIN IONS".getBytes(StandardCharsets.US_ASCII);
+
+    private final ForkJoinPool forkJoinPool;
+    private final long chunkSize;
+
+    /**
+     * Constructor.
+     *
+     * @param forkJoinPool the pool the chunks are scanned on
+     * @param chunkSize the approximate chunk size in bytes
+     */
+    public ParallelMgfScanner(ForkJoinPool forkJoinPool, long chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size should be at least 1 byte.");
+        }
+        this.forkJoinPool = forkJoinPool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Scan the whole MGF file.
+     *
+     * @param mgfFile the MGF file
+     * @param handler the handler for the spectrum headers, called in file order
+     * from the calling thread
+     * @return the number of spectra found
+     * @throws IOException in case of a read or format problem
+     */
+    public long scan(Path mgfFile, MgfHeaderScanner.RecordHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(mgfFile, StandardOpenOption.READ)) {
+            long[] boundaries = findChunkBoundaries(channel, chunkSize);
+
+            //keep a limited number of chunks in flight so the memory use doesn't
+            //depend on the file size
+            int maxChunksInFlight = 2 * forkJoinPool.getParallelism();
+            Deque<ForkJoinTask<List<MgfHeaderRecord>>> chunksInFlight = new ArrayDeque<>();
+            int nextChunk = 0;
+            long numberOfSpectra = 0;
+            try {
+                while (nextChunk < boundaries.length - 1 || !chunksInFlight.isEmpty()) {
+                    while (nextChunk < boundaries.length - 1 && chunksInFlight.size() < maxChunksInFlight) {
+                        long start = boundaries[nextChunk];
+                        long end = boundaries[nextChunk + 1];
+                        chunksInFlight.addLast(forkJoinPool.submit(() -> scanChunk(channel, start, end)));
+                        nextChunk++;
+                    }
+                    //the records of a chunk are numbered from 0, shift them by the
+                    //number of spectra in the preceding chunks
+                    List<MgfHeaderRecord> records = chunksInFlight.removeFirst().get();
+                    for (MgfHeaderRecord record : records) {
+                        handler.handle(new MgfHeaderRecord(numberOfSpectra + record.getIndex(), record.getScans(), record.getPeptideMass(), record.getRetentionTime(), record.getChargeState(), record.getOffset(), record.getLength()));
+                    }
+                    numberOfSpectra += records.size();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while scanning " + mgfFile, ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            } finally {
+                for (ForkJoinTask<List<MgfHeaderRecord>> chunk : chunksInFlight) {
+                    chunk.cancel(true);
+                }
+            }
+
+            return numberOfSpectra;
+        }
+    }
+
+    /**
+     * Scan a single chunk.
+     *
+     * @param channel the MGF file channel
+     * @param start the chunk start
+     * @param end the chunk end
+     * @return the header records with chunk local indices
+     * @throws IOException in case of a read or format problem
+     */
+    private List<MgfHeaderRecord> scanChunk(FileChannel channel, long start, long end) throws IOException {
+        List<MgfHeaderRecord> records = new ArrayList<>();
+        new MgfHeaderScanner().scan(channel, start, end, 0, records::add);
+        return records;
+    }
+
+    /**
+     * Split the file in chunks of approximately the given size, each chunk
+     * starts at the beginning of a BEGIN IONS line.
+     *
+     * @param channel the MGF file channel
+     * @param chunkSize the approximate chunk size
+     * @return the chunk boundaries, starting with 0 and ending with the file
+     * size
+     * @throws IOException in case of a read problem
+     */
+    static long[] findChunkBoundaries(FileChannel channel, long chunkSize) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long target = chunkSize;
+        while (target < size) {
+            long boundary = findBlockStart(channel, target, size);
+            if (boundary >= size) {
+                break;
+            }
+            boundaries.add(boundary);
+            target = boundary + chunkSize;
+        }
+        boundaries.add(size);
+
+        long[] boundaryArray = new long[boundaries.size()];
+        for (int i = 0; i < boundaryArray.length; i++) {
+            boundaryArray[i] = boundaries.get(i);
+        }
+        return boundaryArray;
+    }
+
+    /**
+     * Find the start of the first line at or after the given offset that
+     * starts with BEGIN IONS.
+     *
+     * @param channel the MGF file channel
+     * @param from the offset to start looking from
+     * @param size the file size
+     * @return the line start, or the file size if there is no such line
+     * @throws IOException in case of a read problem
+     */
+    private static long findBlockStart(FileChannel channel, long from, long size) throws IOException {
+        //start one byte earlier so a line starting exactly at the offset is found
+        long position = from - 1;
+        while (position < size) {
+            int windowSize = (int) Math.min(size - position, BOUNDARY_SEARCH_WINDOW);
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                if (window.get(i) == '\n') {
+                    long lineStart = position + i + 1;
+                    if (lineStart + BEGIN_IONS.length > size) {
+                        return size;
+                    }
+                    if (startsWithBeginIons(channel, window, i + 1, windowSize, lineStart)) {
+                        return lineStart;
+                    }
+                }
+            }
+            //overlap with the next window is not needed, the newline is the
+            //last byte that has to be in the window
+            position += windowSize;
+        }
+        return size;
+    }
+
+    private static boolean startsWithBeginIons(FileChannel channel, ByteBuffer window, int offset, int windowSize, long lineStart) throws IOException {
+        if (offset + BEGIN_IONS.length <= windowSize) {
+            for (int i = 0; i < BEGIN_IONS.length; i++) {
+                if (window.get(offset + i) != BEGIN_IONS[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        //the line starts near the end of the window
+        ByteBuffer lineBuffer = channel.map(FileChannel.MapMode.READ_ONLY, lineStart, BEGIN_IONS.length);
+        for (int i = 0; i < BEGIN_IONS.length; i++) {
+            if (lineBuffer.get(i) != BEGIN_IONS[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,602 @@
+package com.compomics.mztabparser;
+
+import com.compomics.mztabparser.batch.BatchSummary;
+import com.compomics.mztabparser.batch.FileJobResult;
+import com.compomics.mztabparser.batch.Stage;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Long-running daemon mode. The daemon stays resident, so the class loading
+ * and JIT warm-up are paid once, and runs the submitted dataset jobs on a
+ * fixed pool of worker threads. A job names an operation (mgf_extract,
+ * mztab_export or merge) and an input/output directory pair, it processes
+ * the directories like the corresponding command-line mode does.
+ *
+ * Jobs are submitted over a socket on the loopback address, one command per
+ * line. Any local user can connect to the socket, so a client first has to
+ * send "auth &lt;token&gt;" with the token the daemon writes to its token
+ * file, readable by the owner only, before it can send:
+ * <ul>
+ * <li>submit &lt;operation&gt; &lt;input directory&gt; &lt;output
+ * directory&gt; answers "queued &lt;job id&gt;"</li>
+ * <li>status &lt;job id&gt; answers the status line of the job</li>
+ * <li>jobs answers the status lines of the recent jobs, followed by an empty
+ * line</li>
+ * </ul>
+ * or as &lt;name&gt;.job files in a spool directory, with the operation and
+ * the directories on one line. A spool job is renamed to
+ * &lt;name&gt;.job.accepted when it's queued; when it's finished a
+ * &lt;name&gt;.status file with the status line and the per file results is
+ * written and the job file is removed. Job files should be moved into the
+ * spool directory once they're written. The values are separated by tabs, or
+ * by whitespace if the line has no tabs; relative directories are resolved
+ * against the working directory of the daemon.
+ *
+ * @author niels
+ */
+public class ParserDaemon {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(ParserDaemon.class);
+
+    /**
+     * The spool job file extension.
+     */
+    public static final String JOB_EXTENSION = ".job";
+    private static final String ACCEPTED_EXTENSION = ".accepted";
+    private static final String STATUS_EXTENSION = ".status";
+    private static final long POLL_MILLIS = 500;
+    /**
+     * The read timeout of a client connection until it has authenticated.
+     */
+    private static final int AUTH_TIMEOUT_MILLIS = 5000;
+    /**
+     * The read timeout of an authenticated client connection.
+     */
+    private static final int CLIENT_TIMEOUT_MILLIS = 30000;
+    /**
+     * The number of client connections served at the same time.
+     */
+    private static final int CLIENT_THREADS = 8;
+    /**
+     * The number of jobs kept for the status commands.
+     */
+    private static final int MAX_JOB_HISTORY = 1000;
+    /**
+     * The number of random bytes of the socket token.
+     */
+    private static final int TOKEN_BYTES = 16;
+
+    /**
+     * The job state.
+     */
+    public enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    /**
+     * A submitted dataset job.
+     */
+    private static class DaemonJob {
+
+        private final long id;
+        private final Stage stage;
+        private final Path inputDirectory;
+        private final Path outputDirectory;
+        /**
+         * The accepted spool job file, null for socket jobs.
+         */
+        private final Path spoolFile;
+        private final long queuedTime = System.currentTimeMillis();
+        private volatile State state = State.QUEUED;
+        private volatile long startTime;
+        private volatile long endTime;
+        private volatile BatchSummary batchSummary;
+        private volatile String message;
+
+        DaemonJob(long id, Stage stage, Path inputDirectory, Path outputDirectory, Path spoolFile) {
+            this.id = id;
+            this.stage = stage;
+            this.inputDirectory = inputDirectory;
+            this.outputDirectory = outputDirectory;
+            this.spoolFile = spoolFile;
+        }
+
+        /**
+         * Get the status line: id, operation, state, directories, wait and
+         * run time, and the file counts once the job is finished.
+         *
+         * @return the status line
+         */
+        String getStatusLine() {
+            long now = System.currentTimeMillis();
+            StringBuilder statusLine = new StringBuilder();
+            statusLine.append(id).append('\t').append(stage.name().toLowerCase()).append('\t').append(state)
+                    .append('\t').append(inputDirectory).append('\t').append(outputDirectory)
+                    .append("\twait_ms=").append((startTime == 0 ? now : startTime) - queuedTime)
+                    .append("\trun_ms=").append(startTime == 0 ? 0 : (endTime == 0 ? now : endTime) - startTime);
+            BatchSummary summary = batchSummary;
+            if (summary != null) {
+                statusLine.append("\tsucceeded=").append(summary.getResults(FileJobResult.Status.SUCCEEDED).size())
+                        .append("\tfailed=").append(summary.getResults(FileJobResult.Status.FAILED).size())
+                        .append("\tskipped=").append(summary.getResults(FileJobResult.Status.SKIPPED).size());
+            }
+            if (message != null) {
+                statusLine.append('\t').append(message);
+            }
+            return statusLine.toString();
+        }
+    }
+
+    private final MgfParser mgfParser;
+    private final MzTabParser mzTabParser;
+    private final MzTabMerger mzTabMerger;
+    private final AtomicLong nextJobId = new AtomicLong(1);
+    /**
+     * The recent jobs by id.
+     */
+    private final Map<Long, DaemonJob> jobs = new LinkedHashMap<Long, DaemonJob>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, DaemonJob> eldest) {
+            return size() > MAX_JOB_HISTORY;
+        }
+    };
+    /**
+     * The file the socket token is written to.
+     */
+    private Path tokenFile = getDefaultTokenFile();
+    private ExecutorService executorService;
+    /**
+     * The threads that serve the client connections.
+     */
+    private ExecutorService clientExecutorService;
+    private ServerSocket serverSocket;
+    private String token;
+    private volatile boolean running;
+    /**
+     * Counted down once the queued jobs have run after a stop.
+     */
+    private volatile CountDownLatch stopped;
+
+    /**
+     * Constructor.
+     *
+     * @param mgfParser the configured MGF parser
+     * @param mzTabParser the configured mzTab parser
+     * @param mzTabMerger the configured mzTab merger
+     */
+    public ParserDaemon(MgfParser mgfParser, MzTabParser mzTabParser, MzTabMerger mzTabMerger) {
+        this.mgfParser = mgfParser;
+        this.mzTabParser = mzTabParser;
+        this.mzTabMerger = mzTabMerger;
+    }
+
+    /**
+     * Get the default token file, in the home directory of the user.
+     *
+     * @return the token file
+     */
+    public static Path getDefaultTokenFile() {
+        return Paths.get(System.getProperty("user.home"), ".mztabparser-daemon.token");
+    }
+
+    public Path getTokenFile() {
+        return tokenFile;
+    }
+
+    public void setTokenFile(Path tokenFile) {
+        this.tokenFile = tokenFile;
+    }
+
+    /**
+     * Run the daemon until {@link #stop()} is called and the jobs that are
+     * already queued have run. If the thread is interrupted the jobs that
+     * haven't started yet are dropped.
+     *
+     * @param port the loopback port to accept jobs on, 0 for no socket
+     * @param spoolDirectory the spool directory to poll for job files, null
+     * for no spool directory
+     * @param threads the number of jobs that run at the same time
+     * @throws IOException in case of a socket or spool directory problem
+     * @throws IllegalArgumentException in case of an invalid spool directory
+     */
+    public void run(int port, Path spoolDirectory, int threads) throws IOException {
+        if (spoolDirectory != null && !Files.isDirectory(spoolDirectory)) {
+            throw new IllegalArgumentException("The spool directory " + spoolDirectory + " doesn't exist.");
+        }
+        executorService = Executors.newFixedThreadPool(threads);
+        stopped = new CountDownLatch(1);
+        running = true;
+        try {
+            if (port > 0) {
+                writeToken();
+                serverSocket = new ServerSocket();
+                serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+                AtomicInteger clientThreadNumber = new AtomicInteger(1);
+                clientExecutorService = Executors.newFixedThreadPool(CLIENT_THREADS, runnable -> {
+                    Thread thread = new Thread(runnable, "daemon-client-" + clientThreadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                Thread acceptThread = new Thread(this::acceptClients, "daemon-socket");
+                acceptThread.setDaemon(true);
+                acceptThread.start();
+                LOGGER.info("accepting jobs on " + serverSocket.getLocalSocketAddress() + ", the token is in " + tokenFile);
+            }
+            if (spoolDirectory != null) {
+                LOGGER.info("accepting jobs from " + spoolDirectory);
+            }
+            while (running) {
+                if (spoolDirectory != null) {
+                    acceptSpoolJobs(spoolDirectory);
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            try {
+                if (serverSocket != null) {
+                    serverSocket.close();
+                    clientExecutorService.shutdownNow();
+                }
+                if (token != null) {
+                    Files.deleteIfExists(tokenFile);
+                }
+            } finally {
+                awaitJobs();
+                stopped.countDown();
+            }
+        }
+
+        LOGGER.info("stopped the daemon");
+    }
+
+    /**
+     * Stop the daemon and wait until the jobs that are already queued have
+     * run, so it can be called from a shutdown hook.
+     */
+    public void stop() {
+        running = false;
+        CountDownLatch latch = stopped;
+        if (latch != null) {
+            try {
+                latch.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wait for the queued jobs to run; if the thread is interrupted the jobs
+     * that haven't started yet are dropped.
+     */
+    private void awaitJobs() {
+        executorService.shutdown();
+        try {
+            if (!executorService.isTerminated()) {
+                LOGGER.info("waiting for the queued jobs");
+            }
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            LOGGER.warn("dropped " + executorService.shutdownNow().size() + " queued jobs");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write a new random token to the token file, readable by the owner
+     * only if the file system supports it.
+     *
+     * @throws IOException in case of a write problem
+     */
+    private void writeToken() throws IOException {
+        byte[] tokenBytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(tokenBytes);
+        StringBuilder tokenBuilder = new StringBuilder();
+        for (byte tokenByte : tokenBytes) {
+            tokenBuilder.append(String.format("%02x", tokenByte));
+        }
+        Path temporaryFile = tokenFile.resolveSibling(tokenFile.getFileName() + ".tmp");
+        Files.deleteIfExists(temporaryFile);
+        if (Files.getFileStore(tokenFile.toAbsolutePath().getParent()).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            Files.createFile(temporaryFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(temporaryFile);
+        }
+        Files.write(temporaryFile, (tokenBuilder + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporaryFile, tokenFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        token = tokenBuilder.toString();
+    }
+
+    /**
+     * Queue a job.
+     *
+     * @param stage the operation
+     * @param inputDirectory the input directory
+     * @param outputDirectory the output directory
+     * @param spoolFile the accepted spool job file, null for a socket job
+     * @return the job
+     */
+    private DaemonJob submit(Stage stage, Path inputDirectory, Path outputDirectory, Path spoolFile) {
+        DaemonJob job = new DaemonJob(nextJobId.getAndIncrement(), stage, inputDirectory.toAbsolutePath(), outputDirectory.toAbsolutePath(), spoolFile);
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+        }
+        try {
+            executorService.submit(() -> runJob(job));
+        } catch (RejectedExecutionException ex) {
+            synchronized (jobs) {
+                jobs.remove(job.id);
+            }
+            throw new IllegalStateException("The daemon is stopping, no new jobs are accepted.");
+        }
+        LOGGER.info("queued job " + job.id + ": " + stage.name().toLowerCase() + " " + job.inputDirectory + " " + job.outputDirectory);
+        return job;
+    }
+
+    /**
+     * Run a job and record its outcome.
+     *
+     * @param job the job
+     */
+    private void runJob(DaemonJob job) {
+        job.startTime = System.currentTimeMillis();
+        job.state = State.RUNNING;
+        try {
+            switch (job.stage) {
+                case MGF_EXTRACT:
+                    job.batchSummary = mgfParser.parse(job.inputDirectory, job.outputDirectory);
+                    break;
+                case MZTAB_EXPORT:
+                    job.batchSummary = mzTabParser.parse(job.inputDirectory, job.outputDirectory);
+                    break;
+                default:
+                    job.batchSummary = mzTabMerger.parseAndMerge(job.inputDirectory, job.outputDirectory);
+                    break;
+            }
+            job.state = job.batchSummary.hasFailures() ? State.FAILED : State.SUCCEEDED;
+        } catch (IOException | RuntimeException ex) {
+            job.message = String.valueOf(ex.getMessage());
+            job.state = State.FAILED;
+        }
+        job.endTime = System.currentTimeMillis();
+        LOGGER.info("finished job " + job.getStatusLine());
+
+        if (job.spoolFile != null) {
+            try {
+                writeStatusFile(job);
+            } catch (IOException ex) {
+                LOGGER.error("failed to write the status of job " + job.id + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write the status file of a finished spool job and remove the job file.
+     *
+     * @param job the job
+     * @throws IOException in case of a write problem
+     */
+    private void writeStatusFile(DaemonJob job) throws IOException {
+        String jobFileName = job.spoolFile.getFileName().toString();
+        String name = jobFileName.substring(0, jobFileName.length() - JOB_EXTENSION.length() - ACCEPTED_EXTENSION.length());
+        Path statusFile = job.spoolFile.resolveSibling(name + STATUS_EXTENSION);
+        Path temporaryFile = job.spoolFile.resolveSibling(name + STATUS_EXTENSION + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile)) {
+            writer.write(job.getStatusLine());
+            if (job.batchSummary != null) {
+                for (FileJobResult result : job.batchSummary.getResults()) {
+                    writer.newLine();
+                    writer.write(result.getStatus() + "\t" + result.getName() + "\t" + result.getDurationMillis() + " ms\t" + result.getMetrics().getRecords() + " records"
+                            + (result.getMessage() == null ? "" : "\t" + result.getMessage()));
+                }
+            }
+            writer.newLine();
+        }
+        Files.move(temporaryFile, statusFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(job.spoolFile);
+    }
+
+    /**
+     * Queue the job files in the spool directory.
+     *
+     * @param spoolDirectory the spool directory
+     * @throws IOException in case of a directory read problem
+     */
+    private void acceptSpoolJobs(Path spoolDirectory) throws IOException {
+        List<Path> jobFiles = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDirectory, "*" + JOB_EXTENSION)) {
+            for (Path file : files) {
+                jobFiles.add(file);
+            }
+        }
+        jobFiles.sort(null);
+        for (Path jobFile : jobFiles) {
+            Path acceptedFile = jobFile.resolveSibling(jobFile.getFileName() + ACCEPTED_EXTENSION);
+            try {
+                String line = new String(Files.readAllBytes(jobFile), StandardCharsets.UTF_8).trim();
+                //claim the job before queueing it
+                Files.move(jobFile, acceptedFile, StandardCopyOption.ATOMIC_MOVE);
+                String[] values = split(line);
+                if (values.length != 3) {
+                    throw new IllegalArgumentException("Invalid job \"" + line + "\", should be <operation> <input directory> <output directory>.");
+                }
+                submit(parseStage(values[0]), Paths.get(values[1]), Paths.get(values[2]), acceptedFile);
+            } catch (IOException | IllegalArgumentException ex) {
+                LOGGER.error("rejected job file " + jobFile + ": " + ex.getMessage());
+                String jobFileName = jobFile.getFileName().toString();
+                Files.write(jobFile.resolveSibling(jobFileName.substring(0, jobFileName.length() - JOB_EXTENSION.length()) + STATUS_EXTENSION),
+                        ("-\t" + State.FAILED + "\t" + ex.getMessage() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+                Files.deleteIfExists(acceptedFile);
+                Files.deleteIfExists(jobFile);
+            }
+        }
+    }
+
+    /**
+     * Accept client connections until the server socket is closed; the
+     * clients are served on the client threads, so a slow or idle client
+     * doesn't hold up the others.
+     */
+    private void acceptClients() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                try {
+                    clientExecutorService.submit(() -> serveClient(socket));
+                } catch (RejectedExecutionException ex) {
+                    //the daemon is stopping
+                    socket.close();
+                }
+            } catch (SocketException ex) {
+                //the server socket is closed
+                if (running) {
+                    LOGGER.warn("client connection problem: " + ex.getMessage());
+                }
+            } catch (IOException ex) {
+                LOGGER.warn("client connection problem: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Serve a client connection and close it.
+     *
+     * @param socket the client socket
+     */
+    private void serveClient(Socket socket) {
+        try (Socket client = socket) {
+            client.setSoTimeout(AUTH_TIMEOUT_MILLIS);
+            serveCommands(client);
+        } catch (IOException ex) {
+            LOGGER.warn("client connection problem: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Answer the commands of a client until it closes the connection; a
+     * client that doesn't authenticate with its first command is
+     * disconnected.
+     *
+     * @param socket the client socket
+     * @throws IOException in case of a connection problem
+     */
+    private void serveCommands(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        if (line == null) {
+            return;
+        }
+        String[] authValues = split(line.trim());
+        if (authValues.length != 2 || !authValues[0].equalsIgnoreCase("auth")
+                || !MessageDigest.isEqual(authValues[1].getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+            LOGGER.warn("rejected an unauthenticated client");
+            writer.write("error authentication failed, the first command should be auth <token>");
+            writer.newLine();
+            writer.flush();
+            return;
+        }
+        socket.setSoTimeout(CLIENT_TIMEOUT_MILLIS);
+        writer.write("ok");
+        writer.newLine();
+        writer.flush();
+        while ((line = reader.readLine()) != null) {
+            String[] values = split(line.trim());
+            try {
+                switch (values[0].toLowerCase()) {
+                    case "submit":
+                        if (values.length != 4) {
+                            throw new IllegalArgumentException("usage: submit <operation> <input directory> <output directory>");
+                        }
+                        DaemonJob job = submit(parseStage(values[1]), Paths.get(values[2]), Paths.get(values[3]), null);
+                        writer.write("queued " + job.id);
+                        break;
+                    case "status":
+                        if (values.length != 2) {
+                            throw new IllegalArgumentException("usage: status <job id>");
+                        }
+                        DaemonJob statusJob;
+                        synchronized (jobs) {
+                            statusJob = jobs.get(Long.parseLong(values[1]));
+                        }
+                        writer.write(statusJob == null ? "error unknown job " + values[1] : statusJob.getStatusLine());
+                        break;
+                    case "jobs":
+                        synchronized (jobs) {
+                            for (DaemonJob recentJob : jobs.values()) {
+                                writer.write(recentJob.getStatusLine());
+                                writer.newLine();
+                            }
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown command \"" + values[0] + "\", should be submit, status or jobs");
+                }
+            } catch (IllegalArgumentException | IllegalStateException ex) {
+                writer.write("error " + ex.getMessage());
+            }
+            writer.newLine();
+            writer.flush();
+        }
+    }
+
+    /**
+     * Parse an operation name.
+     *
+     * @param operation the operation name
+     * @return the stage
+     * @throws IllegalArgumentException in case of an unknown operation
+     */
+    private static Stage parseStage(String operation) {
+        try {
+            return Stage.valueOf(operation.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Invalid operation \"" + operation + "\", should be mgf_extract, mztab_export or merge.");
+        }
+    }
+
+    /**
+     * Split a command or job line in its values.
+     *
+     * @param line the line
+     * @return the values
+     */
+    private static String[] split(String line) {
+        return line.contains("\t") ? line.split("\t") : line.split("\\s+");
+    }
+
+}
@@ -5,6 +5,12 @@
  */
 package com.compomics.mztabparser;
 
+import com.compomics.mztabparser.batch.BatchRunner;
+import com.compomics.mztabparser.batch.DatasetCatalog;
+import com.compomics.mztabparser.batch.MetricsReport;
+import com.compomics.mztabparser.batch.ShardManifest;
+import com.compomics.mztabparser.batch.ShardPartition;
+import com.compomics.mztabparser.io.RecordPipeline;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
@@ -54,9 +60,9 @@ public class ParserStarter {
      *
      * @param inputDirectory the input directory
      * @param outputDirectory the output directory
+     * @param mgfParser the configured MGF parser
      */
-    public static void parseMgfFiles(Path inputDirectory, Path outputDirectory) {
-        MgfParser mgfParser = new MgfParser();
+    public static void parseMgfFiles(Path inputDirectory, Path outputDirectory, MgfParser mgfParser) {
         try {
             mgfParser.parse(inputDirectory, outputDirectory);
         } catch (IOException | IllegalArgumentException ex) {
@@ -72,9 +78,9 @@ public class ParserStarter {
      *
      * @param inputDirectory the input directory
      * @param outputDirectory the output directory
+     * @param mzTabMerger the configured mzTab merger
      */
-    public static void parseAndMergeMzTabFiles(Path inputDirectory, Path outputDirectory) {
-        MzTabMerger mzTabMerger = new MzTabMerger();
+    public static void parseAndMergeMzTabFiles(Path inputDirectory, Path outputDirectory, MzTabMerger mzTabMerger) {
         try {
             mzTabMerger.parseAndMerge(inputDirectory, outputDirectory);
         } catch (IOException | IllegalArgumentException ex) {
@@ -83,6 +89,82 @@ public class ParserStarter {
         }
     }
 
+    /**
+     * Export the PSMs of the mzTab files in the input directory to the output
+     * directory.
+     *
+     * @param inputDirectory the input directory
+     * @param outputDirectory the output directory
+     * @param mzTabParser the configured mzTab parser
+     */
+    public static void exportMzTabFiles(Path inputDirectory, Path outputDirectory, MzTabParser mzTabParser) {
+        try {
+            mzTabParser.parse(inputDirectory, outputDirectory);
+        } catch (IOException | IllegalArgumentException ex) {
+            LOGGER.error(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Watch the input and output directories and process the files as soon as
+     * they are complete, until the JVM is shut down.
+     *
+     * @param datasetWatcher the configured dataset watcher
+     * @param threads the number of files processed at the same time
+     */
+    public static void watch(DatasetWatcher datasetWatcher, int threads) {
+        Runtime.getRuntime().addShutdownHook(new Thread(datasetWatcher::stop));
+        try {
+            datasetWatcher.watch(threads);
+        } catch (IOException | IllegalArgumentException ex) {
+            LOGGER.error(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Run the daemon until the JVM is shut down; the shutdown waits for the
+     * queued jobs.
+     *
+     * @param parserDaemon the configured daemon
+     * @param port the loopback port to accept jobs on, 0 for no socket
+     * @param spoolDirectory the spool directory, null for no spool directory
+     * @param threads the number of jobs that run at the same time
+     */
+    public static void runDaemon(ParserDaemon parserDaemon, int port, Path spoolDirectory, int threads) {
+        Runtime.getRuntime().addShutdownHook(new Thread(parserDaemon::stop));
+        try {
+            parserDaemon.run(port, spoolDirectory, threads);
+        } catch (IOException | IllegalArgumentException ex) {
+            LOGGER.error(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Check that every input of a sharded run was processed exactly once by
+     * the shards that wrote their manifest to the output directory, and write
+     * the dataset rollup of a sharded merge.
+     *
+     * @param outputDirectory the output directory
+     * @param mzTabMerger the configured mzTab merger to write the dataset
+     * rollup with, null for no rollup
+     */
+    public static void finalizeShards(Path outputDirectory, MzTabMerger mzTabMerger) {
+        try {
+            if (!ShardManifest.verify(outputDirectory)) {
+                System.exit(1);
+            }
+            if (mzTabMerger != null) {
+                mzTabMerger.writeShardedDatasetRollup(outputDirectory);
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            LOGGER.error(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
     /**
      * Apply Apache Commons CLI parser to command-line arguments.
      *
@@ -127,12 +209,67 @@ public class ParserStarter {
                             5, 3, true, System.out);
                 }
             }
+            BatchRunner batchRunner = new BatchRunner();
+            if (commandLine.hasOption('t')) {
+                batchRunner.setThreads(parsePositiveInt(commandLine.getOptionValue('t'), "threads"));
+            }
+            if (commandLine.hasOption("heap-budget")) {
+                batchRunner.setHeapBudget(parsePositiveInt(commandLine.getOptionValue("heap-budget"), "heap budget") * 1024L * 1024L);
+            }
+            if (commandLine.hasOption("shard")) {
+                if (commandLine.hasOption('w') || commandLine.hasOption('d')) {
+                    throw new ParseException("The shard option can't be combined with the watch or daemon mode.");
+                }
+                batchRunner.setShard(parseShard(commandLine.getOptionValue("shard")));
+            }
+            if (commandLine.hasOption("incremental") && outputDirectory != null) {
+                try {
+                    //every shard keeps its own catalog
+                    batchRunner.setCatalog(batchRunner.getShard() == null ? DatasetCatalog.load(outputDirectory)
+                            : DatasetCatalog.load(outputDirectory, DatasetCatalog.getCatalogFileName(batchRunner.getShard())));
+                } catch (IOException ex) {
+                    LOGGER.error("failed to load the dataset catalog: " + ex.getMessage());
+                    System.exit(1);
+                }
+            }
+            if (commandLine.hasOption("metrics")) {
+                batchRunner.setMetricsReport(new MetricsReport(Paths.get(commandLine.getOptionValue("metrics"))));
+            }
             if (commandLine.hasOption('m')) {
-                parseMgfFiles(inputDirectory, outputDirectory);
+                MgfParser mgfParser = createMgfParser(commandLine, batchRunner);
+                parseMgfFiles(inputDirectory, outputDirectory, mgfParser);
             } else if (commandLine.hasOption('z')) {
-                parseAndMergeMzTabFiles(inputDirectory, outputDirectory);
+                MzTabMerger mzTabMerger = createMzTabMerger(commandLine, batchRunner);
+                parseAndMergeMzTabFiles(inputDirectory, outputDirectory, mzTabMerger);
+            } else if (commandLine.hasOption('e')) {
+                MzTabParser mzTabParser = createMzTabParser(commandLine, batchRunner);
+                exportMzTabFiles(inputDirectory, outputDirectory, mzTabParser);
+            } else if (commandLine.hasOption('w')) {
+                MgfParser mgfParser = createMgfParser(commandLine, batchRunner);
+                MzTabMerger mzTabMerger = createMzTabMerger(commandLine, batchRunner);
+                DatasetWatcher datasetWatcher = new DatasetWatcher(inputDirectory, outputDirectory, mgfParser, mzTabMerger);
+                if (commandLine.hasOption("stable-seconds")) {
+                    datasetWatcher.setStableMillis(parsePositiveInt(commandLine.getOptionValue("stable-seconds"), "stable seconds") * 1000L);
+                }
+                watch(datasetWatcher, commandLine.hasOption('t') ? parsePositiveInt(commandLine.getOptionValue('t'), "threads") : 1);
+            } else if (commandLine.hasOption('d')) {
+                if (!commandLine.hasOption("port") && !commandLine.hasOption("spool")) {
+                    throw new ParseException("The daemon mode needs a port, a spool directory or both.");
+                }
+                ParserDaemon parserDaemon = new ParserDaemon(createMgfParser(commandLine, batchRunner), createMzTabParser(commandLine, batchRunner), createMzTabMerger(commandLine, batchRunner));
+                int port = commandLine.hasOption("port") ? parsePositiveInt(commandLine.getOptionValue("port"), "port") : 0;
+                Path spoolDirectory = commandLine.hasOption("spool") ? Paths.get(commandLine.getOptionValue("spool")) : null;
+                if (commandLine.hasOption("token-file")) {
+                    parserDaemon.setTokenFile(Paths.get(commandLine.getOptionValue("token-file")));
+                }
+                runDaemon(parserDaemon, port, spoolDirectory, commandLine.hasOption('t') ? parsePositiveInt(commandLine.getOptionValue('t'), "threads") : 1);
+            } else if (commandLine.hasOption("finalize-shards")) {
+                if (outputDirectory == null) {
+                    throw new ParseException("Finalizing the shards needs the output directory.");
+                }
+                finalizeShards(outputDirectory, commandLine.hasOption("rollup") ? createMzTabMerger(commandLine, batchRunner) : null);
             } else {
-                System.out.println("Please provide either the MGF of mzTab parse option.");
+                System.out.println("Please provide the MGF, mzTab, watch or daemon option.");
                 printHelp(
                         options, 80, "Help", "End of Help",
                         5, 3, true, System.out);
@@ -146,6 +283,169 @@ public class ParserStarter {
         }
     }
 
+    /**
+     * Create the MGF parser configured by the command-line options.
+     *
+     * @param commandLine the parsed command-line
+     * @param batchRunner the batch runner
+     * @return the MGF parser
+     * @throws ParseException in case of an invalid option value
+     */
+    private static MgfParser createMgfParser(CommandLine commandLine, BatchRunner batchRunner) throws ParseException {
+        MgfParser mgfParser = new MgfParser();
+        mgfParser.setUseJmzReader(commandLine.hasOption('j'));
+        if (commandLine.hasOption("mgf-threads")) {
+            mgfParser.setMgfThreads(parsePositiveInt(commandLine.getOptionValue("mgf-threads"), "MGF threads"));
+        }
+        mgfParser.setBatchRunner(batchRunner);
+        mgfParser.setCompressOutput(commandLine.hasOption("compress-output"));
+        mgfParser.setBinaryOutput(commandLine.hasOption("binary"));
+        mgfParser.setUseIndex(commandLine.hasOption("index"));
+        mgfParser.setPipeline(createPipeline(commandLine));
+        return mgfParser;
+    }
+
+    /**
+     * Create the mzTab PSM exporter configured by the command-line options.
+     *
+     * @param commandLine the parsed command-line
+     * @param batchRunner the batch runner
+     * @return the mzTab parser
+     * @throws ParseException in case of an invalid option value
+     */
+    private static MzTabParser createMzTabParser(CommandLine commandLine, BatchRunner batchRunner) throws ParseException {
+        MzTabParser mzTabParser = new MzTabParser();
+        mzTabParser.setBatchRunner(batchRunner);
+        mzTabParser.setCompressOutput(commandLine.hasOption("compress-output"));
+        mzTabParser.setDictionaryOutput(commandLine.hasOption("dictionary"));
+        if (commandLine.hasOption("validate")) {
+            String validation = commandLine.getOptionValue("validate");
+            try {
+                mzTabParser.setValidation(MzTabParser.Validation.valueOf(validation.toUpperCase()));
+            } catch (IllegalArgumentException ex) {
+                throw new ParseException("Invalid validation \"" + validation + "\", should be full or none.");
+            }
+        }
+        return mzTabParser;
+    }
+
+    /**
+     * Create the mzTab merger configured by the command-line options.
+     *
+     * @param commandLine the parsed command-line
+     * @param batchRunner the batch runner
+     * @return the mzTab merger
+     * @throws ParseException in case of an invalid option value
+     */
+    private static MzTabMerger createMzTabMerger(CommandLine commandLine, BatchRunner batchRunner) throws ParseException {
+        MzTabMerger mzTabMerger = new MzTabMerger();
+        mzTabMerger.setBatchRunner(batchRunner);
+        mzTabMerger.setCompressOutput(commandLine.hasOption("compress-output"));
+        if (commandLine.hasOption("merge-mode")) {
+            String mergeMode = commandLine.getOptionValue("merge-mode");
+            try {
+                mzTabMerger.setMergeMode(MzTabMerger.MergeMode.valueOf(mergeMode.toUpperCase()));
+            } catch (IllegalArgumentException ex) {
+                throw new ParseException("Invalid merge mode \"" + mergeMode + "\", should be model or streaming.");
+            }
+        }
+        if (commandLine.hasOption("memory-budget")) {
+            mzTabMerger.setMemoryBudget(parsePositiveInt(commandLine.getOptionValue("memory-budget"), "memory budget") * 1024L * 1024L);
+        }
+        mzTabMerger.setPipeline(createPipeline(commandLine));
+        mzTabMerger.setRollup(commandLine.hasOption("rollup"));
+        mzTabMerger.setPrecursorMatching(commandLine.hasOption("precursor-match"));
+        if (commandLine.hasOption("ppm-tolerance")) {
+            mzTabMerger.setPpmTolerance(parsePositiveDouble(commandLine.getOptionValue("ppm-tolerance"), "ppm tolerance"));
+        }
+        if (commandLine.hasOption("rt-tolerance")) {
+            mzTabMerger.setRtTolerance(parsePositiveDouble(commandLine.getOptionValue("rt-tolerance"), "RT tolerance"));
+        }
+        return mzTabMerger;
+    }
+
+    /**
+     * Create the record pipeline configured by the command-line options.
+     *
+     * @param commandLine the parsed command-line
+     * @return the record pipeline
+     * @throws ParseException in case of an invalid option value
+     */
+    private static RecordPipeline createPipeline(CommandLine commandLine) throws ParseException {
+        int batchSize = RecordPipeline.DEFAULT_BATCH_SIZE;
+        if (commandLine.hasOption("pipeline-batch")) {
+            batchSize = parsePositiveInt(commandLine.getOptionValue("pipeline-batch"), "pipeline batch");
+        }
+        int queueDepth = RecordPipeline.DEFAULT_QUEUE_DEPTH;
+        if (commandLine.hasOption("pipeline-depth")) {
+            String value = commandLine.getOptionValue("pipeline-depth");
+            try {
+                queueDepth = Integer.parseInt(value);
+            } catch (NumberFormatException ex) {
+                throw new ParseException("Invalid pipeline depth value \"" + value + "\".");
+            }
+            if (queueDepth < 0) {
+                throw new ParseException("The pipeline depth value should be at least 0.");
+            }
+        }
+        return new RecordPipeline(batchSize, queueDepth);
+    }
+
+    /**
+     * Parse a strictly positive integer option value.
+     *
+     * @param value the option value
+     * @param optionName the option name
+     * @return the parsed value
+     * @throws ParseException in case of an invalid value
+     */
+    private static int parsePositiveInt(String value, String optionName) throws ParseException {
+        try {
+            int parsedValue = Integer.parseInt(value);
+            if (parsedValue < 1) {
+                throw new ParseException("The " + optionName + " value should be at least 1.");
+            }
+            return parsedValue;
+        } catch (NumberFormatException ex) {
+            throw new ParseException("Invalid " + optionName + " value \"" + value + "\".");
+        }
+    }
+
+    /**
+     * Parse the shard option value.
+     *
+     * @param value the option value, i/n
+     * @return the shard
+     * @throws ParseException in case of an invalid value
+     */
+    private static ShardPartition parseShard(String value) throws ParseException {
+        try {
+            return ShardPartition.parse(value);
+        } catch (IllegalArgumentException ex) {
+            throw new ParseException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Parse a positive decimal option value.
+     *
+     * @param value the option value
+     * @param optionName the option name
+     * @return the parsed value
+     * @throws ParseException in case of an invalid value
+     */
+    private static double parsePositiveDouble(String value, String optionName) throws ParseException {
+        try {
+            double parsedValue = Double.parseDouble(value);
+            if (!(parsedValue > 0) || Double.isInfinite(parsedValue)) {
+                throw new ParseException("The " + optionName + " value should be larger than 0.");
+            }
+            return parsedValue;
+        } catch (NumberFormatException ex) {
+            throw new ParseException("Invalid " + optionName + " value \"" + value + "\".");
+        }
+    }
+
     /**
      * Construct Options.
      *
@@ -168,10 +468,113 @@ public class ParserStarter {
         outputOption.setArgName("mgf");
         Option mzTabOption = new Option("z", "mztab", false, "mzTab parsing and merging");
         outputOption.setArgName("mztab");
+        Option exportOption = new Option("e", "export", false, "mzTab PSM export");
+        Option watchOption = new Option("w", "watch", false, "Watch the input and output directories and parse and merge the files as soon as they are complete");
+        Option daemonOption = new Option("d", "daemon", false, "Stay resident and run the dataset jobs submitted over a loopback socket or a spool directory");
+        Option finalizeShardsOption = Option.builder().longOpt("finalize-shards")
+                .desc("Check the shard manifests in the output directory: every input has to be processed exactly once; with --rollup also write the dataset rollup of a sharded merge").build();
+        options.addOption("j", "jmzreader", false, "Use the jmzreader MGF parser instead of the native header scanner");
+
+        Option threadsOption = new Option("t", "threads", true, "Number of files processed in parallel (default 1)");
+        threadsOption.setArgName("threads");
+        options.addOption(threadsOption);
+
+        Option heapBudgetOption = Option.builder().longOpt("heap-budget").hasArg().argName("megabytes")
+                .desc("Heap budget the parallel jobs are admitted against by their estimated heap use; the jobs start largest first (default three quarters of the maximum heap)").build();
+        options.addOption(heapBudgetOption);
+
+        Option mgfThreadsOption = Option.builder().longOpt("mgf-threads").hasArg().argName("threads")
+                .desc("Number of threads used to parse chunks of a single MGF file (default 1)").build();
+        options.addOption(mgfThreadsOption);
+
+        Option mergeModeOption = Option.builder().longOpt("merge-mode").hasArg().argName("mode")
+                .desc("mzTab merge mode: model (load the whole mzTab file, default) or streaming (rewrite the PSM lines on the fly)").build();
+        options.addOption(mergeModeOption);
+
+        Option memoryBudgetOption = Option.builder().longOpt("memory-budget").hasArg().argName("megabytes")
+                .desc("Heap budget for the moff results of a single merge; larger merges spill to disk with an external sort-merge join, which doesn't support --precursor-match (default half of the maximum heap)").build();
+        options.addOption(memoryBudgetOption);
+
+        Option rollupOption = Option.builder().longOpt("rollup")
+                .desc("Roll up the moff intensities of the merged PSMs per peptide and per protein, in a .rollup.tsv table next to each merged file and a dataset.rollup.tsv table for all files").build();
+        options.addOption(rollupOption);
+
+        Option precursorMatchOption = Option.builder().longOpt("precursor-match")
+                .desc("Match the PSMs whose spectra references have no moff result on their precursor m/z, charge and retention time against the .moff2start spectra; a merge whose moff results don't fit in the --memory-budget fails with this option").build();
+        options.addOption(precursorMatchOption);
+
+        Option ppmToleranceOption = Option.builder().longOpt("ppm-tolerance").hasArg().argName("ppm")
+                .desc("Precursor matching m/z tolerance (default 10 ppm)").build();
+        options.addOption(ppmToleranceOption);
+
+        Option rtToleranceOption = Option.builder().longOpt("rt-tolerance").hasArg().argName("seconds")
+                .desc("Precursor matching retention time tolerance (default 60 seconds)").build();
+        options.addOption(rtToleranceOption);
+
+        Option pipelineBatchOption = Option.builder().longOpt("pipeline-batch").hasArg().argName("records")
+                .desc("Number of records handed from the reading to the writing thread at once (default " + RecordPipeline.DEFAULT_BATCH_SIZE + ")").build();
+        options.addOption(pipelineBatchOption);
+
+        Option pipelineDepthOption = Option.builder().longOpt("pipeline-depth").hasArg().argName("batches")
+                .desc("Number of batches the reading thread can run ahead of the writing thread; 0 reads and writes on a single thread (default " + RecordPipeline.DEFAULT_QUEUE_DEPTH + ")").build();
+        options.addOption(pipelineDepthOption);
+
+        Option incrementalOption = Option.builder().longOpt("incremental")
+                .desc("Skip the files whose outputs (including the --binary and --index files) are up to date according to the dataset catalog in the output directory").build();
+        options.addOption(incrementalOption);
+
+        Option shardOption = Option.builder().longOpt("shard").hasArg().argName("i/n")
+                .desc("MGF, mzTab and export mode: only process shard i of n of the files, assigned by file size and name, and write a shard manifest to the output directory").build();
+        options.addOption(shardOption);
+
+        Option stableSecondsOption = Option.builder().longOpt("stable-seconds").hasArg().argName("seconds")
+                .desc("Watch mode: number of seconds a file size has to stay the same before the file is processed (default 5)").build();
+        options.addOption(stableSecondsOption);
+
+        Option metricsOption = Option.builder().longOpt("metrics").hasArg().argName("file")
+                .desc("Write a JSON report with the per file metrics (wall time, bytes, records, unmatched PSMs, peak heap) to the given file").build();
+        options.addOption(metricsOption);
+
+        Option compressOutputOption = Option.builder().longOpt("compress-output")
+                .desc("Gzip compress the output files (.gz inputs are always decompressed transparently)").build();
+        options.addOption(compressOutputOption);
+
+        Option dictionaryOption = Option.builder().longOpt("dictionary")
+                .desc("Write the mzTab PSM export dictionary encoded (.dict.txt), with the protein accessions, modifications and peptide sequences replaced by dictionary ids").build();
+        options.addOption(dictionaryOption);
+
+        Option validateOption = Option.builder().longOpt("validate").hasArg().argName("full|none")
+                .desc("mzTab PSM export validation: full (parse and validate the whole file with jmztab, default) or none (read only the exported PSM columns)").build();
+        options.addOption(validateOption);
+
+        Option binaryOption = Option.builder().longOpt("binary")
+                .desc("Also write a binary columnar .moff2start.bin file for every MGF file").build();
+        options.addOption(binaryOption);
+
+        Option indexOption = Option.builder().longOpt("index")
+                .desc("Keep a spectrum offset index of every MGF file in the output directory and regenerate the .moff2start file from it while the MGF file doesn't change").build();
+        options.addOption(indexOption);
+
+        Option portOption = Option.builder().longOpt("port").hasArg().argName("port")
+                .desc("Daemon mode: loopback port to accept job commands on").build();
+        options.addOption(portOption);
+
+        Option spoolOption = Option.builder().longOpt("spool").hasArg().argName("directory")
+                .desc("Daemon mode: directory polled for .job files").build();
+        options.addOption(spoolOption);
+
+        Option tokenFileOption = Option.builder().longOpt("token-file").hasArg().argName("file")
+                .desc("Daemon mode: file the socket clients read their auth token from (default " + ParserDaemon.getDefaultTokenFile() + ")").build();
+        options.addOption(tokenFileOption);
+
         OptionGroup parsingOptionGroup = new OptionGroup();
         parsingOptionGroup.setRequired(true);
         parsingOptionGroup.addOption(mgfOption);
         parsingOptionGroup.addOption(mzTabOption);
+        parsingOptionGroup.addOption(exportOption);
+        parsingOptionGroup.addOption(watchOption);
+        parsingOptionGroup.addOption(daemonOption);
+        parsingOptionGroup.addOption(finalizeShardsOption);
         options.addOptionGroup(parsingOptionGroup);
     }
 
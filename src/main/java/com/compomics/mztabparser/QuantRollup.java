@@ -0,0 +1,277 @@
+package com.compomics.mztabparser;
+
+import com.compomics.mztabparser.io.GzipFiles;
+import com.compomics.mztabparser.io.TsvWriter;
+import com.compomics.mztabparser.util.DoubleAggregator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Peptide and protein level rollup of the moff intensities of the merged
+ * PSMs. The intensity and log_int values are aggregated per peptide
+ * (sequence, modifications, charge) and per protein accession; the rollup
+ * table has one row per peptide and per protein with the number of PSMs and
+ * the sum and median of both values.
+ *
+ * In mzTab a PSM is repeated on a line per protein accession. The PSM lines
+ * with the same PSM_ID and spectra_ref are counted once per peptide and once
+ * per protein, so a shared peptide isn't counted once for every protein it
+ * maps to.
+ *
+ * The rollups of the files of a dataset are combined with
+ * {@link #addAll(QuantRollup)}, which keeps the medians exact.
+ *
+ * @author niels
+ */
+public class QuantRollup {
+
+    /**
+     * The rollup table file extension.
+     */
+    public static final String ROLLUP_EXTENSION = ".rollup.tsv";
+    private static final String SEPARATOR = "\t";
+    private static final String HEADER = "level" + SEPARATOR + "sequence" + SEPARATOR + "modifications" + SEPARATOR + "charge" + SEPARATOR + "accession"
+            + SEPARATOR + "psms" + SEPARATOR + "intensity_sum" + SEPARATOR + "intensity_median" + SEPARATOR + "log_int_sum" + SEPARATOR + "log_int_median";
+    private static final String PEPTIDE_LEVEL = "peptide";
+    private static final String PROTEIN_LEVEL = "protein";
+    private static final String NULL = "null";
+    private static final String PSH_PREFIX = "PSH" + SEPARATOR;
+    private static final String PSM_PREFIX = "PSM" + SEPARATOR;
+    private static final String SEQUENCE_COLUMN = "sequence";
+    private static final String MODIFICATIONS_COLUMN = "modifications";
+    private static final String CHARGE_COLUMN = "charge";
+    private static final String ACCESSION_COLUMN = "accession";
+    private static final String PSM_ID_COLUMN = "PSM_ID";
+    private static final String SPECTRA_REF_COLUMN = "spectra_ref";
+    private static final String INTENSITY_COLUMN = "opt_global_intensity";
+    private static final String LOG_INT_COLUMN = "opt_global_log_int";
+
+    /**
+     * The aggregated values of a peptide or protein.
+     */
+    private static class Group {
+
+        private int psms;
+        private final DoubleAggregator intensity = new DoubleAggregator();
+        private final DoubleAggregator logInt = new DoubleAggregator();
+
+        void addAll(Group other) {
+            psms += other.psms;
+            intensity.addAll(other.intensity);
+            logInt.addAll(other.logInt);
+        }
+    }
+
+    /**
+     * The peptide groups by sequence, modifications and charge, separated by
+     * tabs.
+     */
+    private final Map<String, Group> peptides = new HashMap<>();
+    private final Map<String, Group> proteins = new HashMap<>();
+    /**
+     * The PSH column indices of the sequence, modifications, charge,
+     * accession, PSM_ID and spectra_ref, -1 if absent.
+     */
+    private int[] keyColumns;
+    /**
+     * The PSMs (PSM_ID and spectra_ref) counted per peptide and per protein
+     * group, of the PSM lines of the current file.
+     */
+    private final Set<String> countedPeptidePsms = new HashSet<>();
+    private final Set<String> countedProteinPsms = new HashSet<>();
+
+    /**
+     * No-arg constructor
+     */
+    public QuantRollup() {
+    }
+
+    /**
+     * Add the values of a PSM.
+     *
+     * @param sequence the peptide sequence
+     * @param modifications the modifications
+     * @param charge the charge
+     * @param accession the protein accession, null is grouped as "null" like
+     * in the mzTab file
+     * @param intensity the moff intensity
+     * @param logInt the moff log intensity
+     */
+    public void add(String sequence, String modifications, String charge, String accession, double intensity, double logInt) {
+        add(peptides.computeIfAbsent(sequence + SEPARATOR + modifications + SEPARATOR + charge, key -> new Group()), intensity, logInt);
+        add(proteins.computeIfAbsent(accession == null ? NULL : accession, key -> new Group()), intensity, logInt);
+    }
+
+    private static void add(Group group, double intensity, double logInt) {
+        group.psms++;
+        group.intensity.add(intensity);
+        group.logInt.add(logInt);
+    }
+
+    /**
+     * Set the PSH line of the mzTab file the PSM lines passed to
+     * {@link #addPsmLine} come from.
+     *
+     * @param pshLine the PSH line
+     */
+    public void setPsmHeader(String pshLine) {
+        List<String> columns = Arrays.asList(pshLine.split(SEPARATOR, -1));
+        keyColumns = new int[]{columns.indexOf(SEQUENCE_COLUMN), columns.indexOf(MODIFICATIONS_COLUMN), columns.indexOf(CHARGE_COLUMN), columns.indexOf(ACCESSION_COLUMN),
+            columns.indexOf(PSM_ID_COLUMN), columns.indexOf(SPECTRA_REF_COLUMN)};
+        countedPeptidePsms.clear();
+        countedProteinPsms.clear();
+    }
+
+    /**
+     * Add the values of a PSM line, the key values are taken from the line. A
+     * PSM that was already added for the same peptide or protein, on another
+     * line with the same PSM_ID and spectra_ref, isn't counted again.
+     *
+     * @param psmLine the PSM line
+     * @param intensity the moff intensity
+     * @param logInt the moff log intensity
+     */
+    public void addPsmLine(String psmLine, double intensity, double logInt) {
+        addPsmFields(psmLine.split(SEPARATOR, -1), intensity, logInt);
+    }
+
+    private void addPsmFields(String[] fields, double intensity, double logInt) {
+        String peptideKey = getField(fields, keyColumns[0]) + SEPARATOR + getField(fields, keyColumns[1]) + SEPARATOR + getField(fields, keyColumns[2]);
+        String accession = getField(fields, keyColumns[3]);
+        //without PSM_ID every line is a PSM of its own
+        String psm = keyColumns[4] < 0 ? null : getField(fields, keyColumns[4]) + SEPARATOR + getField(fields, keyColumns[5]);
+        if (psm == null || countedPeptidePsms.add(peptideKey + SEPARATOR + psm)) {
+            add(peptides.computeIfAbsent(peptideKey, key -> new Group()), intensity, logInt);
+        }
+        if (psm == null || countedProteinPsms.add(accession + SEPARATOR + psm)) {
+            add(proteins.computeIfAbsent(accession, key -> new Group()), intensity, logInt);
+        }
+    }
+
+    private static String getField(String[] fields, int column) {
+        return column >= 0 && column < fields.length ? fields[column] : NULL;
+    }
+
+    /**
+     * Add all groups of another rollup.
+     *
+     * @param other the other rollup
+     */
+    public void addAll(QuantRollup other) {
+        addAll(peptides, other.peptides);
+        addAll(proteins, other.proteins);
+    }
+
+    private static void addAll(Map<String, Group> groups, Map<String, Group> otherGroups) {
+        for (Map.Entry<String, Group> otherGroup : otherGroups.entrySet()) {
+            groups.computeIfAbsent(otherGroup.getKey(), key -> new Group()).addAll(otherGroup.getValue());
+        }
+    }
+
+    /**
+     * Build the rollup of a merged mzTab file from its moff columns, for a
+     * merged file whose rollup isn't at hand.
+     *
+     * @param mergedMzTabFile the merged mzTab file
+     * @return the rollup
+     * @throws IOException in case of a read problem
+     */
+    public static QuantRollup read(Path mergedMzTabFile) throws IOException {
+        QuantRollup rollup = new QuantRollup();
+        try (BufferedReader reader = GzipFiles.newBufferedReader(mergedMzTabFile)) {
+            int intensityColumn = -1;
+            int logIntColumn = -1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(PSH_PREFIX)) {
+                    rollup.setPsmHeader(line);
+                    List<String> columns = Arrays.asList(line.split(SEPARATOR, -1));
+                    intensityColumn = columns.indexOf(INTENSITY_COLUMN);
+                    logIntColumn = columns.indexOf(LOG_INT_COLUMN);
+                } else if (line.startsWith(PSM_PREFIX) && intensityColumn >= 0 && logIntColumn >= 0) {
+                    String[] fields = line.split(SEPARATOR, -1);
+                    String intensity = getField(fields, intensityColumn);
+                    //unmatched PSMs have null moff values
+                    if (!intensity.equals(NULL)) {
+                        rollup.addPsmFields(fields, parseDouble(intensity), parseDouble(getField(fields, logIntColumn)));
+                    }
+                }
+            }
+        }
+        return rollup;
+    }
+
+    /**
+     * Parse a moff value as written in the merged mzTab file.
+     *
+     * @param value the value
+     * @return the parsed value, NaN if it's not a number
+     */
+    private static double parseDouble(String value) {
+        switch (value) {
+            case "INF":
+                return Double.POSITIVE_INFINITY;
+            case "-INF":
+                return Double.NEGATIVE_INFINITY;
+            default:
+                try {
+                    return Double.parseDouble(value);
+                } catch (NumberFormatException ex) {
+                    return Double.NaN;
+                }
+        }
+    }
+
+    /**
+     * Write the rollup table, sorted by level and key.
+     *
+     * @param rollupFile the rollup table file, gzip compressed if its name
+     * ends with .gz
+     * @throws IOException in case of a write problem
+     */
+    public void write(Path rollupFile) throws IOException {
+        try (TsvWriter writer = new TsvWriter(rollupFile)) {
+            writer.write(HEADER);
+            for (Map.Entry<String, Group> peptide : new TreeMap<>(peptides).entrySet()) {
+                writer.newLine().write(PEPTIDE_LEVEL).tab().write(peptide.getKey()).tab().write(NULL);
+                writeValues(writer, peptide.getValue());
+            }
+            for (Map.Entry<String, Group> protein : new TreeMap<>(proteins).entrySet()) {
+                writer.newLine().write(PROTEIN_LEVEL).tab().write(NULL).tab().write(NULL).tab().write(NULL).tab().write(protein.getKey());
+                writeValues(writer, protein.getValue());
+            }
+        }
+    }
+
+    private static void writeValues(TsvWriter writer, Group group) throws IOException {
+        writer.tab().write(group.psms);
+        writeValues(writer, group.intensity);
+        writeValues(writer, group.logInt);
+    }
+
+    private static void writeValues(TsvWriter writer, DoubleAggregator values) throws IOException {
+        //a group without values has no sum or median
+        if (values.getCount() == 0) {
+            writer.tab().write(NULL).tab().write(NULL);
+        } else {
+            writer.tab().write(values.getSum()).tab().write(values.getMedian());
+        }
+    }
+
+    public int getNumberOfPeptides() {
+        return peptides.size();
+    }
+
+    public int getNumberOfProteins() {
+        return proteins.size();
+    }
+
+}
@@ -0,0 +1,324 @@
+package com.compomics.mztabparser;
+
+import com.compomics.mztabparser.io.GzipFiles;
+import com.compomics.mztabparser.io.MoffResultReader;
+import com.compomics.mztabparser.model.MgfHeaderRecord;
+import com.compomics.mztabparser.model.MoffResultLine;
+import com.compomics.mztabparser.model.PsmRecord;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Entry point for using the parsers as a library: the MGF spectrum headers,
+ * the mzTab PSMs and the moff result lines of a file as a stream of records,
+ * without writing any output file.
+ *
+ * The streams are sequential; they're backed by spliterators that split the
+ * file at record boundaries, so {@link Stream#parallel()} scans the parts of
+ * the file concurrently while the encounter order stays the file order. A
+ * stream keeps the file open and has to be closed, e.g. with
+ * try-with-resources. Read problems are thrown as
+ * {@link UncheckedIOException}. Gzip compressed files (name ending with .gz)
+ * are decompressed to a temporary file first, which is deleted when the
+ * stream is closed.
+ *
+ * @author niels
+ */
+public final class RecordStreams {
+
+    private static final String SEPARATOR = "\t";
+    private static final String PSH_PREFIX = "PSH" + SEPARATOR;
+    private static final String PSM_PREFIX = "PSM" + SEPARATOR;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Creates the spliterator over an opened file.
+     */
+    @FunctionalInterface
+    private interface SpliteratorFactory<T> {
+
+        Spliterator<T> create(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private RecordStreams() {
+    }
+
+    /**
+     * Stream the spectrum header records of an MGF file; the records have the
+     * same spectrum indices and values the native MGF parsing writes to the
+     * .moff2start file.
+     *
+     * @param mgfFile the MGF file
+     * @return the record stream, to be closed after use
+     * @throws IOException in case of a read problem
+     */
+    public static Stream<MgfHeaderRecord> mgfRecords(Path mgfFile) throws IOException {
+        return mgfRecords(mgfFile, ParallelMgfScanner.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Stream the spectrum header records of an MGF file, see
+     * {@link #mgfRecords(Path)}.
+     *
+     * @param mgfFile the MGF file
+     * @param chunkSize the approximate size in bytes of the parts the file
+     * can be split in
+     * @return the record stream, to be closed after use
+     * @throws IOException in case of a read problem
+     */
+    public static Stream<MgfHeaderRecord> mgfRecords(Path mgfFile, long chunkSize) throws IOException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size should be at least 1 byte.");
+        }
+        return stream(mgfFile, channel -> new MgfRecordSpliterator(channel, chunkSize));
+    }
+
+    /**
+     * Stream the PSM records of an mzTab file, in file order. The file isn't
+     * validated, the values are the raw column values of the PSM lines.
+     *
+     * @param mzTabFile the mzTab file
+     * @return the record stream, to be closed after use
+     * @throws IOException in case of a read problem
+     */
+    public static Stream<PsmRecord> psmRecords(Path mzTabFile) throws IOException {
+        return stream(mzTabFile, RecordStreams::createPsmSpliterator);
+    }
+
+    /**
+     * Stream the lines of a moff result file, with the values that are merged
+     * into the mzTab files. The stream is a view over {@link MoffResultReader}
+     * with an object per line; the merge itself uses the reader directly,
+     * which doesn't allocate per line and reads gzip files while streaming.
+     *
+     * @param moffResultFile the moff result file
+     * @return the record stream, to be closed after use
+     * @throws IOException in case of a read problem
+     */
+    public static Stream<MoffResultLine> moffResults(Path moffResultFile) throws IOException {
+        return stream(moffResultFile, channel -> {
+            //the ranges start after the header line
+            long[] headerEnd = {channel.size()};
+            findLine(channel, 0, (line, end) -> {
+                headerEnd[0] = end;
+                return true;
+            });
+            return new MoffResultSpliterator(channel, headerEnd[0], channel.size());
+        });
+    }
+
+    /**
+     * Open the given file and create the stream over its records.
+     *
+     * @param file the file
+     * @param factory the spliterator factory
+     * @return the stream, closing it closes the file
+     * @throws IOException in case of a read problem
+     */
+    private static <T> Stream<T> stream(Path file, SpliteratorFactory<T> factory) throws IOException {
+        Path uncompressedFile = GzipFiles.isGzip(file) ? GzipFiles.decompressToTemporaryFile(file) : file;
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(uncompressedFile, StandardOpenOption.READ);
+            Spliterator<T> spliterator = factory.create(channel);
+            FileChannel openChannel = channel;
+            return StreamSupport.stream(spliterator, false).onClose(() -> {
+                try {
+                    close(openChannel, file, uncompressedFile);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (IOException | RuntimeException ex) {
+            try {
+                close(channel, file, uncompressedFile);
+            } catch (IOException closeException) {
+                ex.addSuppressed(closeException);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Close the channel and delete the temporary file, if any.
+     *
+     * @param channel the channel, can be null
+     * @param file the file
+     * @param uncompressedFile the uncompressed file
+     * @throws IOException in case of a close or delete problem
+     */
+    private static void close(FileChannel channel, Path file, Path uncompressedFile) throws IOException {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            if (!uncompressedFile.equals(file)) {
+                Files.deleteIfExists(uncompressedFile);
+            }
+        }
+    }
+
+    /**
+     * Create the PSM spliterator over the lines after the PSH line.
+     *
+     * @param channel the mzTab file channel
+     * @return the spliterator
+     * @throws IOException in case of a read problem
+     */
+    private static Spliterator<PsmRecord> createPsmSpliterator(FileChannel channel) throws IOException {
+        PsmSpliterator[] spliterator = {null};
+        findLine(channel, 0, (line, end) -> {
+            if (!line.startsWith(PSH_PREFIX)) {
+                return false;
+            }
+            PsmRecord.Header header = new PsmRecord.Header(Arrays.asList(line.split(SEPARATOR, -1)));
+            spliterator[0] = new PsmSpliterator(channel, end, channel.size(), header);
+            return true;
+        });
+        //without a PSH line there are no PSMs
+        return spliterator[0] != null ? spliterator[0] : Spliterators.emptySpliterator();
+    }
+
+    /**
+     * Callback for the lines read by {@link #findLine}.
+     */
+    @FunctionalInterface
+    private interface LineMatcher {
+
+        /**
+         * Check a line.
+         *
+         * @param line the line without line terminator
+         * @param end the offset of the next line
+         * @return whether the line is the one looked for
+         * @throws IOException in case of a read problem
+         */
+        boolean matches(String line, long end) throws IOException;
+    }
+
+    /**
+     * Read the lines from the given offset until the matcher accepts one.
+     *
+     * @param channel the file channel
+     * @param from the offset of the first line
+     * @param matcher the matcher
+     * @throws IOException in case of a read problem
+     */
+    private static void findLine(FileChannel channel, long from, LineMatcher matcher) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long position = from;
+        int read;
+        while ((read = channel.read(buffer, position)) > 0) {
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n') {
+                    if (matcher.matches(decodeLine(line), position + i + 1)) {
+                        return;
+                    }
+                    line.reset();
+                } else {
+                    line.write(b);
+                }
+            }
+            position += read;
+            buffer.clear();
+        }
+        if (line.size() > 0) {
+            matcher.matches(decodeLine(line), position);
+        }
+    }
+
+    private static String decodeLine(ByteArrayOutputStream line) {
+        String decodedLine = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        return decodedLine.endsWith("\r") ? decodedLine.substring(0, decodedLine.length() - 1) : decodedLine;
+    }
+
+    /**
+     * Spliterator over the PSM lines in a range of an mzTab file.
+     */
+    private static class PsmSpliterator extends FileRangeSpliterator<PsmRecord> {
+
+        private final PsmRecord.Header header;
+        private BufferedReader reader;
+
+        PsmSpliterator(FileChannel channel, long start, long end, PsmRecord.Header header) {
+            super(channel, start, end);
+            this.header = header;
+        }
+
+        @Override
+        protected FileRangeSpliterator<PsmRecord> createSpliterator(long start, long end) {
+            return new PsmSpliterator(channel, start, end, header);
+        }
+
+        @Override
+        protected void open(ReadableByteChannel rangeChannel) {
+            reader = new BufferedReader(Channels.newReader(rangeChannel, StandardCharsets.UTF_8.name()));
+        }
+
+        @Override
+        protected boolean advance(Consumer<? super PsmRecord> action) throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(PSM_PREFIX)) {
+                    action.accept(new PsmRecord(header, line.split(SEPARATOR, -1)));
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Spliterator over the lines in a range of a moff result file.
+     */
+    private static class MoffResultSpliterator extends FileRangeSpliterator<MoffResultLine> {
+
+        private MoffResultReader reader;
+
+        MoffResultSpliterator(FileChannel channel, long start, long end) {
+            super(channel, start, end);
+        }
+
+        @Override
+        protected FileRangeSpliterator<MoffResultLine> createSpliterator(long start, long end) {
+            return new MoffResultSpliterator(channel, start, end);
+        }
+
+        @Override
+        protected void open(ReadableByteChannel rangeChannel) throws IOException {
+            reader = new MoffResultReader(rangeChannel, false);
+        }
+
+        @Override
+        protected boolean advance(Consumer<? super MoffResultLine> action) throws IOException {
+            if (!reader.next()) {
+                return false;
+            }
+            action.accept(new MoffResultLine(reader.getSpectrumIndex(), reader.getIntensity(), reader.getRtPeak(), reader.getLwhm(), reader.getRwhm(), reader.getSnr(), reader.getLogLR(), reader.getLogInt()));
+            return true;
+        }
+    }
+
+}
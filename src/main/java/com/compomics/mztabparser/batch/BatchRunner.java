@@ -0,0 +1,338 @@
+package com.compomics.mztabparser.batch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Runs the file jobs of a batch, either one after the other or on a pool of
+ * worker threads. Every job is isolated: a failing job is recorded in the
+ * summary and doesn't stop the other jobs.
+ *
+ * The jobs start largest first, by estimated heap use and then by input
+ * size, so the long running jobs don't end up at the tail of the batch. A job
+ * only starts once its heap estimate fits in the {@link HeapBudget} next to
+ * the running jobs, in the order the jobs ask for it; the
+ * budget is shared by all batches of the runner, as is the number of jobs
+ * that run at the same time: batches that run next to each other, like the
+ * jobs of the daemon, don't multiply the number of threads.
+ *
+ * The metrics of every job are added to the JMX {@link StageMetrics} and, if
+ * set, to the JSON metrics report.
+ *
+ * With a {@link ShardPartition} only the jobs of that shard run, and the
+ * shard writes its {@link ShardManifest} to the output directory of the
+ * batch.
+ *
+ * @author niels
+ */
+public class BatchRunner {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(BatchRunner.class);
+
+    /**
+     * The number of jobs that run at the same time.
+     */
+    private int threads = 1;
+    /**
+     * The permits of the running jobs of all batches, one per thread.
+     */
+    private Semaphore jobPermits = new Semaphore(1, true);
+    /**
+     * The catalog used to skip up to date jobs, null to run all jobs.
+     */
+    private DatasetCatalog catalog;
+    /**
+     * The JSON metrics report, null if no report is written.
+     */
+    private MetricsReport metricsReport;
+    /**
+     * The heap budget the running jobs are admitted against.
+     */
+    private HeapBudget heapBudget = new HeapBudget(Runtime.getRuntime().maxMemory() * 3 / 4);
+    /**
+     * The shard whose jobs run, null to run all jobs.
+     */
+    private ShardPartition shard;
+    /**
+     * Samples the heap usage of the running jobs.
+     */
+    private final HeapSampler heapSampler = new HeapSampler();
+
+    /**
+     * No-arg constructor
+     */
+    public BatchRunner() {
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads should be at least 1.");
+        }
+        this.threads = threads;
+        this.jobPermits = new Semaphore(threads, true);
+    }
+
+    public DatasetCatalog getCatalog() {
+        return catalog;
+    }
+
+    public void setCatalog(DatasetCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public MetricsReport getMetricsReport() {
+        return metricsReport;
+    }
+
+    public void setMetricsReport(MetricsReport metricsReport) {
+        this.metricsReport = metricsReport;
+    }
+
+    public long getHeapBudget() {
+        return heapBudget.getBudget();
+    }
+
+    /**
+     * Set the heap budget, before any job runs.
+     *
+     * @param heapBudget the heap budget in bytes
+     */
+    public void setHeapBudget(long heapBudget) {
+        this.heapBudget = new HeapBudget(heapBudget);
+    }
+
+    public ShardPartition getShard() {
+        return shard;
+    }
+
+    public void setShard(ShardPartition shard) {
+        this.shard = shard;
+    }
+
+    /**
+     * Run the given jobs and wait for all of them to finish. A shard writes
+     * its manifest next to the output file of the first job, so a shard of
+     * a batch that can be empty should use
+     * {@link #run(List, Stage, Path)}.
+     *
+     * @param jobs the jobs
+     * @return the batch summary
+     */
+    public BatchSummary run(List<FileJob> jobs) {
+        if (jobs.isEmpty()) {
+            return run(jobs, null, null);
+        }
+        FileJob firstJob = jobs.get(0);
+        return run(jobs, firstJob.getStage(), firstJob.getOutputFile().toAbsolutePath().getParent());
+    }
+
+    /**
+     * Run the given jobs of a stage and wait for all of them to finish.
+     *
+     * @param jobs the jobs
+     * @param stage the stage of the jobs, for the shard manifest
+     * @param outputDirectory the output directory the shard manifest is
+     * written to
+     * @return the batch summary
+     */
+    public BatchSummary run(List<FileJob> jobs, Stage stage, Path outputDirectory) {
+        List<FileJob> shardJobs = jobs;
+        if (shard != null) {
+            shardJobs = shard.select(jobs);
+            LOGGER.info("shard " + shard + " runs " + shardJobs.size() + " of the " + jobs.size() + " jobs");
+        }
+        //jobs with the same estimate, like all MGF jobs, go by input size
+        Map<FileJob, Long> inputSizes = new HashMap<>();
+        for (FileJob job : shardJobs) {
+            inputSizes.put(job, job.getInputSize());
+        }
+        List<FileJob> sortedJobs = new ArrayList<>(shardJobs);
+        sortedJobs.sort(Comparator.comparingLong(FileJob::getHeapEstimate).thenComparingLong(inputSizes::get).reversed().thenComparing(FileJob::getName));
+
+        List<FileJobResult> results = new ArrayList<>();
+        if (threads == 1 || sortedJobs.size() <= 1) {
+            for (FileJob job : sortedJobs) {
+                results.add(runJob(job));
+            }
+        } else {
+            ExecutorService executorService = Executors.newFixedThreadPool(Math.min(threads, sortedJobs.size()), new WorkerThreadFactory());
+            try {
+                List<Future<FileJobResult>> futures = new ArrayList<>();
+                for (FileJob job : sortedJobs) {
+                    futures.add(executorService.submit(() -> runJob(job)));
+                }
+                for (Future<FileJobResult> future : futures) {
+                    results.add(future.get());
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the file jobs to finish.", ex);
+            } catch (ExecutionException ex) {
+                //runJob catches the job failures, so this shouldn't happen
+                throw new IllegalStateException(ex.getCause());
+            } finally {
+                executorService.shutdownNow();
+            }
+        }
+        //report in name order
+        results.sort(Comparator.comparing(FileJobResult::getName));
+
+        if (catalog != null) {
+            try {
+                catalog.save();
+            } catch (IOException ex) {
+                LOGGER.error("failed to save the dataset catalog: " + ex.getMessage());
+            }
+        }
+
+        //a shard without jobs, even of an empty batch, writes its manifest as
+        //well, the batch is only complete if all shards are accounted for
+        if (shard != null && stage != null) {
+            try {
+                Path manifestFile = ShardManifest.write(outputDirectory.toAbsolutePath(), stage, shard, jobs, shardJobs, results);
+                LOGGER.info("wrote the shard manifest " + manifestFile);
+            } catch (IOException ex) {
+                LOGGER.error("failed to write the shard manifest: " + ex.getMessage());
+            }
+        }
+
+        BatchSummary batchSummary = new BatchSummary(results);
+        batchSummary.log(LOGGER);
+
+        if (metricsReport != null) {
+            try {
+                metricsReport.add(batchSummary);
+            } catch (IOException ex) {
+                LOGGER.error("failed to write the metrics report: " + ex.getMessage());
+            }
+        }
+
+        return batchSummary;
+    }
+
+    /**
+     * Run a single job and catch its failure.
+     *
+     * @param job the job
+     * @return the job result
+     */
+    private FileJobResult runJob(FileJob job) {
+        long start = System.currentTimeMillis();
+        JobMetrics metrics = new JobMetrics();
+        AtomicLong peakHeap = null;
+        FileJobResult result;
+        try {
+            if (catalog != null && catalog.isUpToDate(job)) {
+                LOGGER.info("skipping " + job.getInputFile() + ", " + job.getOutputFile() + " is up to date");
+                result = new FileJobResult(job.getName(), job.getStage(), FileJobResult.Status.SKIPPED, null, System.currentTimeMillis() - start, metrics);
+            } else {
+                jobPermits.acquire();
+                try {
+                    long reservedHeap = heapBudget.acquire(job.getHeapEstimate());
+                    try {
+                        //the wait for the thread and the heap budget doesn't
+                        //count
+                        start = System.currentTimeMillis();
+                        //sampled for this job only, but the used heap is that
+                        //of the whole JVM, see HeapSampler
+                        peakHeap = heapSampler.start();
+                        job.getTask().execute(metrics);
+                        if (catalog != null) {
+                            catalog.record(job);
+                        }
+                    } finally {
+                        heapBudget.release(reservedHeap);
+                    }
+                } finally {
+                    jobPermits.release();
+                }
+                finishMetrics(job, metrics, start, peakHeap);
+                result = new FileJobResult(job.getName(), job.getStage(), FileJobResult.Status.SUCCEEDED, null, metrics.getDurationMillis(), metrics);
+            }
+        } catch (Exception | OutOfMemoryError | StackOverflowError ex) {
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            LOGGER.error("failed to process " + job.getInputFile() + ": " + ex.getMessage());
+            finishMetrics(job, metrics, start, peakHeap);
+            result = new FileJobResult(job.getName(), job.getStage(), FileJobResult.Status.FAILED, String.valueOf(ex.getMessage()), metrics.getDurationMillis(), metrics);
+        }
+        StageMetrics.get(job.getStage()).add(result);
+        return result;
+    }
+
+    /**
+     * Fill in the wall time, file sizes and peak heap usage of a finished
+     * job.
+     *
+     * @param job the job
+     * @param metrics the job metrics
+     * @param start the job start time
+     * @param peakHeap the heap sampler peak of the job, null if the task
+     * didn't start
+     */
+    private void finishMetrics(FileJob job, JobMetrics metrics, long start, AtomicLong peakHeap) {
+        metrics.setDurationMillis(System.currentTimeMillis() - start);
+        metrics.setBytesRead(getSize(job.getInputFiles()));
+        metrics.setBytesWritten(getSize(Collections.singletonList(job.getOutputFile())));
+        if (peakHeap != null) {
+            metrics.setPeakHeapBytes(heapSampler.stop(peakHeap));
+        }
+    }
+
+    /**
+     * Get the total size of the given files, missing files count as 0 bytes.
+     *
+     * @param files the files
+     * @return the size in bytes
+     */
+    private static long getSize(List<Path> files) {
+        long size = 0;
+        for (Path file : files) {
+            try {
+                if (Files.exists(file)) {
+                    size += Files.size(file);
+                }
+            } catch (IOException ex) {
+                LOGGER.warn("failed to get the size of " + file + ": " + ex.getMessage());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Thread factory for named daemon worker threads.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "worker-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.compomics.mztabparser.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The results of a batch run, ordered by job name so the summary doesn't
+ * depend on the order in which the jobs finished.
+ *
+ * @author niels
+ */
+public class BatchSummary {
+
+    private final List<FileJobResult> results;
+
+    /**
+     * Constructor.
+     *
+     * @param results the job results
+     */
+    public BatchSummary(List<FileJobResult> results) {
+        List<FileJobResult> sortedResults = new ArrayList<>(results);
+        sortedResults.sort(Comparator.comparing(FileJobResult::getName));
+        this.results = Collections.unmodifiableList(sortedResults);
+    }
+
+    public List<FileJobResult> getResults() {
+        return results;
+    }
+
+    /**
+     * Get the results with the given status.
+     *
+     * @param status the status
+     * @return the results with that status
+     */
+    public List<FileJobResult> getResults(FileJobResult.Status status) {
+        return results.stream().filter(result -> result.getStatus() == status).collect(Collectors.toList());
+    }
+
+    /**
+     * Check whether any of the jobs failed.
+     *
+     * @return whether there are failed jobs
+     */
+    public boolean hasFailures() {
+        return results.stream().anyMatch(result -> result.getStatus() == FileJobResult.Status.FAILED);
+    }
+
+    /**
+     * Log the summary, one line per job.
+     *
+     * @param logger the logger
+     */
+    public void log(Logger logger) {
+        logger.info("processed " + results.size() + " file(s): "
+                + getResults(FileJobResult.Status.SUCCEEDED).size() + " succeeded, "
+                + getResults(FileJobResult.Status.FAILED).size() + " failed, "
+                + getResults(FileJobResult.Status.SKIPPED).size() + " skipped (up to date)");
+        for (FileJobResult result : results) {
+            if (result.getStatus() == FileJobResult.Status.FAILED) {
+                logger.error(result.getStatus() + " " + result.getName() + ": " + result.getMessage());
+            } else if (result.getStatus() == FileJobResult.Status.SKIPPED) {
+                logger.info(result.getStatus() + " " + result.getName());
+            } else {
+                logger.info(result.getStatus() + " " + result.getName() + " (" + result.getDurationMillis() + " ms, "
+                        + result.getMetrics().getRecords() + " records, " + Math.round(result.getMetrics().getRecordsPerSecond()) + " records/s)");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,351 @@
+package com.compomics.mztabparser.batch;
+
+import com.compomics.mztabparser.io.GzipFiles;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Persistent catalog of the outputs written to an output directory. For every
+ * output file, and the side outputs of its job, it records the size and
+ * modification time of the input files it was made from, and the size,
+ * modification time and checksum of the output itself. A re-run can then skip
+ * the jobs whose inputs haven't changed and whose outputs are all still
+ * intact; a job with a side output that wasn't recorded (e.g. because it's
+ * enabled since the last run) runs again. An output is only checksummed when
+ * its modification time changed.
+ *
+ * The catalog is kept in a tab separated file in the output directory, one
+ * line per output and input file pair.
+ *
+ * @author niels
+ */
+public class DatasetCatalog {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(DatasetCatalog.class);
+
+    /**
+     * The catalog file name.
+     */
+    public static final String CATALOG_FILE_NAME = ".mzparser-catalog.tsv";
+    private static final String SEPARATOR = "\t";
+    private static final String HEADER = "output" + SEPARATOR + "output_size" + SEPARATOR + "output_mtime" + SEPARATOR + "output_checksum"
+            + SEPARATOR + "input" + SEPARATOR + "input_size" + SEPARATOR + "input_mtime";
+    /**
+     * The number of fields of a catalog line, and of a line of a catalog
+     * written before the output modification time was recorded.
+     */
+    private static final int FIELDS = 7;
+    private static final int FIELDS_WITHOUT_OUTPUT_MTIME = 6;
+    /**
+     * The known file name suffixes, longest first so .pride.mztab wins over
+     * .mztab.
+     */
+    private static final String[] SUFFIXES = {".pride.mztab", "_moff_result.txt", ".moff2start", ".mztab", ".mgf", ".txt"};
+    private static final int CHECKSUM_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The state of a single input file.
+     */
+    private static class InputState {
+
+        private final String path;
+        private final long size;
+        private final long modificationTime;
+
+        InputState(String path, long size, long modificationTime) {
+            this.path = path;
+            this.size = size;
+            this.modificationTime = modificationTime;
+        }
+    }
+
+    /**
+     * The recorded state of an output file.
+     */
+    private static class OutputState {
+
+        private final long size;
+        /**
+         * The modification time, -1 if unknown.
+         */
+        private long modificationTime;
+        private final long checksum;
+        private final List<InputState> inputs = new ArrayList<>();
+
+        OutputState(long size, long modificationTime, long checksum) {
+            this.size = size;
+            this.modificationTime = modificationTime;
+            this.checksum = checksum;
+        }
+    }
+
+    private final Path catalogFile;
+    /**
+     * The output states by output file name.
+     */
+    private final Map<String, OutputState> outputs = new HashMap<>();
+
+    /**
+     * Constructor; use {@link #load(Path)} to read an existing catalog.
+     *
+     * @param catalogFile the catalog file
+     */
+    private DatasetCatalog(Path catalogFile) {
+        this.catalogFile = catalogFile;
+    }
+
+    /**
+     * Load the catalog of the given output directory, an empty catalog is
+     * returned if there is none yet.
+     *
+     * @param outputDirectory the output directory
+     * @return the catalog
+     * @throws IOException in case of a read problem
+     */
+    public static DatasetCatalog load(Path outputDirectory) throws IOException {
+        return load(outputDirectory, CATALOG_FILE_NAME);
+    }
+
+    /**
+     * Get the catalog file name of a shard; every shard keeps its own catalog
+     * so the shards don't overwrite each other's.
+     *
+     * @param shard the shard
+     * @return the catalog file name
+     */
+    public static String getCatalogFileName(ShardPartition shard) {
+        return CATALOG_FILE_NAME.replace(".tsv", "-shard-" + shard.getShard() + "-of-" + shard.getShards() + ".tsv");
+    }
+
+    /**
+     * Load the catalog of the given output directory from the given catalog
+     * file, so independent processes (e.g. the shards of a batch) can each
+     * keep their own catalog.
+     *
+     * @param outputDirectory the output directory
+     * @param catalogFileName the catalog file name
+     * @return the catalog
+     * @throws IOException in case of a read problem
+     */
+    public static DatasetCatalog load(Path outputDirectory, String catalogFileName) throws IOException {
+        DatasetCatalog catalog = new DatasetCatalog(outputDirectory.resolve(catalogFileName));
+        if (Files.exists(catalog.catalogFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(catalog.catalogFile)) {
+                //skip the header
+                String line = reader.readLine();
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(SEPARATOR, -1);
+                    if (fields.length == FIELDS_WITHOUT_OUTPUT_MTIME) {
+                        //the output is checksummed on the next run
+                        fields = new String[]{fields[0], fields[1], "-1", fields[2], fields[3], fields[4], fields[5]};
+                    } else if (fields.length != FIELDS) {
+                        LOGGER.warn("ignoring invalid catalog line \"" + line + "\" in " + catalog.catalogFile);
+                        continue;
+                    }
+                    String[] outputFields = fields;
+                    OutputState outputState = catalog.outputs.computeIfAbsent(fields[0],
+                            name -> new OutputState(Long.parseLong(outputFields[1]), Long.parseLong(outputFields[2]), Long.parseLong(outputFields[3])));
+                    outputState.inputs.add(new InputState(fields[4], Long.parseLong(fields[5]), Long.parseLong(fields[6])));
+                }
+            } catch (NumberFormatException ex) {
+                LOGGER.warn("ignoring invalid catalog " + catalog.catalogFile + ": " + ex.getMessage());
+                catalog.outputs.clear();
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Get the dataset base name of the given file, i.e. the file name without
+     * the .gz extension and the known MGF, mzTab, moff and output suffixes
+     * (ignoring case).
+     *
+     * @param file the file
+     * @return the base name
+     */
+    public static String getBaseName(Path file) {
+        return getBaseName(file.getFileName().toString());
+    }
+
+    /**
+     * Get the dataset base name of the given file name, see
+     * {@link #getBaseName(Path)}.
+     *
+     * @param fileName the file name
+     * @return the base name
+     */
+    public static String getBaseName(String fileName) {
+        fileName = GzipFiles.removeGzipExtension(fileName);
+        String lowerCaseFileName = fileName.toLowerCase();
+        for (String suffix : SUFFIXES) {
+            if (lowerCaseFileName.endsWith(suffix)) {
+                return fileName.substring(0, fileName.length() - suffix.length());
+            }
+        }
+        return fileName;
+    }
+
+    /**
+     * Index the given files by base name.
+     *
+     * @param files the files
+     * @return the files by base name
+     */
+    public static Map<String, Path> indexByBaseName(List<Path> files) {
+        Map<String, Path> index = new HashMap<>(files.size() * 2);
+        for (Path file : files) {
+            Path previous = index.put(getBaseName(file), file);
+            if (previous != null) {
+                LOGGER.warn("both " + previous + " and " + file + " have base name " + getBaseName(file) + ", using the latter");
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Check whether the output and side outputs of the given job are up to
+     * date: they were recorded from the same input files with the same size
+     * and modification time, and they still have the recorded size and
+     * modification time, or else the recorded checksum.
+     *
+     * @param job the job
+     * @return whether the job can be skipped
+     * @throws IOException in case of a read problem
+     */
+    public boolean isUpToDate(FileJob job) throws IOException {
+        if (!isUpToDate(job.getOutputFile(), job.getInputFiles())) {
+            return false;
+        }
+        for (Path sideOutputFile : job.getSideOutputFiles()) {
+            if (!isUpToDate(sideOutputFile, job.getInputFiles())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether an output file is up to date, see
+     * {@link #isUpToDate(FileJob)}.
+     *
+     * @param outputFile the output file
+     * @param inputFiles the input files of its job
+     * @return whether the output file is up to date
+     * @throws IOException in case of a read problem
+     */
+    private boolean isUpToDate(Path outputFile, List<Path> inputFiles) throws IOException {
+        OutputState outputState;
+        synchronized (this) {
+            outputState = outputs.get(outputFile.getFileName().toString());
+        }
+        if (outputState == null || !Files.exists(outputFile) || outputState.inputs.size() != inputFiles.size()) {
+            return false;
+        }
+        for (int i = 0; i < inputFiles.size(); i++) {
+            Path inputFile = inputFiles.get(i);
+            InputState inputState = outputState.inputs.get(i);
+            if (!inputState.path.equals(inputFile.toAbsolutePath().toString())
+                    || !Files.exists(inputFile)
+                    || inputState.size != Files.size(inputFile)
+                    || inputState.modificationTime != Files.getLastModifiedTime(inputFile).toMillis()) {
+                return false;
+            }
+        }
+
+        if (outputState.size != Files.size(outputFile)) {
+            return false;
+        }
+        long modificationTime = Files.getLastModifiedTime(outputFile).toMillis();
+        synchronized (this) {
+            if (outputState.modificationTime == modificationTime) {
+                return true;
+            }
+        }
+        //touched or copied, the content decides
+        if (outputState.checksum != checksum(outputFile)) {
+            return false;
+        }
+        synchronized (this) {
+            outputState.modificationTime = modificationTime;
+        }
+        return true;
+    }
+
+    /**
+     * Record the inputs and the outputs of a successful job; side outputs
+     * that weren't written aren't recorded.
+     *
+     * @param job the job
+     * @throws IOException in case of a read problem
+     */
+    public void record(FileJob job) throws IOException {
+        record(job.getOutputFile(), job.getInputFiles());
+        for (Path sideOutputFile : job.getSideOutputFiles()) {
+            if (Files.exists(sideOutputFile)) {
+                record(sideOutputFile, job.getInputFiles());
+            }
+        }
+    }
+
+    private void record(Path outputFile, List<Path> inputFiles) throws IOException {
+        OutputState outputState = new OutputState(Files.size(outputFile), Files.getLastModifiedTime(outputFile).toMillis(), checksum(outputFile));
+        for (Path inputFile : inputFiles) {
+            outputState.inputs.add(new InputState(inputFile.toAbsolutePath().toString(), Files.size(inputFile), Files.getLastModifiedTime(inputFile).toMillis()));
+        }
+        synchronized (this) {
+            outputs.put(outputFile.getFileName().toString(), outputState);
+        }
+    }
+
+    /**
+     * Write the catalog to the output directory; the catalog file is replaced
+     * atomically.
+     *
+     * @throws IOException in case of a write problem
+     */
+    public synchronized void save() throws IOException {
+        Path temporaryFile = catalogFile.resolveSibling(catalogFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile)) {
+            writer.write(HEADER);
+            for (Map.Entry<String, OutputState> output : outputs.entrySet()) {
+                for (InputState input : output.getValue().inputs) {
+                    writer.newLine();
+                    writer.write(output.getKey() + SEPARATOR + output.getValue().size + SEPARATOR + output.getValue().modificationTime + SEPARATOR + output.getValue().checksum
+                            + SEPARATOR + input.path + SEPARATOR + input.size + SEPARATOR + input.modificationTime);
+                }
+            }
+        }
+        Files.move(temporaryFile, catalogFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Calculate the CRC32 checksum of the given file.
+     *
+     * @param file the file
+     * @return the checksum
+     * @throws IOException in case of a read problem
+     */
+    private static long checksum(Path file) throws IOException {
+        CRC32 crc32 = new CRC32();
+        byte[] buffer = new byte[CHECKSUM_BUFFER_SIZE];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                crc32.update(buffer, 0, read);
+            }
+        }
+        return crc32.getValue();
+    }
+
+}
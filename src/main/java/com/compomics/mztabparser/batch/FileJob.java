@@ -0,0 +1,189 @@
+package com.compomics.mztabparser.batch;
+
+import com.compomics.mztabparser.io.GzipFiles;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The processing of a single input file (or file pair) in a batch run.
+ *
+ * @author niels
+ */
+public class FileJob {
+
+    /**
+     * The work done by a job.
+     */
+    @FunctionalInterface
+    public interface Task {
+
+        /**
+         * Execute the task.
+         *
+         * @param metrics the metrics to count the processed records in
+         * @throws Exception in case of a processing problem
+         */
+        void execute(JobMetrics metrics) throws Exception;
+    }
+
+    private final Stage stage;
+    private final List<Path> inputFiles;
+    private final Path outputFile;
+    /**
+     * The other files the job writes next to its output file, e.g. a binary
+     * copy or an index, which have to be up to date as well.
+     */
+    private final List<Path> sideOutputFiles;
+    private final Task task;
+    /**
+     * The estimated heap use in bytes.
+     */
+    private final long heapEstimate;
+
+    /**
+     * Constructor, the heap use is estimated from the stage and the input
+     * file sizes.
+     *
+     * @param stage the processing stage
+     * @param inputFiles the input files, the first one is the main input
+     * file that names the job
+     * @param outputFile the output file
+     * @param task the task
+     */
+    public FileJob(Stage stage, List<Path> inputFiles, Path outputFile, Task task) {
+        this(stage, inputFiles, outputFile, Collections.emptyList(), task);
+    }
+
+    /**
+     * Constructor, the heap use is estimated from the stage and the input
+     * file sizes.
+     *
+     * @param stage the processing stage
+     * @param inputFiles the input files, the first one is the main input
+     * file that names the job
+     * @param outputFile the output file
+     * @param sideOutputFiles the other files the job writes
+     * @param task the task
+     */
+    public FileJob(Stage stage, List<Path> inputFiles, Path outputFile, List<Path> sideOutputFiles, Task task) {
+        this(stage, inputFiles, outputFile, sideOutputFiles, stage.estimateHeap(getUncompressedSize(inputFiles)), task);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stage the processing stage
+     * @param inputFiles the input files, the first one is the main input
+     * file that names the job
+     * @param outputFile the output file
+     * @param heapEstimate the estimated heap use in bytes
+     * @param task the task
+     */
+    public FileJob(Stage stage, List<Path> inputFiles, Path outputFile, long heapEstimate, Task task) {
+        this(stage, inputFiles, outputFile, Collections.emptyList(), heapEstimate, task);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stage the processing stage
+     * @param inputFiles the input files, the first one is the main input
+     * file that names the job
+     * @param outputFile the output file
+     * @param sideOutputFiles the other files the job writes
+     * @param heapEstimate the estimated heap use in bytes
+     * @param task the task
+     */
+    public FileJob(Stage stage, List<Path> inputFiles, Path outputFile, List<Path> sideOutputFiles, long heapEstimate, Task task) {
+        if (inputFiles.isEmpty()) {
+            throw new IllegalArgumentException("A file job needs at least one input file.");
+        }
+        this.stage = stage;
+        this.inputFiles = Collections.unmodifiableList(inputFiles);
+        this.outputFile = outputFile;
+        this.sideOutputFiles = Collections.unmodifiableList(sideOutputFiles);
+        this.heapEstimate = heapEstimate;
+        this.task = task;
+    }
+
+    /**
+     * Get the estimated uncompressed size of the given files, missing files
+     * count as 0 bytes.
+     *
+     * @param files the files
+     * @return the size in bytes
+     */
+    private static long getUncompressedSize(List<Path> files) {
+        long size = 0;
+        for (Path file : files) {
+            try {
+                if (Files.exists(file)) {
+                    size += GzipFiles.estimateUncompressedSize(file);
+                }
+            } catch (IOException ex) {
+                //the size is only an estimate
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the job name, which is the file name of the main input file.
+     *
+     * @return the job name
+     */
+    public String getName() {
+        return inputFiles.get(0).getFileName().toString();
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    public Path getInputFile() {
+        return inputFiles.get(0);
+    }
+
+    public List<Path> getInputFiles() {
+        return inputFiles;
+    }
+
+    public Path getOutputFile() {
+        return outputFile;
+    }
+
+    public List<Path> getSideOutputFiles() {
+        return sideOutputFiles;
+    }
+
+    public Task getTask() {
+        return task;
+    }
+
+    public long getHeapEstimate() {
+        return heapEstimate;
+    }
+
+    /**
+     * Get the total size of the input files, missing files count as 0 bytes.
+     *
+     * @return the size in bytes
+     */
+    public long getInputSize() {
+        long size = 0;
+        for (Path inputFile : inputFiles) {
+            try {
+                if (Files.exists(inputFile)) {
+                    size += Files.size(inputFile);
+                }
+            } catch (IOException ex) {
+                //the size only orders and balances the jobs
+            }
+        }
+        return size;
+    }
+
+}
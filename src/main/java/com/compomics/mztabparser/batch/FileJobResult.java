@@ -0,0 +1,67 @@
+package com.compomics.mztabparser.batch;
+
+/**
+ * The outcome of a file job.
+ *
+ * @author niels
+ */
+public class FileJobResult {
+
+    /**
+     * The job status.
+     */
+    public enum Status {
+        SUCCEEDED, FAILED, SKIPPED
+    }
+
+    private final String name;
+    private final Stage stage;
+    private final Status status;
+    private final String message;
+    private final long durationMillis;
+    private final JobMetrics metrics;
+
+    /**
+     * Constructor.
+     *
+     * @param name the job name
+     * @param stage the job stage
+     * @param status the job status
+     * @param message the failure message, null if the job didn't fail
+     * @param durationMillis the job wall time in milliseconds
+     * @param metrics the job metrics
+     */
+    public FileJobResult(String name, Stage stage, Status status, String message, long durationMillis, JobMetrics metrics) {
+        this.name = name;
+        this.stage = stage;
+        this.status = status;
+        this.message = message;
+        this.durationMillis = durationMillis;
+        this.metrics = metrics;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public JobMetrics getMetrics() {
+        return metrics;
+    }
+
+}
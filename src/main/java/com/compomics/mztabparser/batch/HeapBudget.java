@@ -0,0 +1,86 @@
+package com.compomics.mztabparser.batch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Admission control of jobs against a heap budget. A job reserves its
+ * estimated heap use before it starts and waits as long as the reservation
+ * doesn't fit next to the ones of the running jobs. A job estimated above the
+ * whole budget reserves the whole budget, so it runs on its own. The jobs are
+ * admitted in the order they ask, so a large job that waits for the running
+ * jobs to finish isn't overtaken by the smaller jobs behind it.
+ *
+ * The budget can be shared by several batch runs at the same time.
+ *
+ * @author niels
+ */
+public class HeapBudget {
+
+    private final long budget;
+    private long reserved;
+    /**
+     * The tickets of the waiting jobs, in admission order.
+     */
+    private final Deque<Object> waiting = new ArrayDeque<>();
+
+    /**
+     * Constructor.
+     *
+     * @param budget the heap budget in bytes
+     */
+    public HeapBudget(long budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("The heap budget should be at least 1 byte.");
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * Reserve heap for a job, wait until the jobs that asked before it are
+     * admitted and it fits in the budget.
+     *
+     * @param heapEstimate the estimated heap use of the job in bytes
+     * @return the reserved heap in bytes, to be released with
+     * {@link #release(long)} when the job is done
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized long acquire(long heapEstimate) throws InterruptedException {
+        long amount = Math.max(0, Math.min(heapEstimate, budget));
+        Object ticket = new Object();
+        waiting.addLast(ticket);
+        try {
+            while (waiting.peekFirst() != ticket || (reserved > 0 && reserved + amount > budget)) {
+                wait();
+            }
+        } catch (InterruptedException ex) {
+            waiting.remove(ticket);
+            notifyAll();
+            throw ex;
+        }
+        waiting.removeFirst();
+        reserved += amount;
+        //the next job may fit as well
+        notifyAll();
+        return amount;
+    }
+
+    /**
+     * Release heap reserved with {@link #acquire(long)}.
+     *
+     * @param amount the reserved heap in bytes
+     */
+    public synchronized void release(long amount) {
+        reserved -= amount;
+        notifyAll();
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public synchronized long getReserved() {
+        return reserved;
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.compomics.mztabparser.batch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Samples the used heap of the JVM on a timer for the jobs that are running.
+ * Every job keeps the maximum of the samples taken between its start and its
+ * end, so the peak of one job isn't affected by the jobs that start or end
+ * while it runs. The used heap is that of the whole JVM: with parallel jobs
+ * the peak of a job includes the heap of the jobs that ran next to it, and a
+ * short spike between two samples can be missed.
+ *
+ * @author niels
+ */
+public class HeapSampler {
+
+    /**
+     * The sampling interval in milliseconds.
+     */
+    private static final long SAMPLE_INTERVAL_MILLIS = 20;
+
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    /**
+     * The peaks of the running jobs.
+     */
+    private final Set<AtomicLong> runningPeaks = ConcurrentHashMap.newKeySet();
+    /**
+     * The sampling thread, started with the first job.
+     */
+    private ScheduledExecutorService executorService;
+
+    /**
+     * No-arg constructor
+     */
+    public HeapSampler() {
+    }
+
+    /**
+     * Start sampling for a job.
+     *
+     * @return the peak of the job, to pass to {@link #stop(AtomicLong)}
+     */
+    public AtomicLong start() {
+        synchronized (this) {
+            if (executorService == null) {
+                executorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "heap-sampler");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executorService.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+        AtomicLong peak = new AtomicLong(getUsedHeap());
+        runningPeaks.add(peak);
+        return peak;
+    }
+
+    /**
+     * Stop sampling for a job.
+     *
+     * @param peak the peak returned by {@link #start()}
+     * @return the peak heap usage in bytes while the job ran
+     */
+    public long stop(AtomicLong peak) {
+        runningPeaks.remove(peak);
+        return peak.accumulateAndGet(getUsedHeap(), Math::max);
+    }
+
+    private void sample() {
+        if (!runningPeaks.isEmpty()) {
+            long usedHeap = getUsedHeap();
+            for (AtomicLong peak : runningPeaks) {
+                peak.accumulateAndGet(usedHeap, Math::max);
+            }
+        }
+    }
+
+    private long getUsedHeap() {
+        return memoryBean.getHeapMemoryUsage().getUsed();
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.compomics.mztabparser.batch;
+
+/**
+ * The counters of a single file job. The task increments the record counters
+ * while it runs; the runner fills in the wall time, the file sizes and the
+ * peak heap usage when the task is done.
+ *
+ * The record counters are only updated by the thread that runs the task.
+ *
+ * @author niels
+ */
+public class JobMetrics {
+
+    /**
+     * The number of records processed, i.e. spectra for the MGF extraction
+     * and PSMs for the mzTab export and merge.
+     */
+    private long records;
+    /**
+     * The number of PSMs without a moff result.
+     */
+    private long unmatchedRecords;
+    private long bytesRead;
+    private long bytesWritten;
+    private long durationMillis;
+    /**
+     * The peak used heap of the JVM while the task ran, sampled by the
+     * {@link HeapSampler}.
+     */
+    private long peakHeapBytes;
+
+    /**
+     * No-arg constructor
+     */
+    public JobMetrics() {
+    }
+
+    /**
+     * Count a processed record.
+     */
+    public void incrementRecords() {
+        records++;
+    }
+
+    /**
+     * Count a number of processed records.
+     *
+     * @param numberOfRecords the number of records
+     */
+    public void addRecords(long numberOfRecords) {
+        records += numberOfRecords;
+    }
+
+    /**
+     * Count a PSM without a moff result.
+     */
+    public void incrementUnmatchedRecords() {
+        unmatchedRecords++;
+    }
+
+    /**
+     * Count a number of PSMs without a moff result.
+     *
+     * @param numberOfRecords the number of PSMs
+     */
+    public void addUnmatchedRecords(long numberOfRecords) {
+        unmatchedRecords += numberOfRecords;
+    }
+
+    /**
+     * Get the number of records processed per second of wall time.
+     *
+     * @return the records per second, 0 if the duration is unknown
+     */
+    public double getRecordsPerSecond() {
+        return durationMillis > 0 ? records * 1000.0 / durationMillis : 0;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getUnmatchedRecords() {
+        return unmatchedRecords;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public void setBytesRead(long bytesRead) {
+        this.bytesRead = bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public void setBytesWritten(long bytesWritten) {
+        this.bytesWritten = bytesWritten;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    public void setPeakHeapBytes(long peakHeapBytes) {
+        this.peakHeapBytes = peakHeapBytes;
+    }
+
+}
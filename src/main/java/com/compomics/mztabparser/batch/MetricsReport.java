@@ -0,0 +1,144 @@
+package com.compomics.mztabparser.batch;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Machine readable JSON report of the file jobs run by a process, one object
+ * per job plus the totals per stage. The report is rewritten after every
+ * batch, so a long-running watch process always has an up to date report.
+ *
+ * @author niels
+ */
+public class MetricsReport {
+
+    private final Path reportFile;
+    private final long startTime = System.currentTimeMillis();
+    private final List<FileJobResult> results = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param reportFile the JSON report file
+     */
+    public MetricsReport(Path reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    public Path getReportFile() {
+        return reportFile;
+    }
+
+    /**
+     * Add the results of a batch and rewrite the report file; the report file
+     * is replaced atomically.
+     *
+     * @param batchSummary the batch summary
+     * @throws IOException in case of a write problem
+     */
+    public synchronized void add(BatchSummary batchSummary) throws IOException {
+        results.addAll(batchSummary.getResults());
+
+        Path temporaryFile = reportFile.resolveSibling(reportFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile)) {
+            writer.write("{\n");
+            writer.write("  \"start_time\": " + startTime + ",\n");
+            writer.write("  \"end_time\": " + System.currentTimeMillis() + ",\n");
+            writer.write("  \"jobs\": [");
+            for (int i = 0; i < results.size(); i++) {
+                FileJobResult result = results.get(i);
+                writer.write(i == 0 ? "\n" : ",\n");
+                writer.write("    {\"name\": " + quote(result.getName())
+                        + ", \"stage\": " + quote(result.getStage().toString())
+                        + ", \"status\": " + quote(result.getStatus().toString())
+                        + ", \"message\": " + quote(result.getMessage())
+                        + ", " + toJson(result.getMetrics()) + "}");
+            }
+            writer.write("\n  ],\n");
+            writer.write("  \"stages\": {");
+            boolean first = true;
+            for (Stage stage : Stage.values()) {
+                JobMetrics totals = new JobMetrics();
+                int numberOfJobs = 0;
+                for (FileJobResult result : results) {
+                    if (result.getStage() == stage && result.getStatus() != FileJobResult.Status.SKIPPED) {
+                        JobMetrics metrics = result.getMetrics();
+                        totals.addRecords(metrics.getRecords());
+                        totals.addUnmatchedRecords(metrics.getUnmatchedRecords());
+                        totals.setBytesRead(totals.getBytesRead() + metrics.getBytesRead());
+                        totals.setBytesWritten(totals.getBytesWritten() + metrics.getBytesWritten());
+                        totals.setDurationMillis(totals.getDurationMillis() + metrics.getDurationMillis());
+                        totals.setPeakHeapBytes(Math.max(totals.getPeakHeapBytes(), metrics.getPeakHeapBytes()));
+                        numberOfJobs++;
+                    }
+                }
+                if (numberOfJobs > 0) {
+                    writer.write(first ? "\n" : ",\n");
+                    writer.write("    " + quote(stage.toString()) + ": {\"files\": " + numberOfJobs + ", " + toJson(totals) + "}");
+                    first = false;
+                }
+            }
+            writer.write("\n  }\n");
+            writer.write("}\n");
+        }
+        Files.move(temporaryFile, reportFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String toJson(JobMetrics metrics) {
+        return "\"duration_ms\": " + metrics.getDurationMillis()
+                + ", \"bytes_read\": " + metrics.getBytesRead()
+                + ", \"bytes_written\": " + metrics.getBytesWritten()
+                + ", \"records\": " + metrics.getRecords()
+                + ", \"records_per_second\": " + String.format(Locale.US, "%.1f", metrics.getRecordsPerSecond())
+                + ", \"unmatched_records\": " + metrics.getUnmatchedRecords()
+                + ", \"peak_heap_bytes\": " + metrics.getPeakHeapBytes();
+    }
+
+    /**
+     * Quote the given string as a JSON string.
+     *
+     * @param value the string, can be null
+     * @return the JSON string or null
+     */
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2);
+        quoted.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+}
@@ -0,0 +1,342 @@
+package com.compomics.mztabparser.batch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Manifest of the jobs a shard of a batch processed. Every shard writes one
+ * manifest per stage to the output directory, with the shard, the number of
+ * jobs of the whole batch and a fingerprint of their names, and a line per
+ * job of the shard with its status, input files and output file.
+ *
+ * {@link #verify(Path)} checks the manifests of all shards: per stage every
+ * shard has to be there once, all shards have to have seen the same jobs,
+ * and every job has to be processed by exactly one shard without failing.
+ *
+ * @author niels
+ */
+public class ShardManifest {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(ShardManifest.class);
+
+    /**
+     * The manifest file name prefix, followed by the stage, the shard and the
+     * number of shards.
+     */
+    public static final String MANIFEST_FILE_PREFIX = "shard-manifest-";
+    private static final String MANIFEST_FILE_EXTENSION = ".tsv";
+    private static final String SEPARATOR = "\t";
+    private static final String FILE_SEPARATOR = "|";
+    private static final String SHARD_LINE = "#shard";
+    private static final String STAGE_LINE = "#stage";
+    private static final String JOBS_LINE = "#jobs";
+    private static final String HEADER = "name" + SEPARATOR + "status" + SEPARATOR + "input_files" + SEPARATOR + "output_file";
+
+    /**
+     * A manifest as read back from its file.
+     */
+    private static class ManifestFile {
+
+        private final Path file;
+        private int shard;
+        private int shards;
+        private Stage stage;
+        private int jobs = -1;
+        private long fingerprint;
+        /**
+         * The status of the processed jobs by name.
+         */
+        private final Map<String, FileJobResult.Status> statuses = new HashMap<>();
+        /**
+         * The output file names of the processed jobs.
+         */
+        private final List<String> outputFiles = new ArrayList<>();
+
+        ManifestFile(Path file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private ShardManifest() {
+    }
+
+    /**
+     * Get the manifest file of a shard.
+     *
+     * @param directory the output directory
+     * @param stage the stage
+     * @param shard the shard
+     * @return the manifest file
+     */
+    public static Path getManifestFile(Path directory, Stage stage, ShardPartition shard) {
+        return directory.resolve(MANIFEST_FILE_PREFIX + stage.name().toLowerCase() + "-" + shard.getShard() + "-of-" + shard.getShards() + MANIFEST_FILE_EXTENSION);
+    }
+
+    /**
+     * Write the manifest of a shard; the manifest file is replaced
+     * atomically. The manifests of the stage left by an earlier run with a
+     * different number of shards are removed, they would never verify
+     * against the manifests of this run.
+     *
+     * @param directory the output directory
+     * @param stage the stage
+     * @param shard the shard
+     * @param jobs all jobs of the batch, of all shards
+     * @param shardJobs the jobs of the shard
+     * @param results the results of the jobs of the shard
+     * @return the manifest file
+     * @throws IOException in case of a write problem
+     */
+    public static Path write(Path directory, Stage stage, ShardPartition shard, List<FileJob> jobs, List<FileJob> shardJobs, List<FileJobResult> results) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (FileJob job : jobs) {
+            names.add(job.getName());
+        }
+        Map<String, FileJobResult.Status> statuses = new HashMap<>();
+        for (FileJobResult result : results) {
+            statuses.put(result.getName(), result.getStatus());
+        }
+        Map<String, FileJob> sortedShardJobs = new TreeMap<>();
+        for (FileJob job : shardJobs) {
+            sortedShardJobs.put(job.getName(), job);
+        }
+
+        Path manifestFile = getManifestFile(directory, stage, shard);
+        Path temporaryFile = manifestFile.resolveSibling(manifestFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile)) {
+            writer.write(SHARD_LINE + SEPARATOR + shard);
+            writer.newLine();
+            writer.write(STAGE_LINE + SEPARATOR + stage.name());
+            writer.newLine();
+            writer.write(JOBS_LINE + SEPARATOR + jobs.size() + SEPARATOR + fingerprint(names));
+            writer.newLine();
+            writer.write(HEADER);
+            for (FileJob job : sortedShardJobs.values()) {
+                StringBuilder inputFiles = new StringBuilder();
+                for (Path inputFile : job.getInputFiles()) {
+                    if (inputFiles.length() > 0) {
+                        inputFiles.append(FILE_SEPARATOR);
+                    }
+                    inputFiles.append(inputFile.getFileName());
+                }
+                writer.newLine();
+                writer.write(job.getName() + SEPARATOR + statuses.get(job.getName()) + SEPARATOR + inputFiles + SEPARATOR + job.getOutputFile().getFileName());
+            }
+        }
+        Files.move(temporaryFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        removeStaleManifests(directory, stage, shard.getShards());
+        return manifestFile;
+    }
+
+    /**
+     * Remove the manifests of a stage that were written for a different
+     * number of shards.
+     *
+     * @param directory the output directory
+     * @param stage the stage
+     * @param shards the number of shards of the current run
+     * @throws IOException in case of a directory read or delete problem
+     */
+    private static void removeStaleManifests(Path directory, Stage stage, int shards) throws IOException {
+        String currentSuffix = "-of-" + shards + MANIFEST_FILE_EXTENSION;
+        List<Path> staleManifestFiles = new ArrayList<>();
+        try (DirectoryStream<Path> manifestFiles = Files.newDirectoryStream(directory, MANIFEST_FILE_PREFIX + stage.name().toLowerCase() + "-*-of-*" + MANIFEST_FILE_EXTENSION)) {
+            for (Path manifestFile : manifestFiles) {
+                if (!manifestFile.getFileName().toString().endsWith(currentSuffix)) {
+                    staleManifestFiles.add(manifestFile);
+                }
+            }
+        }
+        for (Path staleManifestFile : staleManifestFiles) {
+            if (Files.deleteIfExists(staleManifestFile)) {
+                LOGGER.info("removed the shard manifest " + staleManifestFile + " of an earlier run with a different number of shards");
+            }
+        }
+    }
+
+    /**
+     * Get the fingerprint of a set of job names, independent of their order.
+     *
+     * @param names the job names
+     * @return the fingerprint
+     */
+    private static long fingerprint(Collection<String> names) {
+        CRC32 crc32 = new CRC32();
+        for (String name : new TreeSet<>(names)) {
+            crc32.update(name.getBytes(StandardCharsets.UTF_8));
+            crc32.update('\n');
+        }
+        return crc32.getValue();
+    }
+
+    /**
+     * Verify the shard manifests in the given directory and log the problems
+     * found.
+     *
+     * @param directory the output directory
+     * @return whether every job of every stage was processed exactly once,
+     * false if there are no manifests
+     * @throws IOException in case of a read problem
+     */
+    public static boolean verify(Path directory) throws IOException {
+        Map<Stage, List<ManifestFile>> manifestsByStage = new EnumMap<>(Stage.class);
+        try (DirectoryStream<Path> manifestFiles = Files.newDirectoryStream(directory, MANIFEST_FILE_PREFIX + "*" + MANIFEST_FILE_EXTENSION)) {
+            for (Path manifestFile : manifestFiles) {
+                ManifestFile manifest = read(manifestFile);
+                manifestsByStage.computeIfAbsent(manifest.stage, stage -> new ArrayList<>()).add(manifest);
+            }
+        }
+        if (manifestsByStage.isEmpty()) {
+            LOGGER.error("no shard manifests found in " + directory);
+            return false;
+        }
+
+        boolean valid = true;
+        for (Map.Entry<Stage, List<ManifestFile>> stageManifests : manifestsByStage.entrySet()) {
+            valid &= verify(stageManifests.getKey(), stageManifests.getValue());
+        }
+        return valid;
+    }
+
+    /**
+     * Verify the shard manifests of a stage.
+     *
+     * @param stage the stage
+     * @param manifests the manifests of the stage
+     * @return whether every job was processed exactly once
+     */
+    private static boolean verify(Stage stage, List<ManifestFile> manifests) {
+        boolean valid = true;
+        ManifestFile first = manifests.get(0);
+        ManifestFile[] shards = new ManifestFile[first.shards];
+        for (ManifestFile manifest : manifests) {
+            if (manifest.shards != first.shards || manifest.jobs != first.jobs || manifest.fingerprint != first.fingerprint) {
+                LOGGER.error(stage + ": " + manifest.file + " and " + first.file + " don't partition the same jobs over the same number of shards");
+                return false;
+            }
+            if (shards[manifest.shard - 1] != null) {
+                LOGGER.error(stage + ": shard " + manifest.shard + " has two manifests, " + shards[manifest.shard - 1].file + " and " + manifest.file);
+                valid = false;
+            }
+            shards[manifest.shard - 1] = manifest;
+        }
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i] == null) {
+                LOGGER.error(stage + ": the manifest of shard " + (i + 1) + "/" + first.shards + " is missing");
+                valid = false;
+            }
+        }
+
+        //every job has to be in exactly one shard
+        Map<String, ManifestFile> processedJobs = new HashMap<>();
+        int failedJobs = 0;
+        for (ManifestFile manifest : manifests) {
+            for (Map.Entry<String, FileJobResult.Status> job : manifest.statuses.entrySet()) {
+                ManifestFile previous = processedJobs.put(job.getKey(), manifest);
+                if (previous != null) {
+                    LOGGER.error(stage + ": " + job.getKey() + " was processed by shard " + previous.shard + " and shard " + manifest.shard);
+                    valid = false;
+                }
+                if (job.getValue() == FileJobResult.Status.FAILED) {
+                    LOGGER.error(stage + ": " + job.getKey() + " failed in shard " + manifest.shard);
+                    failedJobs++;
+                }
+            }
+        }
+        if (processedJobs.size() != first.jobs || fingerprint(processedJobs.keySet()) != first.fingerprint) {
+            LOGGER.error(stage + ": the shards processed " + processedJobs.size() + " distinct jobs, not the " + first.jobs + " jobs of the batch");
+            valid = false;
+        }
+        if (failedJobs > 0) {
+            valid = false;
+        }
+        if (valid) {
+            LOGGER.info(stage + ": all " + first.jobs + " jobs were processed exactly once by " + first.shards + " shards");
+        }
+        return valid;
+    }
+
+    /**
+     * Get the output files of the jobs of a stage that didn't fail, of all
+     * shard manifests in the given directory.
+     *
+     * @param directory the output directory
+     * @param stage the stage
+     * @return the output files, sorted
+     * @throws IOException in case of a read problem
+     */
+    public static List<Path> getOutputFiles(Path directory, Stage stage) throws IOException {
+        List<Path> outputFiles = new ArrayList<>();
+        try (DirectoryStream<Path> manifestFiles = Files.newDirectoryStream(directory, MANIFEST_FILE_PREFIX + stage.name().toLowerCase() + "-*" + MANIFEST_FILE_EXTENSION)) {
+            for (Path manifestFile : manifestFiles) {
+                for (String outputFile : read(manifestFile).outputFiles) {
+                    outputFiles.add(directory.resolve(outputFile));
+                }
+            }
+        }
+        Collections.sort(outputFiles);
+        return outputFiles;
+    }
+
+    /**
+     * Read a manifest file.
+     *
+     * @param manifestFile the manifest file
+     * @return the manifest
+     * @throws IOException in case of a read problem or an invalid manifest
+     */
+    private static ManifestFile read(Path manifestFile) throws IOException {
+        ManifestFile manifest = new ManifestFile(manifestFile);
+        try (BufferedReader reader = Files.newBufferedReader(manifestFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR, -1);
+                if (fields[0].equals(SHARD_LINE) && fields.length > 1) {
+                    ShardPartition shard = ShardPartition.parse(fields[1]);
+                    manifest.shard = shard.getShard();
+                    manifest.shards = shard.getShards();
+                } else if (fields[0].equals(STAGE_LINE) && fields.length > 1) {
+                    manifest.stage = Stage.valueOf(fields[1]);
+                } else if (fields[0].equals(JOBS_LINE) && fields.length > 2) {
+                    manifest.jobs = Integer.parseInt(fields[1]);
+                    manifest.fingerprint = Long.parseLong(fields[2]);
+                } else if (!line.equals(HEADER) && fields.length == 4) {
+                    manifest.statuses.put(fields[0], FileJobResult.Status.valueOf(fields[1]));
+                    if (!fields[1].equals(FileJobResult.Status.FAILED.name())) {
+                        manifest.outputFiles.add(fields[3]);
+                    }
+                } else if (!line.equals(HEADER)) {
+                    throw new IOException("Invalid line \"" + line + "\" in shard manifest " + manifestFile);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            //also covers the number format exceptions
+            throw new IOException("Invalid shard manifest " + manifestFile + ": " + ex.getMessage());
+        }
+        if (manifest.stage == null || manifest.shards == 0 || manifest.jobs < 0) {
+            throw new IOException("Incomplete shard manifest " + manifestFile);
+        }
+        return manifest;
+    }
+
+}
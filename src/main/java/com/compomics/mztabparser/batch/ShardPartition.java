@@ -0,0 +1,123 @@
+package com.compomics.mztabparser.batch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Deterministic partition of the jobs of a batch over a number of shards,
+ * so a dataset can be processed by several independent processes or nodes
+ * without a coordinator. Every shard sees the same jobs and computes the
+ * same assignment: the jobs are taken largest first (by the size of their
+ * input files, then by name) and each one goes to the shard with the least
+ * input bytes so far; of the shards that are equally loaded the first one in
+ * the order that starts at the stable hash of the job name wins.
+ *
+ * @author niels
+ */
+public class ShardPartition {
+
+    private final int shard;
+    private final int shards;
+
+    /**
+     * Constructor.
+     *
+     * @param shard the shard number, from 1 up to the number of shards
+     * @param shards the number of shards
+     */
+    public ShardPartition(int shard, int shards) {
+        if (shards < 1 || shard < 1 || shard > shards) {
+            throw new IllegalArgumentException("Invalid shard " + shard + "/" + shards + ", the shard number should be between 1 and the number of shards.");
+        }
+        this.shard = shard;
+        this.shards = shards;
+    }
+
+    /**
+     * Parse a shard given as i/n.
+     *
+     * @param value the shard value
+     * @return the shard partition
+     * @throws IllegalArgumentException in case of an invalid value
+     */
+    public static ShardPartition parse(String value) {
+        int separator = value.indexOf('/');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid shard \"" + value + "\", should be i/n.");
+        }
+        try {
+            return new ShardPartition(Integer.parseInt(value.substring(0, separator).trim()), Integer.parseInt(value.substring(separator + 1).trim()));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid shard \"" + value + "\", should be i/n.");
+        }
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * Select the jobs of this shard.
+     *
+     * @param jobs all jobs of the batch
+     * @return the jobs of this shard
+     */
+    public List<FileJob> select(List<FileJob> jobs) {
+        List<FileJob> sortedJobs = new ArrayList<>(jobs);
+        long[] sizes = new long[sortedJobs.size()];
+        for (int i = 0; i < sortedJobs.size(); i++) {
+            sizes[i] = sortedJobs.get(i).getInputSize();
+        }
+        //sort the job indices on size, largest first, then on name
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < sortedJobs.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.<Integer>comparingLong(i -> sizes[i]).reversed().thenComparing(i -> sortedJobs.get(i).getName()));
+
+        long[] loads = new long[shards];
+        List<FileJob> selectedJobs = new ArrayList<>();
+        for (int i : order) {
+            FileJob job = sortedJobs.get(i);
+            int start = (int) (hash(job.getName()) % shards);
+            int assignedShard = start;
+            for (int k = 1; k < shards; k++) {
+                int candidate = (start + k) % shards;
+                if (loads[candidate] < loads[assignedShard]) {
+                    assignedShard = candidate;
+                }
+            }
+            //every job counts, even an empty one
+            loads[assignedShard] += Math.max(sizes[i], 1);
+            if (assignedShard == shard - 1) {
+                selectedJobs.add(job);
+            }
+        }
+        return selectedJobs;
+    }
+
+    /**
+     * Get the stable hash of a job name, the same on every node and JVM.
+     *
+     * @param name the job name
+     * @return the hash
+     */
+    static long hash(String name) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(name.getBytes(StandardCharsets.UTF_8));
+        return crc32.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return shard + "/" + shards;
+    }
+
+}
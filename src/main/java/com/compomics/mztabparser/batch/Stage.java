@@ -0,0 +1,51 @@
+package com.compomics.mztabparser.batch;
+
+/**
+ * The processing stages of the parser, with the default heap estimate of
+ * their jobs.
+ *
+ * @author niels
+ */
+public enum Stage {
+
+    /**
+     * MGF to .moff2start extraction; the MGF files are scanned with fixed size
+     * buffers.
+     */
+    MGF_EXTRACT(16L << 20, 0),
+    /**
+     * mzTab PSM export; jmztab loads the whole mzTab file in its model.
+     */
+    MZTAB_EXPORT(16L << 20, 10),
+    /**
+     * mzTab and moff result merging; by default the mzTab file is loaded in
+     * the jmztab model.
+     */
+    MERGE(16L << 20, 10);
+
+    /**
+     * The heap a job needs regardless of its input size, in bytes.
+     */
+    private final long fixedHeap;
+    /**
+     * The heap a job needs per byte of uncompressed input.
+     */
+    private final long heapPerInputByte;
+
+    Stage(long fixedHeap, long heapPerInputByte) {
+        this.fixedHeap = fixedHeap;
+        this.heapPerInputByte = heapPerInputByte;
+    }
+
+    /**
+     * Get the default heap estimate of a job of this stage.
+     *
+     * @param uncompressedInputSize the uncompressed size of the input files
+     * in bytes
+     * @return the estimated heap use in bytes
+     */
+    public long estimateHeap(long uncompressedInputSize) {
+        return fixedHeap + heapPerInputByte * uncompressedInputSize;
+    }
+
+}
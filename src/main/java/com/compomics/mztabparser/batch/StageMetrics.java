@@ -0,0 +1,147 @@
+package com.compomics.mztabparser.batch;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * The cumulative counters of a processing stage over the lifetime of the JVM.
+ * There is one instance per stage, registered on the platform MBean server
+ * when it's first used.
+ *
+ * @author niels
+ */
+public class StageMetrics implements StageMetricsMXBean {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(StageMetrics.class);
+
+    /**
+     * The JMX domain of the stage metrics.
+     */
+    public static final String JMX_DOMAIN = "com.compomics.mztabparser";
+    private static final Map<Stage, StageMetrics> STAGE_METRICS = new EnumMap<>(Stage.class);
+
+    private final AtomicLong filesSucceeded = new AtomicLong();
+    private final AtomicLong filesFailed = new AtomicLong();
+    private final AtomicLong filesSkipped = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong unmatchedRecords = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong peakHeapBytes = new AtomicLong();
+
+    /**
+     * Constructor; use {@link #get(Stage)} to get the stage instance.
+     */
+    private StageMetrics() {
+    }
+
+    /**
+     * Get the metrics of the given stage, create and register them if
+     * necessary.
+     *
+     * @param stage the stage
+     * @return the stage metrics
+     */
+    public static synchronized StageMetrics get(Stage stage) {
+        StageMetrics stageMetrics = STAGE_METRICS.get(stage);
+        if (stageMetrics == null) {
+            stageMetrics = new StageMetrics();
+            STAGE_METRICS.put(stage, stageMetrics);
+            try {
+                MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+                ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=StageMetrics,name=" + stage);
+                if (!mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.registerMBean(stageMetrics, objectName);
+                }
+            } catch (JMException ex) {
+                LOGGER.warn("failed to register the " + stage + " metrics with JMX: " + ex.getMessage());
+            }
+        }
+        return stageMetrics;
+    }
+
+    /**
+     * Add the result of a finished job.
+     *
+     * @param result the job result
+     */
+    public void add(FileJobResult result) {
+        switch (result.getStatus()) {
+            case SUCCEEDED:
+                filesSucceeded.incrementAndGet();
+                break;
+            case FAILED:
+                filesFailed.incrementAndGet();
+                break;
+            default:
+                filesSkipped.incrementAndGet();
+                return;
+        }
+        JobMetrics metrics = result.getMetrics();
+        records.addAndGet(metrics.getRecords());
+        unmatchedRecords.addAndGet(metrics.getUnmatchedRecords());
+        bytesRead.addAndGet(metrics.getBytesRead());
+        bytesWritten.addAndGet(metrics.getBytesWritten());
+        totalMillis.addAndGet(metrics.getDurationMillis());
+        peakHeapBytes.accumulateAndGet(metrics.getPeakHeapBytes(), Math::max);
+    }
+
+    @Override
+    public long getFilesSucceeded() {
+        return filesSucceeded.get();
+    }
+
+    @Override
+    public long getFilesFailed() {
+        return filesFailed.get();
+    }
+
+    @Override
+    public long getFilesSkipped() {
+        return filesSkipped.get();
+    }
+
+    @Override
+    public long getRecords() {
+        return records.get();
+    }
+
+    @Override
+    public long getUnmatchedRecords() {
+        return unmatchedRecords.get();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public long getTotalMillis() {
+        return totalMillis.get();
+    }
+
+    @Override
+    public long getPeakHeapBytes() {
+        return peakHeapBytes.get();
+    }
+
+    @Override
+    public double getRecordsPerSecond() {
+        long millis = totalMillis.get();
+        return millis > 0 ? records.get() * 1000.0 / millis : 0;
+    }
+
+}
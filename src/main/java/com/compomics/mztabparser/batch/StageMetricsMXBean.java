@@ -0,0 +1,37 @@
+package com.compomics.mztabparser.batch;
+
+/**
+ * The JMX view of the cumulative counters of a processing stage, registered
+ * as com.compomics.mztabparser:type=StageMetrics,name=&lt;stage&gt;.
+ *
+ * @author niels
+ */
+public interface StageMetricsMXBean {
+
+    long getFilesSucceeded();
+
+    long getFilesFailed();
+
+    long getFilesSkipped();
+
+    long getRecords();
+
+    long getUnmatchedRecords();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getTotalMillis();
+
+    long getPeakHeapBytes();
+
+    /**
+     * Get the number of records processed per second, over the succeeded
+     * jobs of this stage.
+     *
+     * @return the records per second
+     */
+    double getRecordsPerSecond();
+
+}
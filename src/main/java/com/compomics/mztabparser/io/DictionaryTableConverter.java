@@ -0,0 +1,136 @@
+package com.compomics.mztabparser.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Rebuilds the plain tab separated table from a dictionary encoded table
+ * written by {@link DictionaryTableWriter}; the result is byte-identical to
+ * writing the plain table directly.
+ *
+ * @author niels
+ */
+public final class DictionaryTableConverter {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(DictionaryTableConverter.class);
+
+    private static final String SEPARATOR = "\t";
+
+    /**
+     * Private constructor, only static methods.
+     */
+    private DictionaryTableConverter() {
+    }
+
+    /**
+     * Convert a dictionary encoded table (gzip compressed or not) to the
+     * plain table, the output is gzip compressed if its name ends with .gz.
+     *
+     * @param dictionaryFile the dictionary encoded table
+     * @param tsvFile the plain table
+     * @return the number of rows
+     * @throws IOException in case of a read, write or format problem
+     */
+    public static long toTsv(Path dictionaryFile, Path tsvFile) throws IOException {
+        long numberOfRows = 0;
+        try (BufferedReader reader = GzipFiles.newBufferedReader(dictionaryFile);
+                TsvWriter writer = new TsvWriter(tsvFile)) {
+            //read the dictionaries
+            Map<String, String[]> dictionaries = new HashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null && line.startsWith(DictionaryTableWriter.DICTIONARY_PREFIX + SEPARATOR)) {
+                String[] fields = line.split(SEPARATOR, -1);
+                if (fields.length != 3) {
+                    throw new IOException("Invalid dictionary line \"" + line + "\" in " + dictionaryFile);
+                }
+                String[] values;
+                try {
+                    values = new String[Integer.parseInt(fields[2])];
+                } catch (NumberFormatException ex) {
+                    throw new IOException("Invalid dictionary size in line \"" + line + "\" in " + dictionaryFile);
+                }
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = reader.readLine();
+                    if (values[i] == null) {
+                        throw new IOException("The dictionary of column " + fields[1] + " in " + dictionaryFile + " is incomplete.");
+                    }
+                }
+                dictionaries.put(fields[1], values);
+            }
+            if (line == null) {
+                throw new IOException(dictionaryFile + " has no header line.");
+            }
+
+            //the header tells which columns are encoded
+            List<String> columns = Arrays.asList(line.split(SEPARATOR, -1));
+            List<String[]> columnDictionaries = new ArrayList<>();
+            for (String column : columns) {
+                columnDictionaries.add(dictionaries.get(column));
+            }
+            writer.write(line);
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR, -1);
+                if (fields.length != columns.size()) {
+                    throw new IOException("Row " + (numberOfRows + 1) + " of " + dictionaryFile + " has " + fields.length + " instead of " + columns.size() + " columns.");
+                }
+                writer.newLine();
+                for (int i = 0; i < fields.length; i++) {
+                    if (i > 0) {
+                        writer.tab();
+                    }
+                    String[] dictionary = columnDictionaries.get(i);
+                    writer.write(dictionary == null ? fields[i] : lookUp(dictionary, fields[i], dictionaryFile));
+                }
+                numberOfRows++;
+            }
+        }
+        return numberOfRows;
+    }
+
+    /**
+     * Look up a dictionary id.
+     *
+     * @param dictionary the dictionary
+     * @param id the id
+     * @param dictionaryFile the dictionary encoded table, for the error message
+     * @return the value
+     * @throws IOException in case of an invalid id
+     */
+    private static String lookUp(String[] dictionary, String id, Path dictionaryFile) throws IOException {
+        try {
+            return dictionary[Integer.parseInt(id)];
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            throw new IOException("Invalid dictionary id \"" + id + "\" in " + dictionaryFile);
+        }
+    }
+
+    /**
+     * Convert the given dictionary encoded table to the plain table.
+     *
+     * @param arguments the input and output file
+     */
+    public static void main(String[] arguments) {
+        if (arguments.length != 2) {
+            System.out.println("Usage: " + DictionaryTableConverter.class.getName() + " <input dictionary encoded file> <output file>");
+            System.exit(1);
+        }
+        Path inputFile = Paths.get(arguments[0]);
+        Path outputFile = Paths.get(arguments[1]);
+        try {
+            long numberOfRows = toTsv(inputFile, outputFile);
+            LOGGER.info("converted " + numberOfRows + " rows from " + inputFile + " to " + outputFile);
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.compomics.mztabparser.io;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer for a dictionary encoded tab separated table. The values of the
+ * dictionary columns are replaced by ids into per column dictionaries, the
+ * other values are written as {@link TsvWriter} renders them. The file is
+ * self-contained: the dictionaries come first, followed by the table.
+ *
+ * <pre>
+ * #dictionary&lt;TAB&gt;column&lt;TAB&gt;number of values
+ * value with id 0
+ * value with id 1
+ * ...
+ * (one section per dictionary column, in column order)
+ * header line with the column names
+ * rows, with the ids in the dictionary columns
+ * </pre>
+ *
+ * {@link DictionaryTableConverter} rebuilds the plain table. As the
+ * dictionaries are only complete after the last row, the rows go to a
+ * temporary file next to the output first; for repetitive columns that
+ * table is a fraction of the size of the plain table.
+ *
+ * @author niels
+ */
+public class DictionaryTableWriter implements Closeable {
+
+    /**
+     * The prefix of a dictionary section line.
+     */
+    public static final String DICTIONARY_PREFIX = "#dictionary";
+    private static final String SEPARATOR = "\t";
+
+    private final Path file;
+    private final List<String> columns;
+    /**
+     * The dictionary index of each column, -1 for a plain column.
+     */
+    private final int[] dictionaryIndices;
+    private final List<Map<String, Integer>> ids = new ArrayList<>();
+    private final List<List<String>> values = new ArrayList<>();
+    private final Path rowFile;
+    private final TsvWriter rowWriter;
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param file the output file, gzip compressed if its name ends with .gz
+     * @param columns the column names
+     * @param dictionaryColumns the names of the dictionary encoded columns
+     * @throws IOException in case of a file creation problem
+     */
+    public DictionaryTableWriter(Path file, List<String> columns, List<String> dictionaryColumns) throws IOException {
+        this.file = file;
+        this.columns = columns;
+        this.dictionaryIndices = new int[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            dictionaryIndices[i] = -1;
+            if (dictionaryColumns.contains(columns.get(i))) {
+                dictionaryIndices[i] = ids.size();
+                ids.add(new HashMap<>());
+                values.add(new ArrayList<>());
+            }
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        this.rowFile = Files.createTempFile(directory, "mzparser-rows", ".tmp");
+        this.rowWriter = new TsvWriter(rowFile);
+    }
+
+    /**
+     * Write a row.
+     *
+     * @param row the values, one per column
+     * @throws IOException in case of a write problem
+     */
+    public void writeRow(Object... row) throws IOException {
+        if (row.length != columns.size()) {
+            throw new IllegalArgumentException("Expected " + columns.size() + " values instead of " + row.length + ".");
+        }
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                rowWriter.tab();
+            }
+            int dictionaryIndex = dictionaryIndices[i];
+            if (dictionaryIndex < 0) {
+                rowWriter.write(row[i]);
+            } else {
+                rowWriter.write(getId(dictionaryIndex, String.valueOf(row[i])));
+            }
+        }
+        rowWriter.newLine();
+    }
+
+    /**
+     * Get the id of a value, add it to the dictionary if it's new.
+     *
+     * @param dictionaryIndex the dictionary index
+     * @param value the value
+     * @return the id
+     */
+    private int getId(int dictionaryIndex, String value) {
+        Map<String, Integer> dictionaryIds = ids.get(dictionaryIndex);
+        Integer id = dictionaryIds.get(value);
+        if (id == null) {
+            List<String> dictionaryValues = values.get(dictionaryIndex);
+            id = dictionaryValues.size();
+            dictionaryValues.add(value);
+            dictionaryIds.put(value, id);
+        }
+        return id;
+    }
+
+    /**
+     * Write the dictionaries and the rows to the output file.
+     *
+     * @throws IOException in case of a write problem
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            rowWriter.close();
+            try (TsvWriter writer = new TsvWriter(file);
+                    BufferedReader rowReader = Files.newBufferedReader(rowFile)) {
+                for (int i = 0; i < columns.size(); i++) {
+                    if (dictionaryIndices[i] >= 0) {
+                        List<String> dictionaryValues = values.get(dictionaryIndices[i]);
+                        writer.write(DICTIONARY_PREFIX).tab().write(columns.get(i)).tab().write(dictionaryValues.size()).newLine();
+                        for (String value : dictionaryValues) {
+                            writer.write(value).newLine();
+                        }
+                    }
+                }
+                writer.write(String.join(SEPARATOR, columns));
+                String row;
+                while ((row = rowReader.readLine()) != null) {
+                    writer.newLine().write(row);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(rowFile);
+        }
+    }
+
+}
@@ -0,0 +1,478 @@
+package com.compomics.mztabparser.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts fixed width records of longs with a bounded amount of heap. The
+ * records are sorted on their first and then their second field (doubles can
+ * be stored with {@link Double#doubleToRawLongBits(double)} in the other
+ * fields). Records are collected in a buffer that fits in the memory budget;
+ * a full buffer is sorted and written to a temporary run file, and the runs
+ * are merged while reading the records back.
+ *
+ * At most {@link #MAX_FAN_IN} runs are merged at once: with more runs, groups
+ * of consecutive runs are first merged into longer runs, in as many passes as
+ * needed. The read buffers of the merge are sized so that together they fit
+ * in the memory budget.
+ *
+ * If all records fit in the buffer nothing is written to disk.
+ *
+ * @author niels
+ */
+public class ExternalSorter implements Closeable {
+
+    /**
+     * The maximum number of run files that are open at the same time for a
+     * merge.
+     */
+    public static final int MAX_FAN_IN = 64;
+    private static final int MAX_BUFFER_SIZE = 1 << 16;
+    private static final int MIN_READ_BUFFER_SIZE = 1 << 12;
+    private static final int MIN_BUFFER_RECORDS = 1024;
+
+    /**
+     * A cursor over sorted records.
+     */
+    public interface RecordCursor extends Closeable {
+
+        /**
+         * Move to the next record.
+         *
+         * @return false if there are no more records
+         * @throws IOException in case of a read problem
+         */
+        boolean next() throws IOException;
+
+        /**
+         * Get a field of the current record.
+         *
+         * @param field the field index
+         * @return the field value
+         */
+        long get(int field);
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private final int recordWidth;
+    private final Path temporaryDirectory;
+    private final int bufferRecords;
+    private long[] buffer;
+    private int size;
+    /**
+     * The sorted order of the buffered records, once the sorter is finished
+     * without run files.
+     */
+    private int[] order;
+    private final List<Path> runFiles = new ArrayList<>();
+    private final List<Long> runSizes = new ArrayList<>();
+    /**
+     * The read buffer size of a run file in a merge.
+     */
+    private final int readBufferSize;
+    /**
+     * The number of run files written, including the merge passes.
+     */
+    private int runCount;
+    private long records;
+    private boolean finished;
+
+    /**
+     * Constructor.
+     *
+     * @param recordWidth the number of fields in a record, at least 2
+     * @param memoryBudget the heap budget for the buffer in bytes
+     * @param temporaryDirectory the directory for the run files
+     */
+    public ExternalSorter(int recordWidth, long memoryBudget, Path temporaryDirectory) {
+        if (recordWidth < 2) {
+            throw new IllegalArgumentException("A record should have at least 2 fields.");
+        }
+        this.recordWidth = recordWidth;
+        this.temporaryDirectory = temporaryDirectory;
+        //the buffer and the two int arrays of the merge sort
+        long bytesPerRecord = recordWidth * Long.BYTES + 2 * Integer.BYTES;
+        this.bufferRecords = (int) Math.max(MIN_BUFFER_RECORDS, Math.min(memoryBudget / bytesPerRecord, (Integer.MAX_VALUE - 8) / recordWidth));
+        this.buffer = new long[Math.min(bufferRecords, MIN_BUFFER_RECORDS) * recordWidth];
+        this.readBufferSize = (int) Math.max(MIN_READ_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, memoryBudget / MAX_FAN_IN));
+    }
+
+    /**
+     * Add a record.
+     *
+     * @param record the record fields, the array is copied
+     * @throws IOException in case of a run file write problem
+     */
+    public void add(long... record) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("The sorter is finished.");
+        }
+        if (record.length != recordWidth) {
+            throw new IllegalArgumentException("A record should have " + recordWidth + " fields.");
+        }
+        if (size == bufferRecords) {
+            spill();
+        } else if ((size + 1) * recordWidth > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.min(bufferRecords, size * 2) * recordWidth);
+        }
+        System.arraycopy(record, 0, buffer, size * recordWidth, recordWidth);
+        size++;
+        records++;
+    }
+
+    /**
+     * Get the number of records added.
+     *
+     * @return the number of records
+     */
+    public long size() {
+        return records;
+    }
+
+    /**
+     * Get the number of run files written, including the merge passes.
+     *
+     * @return the number of run files
+     */
+    public int getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * Stop adding records. If records were written to disk before, the
+     * remaining records are written as well and the buffer is released.
+     *
+     * @throws IOException in case of a run file write problem
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (runFiles.isEmpty()) {
+            order = sortBuffer();
+        } else {
+            if (size > 0) {
+                spill();
+            }
+            buffer = null;
+            while (runFiles.size() > MAX_FAN_IN) {
+                mergeRuns();
+            }
+        }
+    }
+
+    /**
+     * Merge every group of {@link #MAX_FAN_IN} consecutive runs into a single
+     * run; the runs keep their order, so the merge stays stable.
+     *
+     * @throws IOException in case of a run file read or write problem
+     */
+    private void mergeRuns() throws IOException {
+        List<Path> mergedRunFiles = new ArrayList<>();
+        List<Long> mergedRunSizes = new ArrayList<>();
+        for (int start = 0; start < runFiles.size(); start += MAX_FAN_IN) {
+            int end = Math.min(start + MAX_FAN_IN, runFiles.size());
+            if (end - start == 1) {
+                mergedRunFiles.add(runFiles.get(start));
+                mergedRunSizes.add(runSizes.get(start));
+                continue;
+            }
+            Path runFile = Files.createTempFile(temporaryDirectory, "mzparser-sort", ".run");
+            mergedRunFiles.add(runFile);
+            long runSize = 0;
+            try (RecordCursor cursor = openRuns(start, end);
+                    DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile), MAX_BUFFER_SIZE))) {
+                while (cursor.next()) {
+                    for (int field = 0; field < recordWidth; field++) {
+                        outputStream.writeLong(cursor.get(field));
+                    }
+                    runSize++;
+                }
+            } catch (IOException ex) {
+                //keep track of all files so close() deletes them
+                runFiles.addAll(mergedRunFiles);
+                throw ex;
+            }
+            mergedRunSizes.add(runSize);
+            runCount++;
+            for (int i = start; i < end; i++) {
+                Files.delete(runFiles.get(i));
+            }
+        }
+        runFiles.clear();
+        runFiles.addAll(mergedRunFiles);
+        runSizes.clear();
+        runSizes.addAll(mergedRunSizes);
+    }
+
+    /**
+     * Open a cursor over the sorted records; the sorter has to be finished.
+     * More than one cursor can be opened.
+     *
+     * @return the cursor
+     * @throws IOException in case of a run file read problem
+     */
+    public RecordCursor newCursor() throws IOException {
+        if (!finished) {
+            throw new IllegalStateException("The sorter isn't finished.");
+        }
+        if (runFiles.isEmpty()) {
+            return new BufferCursor();
+        }
+        return openRuns(0, runFiles.size());
+    }
+
+    /**
+     * Open a merged cursor over a range of runs.
+     *
+     * @param start the first run
+     * @param end the end of the range, exclusive
+     * @return the cursor
+     * @throws IOException in case of a run file read problem
+     */
+    private RecordCursor openRuns(int start, int end) throws IOException {
+        List<RecordCursor> runCursors = new ArrayList<>(end - start);
+        try {
+            for (int i = start; i < end; i++) {
+                runCursors.add(new RunCursor(runFiles.get(i), runSizes.get(i)));
+            }
+        } catch (IOException ex) {
+            for (RecordCursor runCursor : runCursors) {
+                runCursor.close();
+            }
+            throw ex;
+        }
+        return merge(runCursors);
+    }
+
+    /**
+     * Merge sorted cursors into one sorted cursor. Records with the same first
+     * and second field come in the order of the cursors.
+     *
+     * @param cursors the cursors, closed together with the returned cursor
+     * @return the merged cursor
+     */
+    public static RecordCursor merge(List<RecordCursor> cursors) {
+        return cursors.size() == 1 ? cursors.get(0) : new MergeCursor(cursors);
+    }
+
+    /**
+     * Delete the run files.
+     *
+     * @throws IOException in case of a delete problem
+     */
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        order = null;
+        for (Path runFile : runFiles) {
+            Files.deleteIfExists(runFile);
+        }
+        runFiles.clear();
+    }
+
+    /**
+     * Sort the buffer and write it to a new run file.
+     *
+     * @throws IOException in case of a write problem
+     */
+    private void spill() throws IOException {
+        int[] sortedOrder = sortBuffer();
+        Path runFile = Files.createTempFile(temporaryDirectory, "mzparser-sort", ".run");
+        runFiles.add(runFile);
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile), MAX_BUFFER_SIZE))) {
+            for (int i = 0; i < size; i++) {
+                int offset = sortedOrder[i] * recordWidth;
+                for (int field = 0; field < recordWidth; field++) {
+                    outputStream.writeLong(buffer[offset + field]);
+                }
+            }
+        }
+        runSizes.add((long) size);
+        runCount++;
+        size = 0;
+    }
+
+    /**
+     * Sort the records in the buffer with a stable merge sort of their
+     * positions.
+     *
+     * @return the positions of the records in sorted order
+     */
+    private int[] sortBuffer() {
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = i;
+        }
+        int[] scratch = new int[size];
+        for (int width = 1; width < size; width <<= 1) {
+            for (int start = 0; start < size; start += 2 * width) {
+                int middle = Math.min(start + width, size);
+                int end = Math.min(start + 2 * width, size);
+                int left = start;
+                int right = middle;
+                for (int i = start; i < end; i++) {
+                    if (left < middle && (right >= end || compare(positions[left], positions[right]) <= 0)) {
+                        scratch[i] = positions[left++];
+                    } else {
+                        scratch[i] = positions[right++];
+                    }
+                }
+            }
+            int[] swap = positions;
+            positions = scratch;
+            scratch = swap;
+        }
+        return positions;
+    }
+
+    private int compare(int record, int otherRecord) {
+        int result = Long.compare(buffer[record * recordWidth], buffer[otherRecord * recordWidth]);
+        return result != 0 ? result : Long.compare(buffer[record * recordWidth + 1], buffer[otherRecord * recordWidth + 1]);
+    }
+
+    /**
+     * Cursor over the sorted buffer.
+     */
+    private class BufferCursor implements RecordCursor {
+
+        private int record = -1;
+
+        @Override
+        public boolean next() {
+            if (record < size) {
+                record++;
+            }
+            return record < size;
+        }
+
+        @Override
+        public long get(int field) {
+            return buffer[order[record] * recordWidth + field];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Cursor over a run file.
+     */
+    private class RunCursor implements RecordCursor {
+
+        private final DataInputStream inputStream;
+        private final long[] record = new long[recordWidth];
+        private long remaining;
+
+        RunCursor(Path runFile, long records) throws IOException {
+            inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFile), readBufferSize));
+            remaining = records;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            for (int i = 0; i < recordWidth; i++) {
+                record[i] = inputStream.readLong();
+            }
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public long get(int field) {
+            return record[field];
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * K-way merge of sorted cursors.
+     */
+    private static class MergeCursor implements RecordCursor {
+
+        private final List<RecordCursor> cursors;
+        private final PriorityQueue<Integer> heads;
+        private RecordCursor current;
+        private int currentIndex = -1;
+
+        MergeCursor(List<RecordCursor> cursors) {
+            this.cursors = cursors;
+            this.heads = new PriorityQueue<>(Math.max(1, cursors.size()), (cursor, otherCursor) -> {
+                RecordCursor head = cursors.get(cursor);
+                RecordCursor otherHead = cursors.get(otherCursor);
+                int result = Long.compare(head.get(0), otherHead.get(0));
+                if (result == 0) {
+                    result = Long.compare(head.get(1), otherHead.get(1));
+                }
+                return result != 0 ? result : Integer.compare(cursor, otherCursor);
+            });
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (currentIndex == -2) {
+                return false;
+            } else if (currentIndex == -1) {
+                //first call, load the head of every cursor
+                for (int i = 0; i < cursors.size(); i++) {
+                    if (cursors.get(i).next()) {
+                        heads.add(i);
+                    }
+                }
+            } else if (current.next()) {
+                heads.add(currentIndex);
+            }
+            Integer head = heads.poll();
+            if (head == null) {
+                current = null;
+                currentIndex = -2;
+                return false;
+            }
+            currentIndex = head;
+            current = cursors.get(head);
+            return true;
+        }
+
+        @Override
+        public long get(int field) {
+            return current.get(field);
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException exception = null;
+            for (RecordCursor cursor : cursors) {
+                try {
+                    cursor.close();
+                } catch (IOException ex) {
+                    exception = ex;
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+        }
+    }
+
+}
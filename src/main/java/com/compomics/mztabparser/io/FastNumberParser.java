@@ -0,0 +1,168 @@
+package com.compomics.mztabparser.io;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses numbers straight from ASCII bytes without creating a String.
+ *
+ * The double parsing gives exactly the same result as
+ * {@link Double#valueOf(String)}: plain decimal values with at most 18
+ * significant digits and a decimal exponent within [-22, 22] are converted
+ * with a single, correctly rounded multiplication or division of two exactly
+ * representable doubles; all other input (more digits, larger exponents,
+ * NaN, Infinity, hexadecimal values, ...) falls back to
+ * {@link Double#parseDouble(String)}.
+ *
+ * @author niels
+ */
+public final class FastNumberParser {
+
+    private static final int MAX_SIGNIFICANT_DIGITS = 18;
+    private static final int MAX_EXACT_POWER_OF_TEN = 22;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[MAX_EXACT_POWER_OF_TEN + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    /**
+     * Private constructor, only static methods.
+     */
+    private FastNumberParser() {
+    }
+
+    /**
+     * Parse a double from the given bytes.
+     *
+     * @param bytes the bytes
+     * @param from the start (inclusive)
+     * @param to the end (exclusive)
+     * @return the parsed value
+     * @throws NumberFormatException in case of an invalid value
+     */
+    public static double parseDouble(byte[] bytes, int from, int to) {
+        int position = from;
+        boolean negative = false;
+        if (position < to && (bytes[position] == '-' || bytes[position] == '+')) {
+            negative = bytes[position] == '-';
+            position++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int digits = 0;
+        int exponent = 0;
+        //integer part
+        while (position < to && isDigit(bytes[position])) {
+            if (mantissa != 0 || bytes[position] != '0') {
+                if (++significantDigits > MAX_SIGNIFICANT_DIGITS) {
+                    return fallbackParseDouble(bytes, from, to);
+                }
+                mantissa = mantissa * 10 + (bytes[position] - '0');
+            }
+            digits++;
+            position++;
+        }
+        //fraction part
+        if (position < to && bytes[position] == '.') {
+            position++;
+            while (position < to && isDigit(bytes[position])) {
+                if (mantissa != 0 || bytes[position] != '0') {
+                    if (++significantDigits > MAX_SIGNIFICANT_DIGITS) {
+                        return fallbackParseDouble(bytes, from, to);
+                    }
+                    mantissa = mantissa * 10 + (bytes[position] - '0');
+                }
+                exponent--;
+                digits++;
+                position++;
+            }
+        }
+        if (digits == 0) {
+            return fallbackParseDouble(bytes, from, to);
+        }
+        //exponent part
+        if (position < to && (bytes[position] == 'e' || bytes[position] == 'E')) {
+            position++;
+            boolean negativeExponent = false;
+            if (position < to && (bytes[position] == '-' || bytes[position] == '+')) {
+                negativeExponent = bytes[position] == '-';
+                position++;
+            }
+            int exponentStart = position;
+            int explicitExponent = 0;
+            while (position < to && isDigit(bytes[position])) {
+                if (position - exponentStart >= 4) {
+                    return fallbackParseDouble(bytes, from, to);
+                }
+                explicitExponent = explicitExponent * 10 + (bytes[position] - '0');
+                position++;
+            }
+            if (position == exponentStart) {
+                return fallbackParseDouble(bytes, from, to);
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (position != to) {
+            //trailing characters, e.g. whitespace or a type suffix
+            return fallbackParseDouble(bytes, from, to);
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (mantissa <= MAX_EXACT_MANTISSA && exponent >= -MAX_EXACT_POWER_OF_TEN && exponent <= MAX_EXACT_POWER_OF_TEN) {
+            value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        } else {
+            return fallbackParseDouble(bytes, from, to);
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a long from the given bytes, with the same result as
+     * {@link Long#parseLong(String)}.
+     *
+     * @param bytes the bytes
+     * @param from the start (inclusive)
+     * @param to the end (exclusive)
+     * @return the parsed value
+     * @throws NumberFormatException in case of an invalid value
+     */
+    public static long parseLong(byte[] bytes, int from, int to) {
+        int position = from;
+        boolean negative = false;
+        if (position < to && (bytes[position] == '-' || bytes[position] == '+')) {
+            negative = bytes[position] == '-';
+            position++;
+        }
+        //18 digits can't overflow
+        if (position == to || to - position > 18) {
+            return Long.parseLong(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+        }
+        long value = 0;
+        while (position < to) {
+            if (!isDigit(bytes[position])) {
+                return Long.parseLong(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+            }
+            value = value * 10 + (bytes[position] - '0');
+            position++;
+        }
+
+        return negative ? -value : value;
+    }
+
+    private static double fallbackParseDouble(byte[] bytes, int from, int to) {
+        return Double.parseDouble(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+    }
+
+    private static boolean isDigit(byte character) {
+        return character >= '0' && character <= '9';
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.compomics.mztabparser.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens files with transparent gzip support: files whose name ends with .gz
+ * are decompressed while reading and compressed while writing.
+ *
+ * The decompression runs on a read-ahead thread, so it overlaps with the
+ * parsing; a deflate stream itself can only be inflated from start to end.
+ * The compression runs on the common fork-join pool, see
+ * {@link ParallelGzipOutputStream}.
+ *
+ * @author niels
+ */
+public final class GzipFiles {
+
+    /**
+     * The gzip file extension.
+     */
+    public static final String GZIP_EXTENSION = ".gz";
+    private static final int INFLATER_BUFFER_SIZE = 1 << 16;
+    /**
+     * The approximate compression ratio of the text files.
+     */
+    private static final int COMPRESSION_RATIO = 3;
+
+    /**
+     * Private constructor, only static methods.
+     */
+    private GzipFiles() {
+    }
+
+    /**
+     * Check whether the given file is gzip compressed, i.e. whether its name
+     * ends with .gz (ignoring case).
+     *
+     * @param file the file
+     * @return whether the file is gzip compressed
+     */
+    public static boolean isGzip(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(GZIP_EXTENSION);
+    }
+
+    /**
+     * Remove the .gz extension (ignoring case) from the given file name, if
+     * present.
+     *
+     * @param fileName the file name
+     * @return the file name without .gz extension
+     */
+    public static String removeGzipExtension(String fileName) {
+        if (fileName.toLowerCase().endsWith(GZIP_EXTENSION)) {
+            return fileName.substring(0, fileName.length() - GZIP_EXTENSION.length());
+        }
+        return fileName;
+    }
+
+    /**
+     * Estimate the uncompressed size of the given file: its size, or a
+     * multiple of it if it's gzip compressed.
+     *
+     * @param file the file
+     * @return the estimated uncompressed size in bytes
+     * @throws IOException in case of a file size problem
+     */
+    public static long estimateUncompressedSize(Path file) throws IOException {
+        return isGzip(file) ? COMPRESSION_RATIO * Files.size(file) : Files.size(file);
+    }
+
+    /**
+     * Open the given file for reading, decompressing it if it's gzip
+     * compressed.
+     *
+     * @param file the file
+     * @return the input stream
+     * @throws IOException in case of a read problem
+     */
+    public static InputStream newInputStream(Path file) throws IOException {
+        InputStream inputStream = Files.newInputStream(file);
+        if (isGzip(file)) {
+            try {
+                return new ReadAheadInputStream(new GZIPInputStream(inputStream, INFLATER_BUFFER_SIZE));
+            } catch (IOException ex) {
+                inputStream.close();
+                throw new IOException("Invalid gzip file " + file + ": " + ex.getMessage(), ex);
+            }
+        }
+        return inputStream;
+    }
+
+    /**
+     * Open the given UTF-8 text file for reading, decompressing it if it's
+     * gzip compressed.
+     *
+     * @param file the file
+     * @return the reader
+     * @throws IOException in case of a read problem
+     */
+    public static BufferedReader newBufferedReader(Path file) throws IOException {
+        if (!isGzip(file)) {
+            return Files.newBufferedReader(file);
+        }
+        return new BufferedReader(new InputStreamReader(newInputStream(file), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Open the given file for writing, compressing it if its name ends with
+     * .gz.
+     *
+     * @param file the file
+     * @return the output stream
+     * @throws IOException in case of a write problem
+     */
+    public static OutputStream newOutputStream(Path file) throws IOException {
+        OutputStream outputStream = Files.newOutputStream(file);
+        if (isGzip(file)) {
+            return new ParallelGzipOutputStream(outputStream);
+        }
+        return outputStream;
+    }
+
+    /**
+     * Open the given UTF-8 text file for writing, compressing it if its name
+     * ends with .gz.
+     *
+     * @param file the file
+     * @return the writer
+     * @throws IOException in case of a write problem
+     */
+    public static BufferedWriter newBufferedWriter(Path file) throws IOException {
+        if (!isGzip(file)) {
+            return Files.newBufferedWriter(file);
+        }
+        return new BufferedWriter(new OutputStreamWriter(newOutputStream(file), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decompress the given gzip file to a temporary file, for the libraries
+     * that only read from uncompressed files. The caller should delete the
+     * temporary file.
+     *
+     * @param file the gzip compressed file
+     * @return the temporary file, with the same name without .gz as suffix
+     * @throws IOException in case of a read or write problem
+     */
+    public static Path decompressToTemporaryFile(Path file) throws IOException {
+        Path temporaryFile = Files.createTempFile("mzparser", "-" + removeGzipExtension(file.getFileName().toString()));
+        try (InputStream inputStream = newInputStream(file)) {
+            Files.copy(inputStream, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            Files.deleteIfExists(temporaryFile);
+            throw ex;
+        }
+        return temporaryFile;
+    }
+
+}
@@ -0,0 +1,287 @@
+package com.compomics.mztabparser.io;
+
+import com.compomics.mztabparser.model.MgfHeaderRecord;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Persistent spectrum offset index of an MGF file. For every spectrum it
+ * keeps the byte offset and length of the spectrum block and the header
+ * values written to the .moff2start file, so a spectrum can be looked up by
+ * index in constant time and the .moff2start file can be regenerated without
+ * reading the MGF file. The index records the size and modification time of
+ * the MGF file and is ignored once either of them changes.
+ *
+ * The index file consists of a fixed size header, fixed size entries and a
+ * heap with the exact UTF-8 header strings; all values are little-endian.
+ *
+ * <pre>
+ * header (64 bytes)
+ *   0  magic "MGFINDEX"
+ *   8  int version
+ *   12 int entry size
+ *   16 long MGF file size
+ *   24 long MGF file modification time (ms)
+ *   32 long number of entries
+ *   40 long heap offset
+ *   48 long heap size
+ *   56 reserved
+ * entry (48 bytes)
+ *   0  long block offset
+ *   8  long block length
+ *   16 double PEPMASS
+ *   24 long heap offset of the strings
+ *   32 int SCANS length, -1 if absent
+ *   36 int RTINSECONDS length, -1 if absent
+ *   40 int CHARGE length, -1 if absent
+ *   44 int flags, 1 if PEPMASS is absent
+ * </pre>
+ *
+ * @author niels
+ */
+public class MgfIndex implements Closeable {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(MgfIndex.class);
+
+    /**
+     * The index file extension, appended to the MGF file name.
+     */
+    public static final String INDEX_EXTENSION = ".mgfindex";
+    static final byte[] MAGIC = "MGFINDEX".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int ENTRY_SIZE = 48;
+    static final int NO_PEPTIDE_MASS = 1;
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final Path mgfFile;
+    private final FileChannel indexChannel;
+    private final int numberOfEntries;
+    private final ByteBuffer entries;
+    private final ByteBuffer heap;
+    /**
+     * The MGF file channel for the spectrum reads, opened on first use.
+     */
+    private FileChannel mgfChannel;
+
+    /**
+     * Constructor; use {@link #open(Path, Path)}.
+     */
+    private MgfIndex(Path mgfFile, FileChannel indexChannel, int numberOfEntries, ByteBuffer entries, ByteBuffer heap) {
+        this.mgfFile = mgfFile;
+        this.indexChannel = indexChannel;
+        this.numberOfEntries = numberOfEntries;
+        this.entries = entries;
+        this.heap = heap;
+    }
+
+    /**
+     * Get the index file of the given MGF file.
+     *
+     * @param mgfFile the MGF file
+     * @param directory the directory the index is kept in
+     * @return the index file
+     */
+    public static Path getIndexFile(Path mgfFile, Path directory) {
+        return directory.resolve(mgfFile.getFileName().toString() + INDEX_EXTENSION);
+    }
+
+    /**
+     * Open the index of the given MGF file if it's up to date.
+     *
+     * @param indexFile the index file
+     * @param mgfFile the MGF file
+     * @return the index, null if there is no index or if it's outdated or
+     * corrupt
+     * @throws IOException in case of a read problem
+     */
+    public static MgfIndex open(Path indexFile, Path mgfFile) throws IOException {
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ);
+        try {
+            long indexSize = channel.size();
+            if (indexSize < HEADER_SIZE) {
+                LOGGER.warn("ignoring corrupt MGF index " + indexFile);
+                channel.close();
+                return null;
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(BYTE_ORDER);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            int version = header.getInt();
+            int entrySize = header.getInt();
+            long mgfSize = header.getLong();
+            long mgfModificationTime = header.getLong();
+            long numberOfEntries = header.getLong();
+            long heapOffset = header.getLong();
+            long heapSize = header.getLong();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION || entrySize != ENTRY_SIZE
+                    || numberOfEntries < 0 || numberOfEntries > Integer.MAX_VALUE / ENTRY_SIZE || heapSize > Integer.MAX_VALUE
+                    || heapOffset != HEADER_SIZE + numberOfEntries * ENTRY_SIZE || heapOffset + heapSize != indexSize) {
+                LOGGER.warn("ignoring corrupt or unsupported MGF index " + indexFile);
+                channel.close();
+                return null;
+            }
+            if (mgfSize != Files.size(mgfFile) || mgfModificationTime != Files.getLastModifiedTime(mgfFile).toMillis()) {
+                LOGGER.info("ignoring outdated MGF index " + indexFile);
+                channel.close();
+                return null;
+            }
+            ByteBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, numberOfEntries * ENTRY_SIZE).order(BYTE_ORDER);
+            ByteBuffer heap = channel.map(FileChannel.MapMode.READ_ONLY, heapOffset, heapSize).order(BYTE_ORDER);
+            return new MgfIndex(mgfFile, channel, (int) numberOfEntries, entries, heap);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Get the number of spectra.
+     *
+     * @return the number of spectra
+     */
+    public int size() {
+        return numberOfEntries;
+    }
+
+    public long getOffset(int index) {
+        return entries.getLong(entryOffset(index));
+    }
+
+    public long getLength(int index) {
+        return entries.getLong(entryOffset(index) + 8);
+    }
+
+    /**
+     * Get the PEPMASS value of the given spectrum.
+     *
+     * @param index the spectrum index
+     * @return the PEPMASS value, null if absent
+     */
+    public Double getPeptideMass(int index) {
+        int entry = entryOffset(index);
+        if ((entries.getInt(entry + 44) & NO_PEPTIDE_MASS) != 0) {
+            return null;
+        }
+        return entries.getDouble(entry + 16);
+    }
+
+    /**
+     * Get the SCANS value of the given spectrum.
+     *
+     * @param index the spectrum index
+     * @return the SCANS value, null if absent
+     */
+    public String getScans(int index) {
+        return getString(index, 0);
+    }
+
+    /**
+     * Get the RTINSECONDS value of the given spectrum.
+     *
+     * @param index the spectrum index
+     * @return the RTINSECONDS value, null if absent
+     */
+    public String getRetentionTime(int index) {
+        return getString(index, 1);
+    }
+
+    /**
+     * Get the CHARGE value of the given spectrum.
+     *
+     * @param index the spectrum index
+     * @return the CHARGE value, null if absent
+     */
+    public String getChargeState(int index) {
+        return getString(index, 2);
+    }
+
+    /**
+     * Get the header record of the given spectrum, as the MGF header scanner
+     * would produce it.
+     *
+     * @param index the spectrum index
+     * @return the header record
+     */
+    public MgfHeaderRecord getRecord(int index) {
+        return new MgfHeaderRecord(index, getScans(index), getPeptideMass(index), getRetentionTime(index), getChargeState(index), getOffset(index), getLength(index));
+    }
+
+    /**
+     * Read the spectrum block (BEGIN IONS up to and including END IONS) of
+     * the given spectrum from the MGF file.
+     *
+     * @param index the spectrum index
+     * @return the spectrum block
+     * @throws IOException in case of a read problem
+     */
+    public synchronized String readSpectrum(int index) throws IOException {
+        if (mgfChannel == null) {
+            mgfChannel = FileChannel.open(mgfFile, StandardOpenOption.READ);
+        }
+        long length = getLength(index);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Spectrum " + index + " is too large to read at once.");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        long position = getOffset(index);
+        while (buffer.hasRemaining()) {
+            if (mgfChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + mgfFile + " while reading spectrum " + index + ".");
+            }
+        }
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    private int entryOffset(int index) {
+        if (index < 0 || index >= numberOfEntries) {
+            throw new IndexOutOfBoundsException("Spectrum index " + index + " is out of range [0, " + numberOfEntries + ").");
+        }
+        return index * ENTRY_SIZE;
+    }
+
+    /**
+     * Get one of the strings of the given spectrum.
+     *
+     * @param index the spectrum index
+     * @param string 0 for SCANS, 1 for RTINSECONDS and 2 for CHARGE
+     * @return the string, null if absent
+     */
+    private String getString(int index, int string) {
+        int entry = entryOffset(index);
+        int offset = (int) entries.getLong(entry + 24);
+        for (int i = 0; i < string; i++) {
+            offset += Math.max(entries.getInt(entry + 32 + 4 * i), 0);
+        }
+        int length = entries.getInt(entry + 32 + 4 * string);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = heap.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        indexChannel.close();
+        if (mgfChannel != null) {
+            mgfChannel.close();
+        }
+    }
+
+}
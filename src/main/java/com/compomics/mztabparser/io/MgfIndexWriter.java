@@ -0,0 +1,185 @@
+package com.compomics.mztabparser.io;
+
+import com.compomics.mztabparser.model.MgfHeaderRecord;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the spectrum offset index of an MGF file, see {@link MgfIndex} for
+ * the layout. The records have to be added in spectrum index order. The
+ * entries and the strings are spilled to temporary files and concatenated by
+ * {@link #finish()}; the index file is replaced atomically, so a reader never
+ * sees a partial index. Closing the writer without finishing it, for example
+ * after a scan failure, leaves the existing index file as it was.
+ *
+ * @author niels
+ */
+public class MgfIndexWriter implements Closeable {
+
+    private static final int SPILL_BUFFER_SIZE = 1 << 16;
+
+    private final Path indexFile;
+    private final long mgfSize;
+    private final long mgfModificationTime;
+    private final Path entryFile;
+    private final Path heapFile;
+    private final FileChannel entryChannel;
+    private final FileChannel heapChannel;
+    private final ByteBuffer entryBuffer = ByteBuffer.allocateDirect(SPILL_BUFFER_SIZE).order(MgfIndex.BYTE_ORDER);
+    private final ByteBuffer heapBuffer = ByteBuffer.allocateDirect(SPILL_BUFFER_SIZE).order(MgfIndex.BYTE_ORDER);
+    private long numberOfEntries;
+    private long heapSize;
+    private boolean finished;
+
+    /**
+     * Constructor. The size and modification time of the MGF file are
+     * recorded now, so changes while the file is scanned invalidate the index.
+     *
+     * @param mgfFile the MGF file
+     * @param indexFile the index file
+     * @throws IOException in case of a temporary file problem
+     */
+    public MgfIndexWriter(Path mgfFile, Path indexFile) throws IOException {
+        this.indexFile = indexFile;
+        this.mgfSize = Files.size(mgfFile);
+        this.mgfModificationTime = Files.getLastModifiedTime(mgfFile).toMillis();
+        Path directory = indexFile.toAbsolutePath().getParent();
+        entryFile = Files.createTempFile(directory, indexFile.getFileName().toString(), ".entries");
+        heapFile = Files.createTempFile(directory, indexFile.getFileName().toString(), ".heap");
+        entryChannel = FileChannel.open(entryFile, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        heapChannel = FileChannel.open(heapFile, StandardOpenOption.WRITE, StandardOpenOption.READ);
+    }
+
+    /**
+     * Add the record of the next spectrum.
+     *
+     * @param record the header record, with its location
+     * @throws IOException in case of a write problem or a record without
+     * location
+     */
+    public void add(MgfHeaderRecord record) throws IOException {
+        if (record.getIndex() != numberOfEntries) {
+            throw new IOException("Expected the record of spectrum " + numberOfEntries + " instead of " + record.getIndex() + ".");
+        }
+        if (record.getOffset() < 0) {
+            throw new IOException("The record of spectrum " + record.getIndex() + " has no location.");
+        }
+        long stringsOffset = heapSize;
+        int scansLength = putString(record.getScans());
+        int retentionTimeLength = putString(record.getRetentionTime());
+        int chargeStateLength = putString(record.getChargeState());
+
+        if (entryBuffer.remaining() < MgfIndex.ENTRY_SIZE) {
+            flush(entryChannel, entryBuffer);
+        }
+        entryBuffer.putLong(record.getOffset());
+        entryBuffer.putLong(record.getLength());
+        entryBuffer.putDouble(record.getPeptideMass() == null ? 0 : record.getPeptideMass());
+        entryBuffer.putLong(stringsOffset);
+        entryBuffer.putInt(scansLength);
+        entryBuffer.putInt(retentionTimeLength);
+        entryBuffer.putInt(chargeStateLength);
+        entryBuffer.putInt(record.getPeptideMass() == null ? MgfIndex.NO_PEPTIDE_MASS : 0);
+
+        numberOfEntries++;
+    }
+
+    /**
+     * Append a string to the heap.
+     *
+     * @param value the string, can be null
+     * @return the UTF-8 length, -1 for null
+     * @throws IOException in case of a write problem
+     */
+    private int putString(String value) throws IOException {
+        if (value == null) {
+            return -1;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!heapBuffer.hasRemaining()) {
+                flush(heapChannel, heapBuffer);
+            }
+            int length = Math.min(heapBuffer.remaining(), bytes.length - offset);
+            heapBuffer.put(bytes, offset, length);
+            offset += length;
+        }
+        heapSize += bytes.length;
+        return bytes.length;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Write the index file.
+     *
+     * @throws IOException in case of a write problem
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        Path temporaryFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try {
+            flush(entryChannel, entryBuffer);
+            flush(heapChannel, heapBuffer);
+            try (FileChannel output = FileChannel.open(temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(MgfIndex.HEADER_SIZE).order(MgfIndex.BYTE_ORDER);
+                header.put(MgfIndex.MAGIC);
+                header.putInt(MgfIndex.VERSION);
+                header.putInt(MgfIndex.ENTRY_SIZE);
+                header.putLong(mgfSize);
+                header.putLong(mgfModificationTime);
+                header.putLong(numberOfEntries);
+                header.putLong(MgfIndex.HEADER_SIZE + numberOfEntries * MgfIndex.ENTRY_SIZE);
+                header.putLong(heapSize);
+                header.clear();
+                while (header.hasRemaining()) {
+                    output.write(header);
+                }
+                transfer(entryChannel, output);
+                transfer(heapChannel, output);
+            }
+            Files.move(temporaryFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Delete the temporary files.
+     *
+     * @throws IOException in case of a delete problem
+     */
+    @Override
+    public void close() throws IOException {
+        entryChannel.close();
+        heapChannel.close();
+        Files.deleteIfExists(entryFile);
+        Files.deleteIfExists(heapFile);
+    }
+
+    private static void transfer(FileChannel source, FileChannel target) throws IOException {
+        long size = source.size();
+        long transferred = 0;
+        while (transferred < size) {
+            transferred += source.transferTo(transferred, size - transferred, target);
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.compomics.mztabparser.io;
+
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The layout of the binary columnar .moff2start.bin format, shared by
+ * {@link Moff2StartBinaryWriter} and {@link Moff2StartBinaryReader}. All
+ * values are little-endian.
+ *
+ * <pre>
+ * header (64 bytes)
+ *   0  magic "MOFF2BIN"
+ *   8  int version
+ *   12 int number of columns
+ *   16 long number of rows
+ *   24 long offset of the text section
+ *   32 long number of text entries
+ *   40 reserved
+ * columns, each starting at a multiple of 8 bytes
+ *   INDEX       long[rows]
+ *   SCANS       long[rows]
+ *   PEPMASS     double[rows]
+ *   RTINSECONDS double[rows]
+ *   CHARGE      int[rows], signed charge
+ *   FLAGS       byte[rows], bit c set if the value of column c is absent
+ * text section
+ *   per entry: long row, int column, int length, UTF-8 bytes
+ * </pre>
+ *
+ * A value that can't be represented in its primitive column (a SCANS range,
+ * a non-numeric RTINSECONDS, a multiple charge, ...) has its flag set and is
+ * kept as text in the text section, so no information is lost.
+ *
+ * @author niels
+ */
+final class Moff2StartBinaryFormat {
+
+    static final byte[] MAGIC = "MOFF2BIN".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    static final int ALIGNMENT = 8;
+
+    static final int INDEX = 0;
+    static final int SCANS = 1;
+    static final int PEPMASS = 2;
+    static final int RTINSECONDS = 3;
+    static final int CHARGE = 4;
+    static final int FLAGS = 5;
+    static final int NUMBER_OF_COLUMNS = 6;
+    /**
+     * The value width in bytes of each column.
+     */
+    static final int[] COLUMN_WIDTHS = {Long.BYTES, Long.BYTES, Double.BYTES, Double.BYTES, Integer.BYTES, Byte.BYTES};
+
+    /**
+     * Private constructor, only static methods.
+     */
+    private Moff2StartBinaryFormat() {
+    }
+
+    /**
+     * Get the offset of the given column.
+     *
+     * @param column the column
+     * @param numberOfRows the number of rows
+     * @return the offset in bytes
+     */
+    static long getColumnOffset(int column, long numberOfRows) {
+        long offset = HEADER_SIZE;
+        for (int i = 0; i < column; i++) {
+            offset += align(COLUMN_WIDTHS[i] * numberOfRows);
+        }
+        return offset;
+    }
+
+    /**
+     * Round the given size up to the alignment.
+     *
+     * @param size the size
+     * @return the aligned size
+     */
+    static long align(long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+}
@@ -0,0 +1,260 @@
+package com.compomics.mztabparser.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Memory-mapped reader of the binary columnar .moff2start.bin format, see
+ * {@link Moff2StartBinaryFormat}. Opening a file only reads the header and
+ * maps the columns, the values are read straight from the page cache. The
+ * column getters return read-only views on the mapping without copying.
+ *
+ * The text getters render the values the way the .moff2start file does,
+ * numeric values in their Java notation and charges as 2+ or 3-.
+ *
+ * @author niels
+ */
+public class Moff2StartBinaryReader implements Closeable {
+
+    private final FileChannel channel;
+    private final long numberOfRows;
+    private final LongBuffer indices;
+    private final LongBuffer scans;
+    private final DoubleBuffer peptideMasses;
+    private final DoubleBuffer retentionTimes;
+    private final IntBuffer charges;
+    private final ByteBuffer flags;
+    private final long textOffset;
+    private final long numberOfTextEntries;
+    /**
+     * The text values by row and column, read on first use.
+     */
+    private Map<Long, String> textValues;
+
+    /**
+     * Constructor.
+     *
+     * @param file the .moff2start.bin file
+     * @throws IOException in case of a read or format problem
+     */
+    public Moff2StartBinaryReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (channel.size() < Moff2StartBinaryFormat.HEADER_SIZE) {
+                throw new IOException(file + " is not a .moff2start.bin file.");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Moff2StartBinaryFormat.HEADER_SIZE).order(Moff2StartBinaryFormat.BYTE_ORDER);
+            byte[] magic = new byte[Moff2StartBinaryFormat.MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, Moff2StartBinaryFormat.MAGIC)) {
+                throw new IOException(file + " is not a .moff2start.bin file.");
+            }
+            int version = header.getInt();
+            if (version != Moff2StartBinaryFormat.VERSION) {
+                throw new IOException("Unsupported .moff2start.bin version " + version + " in " + file);
+            }
+            header.getInt();
+            numberOfRows = header.getLong();
+            textOffset = header.getLong();
+            numberOfTextEntries = header.getLong();
+            //a column is mapped at once, so it can't exceed 2 GB
+            if (numberOfRows < 0 || numberOfRows > Integer.MAX_VALUE / Long.BYTES || textOffset > channel.size()
+                    || textOffset != Moff2StartBinaryFormat.getColumnOffset(Moff2StartBinaryFormat.NUMBER_OF_COLUMNS, numberOfRows)) {
+                throw new IOException("Corrupt .moff2start.bin header in " + file);
+            }
+
+            indices = mapColumn(Moff2StartBinaryFormat.INDEX).asLongBuffer();
+            scans = mapColumn(Moff2StartBinaryFormat.SCANS).asLongBuffer();
+            peptideMasses = mapColumn(Moff2StartBinaryFormat.PEPMASS).asDoubleBuffer();
+            retentionTimes = mapColumn(Moff2StartBinaryFormat.RTINSECONDS).asDoubleBuffer();
+            charges = mapColumn(Moff2StartBinaryFormat.CHARGE).asIntBuffer();
+            flags = mapColumn(Moff2StartBinaryFormat.FLAGS);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private ByteBuffer mapColumn(int column) throws IOException {
+        long offset = Moff2StartBinaryFormat.getColumnOffset(column, numberOfRows);
+        long size = Moff2StartBinaryFormat.COLUMN_WIDTHS[column] * numberOfRows;
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(Moff2StartBinaryFormat.BYTE_ORDER);
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        return (int) numberOfRows;
+    }
+
+    public LongBuffer getIndexColumn() {
+        return indices.asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the SCANS column; the values of the rows without a numeric SCANS
+     * value are 0, see {@link #hasScans(int)}.
+     *
+     * @return the SCANS column view
+     */
+    public LongBuffer getScansColumn() {
+        return scans.asReadOnlyBuffer();
+    }
+
+    public DoubleBuffer getPeptideMassColumn() {
+        return peptideMasses.asReadOnlyBuffer();
+    }
+
+    public DoubleBuffer getRetentionTimeColumn() {
+        return retentionTimes.asReadOnlyBuffer();
+    }
+
+    public IntBuffer getChargeColumn() {
+        return charges.asReadOnlyBuffer();
+    }
+
+    public long getIndex(int row) {
+        return indices.get(row);
+    }
+
+    public long getScans(int row) {
+        return scans.get(row);
+    }
+
+    public double getPeptideMass(int row) {
+        return peptideMasses.get(row);
+    }
+
+    public double getRetentionTime(int row) {
+        return retentionTimes.get(row);
+    }
+
+    public int getCharge(int row) {
+        return charges.get(row);
+    }
+
+    public boolean hasScans(int row) {
+        return !isFlagged(row, Moff2StartBinaryFormat.SCANS);
+    }
+
+    public boolean hasPeptideMass(int row) {
+        return !isFlagged(row, Moff2StartBinaryFormat.PEPMASS);
+    }
+
+    public boolean hasRetentionTime(int row) {
+        return !isFlagged(row, Moff2StartBinaryFormat.RTINSECONDS);
+    }
+
+    public boolean hasCharge(int row) {
+        return !isFlagged(row, Moff2StartBinaryFormat.CHARGE);
+    }
+
+    /**
+     * Get the SCANS value as text.
+     *
+     * @param row the row
+     * @return the SCANS value, null if absent
+     * @throws IOException in case of a text section read problem
+     */
+    public String getScansText(int row) throws IOException {
+        return hasScans(row) ? Long.toString(getScans(row)) : getText(row, Moff2StartBinaryFormat.SCANS);
+    }
+
+    /**
+     * Get the PEPMASS value.
+     *
+     * @param row the row
+     * @return the PEPMASS value, null if absent
+     */
+    public Double getPeptideMassValue(int row) {
+        return hasPeptideMass(row) ? getPeptideMass(row) : null;
+    }
+
+    /**
+     * Get the RTINSECONDS value as text.
+     *
+     * @param row the row
+     * @return the RTINSECONDS value, null if absent
+     * @throws IOException in case of a text section read problem
+     */
+    public String getRetentionTimeText(int row) throws IOException {
+        return hasRetentionTime(row) ? Double.toString(getRetentionTime(row)) : getText(row, Moff2StartBinaryFormat.RTINSECONDS);
+    }
+
+    /**
+     * Get the CHARGE value as text.
+     *
+     * @param row the row
+     * @return the CHARGE value, null if absent
+     * @throws IOException in case of a text section read problem
+     */
+    public String getChargeText(int row) throws IOException {
+        if (!hasCharge(row)) {
+            return getText(row, Moff2StartBinaryFormat.CHARGE);
+        }
+        int charge = getCharge(row);
+        return charge > 0 ? charge + "+" : -charge + "-";
+    }
+
+    private boolean isFlagged(int row, int column) {
+        return (flags.get(row) & (1 << column)) != 0;
+    }
+
+    /**
+     * Get the text value of the given row and column.
+     *
+     * @param row the row
+     * @param column the column
+     * @return the text value, null if the value is absent
+     * @throws IOException in case of a text section read problem
+     */
+    private synchronized String getText(int row, int column) throws IOException {
+        if (numberOfTextEntries == 0) {
+            return null;
+        }
+        if (textValues == null) {
+            textValues = readTextValues();
+        }
+        return textValues.get(row * (long) Moff2StartBinaryFormat.NUMBER_OF_COLUMNS + column);
+    }
+
+    private Map<Long, String> readTextValues() throws IOException {
+        ByteBuffer text = channel.map(FileChannel.MapMode.READ_ONLY, textOffset, channel.size() - textOffset).order(Moff2StartBinaryFormat.BYTE_ORDER);
+        Map<Long, String> values = new HashMap<>((int) numberOfTextEntries * 2);
+        for (long i = 0; i < numberOfTextEntries; i++) {
+            if (text.remaining() < Long.BYTES + 2 * Integer.BYTES) {
+                throw new IOException("Corrupt .moff2start.bin text section.");
+            }
+            long row = text.getLong();
+            int column = text.getInt();
+            int length = text.getInt();
+            if (length < 0 || length > text.remaining()) {
+                throw new IOException("Corrupt .moff2start.bin text section.");
+            }
+            byte[] bytes = new byte[length];
+            text.get(bytes);
+            values.put(row * Moff2StartBinaryFormat.NUMBER_OF_COLUMNS + column, new String(bytes, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
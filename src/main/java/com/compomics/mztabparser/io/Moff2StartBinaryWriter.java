@@ -0,0 +1,262 @@
+package com.compomics.mztabparser.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the binary columnar .moff2start.bin format, see
+ * {@link Moff2StartBinaryFormat}. The number of rows isn't known up front, so
+ * every column is spilled to its own temporary file next to the output file
+ * and the columns are concatenated when the writer is closed. The memory use
+ * doesn't depend on the number of rows.
+ *
+ * @author niels
+ */
+public class Moff2StartBinaryWriter implements Closeable {
+
+    private static final int SPILL_BUFFER_SIZE = 1 << 16;
+    private static final byte[] PADDING = new byte[Moff2StartBinaryFormat.ALIGNMENT];
+
+    private final Path file;
+    private final Path[] spillFiles = new Path[Moff2StartBinaryFormat.NUMBER_OF_COLUMNS + 1];
+    private final FileChannel[] spillChannels = new FileChannel[Moff2StartBinaryFormat.NUMBER_OF_COLUMNS + 1];
+    private final ByteBuffer[] spillBuffers = new ByteBuffer[Moff2StartBinaryFormat.NUMBER_OF_COLUMNS + 1];
+    /**
+     * The spill index of the text section.
+     */
+    private final int textSpill = Moff2StartBinaryFormat.NUMBER_OF_COLUMNS;
+    private long numberOfRows;
+    private long numberOfTextEntries;
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param file the .moff2start.bin file
+     * @throws IOException in case of a temporary file problem
+     */
+    public Moff2StartBinaryWriter(Path file) throws IOException {
+        this.file = file;
+        Path directory = file.toAbsolutePath().getParent();
+        try {
+            for (int i = 0; i < spillFiles.length; i++) {
+                spillFiles[i] = Files.createTempFile(directory, file.getFileName().toString(), ".spill" + i);
+                spillChannels[i] = FileChannel.open(spillFiles[i], StandardOpenOption.WRITE, StandardOpenOption.READ);
+                spillBuffers[i] = ByteBuffer.allocateDirect(SPILL_BUFFER_SIZE).order(Moff2StartBinaryFormat.BYTE_ORDER);
+            }
+        } catch (IOException ex) {
+            deleteSpillFiles();
+            throw ex;
+        }
+    }
+
+    /**
+     * Add a row, with the values as they are written to the .moff2start
+     * file.
+     *
+     * @param index the spectrum index
+     * @param scans the scans value, can be null
+     * @param peptideMass the peptide mass, can be null
+     * @param retentionTime the retention time value, can be null
+     * @param chargeState the charge state value, can be null
+     * @throws IOException in case of a write problem
+     */
+    public void add(long index, String scans, Double peptideMass, String retentionTime, String chargeState) throws IOException {
+        byte flags = 0;
+
+        putLong(Moff2StartBinaryFormat.INDEX, index);
+
+        long scansValue = 0;
+        if (scans == null) {
+            flags |= 1 << Moff2StartBinaryFormat.SCANS;
+        } else {
+            try {
+                scansValue = Long.parseLong(scans);
+            } catch (NumberFormatException ex) {
+                flags |= 1 << Moff2StartBinaryFormat.SCANS;
+                putText(Moff2StartBinaryFormat.SCANS, scans);
+            }
+        }
+        putLong(Moff2StartBinaryFormat.SCANS, scansValue);
+
+        if (peptideMass == null) {
+            flags |= 1 << Moff2StartBinaryFormat.PEPMASS;
+        }
+        putDouble(Moff2StartBinaryFormat.PEPMASS, peptideMass == null ? 0 : peptideMass);
+
+        double retentionTimeValue = 0;
+        if (retentionTime == null) {
+            flags |= 1 << Moff2StartBinaryFormat.RTINSECONDS;
+        } else {
+            try {
+                retentionTimeValue = Double.parseDouble(retentionTime);
+            } catch (NumberFormatException ex) {
+                flags |= 1 << Moff2StartBinaryFormat.RTINSECONDS;
+                putText(Moff2StartBinaryFormat.RTINSECONDS, retentionTime);
+            }
+        }
+        putDouble(Moff2StartBinaryFormat.RTINSECONDS, retentionTimeValue);
+
+        int chargeValue = 0;
+        if (chargeState == null) {
+            flags |= 1 << Moff2StartBinaryFormat.CHARGE;
+        } else {
+            chargeValue = parseCharge(chargeState);
+            if (chargeValue == 0) {
+                flags |= 1 << Moff2StartBinaryFormat.CHARGE;
+                putText(Moff2StartBinaryFormat.CHARGE, chargeState);
+            }
+        }
+        ensureRemaining(Moff2StartBinaryFormat.CHARGE, Integer.BYTES).putInt(chargeValue);
+
+        ensureRemaining(Moff2StartBinaryFormat.FLAGS, Byte.BYTES).put(flags);
+
+        numberOfRows++;
+    }
+
+    /**
+     * Parse a single charge like 2, 2+ or 3-.
+     *
+     * @param chargeState the charge state value
+     * @return the signed charge, 0 if the value is not a single non-zero
+     * charge
+     */
+    static int parseCharge(String chargeState) {
+        String charge = chargeState.trim();
+        int sign = 1;
+        if (charge.endsWith("+")) {
+            charge = charge.substring(0, charge.length() - 1);
+        } else if (charge.endsWith("-")) {
+            charge = charge.substring(0, charge.length() - 1);
+            sign = -1;
+        }
+        if (charge.isEmpty()) {
+            return 0;
+        }
+        for (int i = 0; i < charge.length(); i++) {
+            if (charge.charAt(i) < '0' || charge.charAt(i) > '9') {
+                return 0;
+            }
+        }
+        try {
+            return sign * Integer.parseInt(charge);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private void putLong(int column, long value) throws IOException {
+        ensureRemaining(column, Long.BYTES).putLong(value);
+    }
+
+    private void putDouble(int column, double value) throws IOException {
+        ensureRemaining(column, Double.BYTES).putDouble(value);
+    }
+
+    private void putText(int column, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ensureRemaining(textSpill, Long.BYTES + 2 * Integer.BYTES)
+                .putLong(numberOfRows)
+                .putInt(column)
+                .putInt(bytes.length);
+        int offset = 0;
+        while (offset < bytes.length) {
+            ByteBuffer buffer = ensureRemaining(textSpill, 1);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+        numberOfTextEntries++;
+    }
+
+    /**
+     * Get the spill buffer of the given column with room for the given
+     * number of bytes, the buffer is written to the spill file if necessary.
+     *
+     * @param spill the column or the text section
+     * @param bytes the number of bytes
+     * @return the spill buffer
+     * @throws IOException in case of a write problem
+     */
+    private ByteBuffer ensureRemaining(int spill, int bytes) throws IOException {
+        ByteBuffer buffer = spillBuffers[spill];
+        if (buffer.remaining() < bytes) {
+            flushSpill(spill);
+        }
+        return buffer;
+    }
+
+    private void flushSpill(int spill) throws IOException {
+        ByteBuffer buffer = spillBuffers[spill];
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            spillChannels[spill].write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Write the .moff2start.bin file and delete the spill files.
+     *
+     * @throws IOException in case of a write problem
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try (FileChannel output = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long textOffset = Moff2StartBinaryFormat.getColumnOffset(Moff2StartBinaryFormat.NUMBER_OF_COLUMNS, numberOfRows);
+
+            ByteBuffer header = ByteBuffer.allocate(Moff2StartBinaryFormat.HEADER_SIZE).order(Moff2StartBinaryFormat.BYTE_ORDER);
+            header.put(Moff2StartBinaryFormat.MAGIC);
+            header.putInt(Moff2StartBinaryFormat.VERSION);
+            header.putInt(Moff2StartBinaryFormat.NUMBER_OF_COLUMNS);
+            header.putLong(numberOfRows);
+            header.putLong(textOffset);
+            header.putLong(numberOfTextEntries);
+            header.clear();
+            writeFully(output, header);
+
+            for (int spill = 0; spill < spillFiles.length; spill++) {
+                flushSpill(spill);
+                long size = spillChannels[spill].size();
+                long transferred = 0;
+                while (transferred < size) {
+                    transferred += spillChannels[spill].transferTo(transferred, size - transferred, output);
+                }
+                if (spill < textSpill) {
+                    int padding = (int) (Moff2StartBinaryFormat.align(size) - size);
+                    writeFully(output, ByteBuffer.wrap(PADDING, 0, padding));
+                }
+            }
+        } finally {
+            deleteSpillFiles();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void deleteSpillFiles() throws IOException {
+        for (int i = 0; i < spillFiles.length; i++) {
+            if (spillChannels[i] != null) {
+                spillChannels[i].close();
+            }
+            if (spillFiles[i] != null) {
+                Files.deleteIfExists(spillFiles[i]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.compomics.mztabparser.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Converts between the tab separated .moff2start format and the binary
+ * columnar .moff2start.bin format. Both directions keep all values; numeric
+ * values are written back in their Java notation and charges as 2+ or 3-.
+ *
+ * @author niels
+ */
+public final class Moff2StartConverter {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(Moff2StartConverter.class);
+
+    /**
+     * The binary file extension.
+     */
+    public static final String BINARY_EXTENSION = ".bin";
+    private static final String SEPARATOR = "\t";
+    private static final String HEADER = "INDEX" + SEPARATOR + "SCANS" + SEPARATOR + "PEPMASS" + SEPARATOR + "RTINSECONDS" + SEPARATOR + "CHARGE";
+    private static final String NULL = "null";
+
+    /**
+     * Private constructor, only static methods.
+     */
+    private Moff2StartConverter() {
+    }
+
+    /**
+     * Convert a .moff2start file (gzip compressed or not) to the binary
+     * format.
+     *
+     * @param tsvFile the .moff2start file
+     * @param binaryFile the .moff2start.bin file
+     * @return the number of rows
+     * @throws IOException in case of a read, write or format problem
+     */
+    public static long toBinary(Path tsvFile, Path binaryFile) throws IOException {
+        long numberOfRows = 0;
+        try (BufferedReader reader = GzipFiles.newBufferedReader(tsvFile);
+                Moff2StartBinaryWriter writer = new Moff2StartBinaryWriter(binaryFile)) {
+            String line = reader.readLine();
+            if (line == null || !line.equals(HEADER)) {
+                throw new IOException(tsvFile + " doesn't start with the .moff2start header.");
+            }
+            long lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split(SEPARATOR, -1);
+                if (fields.length != 5) {
+                    throw new IOException("Line " + lineNumber + " of " + tsvFile + " has " + fields.length + " instead of 5 columns.");
+                }
+                try {
+                    writer.add(Long.parseLong(fields[0]), toValue(fields[1]), fields[2].equals(NULL) ? null : Double.valueOf(fields[2]), toValue(fields[3]), toValue(fields[4]));
+                } catch (NumberFormatException ex) {
+                    throw new IOException("Invalid number on line " + lineNumber + " of " + tsvFile + ": " + ex.getMessage());
+                }
+                numberOfRows++;
+            }
+        }
+        return numberOfRows;
+    }
+
+    /**
+     * Convert a .moff2start.bin file to the tab separated format, the output
+     * is gzip compressed if its name ends with .gz.
+     *
+     * @param binaryFile the .moff2start.bin file
+     * @param tsvFile the .moff2start file
+     * @return the number of rows
+     * @throws IOException in case of a read, write or format problem
+     */
+    public static long toTsv(Path binaryFile, Path tsvFile) throws IOException {
+        try (Moff2StartBinaryReader reader = new Moff2StartBinaryReader(binaryFile);
+                TsvWriter writer = new TsvWriter(tsvFile)) {
+            writer.write(HEADER);
+            for (int row = 0; row < reader.size(); row++) {
+                writer.newLine();
+                writer.write(reader.getIndex(row)).tab().write(reader.getScansText(row)).tab().write(reader.getPeptideMassValue(row)).tab().write(reader.getRetentionTimeText(row)).tab().write(reader.getChargeText(row));
+            }
+            return reader.size();
+        }
+    }
+
+    private static String toValue(String field) {
+        return field.equals(NULL) ? null : field;
+    }
+
+    /**
+     * Convert the given file, the direction follows from the .bin
+     * extension of the input file.
+     *
+     * @param arguments the input and output file
+     */
+    public static void main(String[] arguments) {
+        if (arguments.length != 2) {
+            System.out.println("Usage: " + Moff2StartConverter.class.getName() + " <input .moff2start or .moff2start.bin file> <output file>");
+            System.exit(1);
+        }
+        Path inputFile = Paths.get(arguments[0]);
+        Path outputFile = Paths.get(arguments[1]);
+        try {
+            long numberOfRows;
+            if (inputFile.getFileName().toString().endsWith(BINARY_EXTENSION)) {
+                numberOfRows = toTsv(inputFile, outputFile);
+            } else {
+                numberOfRows = toBinary(inputFile, outputFile);
+            }
+            LOGGER.info("converted " + numberOfRows + " rows from " + inputFile + " to " + outputFile);
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+}
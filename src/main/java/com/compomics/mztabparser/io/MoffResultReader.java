@@ -0,0 +1,283 @@
+package com.compomics.mztabparser.io;
+
+import com.compomics.mztabparser.model.MoffResultLine;
+import com.compomics.mztabparser.model.MoffResultStore;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Cursor over the lines of a moff result file that works directly on the
+ * bytes read from the file. Only the columns that are merged into the mzTab
+ * file are parsed, in place and without creating Strings, with the same
+ * values {@link MoffResultLine} gives.
+ *
+ * @author niels
+ */
+public class MoffResultReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    /**
+     * The last column that has to be located in a line.
+     */
+    private static final int LAST_COLUMN = MoffResultLine.LOG_INT;
+
+    private final ReadableByteChannel channel;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    /**
+     * The start of the unprocessed bytes in the buffer.
+     */
+    private int position;
+    /**
+     * The end of the valid bytes in the buffer.
+     */
+    private int limit;
+    /**
+     * The start of the line following the current line.
+     */
+    private int nextLineStart;
+    private boolean endOfInput;
+    private long lineNumber;
+    private final int[] fieldStarts = new int[LAST_COLUMN + 1];
+    private final int[] fieldEnds = new int[LAST_COLUMN + 1];
+
+    private long spectrumIndex;
+    private double intensity;
+    private double rtPeak;
+    private double lwhm;
+    private double rwhm;
+    private double snr;
+    private double logLR;
+    private double logInt;
+
+    /**
+     * Constructor; skips the header line.
+     *
+     * @param moffResultFile the moff result file, decompressed while reading
+     * if its name ends with .gz
+     * @throws IOException in case of a read problem
+     */
+    public MoffResultReader(Path moffResultFile) throws IOException {
+        this(GzipFiles.isGzip(moffResultFile) ? Channels.newChannel(GzipFiles.newInputStream(moffResultFile)) : FileChannel.open(moffResultFile, StandardOpenOption.READ));
+    }
+
+    /**
+     * Constructor; skips the header line.
+     *
+     * @param channel the channel to read the moff result lines from, it's
+     * closed together with the reader
+     * @throws IOException in case of a read problem
+     */
+    public MoffResultReader(ReadableByteChannel channel) throws IOException {
+        this(channel, true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param channel the channel to read the moff result lines from, it's
+     * closed together with the reader
+     * @param skipHeader whether the channel starts with the header line
+     * @throws IOException in case of a read problem
+     */
+    public MoffResultReader(ReadableByteChannel channel, boolean skipHeader) throws IOException {
+        this.channel = channel;
+        if (skipHeader) {
+            nextLine();
+        }
+    }
+
+    /**
+     * Read all moff result lines of the given file in a store.
+     *
+     * @param moffResultFile the moff result file
+     * @param expectedSize the expected number of lines
+     * @return the store
+     * @throws IOException in case of a read or format problem
+     */
+    public static MoffResultStore read(Path moffResultFile, int expectedSize) throws IOException {
+        MoffResultStore moffResults = new MoffResultStore(expectedSize);
+        read(moffResultFile, moffResults, MoffResultStore.ANY_MS_RUN);
+        return moffResults;
+    }
+
+    /**
+     * Read all moff result lines of the given file in a store, keyed by the
+     * given ms_run and their spectrum index.
+     *
+     * @param moffResultFile the moff result file
+     * @param moffResults the store
+     * @param msRun the ms_run of the moff result file
+     * @return the number of lines read
+     * @throws IOException in case of a read or format problem
+     */
+    public static int read(Path moffResultFile, MoffResultStore moffResults, int msRun) throws IOException {
+        int lines = 0;
+        try (MoffResultReader reader = new MoffResultReader(moffResultFile)) {
+            while (reader.next()) {
+                long key = MoffResultStore.getKey(msRun, MoffResultStore.INDEX_REFERENCE, reader.getSpectrumIndex());
+                if (key == MoffResultStore.NO_KEY) {
+                    throw new IOException("Spectrum index " + reader.getSpectrumIndex() + " out of range on line " + reader.lineNumber + " of " + moffResultFile);
+                }
+                moffResults.add(key, reader.getIntensity(), reader.getRtPeak(), reader.getLwhm(), reader.getRwhm(), reader.getSnr(), reader.getLogLR(), reader.getLogInt());
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Move to the next moff result line, empty lines are skipped.
+     *
+     * @return false if there are no more lines
+     * @throws IOException in case of a read or format problem
+     */
+    public boolean next() throws IOException {
+        int lineEnd;
+        do {
+            lineEnd = nextLine();
+            if (lineEnd < 0) {
+                return false;
+            }
+        } while (lineEnd == position);
+
+        //locate the fields up to the last needed column
+        int fieldStart = position;
+        for (int field = 0; field <= LAST_COLUMN; field++) {
+            if (fieldStart > lineEnd) {
+                throw new IOException("Line " + lineNumber + " of the moff result file has only " + field + " columns.");
+            }
+            int fieldEnd = fieldStart;
+            while (fieldEnd < lineEnd && buffer[fieldEnd] != MoffResultLine.DELIMITER) {
+                fieldEnd++;
+            }
+            fieldStarts[field] = fieldStart;
+            fieldEnds[field] = fieldEnd;
+            fieldStart = fieldEnd + 1;
+        }
+
+        try {
+            spectrumIndex = FastNumberParser.parseLong(buffer, fieldStarts[MoffResultLine.SPECTRUM_INDEX], fieldEnds[MoffResultLine.SPECTRUM_INDEX]);
+            intensity = parseField(MoffResultLine.INTENSITY);
+            rtPeak = parseField(MoffResultLine.RT_PEAK);
+            lwhm = parseField(MoffResultLine.LWHM);
+            rwhm = parseField(MoffResultLine.RWHM);
+            snr = parseField(MoffResultLine.SNR);
+            logLR = parseField(MoffResultLine.LOG_L_R);
+            logInt = parseField(MoffResultLine.LOG_INT);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid number on line " + lineNumber + " of the moff result file: " + ex.getMessage());
+        }
+
+        return true;
+    }
+
+    /**
+     * Find the next line; on return the line starts at {@link #position}.
+     * The position of the previous line is advanced past it first.
+     *
+     * @return the line end (exclusive, without line terminator), -1 at the end
+     * of the input
+     * @throws IOException in case of a read problem
+     */
+    private int nextLine() throws IOException {
+        //skip the previous line
+        if (lineNumber > 0) {
+            position = nextLineStart;
+        }
+        int searchFrom = position;
+        while (true) {
+            for (int i = searchFrom; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    nextLineStart = i + 1;
+                    lineNumber++;
+                    return i > position && buffer[i - 1] == '\r' ? i - 1 : i;
+                }
+            }
+            if (endOfInput) {
+                if (position < limit) {
+                    //last line without line terminator
+                    nextLineStart = limit;
+                    lineNumber++;
+                    return buffer[limit - 1] == '\r' ? limit - 1 : limit;
+                }
+                return -1;
+            }
+            searchFrom = fill();
+        }
+    }
+
+    /**
+     * Read more bytes, moving the current line to the start of the buffer.
+     *
+     * @return the buffer position to continue the line end search from
+     * @throws IOException in case of a read problem
+     */
+    private int fill() throws IOException {
+        int remaining = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        } else if (remaining == buffer.length) {
+            //the line doesn't fit in the buffer
+            byte[] largerBuffer = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, largerBuffer, 0, remaining);
+            buffer = largerBuffer;
+        }
+        position = 0;
+        limit = remaining;
+        int read = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+        if (read < 0) {
+            endOfInput = true;
+        } else {
+            limit += read;
+        }
+        return remaining;
+    }
+
+    private double parseField(int field) {
+        return FastNumberParser.parseDouble(buffer, fieldStarts[field], fieldEnds[field]);
+    }
+
+    public long getSpectrumIndex() {
+        return spectrumIndex;
+    }
+
+    public double getIntensity() {
+        return intensity;
+    }
+
+    public double getRtPeak() {
+        return rtPeak;
+    }
+
+    public double getLwhm() {
+        return lwhm;
+    }
+
+    public double getRwhm() {
+        return rwhm;
+    }
+
+    public double getSnr() {
+        return snr;
+    }
+
+    public double getLogLR() {
+        return logLR;
+    }
+
+    public double getLogInt() {
+        return logInt;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
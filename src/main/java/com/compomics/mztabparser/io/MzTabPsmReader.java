@@ -0,0 +1,234 @@
+package com.compomics.mztabparser.io;
+
+import com.compomics.mztabparser.model.MoffResultStore;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Lightweight reader of the PSM section of an mzTab file that reads only the
+ * requested columns. Of the metadata section only the ms_run locations are
+ * parsed, the other sections are skipped; the column positions are taken
+ * from the PSH line. A PSM line is scanned up to the last requested column
+ * and only the requested values are cut out, as they appear in the file
+ * (trimmed). There is no validation beyond the structure of the PSM section.
+ *
+ * @author niels
+ */
+public class MzTabPsmReader implements Closeable {
+
+    private static final String SEPARATOR = "\t";
+    private static final char SEPARATOR_CHAR = '\t';
+    private static final String MTD_PREFIX = "MTD" + SEPARATOR;
+    private static final String PSH_PREFIX = "PSH" + SEPARATOR;
+    private static final String PSM_PREFIX = "PSM" + SEPARATOR;
+    private static final String MS_RUN_PREFIX = "ms_run[";
+    private static final String MS_RUN_LOCATION_SUFFIX = "]-location";
+
+    private final Path mzTabFile;
+    private final BufferedReader reader;
+    private final List<String> columns;
+    private final SortedMap<Integer, String> msRunLocations = new TreeMap<>();
+    /**
+     * The position in the PSM line of each requested column, -1 if the column
+     * is absent.
+     */
+    private int[] columnPositions;
+    /**
+     * The requested column of each position in the PSM line up to the last
+     * requested one, -1 for the positions that aren't requested.
+     */
+    private int[] positionColumns;
+    private final String[] values;
+    private long lineNumber;
+
+    /**
+     * Constructor; reads up to the PSH line.
+     *
+     * @param mzTabFile the mzTab file, decompressed while reading if its name
+     * ends with .gz
+     * @param columns the names of the PSM columns to read
+     * @throws IOException in case of a read problem, or if the file has no
+     * PSM section
+     */
+    public MzTabPsmReader(Path mzTabFile, List<String> columns) throws IOException {
+        this.mzTabFile = mzTabFile;
+        this.columns = columns;
+        this.values = new String[columns.size()];
+        this.reader = GzipFiles.newBufferedReader(mzTabFile);
+        try {
+            readHeader();
+        } catch (IOException ex) {
+            reader.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Read the lines up to and including the PSH line.
+     *
+     * @throws IOException in case of a read problem, or if there is no PSH
+     * line
+     */
+    private void readHeader() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.startsWith(MTD_PREFIX)) {
+                parseMsRunLocation(line, msRunLocations);
+            } else if (line.startsWith(PSM_PREFIX)) {
+                throw new IOException("PSM line found before the PSM header at line " + lineNumber + " of " + mzTabFile);
+            } else if (line.startsWith(PSH_PREFIX)) {
+                List<String> pshColumns = Arrays.asList(line.split(SEPARATOR, -1));
+                columnPositions = new int[columns.size()];
+                int lastPosition = -1;
+                for (int i = 0; i < columns.size(); i++) {
+                    columnPositions[i] = pshColumns.indexOf(columns.get(i));
+                    lastPosition = Math.max(lastPosition, columnPositions[i]);
+                }
+                positionColumns = new int[lastPosition + 1];
+                Arrays.fill(positionColumns, -1);
+                for (int i = 0; i < columns.size(); i++) {
+                    if (columnPositions[i] >= 0) {
+                        positionColumns[columnPositions[i]] = i;
+                    }
+                }
+                return;
+            }
+        }
+        throw new IOException("No PSM header found in " + mzTabFile);
+    }
+
+    /**
+     * Read the ms_run locations from the metadata section of an mzTab file,
+     * without reading further.
+     *
+     * @param mzTabFile the mzTab file, decompressed while reading if its name
+     * ends with .gz
+     * @return the locations by ms_run number
+     * @throws IOException in case of a read problem
+     */
+    public static SortedMap<Integer, String> readMsRunLocations(Path mzTabFile) throws IOException {
+        SortedMap<Integer, String> msRunLocations = new TreeMap<>();
+        try (BufferedReader reader = GzipFiles.newBufferedReader(mzTabFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(MTD_PREFIX)) {
+                    parseMsRunLocation(line, msRunLocations);
+                } else if (!line.trim().isEmpty() && !line.startsWith("COM")) {
+                    //the metadata section is at the start of the file
+                    break;
+                }
+            }
+        }
+        return msRunLocations;
+    }
+
+    /**
+     * Add the ms_run location of an MTD line, if it holds one.
+     *
+     * @param line the MTD line
+     * @param msRunLocations the locations by ms_run number
+     */
+    private static void parseMsRunLocation(String line, SortedMap<Integer, String> msRunLocations) {
+        String[] fields = line.split(SEPARATOR, -1);
+        if (fields.length > 2 && fields[1].startsWith(MS_RUN_PREFIX) && fields[1].endsWith(MS_RUN_LOCATION_SUFFIX)) {
+            long msRun = SpectraReferenceParser.parseNumber(fields[1], MS_RUN_PREFIX.length(), fields[1].length() - MS_RUN_LOCATION_SUFFIX.length());
+            if (msRun > 0 && msRun <= MoffResultStore.MAX_MS_RUN) {
+                msRunLocations.put((int) msRun, fields[2].trim());
+            }
+        }
+    }
+
+    /**
+     * Read the next PSM line. The values are put in the array returned by
+     * {@link #getValues()}, in the order of the requested columns.
+     *
+     * @return whether there was a PSM line, false at the end of the file
+     * @throws IOException in case of a read problem
+     */
+    public boolean next() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.startsWith(PSM_PREFIX)) {
+                project(line);
+                return true;
+            } else if (line.startsWith(PSH_PREFIX)) {
+                throw new IOException("Second PSM header found at line " + lineNumber + " of " + mzTabFile);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cut the requested values out of a PSM line.
+     *
+     * @param line the PSM line
+     */
+    private void project(String line) {
+        Arrays.fill(values, null);
+        int start = 0;
+        for (int position = 0; position < positionColumns.length && start <= line.length(); position++) {
+            int end = line.indexOf(SEPARATOR_CHAR, start);
+            if (end < 0) {
+                end = line.length();
+            }
+            int column = positionColumns[position];
+            if (column >= 0) {
+                values[column] = line.substring(start, end).trim();
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Get the values of the current PSM line, null for the columns that are
+     * absent; the array is reused for the next line.
+     *
+     * @return the values in the order of the requested columns
+     */
+    public String[] getValues() {
+        return values;
+    }
+
+    public List<String> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * Get the ms_run locations of the metadata section.
+     *
+     * @return the locations by ms_run number
+     */
+    public SortedMap<Integer, String> getMsRunLocations() {
+        return Collections.unmodifiableSortedMap(msRunLocations);
+    }
+
+    /**
+     * Check whether the given column is in the PSM header.
+     *
+     * @param column the column name
+     * @return whether the column is present
+     */
+    public boolean hasColumn(String column) {
+        int index = columns.indexOf(column);
+        return index >= 0 && columnPositions[index] >= 0;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
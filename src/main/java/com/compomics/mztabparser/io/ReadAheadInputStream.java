@@ -0,0 +1,188 @@
+package com.compomics.mztabparser.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Input stream that reads the wrapped stream ahead on a background thread.
+ * The blocks read by the background thread are handed over through a bounded
+ * queue, so the reading (and decompressing, for a gzip stream) of the next
+ * blocks overlaps with the parsing of the current block.
+ *
+ * @author niels
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    /**
+     * The default block size in bytes.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    /**
+     * The default number of blocks read ahead.
+     */
+    public static final int DEFAULT_QUEUE_DEPTH = 4;
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(1);
+
+    /**
+     * A block read by the background thread; an empty block marks the end of
+     * the stream and a block with an exception the failure of the read.
+     */
+    private static class Block {
+
+        private final byte[] bytes;
+        private final int length;
+        private final IOException exception;
+
+        Block(byte[] bytes, int length, IOException exception) {
+            this.bytes = bytes;
+            this.length = length;
+            this.exception = exception;
+        }
+    }
+
+    private final InputStream inputStream;
+    private final BlockingQueue<Block> blocks;
+    private final Thread readThread;
+    private Block currentBlock;
+    private int position;
+    private boolean endOfStream;
+    private volatile boolean closed;
+
+    /**
+     * Constructor with the default block size and queue depth.
+     *
+     * @param inputStream the stream to read ahead, it's closed together with
+     * this stream
+     */
+    public ReadAheadInputStream(InputStream inputStream) {
+        this(inputStream, DEFAULT_BLOCK_SIZE, DEFAULT_QUEUE_DEPTH);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param inputStream the stream to read ahead, it's closed together with
+     * this stream
+     * @param blockSize the block size in bytes
+     * @param queueDepth the maximum number of blocks read ahead
+     */
+    public ReadAheadInputStream(InputStream inputStream, int blockSize, int queueDepth) {
+        this.inputStream = inputStream;
+        this.blocks = new ArrayBlockingQueue<>(queueDepth);
+        readThread = new Thread(() -> readAhead(blockSize), "read-ahead-" + THREAD_NUMBER.getAndIncrement());
+        readThread.setDaemon(true);
+        readThread.start();
+    }
+
+    /**
+     * Fill the queue until the end of the wrapped stream, a read problem or
+     * until this stream is closed.
+     *
+     * @param blockSize the block size
+     */
+    private void readAhead(int blockSize) {
+        try {
+            while (!closed) {
+                byte[] bytes = new byte[blockSize];
+                int length = 0;
+                int read = 0;
+                while (length < blockSize && (read = inputStream.read(bytes, length, blockSize - length)) != -1) {
+                    length += read;
+                }
+                if (length > 0) {
+                    blocks.put(new Block(bytes, length, null));
+                }
+                if (read == -1) {
+                    blocks.put(new Block(null, 0, null));
+                    return;
+                }
+            }
+        } catch (IOException ex) {
+            try {
+                blocks.put(new Block(null, 0, ex));
+            } catch (InterruptedException interruptedException) {
+                //closed while reporting the failure
+            }
+        } catch (InterruptedException ex) {
+            //closed while waiting for room in the queue
+        }
+    }
+
+    /**
+     * Make sure the current block has unread bytes.
+     *
+     * @return false at the end of the stream
+     * @throws IOException in case of a read problem of the background thread
+     */
+    private boolean nextBlock() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (!endOfStream && (currentBlock == null || position == currentBlock.length)) {
+            try {
+                currentBlock = blocks.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the read-ahead thread");
+            }
+            position = 0;
+            if (currentBlock.exception != null) {
+                IOException exception = currentBlock.exception;
+                //keep failing on the following reads
+                blocks.offer(currentBlock);
+                throw exception;
+            }
+            if (currentBlock.bytes == null) {
+                endOfStream = true;
+            }
+        }
+        return !endOfStream;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+        return currentBlock.bytes[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+        int read = Math.min(length, currentBlock.length - position);
+        System.arraycopy(currentBlock.bytes, position, bytes, offset, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return currentBlock == null || endOfStream ? 0 : currentBlock.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            readThread.interrupt();
+            try {
+                readThread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            blocks.clear();
+            inputStream.close();
+        }
+    }
+
+}
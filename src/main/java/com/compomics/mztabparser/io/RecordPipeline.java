@@ -0,0 +1,223 @@
+package com.compomics.mztabparser.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the reading and parsing of a file and the formatting and writing of
+ * its output at the same time. The source stage runs on its own thread and
+ * hands the records it produces in batches to the sink stage, which runs on
+ * the calling thread, through a bounded queue: a source that is ahead blocks
+ * until the sink catches up. Together with the read-ahead of compressed
+ * input and the background flush of {@link TsvWriter}, the disk reads,
+ * parsing, formatting and disk writes of a single file overlap.
+ *
+ * A failure in either stage stops both; the exception is thrown by
+ * {@link #run(Source, RecordSink)}. When the sink fails the source is
+ * aborted: it can't block on the queue anymore, so the calling thread never
+ * waits for it forever.
+ *
+ * @author niels
+ */
+public class RecordPipeline {
+
+    /**
+     * The default number of records in a batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    /**
+     * The default number of batches that can wait for the sink.
+     */
+    public static final int DEFAULT_QUEUE_DEPTH = 4;
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(1);
+
+    /**
+     * The source stage, e.g. a file reader and parser.
+     *
+     * @param <T> the record type
+     */
+    public interface Source<T> {
+
+        /**
+         * Produce all records.
+         *
+         * @param sink the sink to pass the records to
+         * @return the number of records produced
+         * @throws IOException in case of a read or parse problem
+         */
+        long produce(RecordSink<T> sink) throws IOException;
+    }
+
+    /**
+     * The sink stage, e.g. an output formatter and writer.
+     *
+     * @param <T> the record type
+     */
+    public interface RecordSink<T> {
+
+        /**
+         * Handle a record.
+         *
+         * @param record the record
+         * @throws IOException in case of a write problem
+         */
+        void accept(T record) throws IOException;
+    }
+
+    private final int batchSize;
+    private final int queueDepth;
+
+    /**
+     * Constructor.
+     *
+     * @param batchSize the number of records in a batch
+     * @param queueDepth the number of batches that can wait for the sink, 0
+     * to run the source and the sink one after another on the calling thread
+     */
+    public RecordPipeline(int batchSize, int queueDepth) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size should be at least 1.");
+        }
+        if (queueDepth < 0) {
+            throw new IllegalArgumentException("The queue depth should not be negative.");
+        }
+        this.batchSize = batchSize;
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Run the source on a new thread and pass its records to the sink on the
+     * calling thread, in the order they are produced.
+     *
+     * @param <T> the record type
+     * @param source the source stage
+     * @param sink the sink stage
+     * @return the number of records produced
+     * @throws IOException in case of a problem in one of the stages
+     */
+    public <T> long run(Source<T> source, RecordSink<T> sink) throws IOException {
+        if (queueDepth == 0) {
+            return source.produce(sink);
+        }
+        Producer<T> producer = new Producer<>(source);
+        Thread producerThread = new Thread(producer, "pipeline-source-" + THREAD_NUMBER.getAndIncrement());
+        producerThread.setDaemon(true);
+        producerThread.start();
+        boolean completed = false;
+        try {
+            List<T> batch;
+            while ((batch = producer.batches.take()) != producer.endOfBatches) {
+                for (T record : batch) {
+                    sink.accept(record);
+                }
+                batch.clear();
+                producer.freeBatches.offer(batch);
+            }
+            completed = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the pipeline source");
+        } finally {
+            if (!completed) {
+                //stop the source, it might be blocked on a full queue; the
+                //queue is cleared as well, in case the source swallowed the
+                //interrupt
+                producer.aborted = true;
+                producerThread.interrupt();
+                producer.batches.clear();
+            }
+            try {
+                producerThread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Throwable failure = producer.failure;
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return producer.produced;
+    }
+
+    /**
+     * Runs the source and collects its records in batches.
+     *
+     * @param <T> the record type
+     */
+    private class Producer<T> implements Runnable, RecordSink<T> {
+
+        private final Source<T> source;
+        private final BlockingQueue<List<T>> batches = new ArrayBlockingQueue<>(queueDepth);
+        /**
+         * The batches that were handled by the sink, for reuse.
+         */
+        private final BlockingQueue<List<T>> freeBatches = new ArrayBlockingQueue<>(queueDepth + 2);
+        private final List<T> endOfBatches = new ArrayList<>(0);
+        private List<T> batch = new ArrayList<>(batchSize);
+        private volatile long produced;
+        private volatile Throwable failure;
+        /**
+         * Whether the sink stopped, nothing is taken from the queue anymore.
+         */
+        private volatile boolean aborted;
+
+        Producer(Source<T> source) {
+            this.source = source;
+        }
+
+        @Override
+        public void accept(T record) throws IOException {
+            batch.add(record);
+            if (batch.size() == batchSize) {
+                put(batch);
+                batch = freeBatches.poll();
+                if (batch == null) {
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                produced = source.produce(this);
+                if (!batch.isEmpty()) {
+                    put(batch);
+                }
+            } catch (Throwable ex) {
+                failure = ex;
+            } finally {
+                //an aborted sink doesn't wait for the end of the batches
+                if (!aborted) {
+                    try {
+                        batches.put(endOfBatches);
+                    } catch (InterruptedException ex) {
+                        //the sink stopped
+                    }
+                }
+            }
+        }
+
+        private void put(List<T> fullBatch) throws IOException {
+            if (aborted) {
+                throw new InterruptedIOException("The pipeline sink stopped");
+            }
+            try {
+                batches.put(fullBatch);
+            } catch (InterruptedException ex) {
+                throw new InterruptedIOException("The pipeline sink stopped");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,232 @@
+package com.compomics.mztabparser.io;
+
+import com.compomics.mztabparser.model.MoffResultStore;
+
+/**
+ * Parses mzTab spectra_ref values into {@link MoffResultStore} keys, in place
+ * and without creating Strings or boxed numbers. A spectra_ref value holds one
+ * or more '|' separated references like ms_run[1]:index=5 or
+ * ms_run[2]:scan=1234; the scan number can also be part of a native ID like
+ * ms_run[1]:controllerType=0 controllerNumber=1 scan=1234.
+ *
+ * @author niels
+ */
+public final class SpectraReferenceParser {
+
+    private static final String MS_RUN_PREFIX = "ms_run[";
+    private static final String MS_RUN_SUFFIX = "]:";
+    private static final String INDEX_PREFIX = "index=";
+    private static final String SCAN_PREFIX = "scan=";
+    private static final char REFERENCE_SEPARATOR = '|';
+
+    /**
+     * Private constructor, only static methods.
+     */
+    private SpectraReferenceParser() {
+    }
+
+    /**
+     * Find the moff result row of the first reference in a spectra_ref value
+     * that has one. A reference is looked up under its own ms_run first and
+     * then under {@link MoffResultStore#ANY_MS_RUN}.
+     *
+     * @param moffResults the moff results
+     * @param spectraRef the characters that hold the spectra_ref value
+     * @param from the start of the value (inclusive)
+     * @param to the end of the value (exclusive)
+     * @return the row, {@link MoffResultStore#NO_ROW} if no reference matches
+     */
+    public static int findRow(MoffResultStore moffResults, CharSequence spectraRef, int from, int to) {
+        int referenceStart = from;
+        while (referenceStart <= to) {
+            int referenceEnd = getReferenceEnd(spectraRef, referenceStart, to);
+            int row = findRow(moffResults, parseKey(spectraRef, referenceStart, referenceEnd));
+            if (row != MoffResultStore.NO_ROW) {
+                return row;
+            }
+            referenceStart = referenceEnd + 1;
+        }
+        return MoffResultStore.NO_ROW;
+    }
+
+    /**
+     * Get the end of the reference that starts at the given position in a
+     * spectra_ref value.
+     *
+     * @param spectraRef the characters that hold the spectra_ref value
+     * @param from the start of the reference (inclusive)
+     * @param to the end of the value (exclusive)
+     * @return the end of the reference (exclusive)
+     */
+    public static int getReferenceEnd(CharSequence spectraRef, int from, int to) {
+        return indexOf(spectraRef, REFERENCE_SEPARATOR, from, to);
+    }
+
+    /**
+     * Find the moff result row of the given key, falling back to
+     * {@link MoffResultStore#ANY_MS_RUN}.
+     *
+     * @param moffResults the moff results
+     * @param key the key
+     * @return the row, {@link MoffResultStore#NO_ROW} if the key doesn't
+     * match
+     */
+    public static int findRow(MoffResultStore moffResults, long key) {
+        if (key == MoffResultStore.NO_KEY) {
+            return MoffResultStore.NO_ROW;
+        }
+        int row = moffResults.find(key);
+        if (row == MoffResultStore.NO_ROW && MoffResultStore.getMsRun(key) != MoffResultStore.ANY_MS_RUN) {
+            row = moffResults.find(MoffResultStore.toAnyMsRun(key));
+        }
+        return row;
+    }
+
+    /**
+     * Parse a single reference with an optional ms_run[n]: prefix; without
+     * prefix the reference belongs to {@link MoffResultStore#ANY_MS_RUN}.
+     *
+     * @param reference the characters that hold the reference
+     * @param from the start of the reference (inclusive)
+     * @param to the end of the reference (exclusive)
+     * @return the key, {@link MoffResultStore#NO_KEY} if the reference has no
+     * valid index or scan number
+     */
+    public static long parseKey(CharSequence reference, int from, int to) {
+        from = skipWhitespace(reference, from, to);
+        int msRun = MoffResultStore.ANY_MS_RUN;
+        if (startsWith(reference, from, to, MS_RUN_PREFIX)) {
+            int msRunStart = from + MS_RUN_PREFIX.length();
+            int msRunEnd = msRunStart;
+            while (msRunEnd < to && isDigit(reference.charAt(msRunEnd))) {
+                msRunEnd++;
+            }
+            if (!startsWith(reference, msRunEnd, to, MS_RUN_SUFFIX)) {
+                return MoffResultStore.NO_KEY;
+            }
+            long number = parseNumber(reference, msRunStart, msRunEnd);
+            if (number < 0 || number > MoffResultStore.MAX_MS_RUN) {
+                return MoffResultStore.NO_KEY;
+            }
+            msRun = (int) number;
+            from = msRunEnd + MS_RUN_SUFFIX.length();
+        }
+        return parseKey(msRun, reference, from, to);
+    }
+
+    /**
+     * Parse the ms_run number of the first reference in a spectra_ref value,
+     * also when the reference itself isn't valid.
+     *
+     * @param spectraRef the characters that hold the spectra_ref value
+     * @param from the start of the value (inclusive)
+     * @param to the end of the value (exclusive)
+     * @return the ms_run number, {@link MoffResultStore#ANY_MS_RUN} if the
+     * reference has no valid ms_run[n]: prefix
+     */
+    public static int parseMsRun(CharSequence spectraRef, int from, int to) {
+        from = skipWhitespace(spectraRef, from, to);
+        if (!startsWith(spectraRef, from, to, MS_RUN_PREFIX)) {
+            return MoffResultStore.ANY_MS_RUN;
+        }
+        int msRunStart = from + MS_RUN_PREFIX.length();
+        int msRunEnd = msRunStart;
+        while (msRunEnd < to && isDigit(spectraRef.charAt(msRunEnd))) {
+            msRunEnd++;
+        }
+        long number = parseNumber(spectraRef, msRunStart, msRunEnd);
+        if (!startsWith(spectraRef, msRunEnd, to, MS_RUN_SUFFIX) || number < 0 || number > MoffResultStore.MAX_MS_RUN) {
+            return MoffResultStore.ANY_MS_RUN;
+        }
+        return (int) number;
+    }
+
+    /**
+     * Parse the reference part (after the ms_run[n]: prefix) of a reference.
+     *
+     * @param msRun the ms_run number
+     * @param reference the characters that hold the reference
+     * @param from the start of the reference (inclusive)
+     * @param to the end of the reference (exclusive)
+     * @return the key, {@link MoffResultStore#NO_KEY} if the reference has no
+     * valid index or scan number
+     */
+    public static long parseKey(int msRun, CharSequence reference, int from, int to) {
+        //the native ID terms are separated by spaces
+        int termStart = skipWhitespace(reference, from, to);
+        while (termStart < to) {
+            int termEnd = indexOf(reference, ' ', termStart, to);
+            if (startsWith(reference, termStart, termEnd, INDEX_PREFIX)) {
+                return MoffResultStore.getKey(msRun, MoffResultStore.INDEX_REFERENCE, parseNumber(reference, termStart + INDEX_PREFIX.length(), trimEnd(reference, termStart, termEnd)));
+            } else if (startsWith(reference, termStart, termEnd, SCAN_PREFIX)) {
+                return MoffResultStore.getKey(msRun, MoffResultStore.SCAN_REFERENCE, parseNumber(reference, termStart + SCAN_PREFIX.length(), trimEnd(reference, termStart, termEnd)));
+            }
+            termStart = skipWhitespace(reference, termEnd, to);
+        }
+        return MoffResultStore.NO_KEY;
+    }
+
+    /**
+     * Parse a non-negative decimal number.
+     *
+     * @param characters the characters
+     * @param from the start of the number (inclusive)
+     * @param to the end of the number (exclusive)
+     * @return the number, -1 if the characters aren't a plain non-negative
+     * number or the number overflows
+     */
+    public static long parseNumber(CharSequence characters, int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = from; i < to; i++) {
+            char c = characters.charAt(i);
+            if (!isDigit(c) || number > (Long.MAX_VALUE - 9) / 10) {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean startsWith(CharSequence characters, int from, int to, String prefix) {
+        if (to - from < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (characters.charAt(from + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence characters, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (characters.charAt(i) == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private static int skipWhitespace(CharSequence characters, int from, int to) {
+        while (from < to && Character.isWhitespace(characters.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(CharSequence characters, int from, int to) {
+        while (to > from && Character.isWhitespace(characters.charAt(to - 1))) {
+            to--;
+        }
+        return to;
+    }
+
+}
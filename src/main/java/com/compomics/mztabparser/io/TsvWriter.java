@@ -0,0 +1,410 @@
+package com.compomics.mztabparser.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writer for the tab separated outputs. The values are encoded straight into
+ * a large direct buffer: strings as UTF-8, integers digit by digit and doubles
+ * through a reused StringBuilder, which renders them exactly like
+ * {@link Double#toString(double)} and string concatenation do. The output is
+ * byte-identical to writing the concatenated rows with a
+ * {@link java.io.BufferedWriter}, including the platform line separator.
+ *
+ * With background flushing the writer has two buffers: a full buffer is
+ * written to the file on a separate thread while the next one is filled, so
+ * the write system calls (and the gzip compression hand-off) don't block the
+ * parsing thread.
+ *
+ * The direct buffers of the default size are pooled: a closed writer hands
+ * its buffers back, so a long-running process doesn't allocate new direct
+ * memory for every output file.
+ *
+ * An instance is not thread safe.
+ *
+ * @author niels
+ */
+public class TsvWriter implements Closeable, Flushable {
+
+    /**
+     * The default buffer size in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    private static final byte TAB = '\t';
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(1);
+    /**
+     * The maximum number of pooled buffers.
+     */
+    private static final int MAX_POOLED_BUFFERS = 4 * Runtime.getRuntime().availableProcessors();
+    private static final Queue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED_BUFFERS = new AtomicInteger();
+
+    private final WritableByteChannel channel;
+    private ByteBuffer buffer;
+    private final byte[] digits = new byte[20];
+    private final StringBuilder scratch = new StringBuilder(32);
+    /**
+     * The background flush state, null without background flushing.
+     */
+    private final BlockingQueue<ByteBuffer> fullBuffers;
+    private final BlockingQueue<ByteBuffer> emptyBuffers;
+    private final Thread flushThread;
+    private volatile IOException flushException;
+    private boolean closed;
+
+    /**
+     * Constructor with the default buffer size; background flushing is used
+     * if there is more than one processor.
+     *
+     * @param file the output file, gzip compressed if its name ends with .gz
+     * @throws IOException in case of a file creation problem
+     */
+    public TsvWriter(Path file) throws IOException {
+        this(file, DEFAULT_BUFFER_SIZE, Runtime.getRuntime().availableProcessors() > 1);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param file the output file, gzip compressed if its name ends with .gz
+     * @param bufferSize the buffer size in bytes
+     * @param backgroundFlush whether to write the full buffers on a background
+     * thread
+     * @throws IOException in case of a file creation problem
+     */
+    public TsvWriter(Path file, int bufferSize, boolean backgroundFlush) throws IOException {
+        this(GzipFiles.isGzip(file)
+                ? Channels.newChannel(GzipFiles.newOutputStream(file))
+                : FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING),
+                bufferSize, backgroundFlush);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param channel the channel to write to, it's closed together with the
+     * writer
+     * @param bufferSize the buffer size in bytes
+     * @param backgroundFlush whether to write the full buffers on a background
+     * thread
+     */
+    public TsvWriter(WritableByteChannel channel, int bufferSize, boolean backgroundFlush) {
+        if (bufferSize < 64) {
+            throw new IllegalArgumentException("The buffer size should be at least 64 bytes.");
+        }
+        this.channel = channel;
+        this.buffer = allocateBuffer(bufferSize);
+        if (backgroundFlush) {
+            fullBuffers = new ArrayBlockingQueue<>(1);
+            emptyBuffers = new ArrayBlockingQueue<>(1);
+            emptyBuffers.add(allocateBuffer(bufferSize));
+            flushThread = new Thread(this::flushInBackground, "tsv-flush-" + THREAD_NUMBER.getAndIncrement());
+            flushThread.setDaemon(true);
+            flushThread.start();
+        } else {
+            fullBuffers = null;
+            emptyBuffers = null;
+            flushThread = null;
+        }
+    }
+
+    /**
+     * Write a string, "null" for null.
+     *
+     * @param value the string
+     * @return this writer
+     * @throws IOException in case of a write problem
+     */
+    public TsvWriter write(String value) throws IOException {
+        if (value == null) {
+            return writeBytes(NULL);
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                //not plain ASCII, let the encoder deal with the rest
+                return writeBytes(value.substring(i).getBytes(StandardCharsets.UTF_8));
+            }
+            if (!buffer.hasRemaining()) {
+                swapBuffer();
+            }
+            buffer.put((byte) c);
+        }
+        return this;
+    }
+
+    /**
+     * Write a long in decimal notation.
+     *
+     * @param value the value
+     * @return this writer
+     * @throws IOException in case of a write problem
+     */
+    public TsvWriter write(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            return writeBytes(MIN_LONG);
+        }
+        ensureRemaining(digits.length);
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.put(digits, position, digits.length - position);
+        return this;
+    }
+
+    /**
+     * Write a double the way {@link Double#toString(double)} renders it.
+     *
+     * @param value the value
+     * @return this writer
+     * @throws IOException in case of a write problem
+     */
+    public TsvWriter write(double value) throws IOException {
+        scratch.setLength(0);
+        scratch.append(value);
+        int length = scratch.length();
+        ensureRemaining(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) scratch.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Write a value the way string concatenation renders it: numbers
+     * directly, other objects through {@link String#valueOf(Object)}.
+     *
+     * @param value the value, can be null
+     * @return this writer
+     * @throws IOException in case of a write problem
+     */
+    public TsvWriter write(Object value) throws IOException {
+        if (value instanceof Long || value instanceof Integer) {
+            return write(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            return write(((Double) value).doubleValue());
+        }
+        return write(String.valueOf(value));
+    }
+
+    /**
+     * Write the field separator.
+     *
+     * @return this writer
+     * @throws IOException in case of a write problem
+     */
+    public TsvWriter tab() throws IOException {
+        if (!buffer.hasRemaining()) {
+            swapBuffer();
+        }
+        buffer.put(TAB);
+        return this;
+    }
+
+    /**
+     * Write the platform line separator.
+     *
+     * @return this writer
+     * @throws IOException in case of a write problem
+     */
+    public TsvWriter newLine() throws IOException {
+        return writeBytes(LINE_SEPARATOR);
+    }
+
+    private TsvWriter writeBytes(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                swapBuffer();
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+        return this;
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            swapBuffer();
+        }
+    }
+
+    /**
+     * Write the current buffer, or hand it to the background thread and
+     * continue with the other buffer.
+     *
+     * @throws IOException in case of a write problem
+     */
+    private void swapBuffer() throws IOException {
+        checkFlushException();
+        buffer.flip();
+        if (flushThread == null) {
+            writeFully(buffer);
+            buffer.clear();
+            return;
+        }
+        try {
+            fullBuffers.put(buffer);
+            buffer = emptyBuffers.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the background flush");
+        }
+        checkFlushException();
+    }
+
+    /**
+     * Write the full buffers until the thread is interrupted; empty buffers
+     * are only passed back.
+     */
+    private void flushInBackground() {
+        try {
+            while (true) {
+                ByteBuffer fullBuffer = fullBuffers.take();
+                try {
+                    writeFully(fullBuffer);
+                } catch (IOException ex) {
+                    flushException = ex;
+                }
+                fullBuffer.clear();
+                emptyBuffers.put(fullBuffer);
+            }
+        } catch (InterruptedException ex) {
+            //the writer is closed
+        }
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        if (flushException != null) {
+            return;
+        }
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private void checkFlushException() throws IOException {
+        if (flushException != null) {
+            throw new IOException("Failed to write the output: " + flushException.getMessage(), flushException);
+        }
+    }
+
+    /**
+     * Write all buffered data to the channel and wait until it's written.
+     *
+     * @throws IOException in case of a write problem
+     */
+    @Override
+    public void flush() throws IOException {
+        swapBuffer();
+        if (flushThread != null) {
+            //wait until the buffer just handed over is written by sending
+            //the empty current buffer after it
+            ByteBuffer marker = buffer;
+            marker.flip();
+            try {
+                fullBuffers.put(marker);
+                buffer = emptyBuffers.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the background flush");
+            }
+            checkFlushException();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean flushed = false;
+        try {
+            flush();
+            flushed = true;
+        } finally {
+            boolean stopped = true;
+            if (flushThread != null) {
+                //all buffers are written, the thread is waiting for the next one
+                flushThread.interrupt();
+                try {
+                    flushThread.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    stopped = false;
+                }
+            }
+            //only hand the buffers back when nothing can still use them
+            if (flushed && stopped) {
+                releaseBuffer(buffer);
+                if (emptyBuffers != null) {
+                    releaseBuffer(emptyBuffers.poll());
+                }
+            }
+            buffer = null;
+            channel.close();
+        }
+    }
+
+    /**
+     * Take a buffer of the given size from the pool, or allocate a new one.
+     *
+     * @param bufferSize the buffer size
+     * @return the empty buffer
+     */
+    private static ByteBuffer allocateBuffer(int bufferSize) {
+        if (bufferSize == DEFAULT_BUFFER_SIZE) {
+            ByteBuffer pooledBuffer = BUFFER_POOL.poll();
+            if (pooledBuffer != null) {
+                POOLED_BUFFERS.decrementAndGet();
+                return pooledBuffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Hand a buffer back to the pool if it has the default size and the pool
+     * isn't full.
+     *
+     * @param releasedBuffer the buffer, can be null
+     */
+    private static void releaseBuffer(ByteBuffer releasedBuffer) {
+        if (releasedBuffer == null || releasedBuffer.capacity() != DEFAULT_BUFFER_SIZE) {
+            return;
+        }
+        if (POOLED_BUFFERS.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            releasedBuffer.clear();
+            BUFFER_POOL.offer(releasedBuffer);
+        } else {
+            POOLED_BUFFERS.decrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.compomics.mztabparser.model;
+
+/**
+ * The header values of a single MGF spectrum, as far as they are needed for
+ * the .moff2start output. The string values are kept as they appear in the
+ * MGF file (trimmed), so they render exactly like the jmzreader Ms2Query
+ * getters do.
+ *
+ * The record also locates the spectrum block (BEGIN IONS up to and including
+ * END IONS) in the file, when the scanner knows the file offsets.
+ *
+ * @author niels
+ */
+public class MgfHeaderRecord {
+
+    private final long index;
+    private final String scans;
+    private final Double peptideMass;
+    private final String retentionTime;
+    private final String chargeState;
+    private final long offset;
+    private final long length;
+
+    /**
+     * Constructor for a record without location.
+     *
+     * @param index the 0-based spectrum index in the MGF file
+     * @param scans the SCANS value, null if absent
+     * @param peptideMass the first PEPMASS value, null if absent
+     * @param retentionTime the RTINSECONDS value, null if absent
+     * @param chargeState the CHARGE value, null if absent
+     */
+    public MgfHeaderRecord(long index, String scans, Double peptideMass, String retentionTime, String chargeState) {
+        this(index, scans, peptideMass, retentionTime, chargeState, -1, -1);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param index the 0-based spectrum index in the MGF file
+     * @param scans the SCANS value, null if absent
+     * @param peptideMass the first PEPMASS value, null if absent
+     * @param retentionTime the RTINSECONDS value, null if absent
+     * @param chargeState the CHARGE value, null if absent
+     * @param offset the byte offset of the spectrum block, -1 if unknown
+     * @param length the byte length of the spectrum block, -1 if unknown
+     */
+    public MgfHeaderRecord(long index, String scans, Double peptideMass, String retentionTime, String chargeState, long offset, long length) {
+        this.index = index;
+        this.scans = scans;
+        this.peptideMass = peptideMass;
+        this.retentionTime = retentionTime;
+        this.chargeState = chargeState;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public String getScans() {
+        return scans;
+    }
+
+    public Double getPeptideMass() {
+        return peptideMass;
+    }
+
+    public String getRetentionTime() {
+        return retentionTime;
+    }
+
+    public String getChargeState() {
+        return chargeState;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+}
@@ -11,20 +11,20 @@ package com.compomics.mztabparser.model;
  */
 public class MoffResultLine {
 
-    private static final char DELIMITER = '\t';
-    private static final int CHARGE = 0;
-    private static final int SPECTRUM_INDEX = 1;
-    private static final int RT = 2;
-    private static final int MZ = 3;
-    private static final int INTENSITY = 4;
-    private static final int RT_PEAK = 5;
-    private static final int LWHM = 6;
-    private static final int RWHM = 7;
-    private static final int FIVE_P_NOISE = 8;
-    private static final int TEN_P_NOISE = 9;
-    private static final int SNR = 10;
-    private static final int LOG_L_R = 11;
-    private static final int LOG_INT = 12;
+    public static final char DELIMITER = '\t';
+    public static final int CHARGE = 0;
+    public static final int SPECTRUM_INDEX = 1;
+    public static final int RT = 2;
+    public static final int MZ = 3;
+    public static final int INTENSITY = 4;
+    public static final int RT_PEAK = 5;
+    public static final int LWHM = 6;
+    public static final int RWHM = 7;
+    public static final int FIVE_P_NOISE = 8;
+    public static final int TEN_P_NOISE = 9;
+    public static final int SNR = 10;
+    public static final int LOG_L_R = 11;
+    public static final int LOG_INT = 12;
 
     private final Long spectrumIndex;
     private final double intensity;
@@ -54,6 +54,29 @@ public class MoffResultLine {
         this.logInt = Double.valueOf(fields[LOG_INT]);
     }
 
+    /**
+     * Constructor with the parsed values.
+     *
+     * @param spectrumIndex the spectrum index
+     * @param intensity the intensity
+     * @param rtPeak the retention time of the peak
+     * @param lwhm the left width at half maximum
+     * @param rwhm the right width at half maximum
+     * @param snr the signal to noise ratio
+     * @param logLR the log left/right ratio
+     * @param logInt the log intensity
+     */
+    public MoffResultLine(long spectrumIndex, double intensity, double rtPeak, double lwhm, double rwhm, double snr, double logLR, double logInt) {
+        this.spectrumIndex = spectrumIndex;
+        this.intensity = intensity;
+        this.rtPeak = rtPeak;
+        this.lwhm = lwhm;
+        this.rwhm = rwhm;
+        this.snr = snr;
+        this.logLR = logLR;
+        this.logInt = logInt;
+    }
+
     public Long getSpectrumIndex() {
         return spectrumIndex;
     }
@@ -0,0 +1,251 @@
+package com.compomics.mztabparser.model;
+
+import com.compomics.mztabparser.util.LongIntHashMap;
+import java.util.Arrays;
+
+/**
+ * Columnar in-memory store of moff result lines, keyed by spectrum index. The
+ * values are kept in parallel primitive arrays and looked up through a
+ * primitive long to row index map, so a row costs 64 bytes and no objects.
+ *
+ * The moff results of several ms_runs can be kept in one store with composite
+ * keys (see {@link #getKey(int, int, long)}): the ms_run number in the upper
+ * 16 bits, the reference type bit and the spectrum index or scan number in
+ * the lower 47 bits. A plain spectrum index is the key of ms_run 0, the
+ * ms_run that stands for any ms_run. A row can be found under more than one
+ * key, e.g. by spectrum index and by scan number.
+ *
+ * The row getters mirror the {@link MoffResultLine} getters; look up the row
+ * once with {@link #find(long)} and read the values without allocating.
+ *
+ * @author niels
+ */
+public class MoffResultStore {
+
+    /**
+     * The row returned by {@link #find(long)} for unknown spectrum indices.
+     */
+    public static final int NO_ROW = LongIntHashMap.NO_VALUE;
+    /**
+     * The ms_run of the moff results that match a spectrum reference of any
+     * ms_run.
+     */
+    public static final int ANY_MS_RUN = 0;
+    /**
+     * The highest ms_run number a key can hold.
+     */
+    public static final int MAX_MS_RUN = (1 << 16) - 1;
+    /**
+     * The highest spectrum index or scan number a key can hold.
+     */
+    public static final long MAX_NUMBER = (1L << 47) - 1;
+    /**
+     * The reference type of a key by spectrum index.
+     */
+    public static final int INDEX_REFERENCE = 0;
+    /**
+     * The reference type of a key by scan number.
+     */
+    public static final int SCAN_REFERENCE = 1;
+    /**
+     * The key returned by {@link #getKey(int, int, long)} for values out of
+     * range.
+     */
+    public static final long NO_KEY = -1;
+    private static final int MS_RUN_SHIFT = 48;
+    private static final int REFERENCE_TYPE_SHIFT = 47;
+
+    private final LongIntHashMap rowIndex;
+    private long[] spectrumIndices;
+    private double[] intensities;
+    private double[] rtPeaks;
+    private double[] lwhms;
+    private double[] rwhms;
+    private double[] snrs;
+    private double[] logLRs;
+    private double[] logInts;
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize the expected number of rows
+     */
+    public MoffResultStore(int expectedSize) {
+        int capacity = Math.max(expectedSize, 16);
+        rowIndex = new LongIntHashMap(capacity);
+        spectrumIndices = new long[capacity];
+        intensities = new double[capacity];
+        rtPeaks = new double[capacity];
+        lwhms = new double[capacity];
+        rwhms = new double[capacity];
+        snrs = new double[capacity];
+        logLRs = new double[capacity];
+        logInts = new double[capacity];
+    }
+
+    /**
+     * Get the composite key of a spectrum reference.
+     *
+     * @param msRun the ms_run number, {@link #ANY_MS_RUN} for any ms_run
+     * @param referenceType {@link #INDEX_REFERENCE} or
+     * {@link #SCAN_REFERENCE}
+     * @param number the spectrum index or scan number
+     * @return the key, {@link #NO_KEY} if the ms_run or the number is out of
+     * range
+     */
+    public static long getKey(int msRun, int referenceType, long number) {
+        if (msRun < 0 || msRun > MAX_MS_RUN || number < 0 || number > MAX_NUMBER) {
+            return NO_KEY;
+        }
+        return ((long) msRun << MS_RUN_SHIFT) | ((long) referenceType << REFERENCE_TYPE_SHIFT) | number;
+    }
+
+    /**
+     * Get the ms_run number of the given key.
+     *
+     * @param key the key
+     * @return the ms_run number
+     */
+    public static int getMsRun(long key) {
+        return (int) (key >>> MS_RUN_SHIFT);
+    }
+
+    /**
+     * Get the same key for {@link #ANY_MS_RUN}.
+     *
+     * @param key the key
+     * @return the key of ms_run 0
+     */
+    public static long toAnyMsRun(long key) {
+        return key & ((1L << MS_RUN_SHIFT) - 1);
+    }
+
+    /**
+     * Add the given moff result line.
+     *
+     * @param moffResultLine the moff result line
+     */
+    public void add(MoffResultLine moffResultLine) {
+        add(moffResultLine.getSpectrumIndex(), moffResultLine.getIntensity(), moffResultLine.getRtPeak(), moffResultLine.getLwhm(), moffResultLine.getRwhm(), moffResultLine.getSnr(), moffResultLine.getLogLR(), moffResultLine.getLogInt());
+    }
+
+    /**
+     * Add a moff result row. If the spectrum index is already present, the
+     * existing row is overwritten.
+     *
+     * @param spectrumIndex the spectrum index or, for the moff results of
+     * several ms_runs, the composite key
+     * @param intensity the intensity
+     * @param rtPeak the retention time of the peak
+     * @param lwhm the left width at half maximum
+     * @param rwhm the right width at half maximum
+     * @param snr the signal to noise ratio
+     * @param logLR the log ratio of the left and right widths
+     * @param logInt the log intensity
+     */
+    public void add(long spectrumIndex, double intensity, double rtPeak, double lwhm, double rwhm, double snr, double logLR, double logInt) {
+        int row = rowIndex.get(spectrumIndex);
+        if (row == NO_ROW) {
+            if (size == spectrumIndices.length) {
+                grow();
+            }
+            row = size++;
+            rowIndex.put(spectrumIndex, row);
+        }
+        spectrumIndices[row] = spectrumIndex;
+        intensities[row] = intensity;
+        rtPeaks[row] = rtPeak;
+        lwhms[row] = lwhm;
+        rwhms[row] = rwhm;
+        snrs[row] = snr;
+        logLRs[row] = logLR;
+        logInts[row] = logInt;
+    }
+
+    /**
+     * Make an existing row available under another key as well.
+     *
+     * @param key the other key
+     * @param row the row
+     */
+    public void addAlias(long key, int row) {
+        if (row < 0 || row >= size) {
+            throw new IllegalArgumentException("No row " + row + " in the store.");
+        }
+        rowIndex.put(key, row);
+    }
+
+    /**
+     * Find the row of the given spectrum index.
+     *
+     * @param spectrumIndex the spectrum index or composite key
+     * @return the row, {@link #NO_ROW} if the spectrum index is absent
+     */
+    public int find(long spectrumIndex) {
+        return rowIndex.get(spectrumIndex);
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the approximate heap size of the store in bytes.
+     *
+     * @return the size in bytes
+     */
+    public long getSizeInBytes() {
+        return rowIndex.getSizeInBytes() + (long) spectrumIndices.length * 8 * Long.BYTES;
+    }
+
+    public long getSpectrumIndex(int row) {
+        return spectrumIndices[row] & MAX_NUMBER;
+    }
+
+    public double getIntensity(int row) {
+        return intensities[row];
+    }
+
+    public double getRtPeak(int row) {
+        return rtPeaks[row];
+    }
+
+    public double getLwhm(int row) {
+        return lwhms[row];
+    }
+
+    public double getRwhm(int row) {
+        return rwhms[row];
+    }
+
+    public double getSnr(int row) {
+        return snrs[row];
+    }
+
+    public double getLogLR(int row) {
+        return logLRs[row];
+    }
+
+    public double getLogInt(int row) {
+        return logInts[row];
+    }
+
+    private void grow() {
+        int capacity = spectrumIndices.length + (spectrumIndices.length >> 1);
+        spectrumIndices = Arrays.copyOf(spectrumIndices, capacity);
+        intensities = Arrays.copyOf(intensities, capacity);
+        rtPeaks = Arrays.copyOf(rtPeaks, capacity);
+        lwhms = Arrays.copyOf(lwhms, capacity);
+        rwhms = Arrays.copyOf(rwhms, capacity);
+        snrs = Arrays.copyOf(snrs, capacity);
+        logLRs = Arrays.copyOf(logLRs, capacity);
+        logInts = Arrays.copyOf(logInts, capacity);
+    }
+
+}
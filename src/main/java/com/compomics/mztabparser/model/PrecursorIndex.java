@@ -0,0 +1,197 @@
+package com.compomics.mztabparser.model;
+
+import java.util.Arrays;
+
+/**
+ * Columnar index of MGF spectrum precursors, sorted on precursor m/z, for
+ * matching PSMs on their experimental m/z, charge and retention time when
+ * their spectra references don't match. The precursors are kept in parallel
+ * primitive arrays; after {@link #sort()} a lookup is a binary search for the
+ * lower end of the m/z tolerance window and a scan of the window, so n PSMs
+ * are matched against m precursors in O((n + m) log m).
+ *
+ * A precursor is identified by its {@link MoffResultStore} key by spectrum
+ * index, which holds the ms_run number as well.
+ *
+ * @author niels
+ */
+public class PrecursorIndex {
+
+    /**
+     * The charge of a precursor or PSM without (valid) charge, it matches any
+     * charge.
+     */
+    public static final int UNKNOWN_CHARGE = 0;
+
+    private long[] keys;
+    private double[] mzs;
+    private double[] rts;
+    private int[] charges;
+    private int size;
+    private boolean sorted = true;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize the expected number of precursors
+     */
+    public PrecursorIndex(int expectedSize) {
+        int capacity = Math.max(expectedSize, 16);
+        keys = new long[capacity];
+        mzs = new double[capacity];
+        rts = new double[capacity];
+        charges = new int[capacity];
+    }
+
+    /**
+     * Add a precursor.
+     *
+     * @param key the moff result key of the spectrum
+     * @param mz the precursor m/z
+     * @param rt the retention time in seconds, NaN if unknown
+     * @param charge the charge, {@link #UNKNOWN_CHARGE} if unknown
+     */
+    public void add(long key, double mz, double rt, int charge) {
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            mzs = Arrays.copyOf(mzs, capacity);
+            rts = Arrays.copyOf(rts, capacity);
+            charges = Arrays.copyOf(charges, capacity);
+        }
+        keys[size] = key;
+        mzs[size] = mz;
+        rts[size] = rt;
+        charges[size] = charge;
+        size++;
+        sorted = false;
+    }
+
+    /**
+     * Sort the precursors on m/z, has to be called after the last
+     * {@link #add(long, double, double, int)} and before the first
+     * {@link #find(int, double, int, double, double, double)}. The heap sort
+     * swaps the parallel arrays in place, without extra memory.
+     */
+    public void sort() {
+        if (sorted) {
+            return;
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i, size);
+        }
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        sorted = true;
+    }
+
+    private void siftDown(int root, int end) {
+        while (true) {
+            int child = 2 * root + 1;
+            if (child >= end) {
+                return;
+            }
+            if (child + 1 < end && mzs[child + 1] > mzs[child]) {
+                child++;
+            }
+            if (mzs[root] >= mzs[child]) {
+                return;
+            }
+            swap(root, child);
+            root = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        double mz = mzs[i];
+        mzs[i] = mzs[j];
+        mzs[j] = mz;
+        double rt = rts[i];
+        rts[i] = rts[j];
+        rts[j] = rt;
+        int charge = charges[i];
+        charges[i] = charges[j];
+        charges[j] = charge;
+    }
+
+    /**
+     * Find the precursor that matches a PSM: of the precursors of the PSM's
+     * ms_run (or of {@link MoffResultStore#ANY_MS_RUN}) within the m/z and
+     * retention time tolerance and with the same charge, the one closest in
+     * m/z, and then in retention time. An unknown charge or retention time on
+     * either side isn't checked.
+     *
+     * @param msRun the ms_run number of the PSM,
+     * {@link MoffResultStore#ANY_MS_RUN} if unknown
+     * @param mz the experimental m/z of the PSM
+     * @param charge the charge of the PSM, {@link #UNKNOWN_CHARGE} if unknown
+     * @param rt the retention time of the PSM in seconds, NaN if unknown
+     * @param ppmTolerance the m/z tolerance in ppm
+     * @param rtTolerance the retention time tolerance in seconds
+     * @return the moff result key of the matching precursor,
+     * {@link MoffResultStore#NO_KEY} if none matches
+     */
+    public long find(int msRun, double mz, int charge, double rt, double ppmTolerance, double rtTolerance) {
+        if (!sorted) {
+            throw new IllegalStateException("The precursor index isn't sorted.");
+        }
+        if (Double.isNaN(mz)) {
+            return MoffResultStore.NO_KEY;
+        }
+        double mzTolerance = Math.abs(mz) * ppmTolerance / 1e6;
+        double upperMz = mz + mzTolerance;
+        long bestKey = MoffResultStore.NO_KEY;
+        double bestMzDifference = Double.MAX_VALUE;
+        double bestRtDifference = Double.MAX_VALUE;
+        for (int i = lowerBound(mz - mzTolerance); i < size && mzs[i] <= upperMz; i++) {
+            int precursorMsRun = MoffResultStore.getMsRun(keys[i]);
+            if (msRun != MoffResultStore.ANY_MS_RUN && precursorMsRun != MoffResultStore.ANY_MS_RUN && precursorMsRun != msRun) {
+                continue;
+            }
+            if (charge != UNKNOWN_CHARGE && charges[i] != UNKNOWN_CHARGE && charges[i] != charge) {
+                continue;
+            }
+            double rtDifference = Double.isNaN(rt) || Double.isNaN(rts[i]) ? 0 : Math.abs(rts[i] - rt);
+            if (rtDifference > rtTolerance) {
+                continue;
+            }
+            double mzDifference = Math.abs(mzs[i] - mz);
+            if (mzDifference < bestMzDifference || (mzDifference == bestMzDifference && rtDifference < bestRtDifference)) {
+                bestKey = keys[i];
+                bestMzDifference = mzDifference;
+                bestRtDifference = rtDifference;
+            }
+        }
+        return bestKey;
+    }
+
+    /**
+     * Get the first position with an m/z of at least the given value.
+     *
+     * @param mz the m/z
+     * @return the position, the size if all m/z values are smaller
+     */
+    private int lowerBound(double mz) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mzs[middle] < mz) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public int size() {
+        return size;
+    }
+
+}
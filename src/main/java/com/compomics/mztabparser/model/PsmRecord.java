@@ -0,0 +1,124 @@
+package com.compomics.mztabparser.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single PSM line of an mzTab file, with its values as they appear in the
+ * file. The values are looked up by the column names of the PSH line; the
+ * mzTab "null" value is returned as is.
+ *
+ * @author niels
+ */
+public class PsmRecord {
+
+    public static final String SEQUENCE = "sequence";
+    public static final String PSM_ID = "PSM_ID";
+    public static final String ACCESSION = "accession";
+    public static final String MODIFICATIONS = "modifications";
+    public static final String SPECTRA_REF = "spectra_ref";
+    public static final String CHARGE = "charge";
+    public static final String EXP_MASS_TO_CHARGE = "exp_mass_to_charge";
+    public static final String CALC_MASS_TO_CHARGE = "calc_mass_to_charge";
+
+    /**
+     * The column names of a PSH line, shared by the records of a file.
+     */
+    public static class Header {
+
+        private final List<String> columns;
+        private final Map<String, Integer> columnIndices;
+
+        /**
+         * Constructor.
+         *
+         * @param columns the column names of the PSH line, starting with PSH
+         */
+        public Header(List<String> columns) {
+            this.columns = Collections.unmodifiableList(columns);
+            this.columnIndices = new HashMap<>(columns.size() * 2);
+            for (int i = 0; i < columns.size(); i++) {
+                columnIndices.putIfAbsent(columns.get(i), i);
+            }
+        }
+
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        /**
+         * Get the index of the given column.
+         *
+         * @param column the column name
+         * @return the column index, -1 if the column is absent
+         */
+        public int indexOf(String column) {
+            Integer index = columnIndices.get(column);
+            return index == null ? -1 : index;
+        }
+    }
+
+    private final Header header;
+    private final String[] values;
+
+    /**
+     * Constructor.
+     *
+     * @param header the PSH header
+     * @param values the values of the PSM line, starting with PSM
+     */
+    public PsmRecord(Header header, String[] values) {
+        this.header = header;
+        this.values = values;
+    }
+
+    public Header getHeader() {
+        return header;
+    }
+
+    /**
+     * Get the value in the given column.
+     *
+     * @param column the column name
+     * @return the value, null if the column or value is absent
+     */
+    public String get(String column) {
+        int index = header.indexOf(column);
+        return index < 0 || index >= values.length ? null : values[index];
+    }
+
+    public String getSequence() {
+        return get(SEQUENCE);
+    }
+
+    public String getPsmId() {
+        return get(PSM_ID);
+    }
+
+    public String getAccession() {
+        return get(ACCESSION);
+    }
+
+    public String getModifications() {
+        return get(MODIFICATIONS);
+    }
+
+    public String getSpectraRef() {
+        return get(SPECTRA_REF);
+    }
+
+    public String getCharge() {
+        return get(CHARGE);
+    }
+
+    public String getExpMassToCharge() {
+        return get(EXP_MASS_TO_CHARGE);
+    }
+
+    public String getCalcMassToCharge() {
+        return get(CALC_MASS_TO_CHARGE);
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.compomics.mztabparser.util;
+
+import java.util.Arrays;
+
+/**
+ * Aggregator of primitive double values: the count and sum are kept as they
+ * come in, the values themselves in a growing array so the median can be
+ * computed at the end. NaN values are ignored.
+ *
+ * @author niels
+ */
+public class DoubleAggregator {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int count;
+    private double sum;
+
+    /**
+     * No-arg constructor
+     */
+    public DoubleAggregator() {
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param value the value, ignored if NaN
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count++] = value;
+        sum += value;
+    }
+
+    /**
+     * Add all values of another aggregator.
+     *
+     * @param other the other aggregator
+     */
+    public void addAll(DoubleAggregator other) {
+        if (count + other.count > values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, count + other.count));
+        }
+        System.arraycopy(other.values, 0, values, count, other.count);
+        count += other.count;
+        sum += other.sum;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Get the median of the values, the mean of the two middle values for an
+     * even count.
+     *
+     * @return the median, NaN if there are no values
+     */
+    public double getMedian() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        Arrays.sort(values, 0, count);
+        int middle = count / 2;
+        return count % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+
+}
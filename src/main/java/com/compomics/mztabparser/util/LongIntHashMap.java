@@ -0,0 +1,158 @@
+package com.compomics.mztabparser.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive long keys to non-negative int values,
+ * with linear probing. Unlike a HashMap&lt;Long, Integer&gt; it doesn't box the
+ * keys and values and doesn't allocate an entry object per mapping.
+ *
+ * @author niels
+ */
+public class LongIntHashMap {
+
+    /**
+     * The value returned for absent keys.
+     */
+    public static final int NO_VALUE = -1;
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize the expected number of mappings
+     */
+    public LongIntHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Get the value mapped to the given key.
+     *
+     * @param key the key
+     * @return the value, {@link #NO_VALUE} if the key is absent
+     */
+    public int get(long key) {
+        int slot = hash(key) & mask;
+        while (values[slot] != NO_VALUE) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Check whether the given key is mapped.
+     *
+     * @param key the key
+     * @return whether the key is present
+     */
+    public boolean containsKey(long key) {
+        return get(key) != NO_VALUE;
+    }
+
+    /**
+     * Map the key to the given value.
+     *
+     * @param key the key
+     * @param value the value, should not be negative
+     * @return the previous value, {@link #NO_VALUE} if the key was absent
+     */
+    public int put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("The value should not be negative.");
+        }
+        int slot = hash(key) & mask;
+        while (values[slot] != NO_VALUE) {
+            if (keys[slot] == key) {
+                int previousValue = values[slot];
+                values[slot] = value;
+                return previousValue;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        if (size > resizeThreshold) {
+            resize();
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Get the number of mappings.
+     *
+     * @return the number of mappings
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the approximate heap size of the map in bytes.
+     *
+     * @return the size in bytes
+     */
+    public long getSizeInBytes() {
+        return (long) keys.length * (Long.BYTES + Integer.BYTES);
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        if (oldKeys.length == MAXIMUM_CAPACITY) {
+            throw new IllegalStateException("The map can't hold more than " + resizeThreshold + " mappings.");
+        }
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != NO_VALUE) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (values[slot] != NO_VALUE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize && capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        return (int) capacity;
+    }
+
+    /**
+     * Spread the key bits (murmur3 finalizer), consecutive spectrum indices
+     * would otherwise cluster in the table.
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+}
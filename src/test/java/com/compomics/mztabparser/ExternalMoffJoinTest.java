@@ -0,0 +1,148 @@
+package com.compomics.mztabparser;
+
+import com.compomics.mztabparser.batch.JobMetrics;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link ExternalMoffJoin} merges the PSMs with the same moff
+ * results as the in-memory {@link com.compomics.mztabparser.model.MoffResultStore}.
+ *
+ * @author niels
+ */
+public class ExternalMoffJoinTest {
+
+    private static final int NUMBER_OF_SPECTRA = 6000;
+    private static final int NUMBER_OF_PSMS = 10000;
+    private static final String MOFF_RESULT_HEADER = "charge\tspectrum_index\trt\tmz\tintensity\trt_peak\tlwhm\trwhm\t5p_noise\t10p_noise\tSNR\tlog_L_R\tlog_int";
+
+    private Path directory;
+    private Path mzTabFile;
+    private SortedMap<Integer, Path> moffResultFiles;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("join");
+        Random random = new Random(42);
+        moffResultFiles = new TreeMap<>();
+        for (int msRun = 1; msRun <= 2; msRun++) {
+            String run = "run" + msRun;
+            //every other spectrum has a scan number, some scan numbers are shared
+            try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve(run + ".moff2start"))) {
+                writer.write("INDEX\tSCANS\tPEPMASS\tRTINSECONDS\tCHARGE");
+                for (int i = 0; i < NUMBER_OF_SPECTRA; i++) {
+                    writer.write("\n" + i + "\t" + (i % 2 == 0 ? Integer.toString(1000 + i / 2 + (i % 100 == 0 ? 1 : 0)) : "null") + "\t400.0\t1.0\t2+");
+                }
+            }
+            //moff results in random order, some spectra twice and some not at all
+            Path moffResultFile = directory.resolve(run + "_moff_result.txt");
+            try (BufferedWriter writer = Files.newBufferedWriter(moffResultFile)) {
+                writer.write(MOFF_RESULT_HEADER);
+                for (int i = 0; i < NUMBER_OF_SPECTRA; i++) {
+                    int spectrumIndex = random.nextInt(NUMBER_OF_SPECTRA);
+                    writer.write("\n2\t" + spectrumIndex + "\t1.0\t400.0\t" + random.nextDouble() * 1e6 + "\t" + random.nextDouble() * 100
+                            + "\t0.1\t0.2\t1\t2\t" + random.nextDouble() + "\t-0.5\t" + random.nextDouble());
+                }
+            }
+            moffResultFiles.put(msRun, moffResultFile);
+        }
+
+        mzTabFile = directory.resolve("exp.mztab");
+        try (BufferedWriter writer = Files.newBufferedWriter(mzTabFile)) {
+            writer.write("MTD\tmzTab-version\t1.0.0\n");
+            writer.write("MTD\tms_run[1]-location\tfile:///data/run1.mgf\n");
+            writer.write("MTD\tms_run[2]-location\tfile:///data/run2.mgf\n\n");
+            writer.write("PSH\tsequence\tPSM_ID\taccession\tunique\tdatabase\tdatabase_version\tsearch_engine\tsearch_engine_score[1]\tmodifications\tretention_time\tcharge\texp_mass_to_charge\tcalc_mass_to_charge\tspectra_ref\tpre\tpost\tstart\tend\n");
+            for (int i = 0; i < NUMBER_OF_PSMS; i++) {
+                writer.write("PSM\tPEPTIDE\t" + i + "\tP" + random.nextInt(100) + "\tnull\tnull\tnull\tnull\tnull\tnull\tnull\t2\t400.0\t400.0\t" + randomSpectraRef(random) + "\tnull\tnull\tnull\tnull\n");
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    /**
+     * Spectra references by index and scan number, for one or both ms_runs,
+     * out of range or missing.
+     */
+    private static String randomSpectraRef(Random random) {
+        switch (random.nextInt(6)) {
+            case 0:
+                return "null";
+            case 1:
+                return "ms_run[" + (1 + random.nextInt(2)) + "]:scan=" + (1000 + random.nextInt(NUMBER_OF_SPECTRA / 2 + 10));
+            case 2:
+                return "ms_run[" + (1 + random.nextInt(2)) + "]:controllerType=0 controllerNumber=1 scan=" + (1000 + random.nextInt(NUMBER_OF_SPECTRA / 2));
+            case 3:
+                return "ms_run[2]:index=" + random.nextInt(NUMBER_OF_SPECTRA + 10) + "|ms_run[1]:index=" + random.nextInt(NUMBER_OF_SPECTRA);
+            default:
+                return "ms_run[" + (1 + random.nextInt(2)) + "]:index=" + random.nextInt(NUMBER_OF_SPECTRA);
+        }
+    }
+
+    /**
+     * A budget far below the sorter buffers forces several spilled runs per
+     * sorter.
+     */
+    @Test
+    public void testSpilledRuns() throws IOException {
+        try (ExternalMoffJoin join = new ExternalMoffJoin(1, directory)) {
+            for (int msRun : moffResultFiles.keySet()) {
+                join.addMoffResults(msRun, moffResultFiles.get(msRun));
+            }
+            for (int i = 0; i < NUMBER_OF_PSMS; i++) {
+                String spectraRef = "ms_run[1]:index=" + i % NUMBER_OF_SPECTRA;
+                join.addPsm(spectraRef, 0, spectraRef.length());
+            }
+            join.join();
+            assertTrue("spilled runs " + join.getSpilledRunCount(), join.getSpilledRunCount() >= 10);
+        }
+    }
+
+    @Test
+    public void testSameAsInMemory() throws IOException {
+        MzTabMerger mzTabMerger = new MzTabMerger();
+        mzTabMerger.setMergeMode(MzTabMerger.MergeMode.STREAMING);
+        Path inMemoryFile = directory.resolve("in_memory.mztab");
+        mzTabMerger.merge(mzTabFile, moffResultFiles, inMemoryFile, new JobMetrics());
+
+        mzTabMerger.setMemoryBudget(1);
+        Path externalFile = directory.resolve("external.mztab");
+        mzTabMerger.merge(mzTabFile, moffResultFiles, externalFile, new JobMetrics());
+
+        String inMemory = new String(Files.readAllBytes(inMemoryFile), StandardCharsets.UTF_8);
+        assertTrue(inMemory.contains("\topt_global_intensity\t"));
+        assertEquals(inMemory, new String(Files.readAllBytes(externalFile), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testPrecursorMatchingRejected() throws IOException {
+        MzTabMerger mzTabMerger = new MzTabMerger();
+        mzTabMerger.setMergeMode(MzTabMerger.MergeMode.STREAMING);
+        mzTabMerger.setPrecursorMatching(true);
+        mzTabMerger.setMemoryBudget(1);
+        try {
+            mzTabMerger.merge(mzTabFile, moffResultFiles, directory.resolve("precursor.mztab"), new JobMetrics());
+            fail("precursor matching should be rejected with the external join");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("precursor matching"));
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.compomics.mztabparser;
+
+import com.compomics.mztabparser.io.GzipFiles;
+import com.compomics.mztabparser.io.Moff2StartConverter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ebi.pride.tools.jmzreader.JMzReaderException;
+import uk.ac.ebi.pride.tools.mgf_parser.MgfFile;
+import uk.ac.ebi.pride.tools.mgf_parser.model.Ms2Query;
+
+/**
+ * Tests that the .moff2start output of the {@link MgfParser} is byte for
+ * byte the output of the original jmzreader and string concatenation code.
+ *
+ * @author niels
+ */
+public class MgfParserTest {
+
+    private static final String SEPARATOR = "\t";
+    private static final String HEADER = "INDEX" + SEPARATOR + "SCANS" + SEPARATOR + "PEPMASS" + SEPARATOR + "RTINSECONDS" + SEPARATOR + "CHARGE";
+
+    private Path mgfFile;
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException, URISyntaxException {
+        mgfFile = Paths.get(MgfParserTest.class.getResource("/fixture.mgf").toURI());
+        directory = Files.createTempDirectory("mgf");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void testNativeScanner() throws IOException, JMzReaderException {
+        Path outputFile = directory.resolve("native.moff2start");
+        new MgfParser().parseMgfFile(mgfFile, outputFile);
+
+        assertEquals(writeReference(), read(outputFile));
+    }
+
+    @Test
+    public void testJmzReader() throws IOException, JMzReaderException {
+        Path outputFile = directory.resolve("jmzreader.moff2start");
+        MgfParser mgfParser = new MgfParser();
+        mgfParser.setUseJmzReader(true);
+        mgfParser.parseMgfFile(mgfFile, outputFile);
+
+        assertEquals(writeReference(), read(outputFile));
+    }
+
+    @Test
+    public void testCompressedInput() throws IOException, JMzReaderException {
+        Path gzipFile = directory.resolve("fixture.mgf" + GzipFiles.GZIP_EXTENSION);
+        try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(gzipFile))) {
+            Files.copy(mgfFile, outputStream);
+        }
+        Path outputFile = directory.resolve("compressed.moff2start");
+        new MgfParser().parseMgfFile(gzipFile, outputFile);
+
+        assertEquals(writeReference(), read(outputFile));
+    }
+
+    @Test
+    public void testIndex() throws IOException, JMzReaderException {
+        MgfParser mgfParser = new MgfParser();
+        mgfParser.setUseIndex(true);
+        Path outputFile = directory.resolve("indexed.moff2start");
+        //the first run writes the index, the second one reads it
+        mgfParser.parseMgfFile(mgfFile, outputFile);
+        String expected = writeReference();
+        assertEquals(expected, read(outputFile));
+        mgfParser.parseMgfFile(mgfFile, outputFile);
+        assertEquals(expected, read(outputFile));
+    }
+
+    @Test
+    public void testBinaryOutput() throws IOException, JMzReaderException {
+        MgfParser mgfParser = new MgfParser();
+        mgfParser.setBinaryOutput(true);
+        Path outputFile = directory.resolve("binary.moff2start");
+        mgfParser.parseMgfFile(mgfFile, outputFile);
+        Path convertedFile = directory.resolve("converted.moff2start");
+        Moff2StartConverter.toTsv(mgfParser.getBinaryOutputFile(outputFile), convertedFile);
+
+        assertEquals(writeReference(), read(convertedFile));
+    }
+
+    /**
+     * Write the .moff2start file the way the original code did.
+     *
+     * @return the output
+     */
+    private String writeReference() throws IOException, JMzReaderException {
+        Path outputFile = directory.resolve("reference.moff2start");
+        MgfFile mgf = new MgfFile(mgfFile.toFile());
+        MgfFile.Ms2QueryIterator ms2QueryIterator = mgf.getMs2QueryIterator();
+        try (BufferedWriter writer = Files.newBufferedWriter(outputFile)) {
+            writer.write(HEADER);
+            while (ms2QueryIterator.hasNext()) {
+                Ms2Query ms2Query = ms2QueryIterator.next();
+                writer.newLine();
+                writer.write(ms2Query.getId() + SEPARATOR + ms2Query.getScan() + SEPARATOR + ms2Query.getPeptideMass() + SEPARATOR + ms2Query.getRetentionTime() + SEPARATOR + ms2Query.getChargeState());
+            }
+        }
+        return read(outputFile);
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+}
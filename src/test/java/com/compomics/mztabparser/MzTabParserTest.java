@@ -0,0 +1,101 @@
+package com.compomics.mztabparser;
+
+import com.compomics.mztabparser.io.DictionaryTableConverter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ebi.pride.jmztab.model.PSM;
+import uk.ac.ebi.pride.jmztab.utils.MZTabFileParser;
+
+/**
+ * Tests that the PSM export of the {@link MzTabParser} is byte for byte the
+ * output of the original jmztab and string concatenation code.
+ *
+ * @author niels
+ */
+public class MzTabParserTest {
+
+    private static final String SEPARATOR = "\t";
+    private static final String HEADER = "prot" + SEPARATOR + "expMZ" + SEPARATOR + "calcMZ" + SEPARATOR + "modification" + SEPARATOR + "peptide" + SEPARATOR + "charge" + SEPARATOR + "spectraRef";
+
+    private Path mzTabFile;
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException, URISyntaxException {
+        mzTabFile = Paths.get(MzTabParserTest.class.getResource("/fixture.mztab").toURI());
+        directory = Files.createTempDirectory("mztab");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void testFullValidation() throws IOException {
+        MzTabParser mzTabParser = new MzTabParser();
+        mzTabParser.setValidation(MzTabParser.Validation.FULL);
+        Path outputFile = directory.resolve("full.txt");
+        mzTabParser.parseMzTabFile(mzTabFile, outputFile);
+
+        assertEquals(writeReference(), read(outputFile));
+    }
+
+    @Test
+    public void testNoValidation() throws IOException {
+        MzTabParser mzTabParser = new MzTabParser();
+        mzTabParser.setValidation(MzTabParser.Validation.NONE);
+        Path outputFile = directory.resolve("none.txt");
+        mzTabParser.parseMzTabFile(mzTabFile, outputFile);
+
+        assertEquals(writeReference(), read(outputFile));
+    }
+
+    @Test
+    public void testDictionaryOutput() throws IOException {
+        MzTabParser mzTabParser = new MzTabParser();
+        mzTabParser.setValidation(MzTabParser.Validation.NONE);
+        mzTabParser.setDictionaryOutput(true);
+        Path outputFile = directory.resolve("dictionary.dict.txt");
+        mzTabParser.parseMzTabFile(mzTabFile, outputFile);
+        Path convertedFile = directory.resolve("converted.txt");
+        DictionaryTableConverter.toTsv(outputFile, convertedFile);
+
+        assertEquals(writeReference(), read(convertedFile));
+    }
+
+    /**
+     * Write the PSM export the way the original code did.
+     *
+     * @return the output
+     */
+    private String writeReference() throws IOException {
+        Path outputFile = directory.resolve("reference.txt");
+        MZTabFileParser mzTabFileParser = new MZTabFileParser(mzTabFile.toFile(), System.out);
+        Collection<PSM> psms = mzTabFileParser.getMZTabFile().getPSMs();
+        try (BufferedWriter writer = Files.newBufferedWriter(outputFile)) {
+            writer.write(HEADER);
+            for (PSM psm : psms) {
+                writer.newLine();
+                writer.write(psm.getAccession() + SEPARATOR + psm.getExpMassToCharge() + SEPARATOR + psm.getCalcMassToCharge() + SEPARATOR + psm.getModifications() + SEPARATOR + psm.getSequence() + SEPARATOR + psm.getCharge() + SEPARATOR + psm.getSpectraRef());
+            }
+        }
+        return read(outputFile);
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.compomics.mztabparser;
+
+import com.compomics.mztabparser.model.MgfHeaderRecord;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link ParallelMgfScanner} stitches the chunks together
+ * into the records of a serial scan.
+ *
+ * @author niels
+ */
+public class ParallelMgfScannerTest {
+
+    private static final int NUMBER_OF_SPECTRA = 40;
+
+    private Path directory;
+    private Path mgfFile;
+    private List<MgfHeaderRecord> expected;
+    private ForkJoinPool forkJoinPool;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("mgf");
+        mgfFile = directory.resolve("chunks.mgf");
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(mgfFile)) {
+            writer.write("MASS=Monoisotopic\n\n");
+            for (int i = 0; i < NUMBER_OF_SPECTRA; i++) {
+                writer.write("BEGIN IONS\nTITLE=spectrum " + i + "\nPEPMASS=" + (400 + i * 10.125) + "\nCHARGE=" + (2 + i % 3) + "+\n");
+                if (i % 5 != 0) {
+                    writer.write("RTINSECONDS=" + (i * 1.5) + "\n");
+                }
+                writer.write("SCANS=" + (1000 + i) + "\n");
+                for (int j = random.nextInt(6); j > 0; j--) {
+                    writer.write((100 + random.nextInt(1000)) + "." + random.nextInt(10000) + " " + random.nextInt(100000) + "\n");
+                }
+                //a block directly followed by the next one, or by blank lines
+                writer.write(i % 2 == 0 ? "END IONS\n" : "END IONS\n\n");
+            }
+        }
+        expected = new ArrayList<>();
+        new MgfHeaderScanner().scan(mgfFile, expected::add);
+        assertEquals(NUMBER_OF_SPECTRA, expected.size());
+        forkJoinPool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        forkJoinPool.shutdown();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    /**
+     * Chunks down to a single byte, so most spectra are in a chunk of their
+     * own.
+     */
+    @Test
+    public void testTinyChunks() throws IOException {
+        for (long chunkSize = 1; chunkSize <= 400; chunkSize++) {
+            assertSameRecords(chunkSize);
+        }
+    }
+
+    /**
+     * Chunk sizes that put the first chunk boundary search exactly on a
+     * BEGIN IONS line, and one byte before and after it.
+     */
+    @Test
+    public void testBoundaryOnBeginIons() throws IOException {
+        for (MgfHeaderRecord record : expected) {
+            for (long chunkSize = record.getOffset() - 1; chunkSize <= record.getOffset() + 1; chunkSize++) {
+                if (chunkSize > 0) {
+                    assertSameRecords(chunkSize);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testChunkBoundaries() throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        for (MgfHeaderRecord record : expected) {
+            offsets.add(record.getOffset());
+        }
+        try (FileChannel channel = FileChannel.open(mgfFile, StandardOpenOption.READ)) {
+            //a chunk with the global parameters and one per spectrum
+            long[] boundaries = ParallelMgfScanner.findChunkBoundaries(channel, 1);
+            assertEquals(NUMBER_OF_SPECTRA + 2, boundaries.length);
+            assertEquals(0, boundaries[0]);
+            assertEquals(channel.size(), boundaries[boundaries.length - 1]);
+            for (int i = 1; i < boundaries.length - 1; i++) {
+                assertTrue("boundary " + boundaries[i], offsets.contains(boundaries[i]));
+            }
+        }
+    }
+
+    /**
+     * The parallel scan of the MGF parser writes the same .moff2start file
+     * as the serial scan.
+     */
+    @Test
+    public void testMgfParser() throws Exception {
+        Path serialFile = directory.resolve("serial.moff2start");
+        new MgfParser().parseMgfFile(mgfFile, serialFile);
+        MgfParser mgfParser = new MgfParser();
+        mgfParser.setMgfThreads(4);
+        mgfParser.setChunkSize(64);
+        Path parallelFile = directory.resolve("parallel.moff2start");
+        mgfParser.parseMgfFile(mgfFile, parallelFile);
+
+        assertEquals(new String(Files.readAllBytes(serialFile), "UTF-8"), new String(Files.readAllBytes(parallelFile), "UTF-8"));
+    }
+
+    private void assertSameRecords(long chunkSize) throws IOException {
+        List<MgfHeaderRecord> records = new ArrayList<>();
+        long numberOfSpectra = new ParallelMgfScanner(forkJoinPool, chunkSize).scan(mgfFile, records::add);
+        assertEquals("chunk size " + chunkSize, expected.size(), numberOfSpectra);
+        assertEquals("chunk size " + chunkSize, expected.size(), records.size());
+        for (int i = 0; i < expected.size(); i++) {
+            MgfHeaderRecord expectedRecord = expected.get(i);
+            MgfHeaderRecord record = records.get(i);
+            String message = "chunk size " + chunkSize + ", spectrum " + i;
+            assertEquals(message, expectedRecord.getIndex(), record.getIndex());
+            assertEquals(message, expectedRecord.getScans(), record.getScans());
+            assertEquals(message, expectedRecord.getPeptideMass(), record.getPeptideMass());
+            assertEquals(message, expectedRecord.getRetentionTime(), record.getRetentionTime());
+            assertEquals(message, expectedRecord.getChargeState(), record.getChargeState());
+            assertEquals(message, expectedRecord.getOffset(), record.getOffset());
+            assertEquals(message, expectedRecord.getLength(), record.getLength());
+        }
+    }
+
+}
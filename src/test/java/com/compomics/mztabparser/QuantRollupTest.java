@@ -0,0 +1,73 @@
+package com.compomics.mztabparser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the grouping of the PSMs in the {@link QuantRollup}.
+ *
+ * @author niels
+ */
+public class QuantRollupTest {
+
+    private static final String PSH_LINE = "PSH\tsequence\tPSM_ID\taccession\tcharge\tmodifications";
+
+    /**
+     * A PSM without accession is grouped with the "null" accession of the
+     * mzTab file, instead of failing the sorted write.
+     */
+    @Test
+    public void testNullAccession() throws IOException {
+        QuantRollup rollup = new QuantRollup();
+        rollup.add("PEPTIDE", "null", "2", null, 10.0, 1.0);
+        rollup.setPsmHeader(PSH_LINE);
+        rollup.addPsmLine("PSM\tPEPTIDE\t1\tnull\t2\tnull", 20.0, 2.0);
+
+        assertEquals(1, rollup.getNumberOfPeptides());
+        assertEquals(1, rollup.getNumberOfProteins());
+
+        Path rollupFile = Files.createTempFile("rollup", QuantRollup.ROLLUP_EXTENSION);
+        try {
+            rollup.write(rollupFile);
+            List<String> lines = Files.readAllLines(rollupFile);
+            assertEquals(3, lines.size());
+            assertTrue(lines.get(2).startsWith("protein\tnull\tnull\tnull\tnull\t2\t"));
+        } finally {
+            Files.delete(rollupFile);
+        }
+    }
+
+    /**
+     * A PSM on a line per protein accession counts once for its peptide and
+     * once for every protein.
+     */
+    @Test
+    public void testSharedPeptide() throws IOException {
+        QuantRollup rollup = new QuantRollup();
+        rollup.setPsmHeader("PSH\tsequence\tPSM_ID\taccession\tcharge\tmodifications\tspectra_ref");
+        rollup.addPsmLine("PSM\tPEPTIDE\t1\tP1\t2\tnull\tms_run[1]:index=5", 10.0, 1.0);
+        rollup.addPsmLine("PSM\tPEPTIDE\t1\tP2\t2\tnull\tms_run[1]:index=5", 10.0, 1.0);
+        rollup.addPsmLine("PSM\tPEPTIDE\t2\tP1\t2\tnull\tms_run[1]:index=6", 30.0, 3.0);
+
+        assertEquals(1, rollup.getNumberOfPeptides());
+        assertEquals(2, rollup.getNumberOfProteins());
+
+        Path rollupFile = Files.createTempFile("rollup", QuantRollup.ROLLUP_EXTENSION);
+        try {
+            rollup.write(rollupFile);
+            List<String> lines = Files.readAllLines(rollupFile);
+            assertEquals(4, lines.size());
+            assertEquals("peptide\tPEPTIDE\tnull\t2\tnull\t2\t40.0\t20.0\t4.0\t2.0", lines.get(1));
+            assertEquals("protein\tnull\tnull\tnull\tP1\t2\t40.0\t20.0\t4.0\t2.0", lines.get(2));
+            assertEquals("protein\tnull\tnull\tnull\tP2\t1\t10.0\t10.0\t1.0\t1.0", lines.get(3));
+        } finally {
+            Files.delete(rollupFile);
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.compomics.mztabparser.io;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link FastNumberParser} gives bit for bit the same values
+ * as {@link Double#valueOf(String)} and {@link Long#parseLong(String)}, and
+ * rejects the same input.
+ *
+ * @author niels
+ */
+public class FastNumberParserTest {
+
+    private static final String[] DOUBLES = {
+        "0", "-0", "+0", "0.0", "-0.0", "0e10", "-0e-10", "00000", "0.000000",
+        "1", "-1", "+1", "1.", ".5", "-.5", "1.5", "123.456", "-123.456", "0.1", "0.2", "0.3",
+        "1e0", "1e1", "1E22", "1e23", "1e-22", "1e-23", "1.5e+10", "1.5E-10", "-2.5e3", "1e0005", "1e-0005",
+        "1e308", "1.7976931348623157e308", "1.7976931348623158e308", "1e309", "-1e309",
+        "4.9e-324", "2.4703282292062327e-324", "2.4703282292062328e-324", "1e-400", "2.2250738585072011e-308", "2.2250738585072012e-308",
+        "9007199254740992", "9007199254740993", "9007199254740994", "9007199254740995",
+        "123456789012345678", "1234567890123456789", "0.123456789012345678", "12345678901234567890123456789",
+        "0.30000000000000004", "3.141592653589793", "2.718281828459045", "0.1000000000000000055511151231257827",
+        "8.41e21", "8.41e22", "5e-22", "9.999999999999999e22", "3.0e-5", "1234.5678e-3",
+        "0.000000000000000000000000000001", "100000000000000000000000", "999999999999999999",
+        "NaN", "-NaN", "Infinity", "-Infinity", "+Infinity", "0x1p3", "0x1.8p1", "1d", "1f", "1.5D", " 1.5", "1.5 ", "\t2\t"
+    };
+
+    private static final String[] MALFORMED = {
+        "", "-", "+", ".", "-.", "e5", "1e", "1e+", "1e-", "1.2.3", "--1", "+-1", "1-", "1e5.5", "abc", "1,5", "0x", "1 2", "Inf", "nan"
+    };
+
+    private static final String[] LONGS = {
+        "0", "-0", "+0", "1", "-1", "+1", "007", "123456789", "-987654321", "2147483647", "2147483648", "-2147483648",
+        "999999999999999999", "-999999999999999999", "9223372036854775807", "-9223372036854775808",
+        "9223372036854775808", "-9223372036854775809", "", "-", "+", "1.0", "1e3", " 1", "1 ", "--1", "abc", "0x10"
+    };
+
+    @Test
+    public void testDoubleCorpus() {
+        for (String value : DOUBLES) {
+            assertSameDouble(value);
+        }
+    }
+
+    @Test
+    public void testMalformedDoubles() {
+        for (String value : MALFORMED) {
+            assertSameDouble(value);
+        }
+    }
+
+    /**
+     * The shortest representation of random doubles, and random decimal
+     * strings with up to 25 digits and exponents around the exact range.
+     */
+    @Test
+    public void testRandomDoubles() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            assertSameDouble(Double.toString(Double.longBitsToDouble(random.nextLong())));
+            assertSameDouble(Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20)));
+
+            StringBuilder value = new StringBuilder();
+            if (random.nextBoolean()) {
+                value.append('-');
+            }
+            int digits = 1 + random.nextInt(25);
+            int point = random.nextInt(digits + 1);
+            for (int j = 0; j < digits; j++) {
+                if (j == point) {
+                    value.append('.');
+                }
+                value.append((char) ('0' + random.nextInt(10)));
+            }
+            if (random.nextBoolean()) {
+                value.append('e').append(random.nextInt(61) - 30);
+            }
+            assertSameDouble(value.toString());
+        }
+    }
+
+    @Test
+    public void testLongs() {
+        for (String value : LONGS) {
+            assertSameLong(value);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            assertSameLong(Long.toString(random.nextLong() >> random.nextInt(64)));
+            assertSameLong(Integer.toString(random.nextInt()));
+        }
+    }
+
+    private static void assertSameDouble(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        Double expected;
+        try {
+            expected = Double.valueOf(value);
+        } catch (NumberFormatException ex) {
+            expected = null;
+        }
+        try {
+            double actual = FastNumberParser.parseDouble(bytes, 0, bytes.length);
+            if (expected == null) {
+                fail("\"" + value + "\" should be rejected, got " + actual);
+            }
+            assertEquals("\"" + value + "\"", Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual));
+        } catch (NumberFormatException ex) {
+            if (expected != null) {
+                fail("\"" + value + "\" should be parsed as " + expected + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    private static void assertSameLong(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        Long expected;
+        try {
+            expected = Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            expected = null;
+        }
+        try {
+            long actual = FastNumberParser.parseLong(bytes, 0, bytes.length);
+            if (expected == null) {
+                fail("\"" + value + "\" should be rejected, got " + actual);
+            }
+            assertEquals("\"" + value + "\"", (long) expected, actual);
+        } catch (NumberFormatException ex) {
+            if (expected != null) {
+                fail("\"" + value + "\" should be parsed as " + expected + ": " + ex.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.compomics.mztabparser.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests the hand-over of the records between the source and the sink of the
+ * {@link RecordPipeline}, including the failure of either stage.
+ *
+ * @author niels
+ */
+public class RecordPipelineTest {
+
+    private static final int RECORDS = 10000;
+
+    @Test(timeout = 10000)
+    public void testRecordOrder() throws IOException {
+        List<Integer> received = new ArrayList<>();
+        long produced = new RecordPipeline(2, 2).run(this::produce, received::add);
+
+        assertEquals(RECORDS, produced);
+        assertEquals(RECORDS, received.size());
+        for (int i = 0; i < RECORDS; i++) {
+            assertEquals(i, (int) received.get(i));
+        }
+    }
+
+    /**
+     * A failing sink used to leave the source blocked on the full queue, and
+     * the run waiting for the source forever.
+     */
+    @Test(timeout = 10000)
+    public void testSinkFailure() {
+        try {
+            new RecordPipeline(2, 2).run(this::produce, record -> {
+                if (record == 3) {
+                    //let the source fill the queue first
+                    sleep(200);
+                    throw new IOException("sink failure");
+                }
+            });
+            fail("The sink failure should be thrown.");
+        } catch (IOException ex) {
+            assertEquals("sink failure", ex.getMessage());
+        }
+    }
+
+    /**
+     * A source that swallows the interrupt is aborted on its next batch.
+     */
+    @Test(timeout = 10000)
+    public void testSinkFailureWithSwallowedInterrupt() {
+        try {
+            new RecordPipeline(2, 2).<Integer>run(sink -> {
+                long produced = 0;
+                for (int i = 0; i < RECORDS; i++) {
+                    try {
+                        sink.accept(i);
+                        produced++;
+                    } catch (IOException ex) {
+                        //ignore and keep going
+                    }
+                }
+                return produced;
+            }, record -> {
+                if (record == 3) {
+                    sleep(200);
+                    throw new IOException("sink failure");
+                }
+            });
+            fail("The sink failure should be thrown.");
+        } catch (IOException ex) {
+            assertEquals("sink failure", ex.getMessage());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testSourceFailure() {
+        try {
+            new RecordPipeline(2, 2).<Integer>run(sink -> {
+                for (int i = 0; i < 100; i++) {
+                    sink.accept(i);
+                }
+                throw new IOException("source failure");
+            }, record -> {
+            });
+            fail("The source failure should be thrown.");
+        } catch (IOException ex) {
+            assertEquals("source failure", ex.getMessage());
+        }
+    }
+
+    private long produce(RecordPipeline.RecordSink<Integer> sink) throws IOException {
+        for (int i = 0; i < RECORDS; i++) {
+            sink.accept(i);
+        }
+        return RECORDS;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.compomics.mztabparser.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link TsvWriter} renders rows byte for byte the way string
+ * concatenation and a buffered writer did.
+ *
+ * @author niels
+ */
+public class TsvWriterTest {
+
+    private static final Object[] VALUES = {
+        null, "", "PEPTIDEK", "sp|P12345|ALBU_HUMAN", "ms_run[1]:index=5", "Prot\u00e9ine \u00df", "\u6c34\u2603", "\ud83d\ude00 emoji",
+        0.0, -0.0, 1.0, -1.5, 0.1, 1e7, 1e-3, 9.999999e6, 1.0E-4, 123456.789, Double.MIN_VALUE, Double.MAX_VALUE, Double.MIN_NORMAL,
+        Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+        0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 0L, Long.MAX_VALUE, Long.MIN_VALUE, -1234567890123L,
+        Arrays.asList("1-UNIMOD:35", "2-UNIMOD:4"), 2.5f, (short) 3, true
+    };
+
+    @Test
+    public void testCorpus() throws IOException {
+        Object[][] rows = new Object[VALUES.length][];
+        for (int i = 0; i < VALUES.length; i++) {
+            rows[i] = new Object[]{VALUES[i], VALUES[(i + 7) % VALUES.length], VALUES[(i + 13) % VALUES.length]};
+        }
+        assertSameOutput(rows);
+    }
+
+    @Test
+    public void testRandomRows() throws IOException {
+        Random random = new Random(42);
+        Object[][] rows = new Object[20000][];
+        for (int i = 0; i < rows.length; i++) {
+            Object[] row = new Object[1 + random.nextInt(8)];
+            for (int j = 0; j < row.length; j++) {
+                switch (random.nextInt(5)) {
+                    case 0:
+                        row[j] = Double.longBitsToDouble(random.nextLong());
+                        break;
+                    case 1:
+                        row[j] = random.nextDouble() * Math.pow(10, random.nextInt(20) - 10);
+                        break;
+                    case 2:
+                        row[j] = random.nextLong() >> random.nextInt(64);
+                        break;
+                    case 3:
+                        row[j] = random.nextInt();
+                        break;
+                    default:
+                        row[j] = VALUES[random.nextInt(VALUES.length)];
+                }
+            }
+            rows[i] = row;
+        }
+        assertSameOutput(rows);
+    }
+
+    /**
+     * Write the rows with a small and a large buffer, with and without
+     * background flushing, and compare them with the concatenated rows.
+     */
+    private static void assertSameOutput(Object[][] rows) throws IOException {
+        StringBuilder expected = new StringBuilder("header");
+        for (Object[] row : rows) {
+            String line = String.valueOf(row[0]);
+            for (int i = 1; i < row.length; i++) {
+                line += "\t" + row[i];
+            }
+            expected.append(System.lineSeparator()).append(line);
+        }
+        for (int bufferSize : new int[]{64, TsvWriter.DEFAULT_BUFFER_SIZE}) {
+            for (boolean backgroundFlush : new boolean[]{false, true}) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                try (TsvWriter writer = new TsvWriter(Channels.newChannel(outputStream), bufferSize, backgroundFlush)) {
+                    writer.write("header");
+                    for (Object[] row : rows) {
+                        writer.newLine();
+                        for (int i = 0; i < row.length; i++) {
+                            if (i > 0) {
+                                writer.tab();
+                            }
+                            writer.write(row[i]);
+                        }
+                    }
+                }
+                assertEquals("buffer size " + bufferSize + ", background flush " + backgroundFlush,
+                        expected.toString(), new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+}